@@ -0,0 +1,85 @@
+package ca.cgjennings.apps.librivox;
+
+import ca.cgjennings.apps.librivox.bench.Fixtures;
+import ca.cgjennings.apps.librivox.validators.SpectrumValidator;
+import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
+import ca.cgjennings.apps.librivox.validators.ValidatorPipeline;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken to check a complete file, from reading its metadata
+ * through decoding and validating every frame, exactly as batch mode does.
+ * The file is read from disk, so on a warm cache this measures the whole
+ * pipeline apart from the download step. The analysis cache is disabled so
+ * that every iteration decodes the file. Each fixture is checked with and
+ * without running the validators in a {@link ValidatorPipeline}, and with and
+ * without the {@link SpectrumValidator}, so that the cost of spectrum analysis
+ * can be compared to the cost of the rest of the analysis.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalyzeBenchmark {
+
+    @Param({"mono", "stereo", "vbr", "corrupt"})
+    public String fixture;
+
+    @Param({"true", "false"})
+    public boolean pipeline;
+
+    @Param({"true", "false"})
+    public boolean spectrum;
+
+    private File file;
+    private boolean spectrumWasEnabled;
+
+    @Setup(Level.Trial)
+    public void load() {
+        LibriVoxAudioFile.setBatchMode(true);
+        AnalysisCache.setEnabled(false);
+        ValidatorPipeline.setEnabled(pipeline);
+        spectrumWasEnabled = ValidatorFactory.isClassEnabled(SpectrumValidator.class);
+        ValidatorFactory.setClassEnabled(SpectrumValidator.class, spectrum);
+        file = Fixtures.file(fixture);
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        // the enabled validators are stored in the user's preferences
+        ValidatorFactory.setClassEnabled(SpectrumValidator.class, spectrumWasEnabled);
+    }
+
+    /**
+     * Analyzes the fixture; the score is the time per file.
+     *
+     * @return the final status of the file
+     */
+    @Benchmark
+    public LibriVoxAudioFile.Status analyze() {
+        LibriVoxAudioFile f = new LibriVoxAudioFile(file);
+        f.waitUntilProcessed();
+        LibriVoxAudioFile.Status status = f.getStatus();
+        f.dispose();
+        return status;
+    }
+}
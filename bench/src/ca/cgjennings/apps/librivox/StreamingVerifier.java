@@ -0,0 +1,213 @@
+package ca.cgjennings.apps.librivox;
+
+import ca.cgjennings.apps.librivox.bench.Fixtures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks files downloaded from a local stand-in HTTP server against the same
+ * files checked from disk. Each fixture is served by a
+ * <code>com.sun.net.httpserver</code> server, at a limited rate so that the
+ * download takes a while, in four ways:
+ *
+ * <dl>
+ * <dt><code>ranged</code></dt>
+ * <dd>with support for range requests and an entity tag, so the file is
+ * fetched over several connections</dd>
+ * <dt><code>plain</code></dt>
+ * <dd>without support for range requests, so the file is fetched over a
+ * single connection</dd>
+ * <dt><code>cut-ranged</code></dt>
+ * <dd>with support for range requests, but the first response that reaches
+ * the middle of the file is cut off there; the download must resume the
+ * range and still produce the same result as the local file</dd>
+ * <dt><code>cut-plain</code></dt>
+ * <dd>without support for range requests, and the body is cut off in the
+ * middle of the file although the full length was promised; this cannot be
+ * resumed, so the check must end with a download error</dd>
+ * </dl>
+ *
+ * <p>
+ * Every URL is checked with the <code>streaming-download</code> setting on
+ * (the file is analyzed while it arrives) and off (the file is analyzed after
+ * it has downloaded). The status and validation report must match those of
+ * the local file, and the time taken by each check is printed. The process
+ * exits with status 1 if any check does not have the expected result.
+ *
+ * <pre>
+ * java -cp build/classes:../build/classes
+ *     ca.cgjennings.apps.librivox.StreamingVerifier build/fixtures
+ * </pre>
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class StreamingVerifier {
+
+    private StreamingVerifier() {
+    }
+
+    /**
+     * Verifies the fixtures in the folder named by the first argument.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a fixture cannot be read or the server cannot
+     * be started
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: StreamingVerifier fixture-folder");
+            System.exit(20);
+        }
+        File dir = new File(args[0]);
+        LibriVoxAudioFile.setBatchMode(true);
+        AnalysisCache.setEnabled(false);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        int failures = 0;
+        try {
+            for (String name : Fixtures.NAMES) {
+                File file = new File(dir, name + ".mp3");
+                byte[] data = Files.readAllBytes(file.toPath());
+                for (Mode mode : Mode.values()) {
+                    server.createContext('/' + mode.path + '/' + file.getName(), new Handler(data, mode)::handle);
+                }
+
+                LibriVoxAudioFile local = new LibriVoxAudioFile(file);
+                local.waitUntilProcessed();
+                final LibriVoxAudioFile.Status expected = local.getStatus();
+                final String expectedReport = local.getValidationReport();
+                local.dispose();
+
+                for (Mode mode : Mode.values()) {
+                    for (boolean streaming : new boolean[]{true, false}) {
+                        Checker.getSettings().setBoolean("streaming-download", streaming);
+                        final long start = System.nanoTime();
+                        LibriVoxAudioFile remote = new LibriVoxAudioFile(new URL(base + '/' + mode.path + '/' + file.getName()));
+                        remote.waitUntilProcessed();
+                        final long millis = (System.nanoTime() - start) / 1_000_000L;
+                        final LibriVoxAudioFile.Status status = remote.getStatus();
+
+                        boolean ok;
+                        if (mode.complete) {
+                            ok = status == expected && remote.getValidationReport().equals(expectedReport);
+                        } else {
+                            ok = status == LibriVoxAudioFile.Status.ERROR;
+                        }
+                        System.out.printf(Locale.US, "%s %-8s %-10s %-9s %-8s %6d ms%s%n",
+                                ok ? "ok  " : "FAIL", name, mode.path,
+                                streaming ? "streamed" : "complete",
+                                status, millis, ok ? "" : " (expected " + (mode.complete ? expected : LibriVoxAudioFile.Status.ERROR) + ')');
+                        if (!ok) {
+                            ++failures;
+                        }
+                        remote.dispose();
+                    }
+                }
+            }
+        } finally {
+            server.stop(0);
+        }
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * The ways that a fixture is served.
+     */
+    private enum Mode {
+        RANGED("ranged", true, false, true),
+        PLAIN("plain", false, false, true),
+        CUT_RANGED("cut-ranged", true, true, true),
+        CUT_PLAIN("cut-plain", false, true, false);
+
+        final String path;
+        final boolean ranges;
+        final boolean cut;
+        final boolean complete;
+
+        Mode(String path, boolean ranges, boolean cut, boolean complete) {
+            this.path = path;
+            this.ranges = ranges;
+            this.cut = cut;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Serves one fixture in one mode.
+     */
+    private static final class Handler {
+
+        private final byte[] data;
+        private final Mode mode;
+        private final AtomicBoolean cutDone = new AtomicBoolean();
+
+        Handler(byte[] data, Mode mode) {
+            this.data = data;
+            this.mode = mode;
+        }
+
+        void handle(HttpExchange ex) throws IOException {
+            try {
+                long start = 0L, end = data.length - 1L;
+                String range = mode.ranges ? ex.getRequestHeaders().getFirst("Range") : null;
+                String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+                if (range != null && (ifRange == null || ifRange.equals(ETAG)) && range.startsWith("bytes=")) {
+                    String[] bounds = range.substring(6).split("-");
+                    start = Long.parseLong(bounds[0]);
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                    ex.getResponseHeaders().set("Content-Range", "bytes " + start + '-' + end + '/' + data.length);
+                    ex.getResponseHeaders().set("ETag", ETAG);
+                    ex.sendResponseHeaders(206, end - start + 1L);
+                } else {
+                    if (mode.ranges) {
+                        ex.getResponseHeaders().set("ETag", ETAG);
+                    }
+                    ex.sendResponseHeaders(200, data.length);
+                }
+
+                // a cut response stops at the middle of the file, once for a
+                // ranged server (so the retry succeeds) and always otherwise
+                long stop = end + 1L;
+                final int middle = data.length / 2;
+                if (mode.cut && start < middle && stop > middle && (!mode.ranges || cutDone.compareAndSet(false, true))) {
+                    stop = middle;
+                }
+
+                OutputStream out = ex.getResponseBody();
+                for (long pos = start; pos < stop; pos += PACKET) {
+                    Thread.sleep(PACKET_DELAY);
+                    out.write(data, (int) pos, (int) Math.min(PACKET, stop - pos));
+                }
+                if (stop > end) {
+                    out.close();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client hung up
+            } finally {
+                ex.close();
+            }
+        }
+    }
+
+    private static final String ETAG = "\"fixture\"";
+    /**
+     * The server sends this many bytes, then waits {@link #PACKET_DELAY} ms;
+     * about 3 MB/s per connection.
+     */
+    private static final int PACKET = 16 * 1024;
+    private static final long PACKET_DELAY = 5L;
+}
@@ -0,0 +1,92 @@
+package ca.cgjennings.apps.librivox;
+
+import ca.cgjennings.apps.librivox.bench.Fixtures;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.validators.Validator;
+import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link Validator#analyzeFrame} for each validator that
+ * processes audio. The fixture is decoded in advance, and the frames are
+ * passed to the validator in order, over and over. The validators are
+ * recreated for each iteration so that their state does not build up.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    @Param({"AmplitudeValidator", "NoiseValidator", "SpectrumValidator"})
+    public String validator;
+
+    @Param({"mono", "stereo"})
+    public String fixture;
+
+    private LibriVoxAudioFile file;
+    private AudioHeader header;
+    private AudioFrame[] frames;
+    private Validator target;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        LibriVoxAudioFile.setBatchMode(true);
+        file = new LibriVoxAudioFile(Fixtures.file(fixture));
+        file.waitUntilProcessed();
+        header = Fixtures.header(fixture);
+        frames = Fixtures.decode(fixture);
+    }
+
+    @Setup(Level.Iteration)
+    public void createValidators() {
+        Validator[] validators = ValidatorFactory.getFactory().createAllValidators();
+        Report report = new Report(file);
+        target = null;
+        for (int i = 0; i < validators.length; ++i) {
+            Validator v = validators[i];
+            Validator[] predecessors = new Validator[i];
+            System.arraycopy(validators, 0, predecessors, 0, i);
+            v.initialize(file, report);
+            v.beginAnalysis(header, predecessors);
+            if (v.getClass().getSimpleName().equals(validator)) {
+                target = v;
+            }
+        }
+        if (target == null || !target.isAudioProcessor()) {
+            throw new IllegalStateException("not an audio validator: " + validator);
+        }
+        next = 0;
+    }
+
+    /**
+     * Passes one frame to the validator; the score is in frames per second.
+     */
+    @Benchmark
+    public void analyzeFrame() {
+        target.analyzeFrame(frames[next]);
+        if (++next == frames.length) {
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ca.cgjennings.apps.librivox.bench;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many frames per second the MP3 decoder can produce. The fixture
+ * is held in memory, so only decoding is measured, not I/O. When the end of
+ * the stream is reached, a new decoder is started from the beginning. Each
+ * fixture is decoded with both channels and mixed down to mono, and with both
+ * the fast and the standard IMDCT and synthesis kernels.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+
+    @Param({"mono", "stereo", "vbr", "corrupt"})
+    public String fixture;
+
+    @Param({"BOTH", "DOWNMIX"})
+    public StreamDecoder.ChannelSelection channels;
+
+    @Param({"true", "false"})
+    public boolean fastKernels;
+
+    private byte[] data;
+    private StreamDecoder decoder;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        // only changes the in-memory settings, which are not saved
+        Checker.getSettings().setBoolean("fast-decoder-kernels", fastKernels);
+        data = Fixtures.read(fixture);
+        decoder = Fixtures.decoder(data, channels);
+    }
+
+    /**
+     * Decodes one frame; the score is in frames per second.
+     *
+     * @return the decoded frame
+     * @throws IOException if decoding fails
+     */
+    @Benchmark
+    public AudioFrame getNextFrame() throws IOException {
+        AudioFrame f = decoder.getNextFrame();
+        if (f == null) {
+            decoder = Fixtures.decoder(data, channels);
+            f = decoder.getNextFrame();
+        }
+        return f;
+    }
+}
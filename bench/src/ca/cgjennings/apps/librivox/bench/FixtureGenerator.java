@@ -0,0 +1,252 @@
+package ca.cgjennings.apps.librivox.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Writes the synthetic MP3 files that the benchmarks decode. The files are
+ * MPEG-1 Layer III streams at 44.1 kHz whose main data is filled with random
+ * bits. Every frame is valid and decodes to (noisy) audio, and the main data of
+ * each frame begins in the bit reservoir of the frames before it, so the files
+ * exercise the same decoding paths as real recordings. The output is fully
+ * determined by a fixed seed, so results from different builds can be
+ * compared.
+ *
+ * <p>
+ * Four fixtures are written:
+ * <dl>
+ * <dt><code>mono.mp3</code><dd>mono, 128 kbps CBR
+ * <dt><code>stereo.mp3</code><dd>joint stereo, 128 kbps CBR
+ * <dt><code>vbr.mp3</code><dd>joint stereo, 96&ndash;192 kbps VBR with a Xing
+ * header
+ * <dt><code>corrupt.mp3</code><dd>as <code>stereo.mp3</code>, but with damaged
+ * runs of bytes scattered through the audio
+ * </dl>
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class FixtureGenerator {
+
+    private FixtureGenerator() {
+    }
+
+    /**
+     * Writes the fixtures to the directory named by the first argument.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a fixture cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FixtureGenerator output-folder");
+            System.exit(20);
+        }
+        File dir = new File(args[0]);
+        dir.mkdirs();
+        write(new File(dir, "mono.mp3"), generate(false, false, 0));
+        write(new File(dir, "stereo.mp3"), generate(true, false, 0));
+        write(new File(dir, "vbr.mp3"), generate(true, true, 0));
+        write(new File(dir, "corrupt.mp3"), generate(true, false, 12));
+    }
+
+    private static void write(File f, byte[] b) throws IOException {
+        try (OutputStream out = new FileOutputStream(f)) {
+            out.write(b);
+        }
+        System.out.println("wrote " + f + " (" + b.length + " bytes)");
+    }
+
+    /**
+     * Generates a fixture.
+     *
+     * @param stereo if <code>true</code>, a joint stereo stream is generated
+     * @param vbr if <code>true</code>, the bit rate varies from frame to frame
+     * @param damage the number of runs of random bytes to write over the audio
+     * @return the content of the file
+     */
+    static byte[] generate(boolean stereo, boolean vbr, int damage) {
+        final Random r = new Random(SEED);
+        final int channels = stereo ? 2 : 1;
+        final int sideInfoLength = stereo ? 32 : 17;
+
+        ByteSink out = new ByteSink();
+        if (vbr) {
+            // placeholder for the Xing frame, filled in once the size is known
+            out.write(new byte[frameLength(XING_BITRATE_INDEX, 0)]);
+        }
+
+        int paddingRemainder = 0;
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            final int bitrateIndex = vbr ? VBR_BITRATE_INDICES[r.nextInt(VBR_BITRATE_INDICES.length)] : CBR_BITRATE_INDEX;
+
+            // pad frames the way an encoder would to hold the average bit rate
+            paddingRemainder += (144 * BITRATES[bitrateIndex] * 1000) % FREQUENCY;
+            int padding = 0;
+            if (paddingRemainder >= FREQUENCY) {
+                paddingRemainder -= FREQUENCY;
+                padding = 1;
+            }
+            final int slot = frameLength(bitrateIndex, padding) - 4 - sideInfoLength;
+
+            // the main data is one continuous stream of random bytes; each
+            // frame's share starts RESERVOIR_LAG bytes before its own slot,
+            // so the first frame is short by that amount and the last
+            // RESERVOIR_LAG bytes of the file belong to no frame
+            final int mainDataLength = frame == 0 ? slot - RESERVOIR_LAG : slot;
+            final int mainDataBegin = frame == 0 ? 0 : RESERVOIR_LAG;
+
+            BitWriter side = new BitWriter(sideInfoLength);
+            side.write(mainDataBegin, 9);
+            side.write(0, stereo ? 3 : 5); // private bits
+            side.write(0, stereo ? 8 : 4); // scfsi
+            final int parts = 2 * channels;
+            final int bits = mainDataLength * 8;
+            for (int part = 0; part < parts; ++part) {
+                int partBits = bits / parts + (part == parts - 1 ? bits % parts : 0);
+                side.write(partBits, 12); // part2_3_length
+                side.write(60 + r.nextInt(141), 9); // big_values
+                side.write(120 + r.nextInt(31), 8); // global_gain
+                side.write(0, 4); // scalefac_compress
+                side.write(0, 1); // window_switching_flag
+                for (int region = 0; region < 3; ++region) {
+                    side.write(HUFFMAN_TABLES[r.nextInt(HUFFMAN_TABLES.length)], 5);
+                }
+                side.write(r.nextInt(16), 4); // region0_count
+                side.write(r.nextInt(8), 3); // region1_count
+                side.write(0, 1); // preflag
+                side.write(0, 1); // scalefac_scale
+                side.write(r.nextInt(2), 1); // count1table_select
+            }
+
+            byte[] mainData = new byte[slot];
+            r.nextBytes(mainData);
+
+            out.writeInt(header(bitrateIndex, padding, stereo));
+            out.write(side.toByteArray());
+            out.write(mainData);
+        }
+
+        byte[] file = out.toByteArray();
+
+        if (vbr) {
+            int len = frameLength(XING_BITRATE_INDEX, 0);
+            ByteSink xing = new ByteSink();
+            xing.writeInt(header(XING_BITRATE_INDEX, 0, stereo));
+            xing.write(new byte[sideInfoLength]);
+            xing.write(new byte[]{'X', 'i', 'n', 'g'});
+            xing.writeInt(3); // frame and byte counts are present
+            xing.writeInt(FRAMES);
+            xing.writeInt(file.length);
+            byte[] x = xing.toByteArray();
+            System.arraycopy(x, 0, file, 0, x.length);
+            for (int i = x.length; i < len; ++i) {
+                file[i] = 0;
+            }
+        }
+
+        for (int i = 0; i < damage; ++i) {
+            int p = file.length / 4 + r.nextInt(file.length * 3 / 4 - DAMAGE_LENGTH);
+            for (int j = 0; j < DAMAGE_LENGTH; ++j) {
+                file[p + j] = (byte) r.nextInt();
+            }
+        }
+        return file;
+    }
+
+    private static int header(int bitrateIndex, int padding, boolean stereo) {
+        // sync, MPEG-1, Layer III, no CRC
+        int h = 0xfffb0000;
+        h |= bitrateIndex << 12;
+        // 44.1 kHz is frequency index 0
+        h |= padding << 9;
+        h |= (stereo ? 1 : 3) << 6; // joint stereo or single channel
+        h |= 1 << 2; // original
+        return h;
+    }
+
+    private static int frameLength(int bitrateIndex, int padding) {
+        return 144 * BITRATES[bitrateIndex] * 1000 / FREQUENCY + padding;
+    }
+
+    /**
+     * Writes fields of arbitrary bit length, most significant bit first.
+     */
+    private static final class BitWriter {
+
+        private final byte[] b;
+        private int bit;
+
+        BitWriter(int length) {
+            b = new byte[length];
+        }
+
+        void write(int value, int bits) {
+            for (int i = bits - 1; i >= 0; --i, ++bit) {
+                if (((value >>> i) & 1) != 0) {
+                    b[bit >> 3] |= 0x80 >>> (bit & 7);
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bit != b.length * 8) {
+                throw new AssertionError("wrote " + bit + " bits");
+            }
+            return b;
+        }
+    }
+
+    /**
+     * A byte array stream that can also write big-endian integers.
+     */
+    private static final class ByteSink extends ByteArrayOutputStream {
+
+        ByteSink() {
+            super(4 * 1024 * 1024);
+        }
+
+        @Override
+        public void write(byte[] data) {
+            write(data, 0, data.length);
+        }
+
+        void writeInt(int i) {
+            write(i >>> 24);
+            write(i >>> 16);
+            write(i >>> 8);
+            write(i);
+        }
+    }
+
+    private static final long SEED = 0x4c69627269566f78L;
+
+    /**
+     * Number of audio frames in each fixture (about 2.5 minutes).
+     */
+    private static final int FRAMES = 6000;
+
+    private static final int FREQUENCY = 44100;
+    private static final int[] BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int CBR_BITRATE_INDEX = 9;
+    private static final int XING_BITRATE_INDEX = 9;
+    private static final int[] VBR_BITRATE_INDICES = {7, 8, 9, 10, 11};
+
+    /**
+     * The Huffman tables that can be selected for the big values region
+     * (tables 4 and 14 are not used by the standard).
+     */
+    private static final int[] HUFFMAN_TABLES = {1, 2, 3, 5, 6, 7, 8, 9, 10, 11, 12, 13, 15, 16, 17, 18, 24};
+
+    /**
+     * The number of bytes that each frame's main data reaches back into the
+     * bit reservoir.
+     */
+    private static final int RESERVOIR_LAG = 120;
+
+    private static final int DAMAGE_LENGTH = 40;
+}
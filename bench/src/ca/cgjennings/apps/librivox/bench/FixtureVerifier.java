@@ -0,0 +1,128 @@
+package ca.cgjennings.apps.librivox.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Checks that the decoder still produces exactly the same samples for each
+ * fixture as the reference decoder. The reference is the JavaLayer decoder as
+ * it was before the bit reservoir was packed and Huffman codes were decoded by
+ * table lookup; the digests below were computed with it. Every optimization
+ * of the decoder since then is meant to leave the output bit-identical, so a
+ * mismatch is a regression.
+ *
+ * <p>
+ * Each fixture is decoded with both the standard and the fast kernels, and
+ * the SHA-256 digest of the samples (as big-endian 16-bit values, in the order
+ * the decoder writes them) is compared with the reference. A frame that the
+ * decoder rejects is skipped, as the reference decoder skipped it.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class FixtureVerifier {
+
+    private FixtureVerifier() {
+    }
+
+    /**
+     * Verifies the fixtures in the folder named by the first argument. The
+     * process exits with status 1 if any digest does not match.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a fixture cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FixtureVerifier fixture-folder");
+            System.exit(20);
+        }
+        File dir = new File(args[0]);
+        int failures = 0;
+        for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+            byte[] data = Files.readAllBytes(new File(dir, Fixtures.NAMES[i] + ".mp3").toPath());
+            for (boolean fast : new boolean[]{false, true}) {
+                String digest = digest(data, fast);
+                boolean ok = digest.equals(REFERENCE_DIGESTS[i]);
+                System.out.println((ok ? "ok   " : "FAIL ") + Fixtures.NAMES[i]
+                        + (fast ? " (fast kernels)" : " (standard kernels)")
+                        + (ok ? "" : ": expected " + REFERENCE_DIGESTS[i] + ", got " + digest));
+                if (!ok) {
+                    ++failures;
+                }
+            }
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Decodes an MP3 stream and returns a digest of the decoded samples.
+     *
+     * @param data the MP3 stream
+     * @param fastKernels whether to use the fast IMDCT and synthesis kernels
+     * @return the SHA-256 digest of the samples, as a hexadecimal string
+     * @throws IOException if the stream cannot be read
+     */
+    static String digest(byte[] data, boolean fastKernels) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        Decoder.Params params = Decoder.getDefaultParams();
+        params.setFastKernels(fastKernels);
+        Decoder decoder = new Decoder(params);
+        Bitstream in = new Bitstream(new ByteArrayInputStream(data));
+        byte[] bytes = new byte[SampleBuffer.OBUFFERSIZE * 2];
+        try {
+            Header h;
+            while ((h = in.readFrame()) != null) {
+                try {
+                    SampleBuffer buff = (SampleBuffer) decoder.decodeFrame(h, in);
+                    short[] samples = buff.getBuffer();
+                    int length = buff.getBufferLength();
+                    for (int i = 0, j = 0; i < length; ++i) {
+                        bytes[j++] = (byte) (samples[i] >> 8);
+                        bytes[j++] = (byte) samples[i];
+                    }
+                    md.update(bytes, 0, length * 2);
+                } catch (DecoderException | RuntimeException e) {
+                    // damaged frame: skipped
+                }
+                in.closeFrame();
+            }
+            in.close();
+        } catch (BitstreamException e) {
+            throw new IOException(e);
+        }
+        StringBuilder b = new StringBuilder(64);
+        for (byte v : md.digest()) {
+            b.append(String.format("%02x", v & 0xff));
+        }
+        return b.toString();
+    }
+
+    /**
+     * The digests of the reference decoder's output, in the same order as
+     * {@link Fixtures#NAMES}.
+     */
+    private static final String[] REFERENCE_DIGESTS = {
+        "c94f3faf12d8ec97890eaf1fdb4da782ec2109f51d24d9c5679c1caba48ab164",
+        "8c7024dddda5355a21686eabcff31d4988c2b3c8375cea57087483bd1c80af29",
+        "02bfea8c622f1313bb6613efea487e119a4f17336c02664d6781705710ea28f8",
+        "90fb0dcda9775f08fb40333dbfd687f009b7a664a37167065d85b4a67ab4ca7f"
+    };
+}
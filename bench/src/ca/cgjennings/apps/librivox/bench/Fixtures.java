@@ -0,0 +1,116 @@
+package ca.cgjennings.apps.librivox.bench;
+
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates and loads the MP3 files written by {@link FixtureGenerator}. The
+ * folder that holds them is given by the <code>checker.bench.fixtures</code>
+ * system property, which the build script passes to each forked benchmark VM.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * The names of all of the fixtures.
+     */
+    public static final String[] NAMES = {"mono", "stereo", "vbr", "corrupt"};
+
+    /**
+     * Returns the file for the named fixture.
+     *
+     * @param name the fixture name, such as "mono"
+     * @return the fixture file
+     * @throws IllegalStateException if the fixture has not been generated
+     */
+    public static File file(String name) {
+        File f = new File(System.getProperty("checker.bench.fixtures", "build/fixtures"), name + ".mp3");
+        if (!f.isFile()) {
+            throw new IllegalStateException("missing fixture " + f + "; run \"ant fixtures\" in the bench folder");
+        }
+        return f;
+    }
+
+    /**
+     * Returns the content of the named fixture.
+     *
+     * @param name the fixture name
+     * @return the bytes of the fixture file
+     * @throws IOException if the fixture cannot be read
+     */
+    public static byte[] read(String name) throws IOException {
+        return Files.readAllBytes(file(name).toPath());
+    }
+
+    /**
+     * Creates a decoder that reads a fixture from memory.
+     *
+     * @param data the fixture content
+     * @return a new decoder for the fixture
+     * @throws IOException if the decoder cannot be created
+     */
+    public static StreamDecoder decoder(byte[] data) throws IOException {
+        return DecoderFactory.createDecoder(new ByteArrayInputStream(data), StreamDecoder.ErrorTolerance.ALL);
+    }
+
+    /**
+     * Creates a decoder that reads a fixture from memory and decodes the
+     * selected channels.
+     *
+     * @param data the fixture content
+     * @param channels the channels to decode
+     * @return a new decoder for the fixture
+     * @throws IOException if the decoder cannot be created
+     */
+    public static StreamDecoder decoder(byte[] data, StreamDecoder.ChannelSelection channels) throws IOException {
+        return DecoderFactory.createDecoder(new ByteArrayInputStream(data), null, StreamDecoder.ErrorTolerance.ALL, channels);
+    }
+
+    /**
+     * Decodes every frame of the named fixture. Each returned frame has its own
+     * copy of the samples, so the frames can be replayed to the code being
+     * measured without paying for decoding.
+     *
+     * @param name the fixture name
+     * @return the decoded frames
+     * @throws IOException if the fixture cannot be decoded
+     */
+    public static AudioFrame[] decode(String name) throws IOException {
+        StreamDecoder decoder = decoder(read(name));
+        List<AudioFrame> frames = new ArrayList<>();
+        AudioFrame f;
+        while ((f = decoder.getNextFrame()) != null) {
+            AudioFrame copy = new AudioFrame();
+            int length = f.getSampleCount() * f.getChannelCount();
+            short[] samples = new short[length];
+            System.arraycopy(f.getSamples(), 0, samples, 0, length);
+            copy.set(f.getChannelFormat(), f.getFrequency(), samples, length);
+            frames.add(copy);
+        }
+        return frames.toArray(new AudioFrame[frames.size()]);
+    }
+
+    /**
+     * Returns the audio header of the named fixture.
+     *
+     * @param name the fixture name
+     * @return the header of the first frame
+     * @throws IOException if the fixture cannot be decoded
+     */
+    public static AudioHeader header(String name) throws IOException {
+        return decoder(read(name)).getAudioHeader();
+    }
+}
@@ -0,0 +1,59 @@
+package ca.cgjennings.apps.librivox.bench;
+
+import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
+import ca.cgjennings.apps.librivox.decoder.FrameScan;
+import ca.cgjennings.apps.librivox.decoder.MP3Source;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many files per second can be scanned by walking their frame
+ * headers. After the first iteration the fixture will be in the operating
+ * system's file cache, so this measures the scan rather than the disk.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameScanBenchmark {
+
+    @Param({"mono", "stereo", "vbr", "corrupt"})
+    public String fixture;
+
+    private File file;
+
+    @Setup
+    public void load() {
+        file = Fixtures.file(fixture);
+    }
+
+    /**
+     * Opens and scans the fixture; the score is in files per second.
+     *
+     * @return the scan result
+     * @throws IOException if the fixture cannot be read
+     */
+    @Benchmark
+    public FrameScan scanFrames() throws IOException {
+        try (MP3Source source = new MP3Source(file)) {
+            return DecoderFactory.scanFrames(source, source.getID3v2TagLength());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the speed of {@link RealFFT}. Before measuring, the setup checks
+ * the transform of random data against a direct evaluation of the discrete
+ * Fourier transform.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RealFFTBenchmark {
+
+    @Param({"1024", "16384"})
+    public int size;
+
+    private RealFFT fft;
+    private float[] input;
+    private float[] data;
+    private float[] power;
+
+    @Setup(Level.Trial)
+    public void load() {
+        fft = new RealFFT(size);
+        input = new float[size];
+        data = new float[size];
+        power = new float[size / 2 + 1];
+        Random r = new Random(size);
+        for (int i = 0; i < size; ++i) {
+            input[i] = (float) r.nextGaussian();
+        }
+
+        System.arraycopy(input, 0, data, 0, size);
+        fft.transform(data);
+        for (int k = 0; k <= size / 2; k += Math.max(1, size / 64)) {
+            double re = 0d, im = 0d;
+            for (int t = 0; t < size; ++t) {
+                final double a = -2d * Math.PI * ((long) k * t % size) / size;
+                re += input[t] * Math.cos(a);
+                im += input[t] * Math.sin(a);
+            }
+            final double fr = k == 0 ? data[0] : (k == size / 2 ? data[1] : data[k * 2]);
+            final double fi = k == 0 || k == size / 2 ? 0d : data[k * 2 + 1];
+            if (Math.hypot(fr - re, fi - im) > 1e-3 * Math.sqrt(size)) {
+                throw new AssertionError("bin " + k + " differs: " + fr + "," + fi + " vs. " + re + "," + im);
+            }
+        }
+    }
+
+    /**
+     * Transforms one block of samples and computes its power spectrum; the
+     * score is in transforms per second.
+     *
+     * @return the power spectrum
+     */
+    @Benchmark
+    public float[] transform() {
+        System.arraycopy(input, 0, data, 0, size);
+        fft.transform(data);
+        fft.power(data, power);
+        return power;
+    }
+}
@@ -0,0 +1,91 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import ca.cgjennings.apps.librivox.bench.Fixtures;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the current {@link ReplayGainAnalyzer} with the two-pass analyzer
+ * it replaced. Before measuring, the setup checks that both report the same
+ * loudness for the fixture to within 0.01 dB.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayGainBenchmark {
+
+    @Param({"mono", "stereo"})
+    public String fixture;
+
+    private AudioFrame[] frames;
+    private ReplayGainAnalyzer current;
+    private LegacyReplayGainAnalyzer legacy;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        frames = Fixtures.decode(fixture);
+
+        ReplayGainAnalyzer a = new ReplayGainAnalyzer();
+        LegacyReplayGainAnalyzer b = new LegacyReplayGainAnalyzer();
+        for (AudioFrame f : frames) {
+            a.processFrame(f);
+            b.processFrame(f);
+        }
+        float va = a.done().getVolume();
+        float vb = b.done().getVolume();
+        if (Math.abs(va - vb) > 0.01f) {
+            throw new AssertionError("loudness differs: " + va + " vs. " + vb);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createAnalyzers() {
+        current = new ReplayGainAnalyzer();
+        legacy = new LegacyReplayGainAnalyzer();
+        next = 0;
+    }
+
+    /**
+     * Analyzes one frame with the current analyzer; the score is in frames per
+     * second.
+     */
+    @Benchmark
+    public void current() {
+        current.processFrame(frames[next]);
+        if (++next == frames.length) {
+            next = 0;
+        }
+    }
+
+    /**
+     * Analyzes one frame with the legacy analyzer; the score is in frames per
+     * second.
+     */
+    @Benchmark
+    public void legacy() {
+        legacy.processFrame(frames[next]);
+        if (++next == frames.length) {
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports how far the loudness and noise floor measured from a screening
+ * decode (at half the sample rate) are from those measured from a full
+ * decode. Each file named on the command line, or each MP3 file in a named
+ * folder, is decoded both ways and measured the same way as the amplitude
+ * and noise validators measure it. One line is printed per file, followed by
+ * the mean and largest deviations and the total decoding time of each mode.
+ *
+ * <pre>
+ * java -cp build/classes:../build/classes
+ *     ca.cgjennings.apps.librivox.validators.ScreeningReport build/fixtures
+ * </pre>
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class ScreeningReport {
+
+    private ScreeningReport() {
+    }
+
+    /**
+     * Measures the files or folders named by the arguments.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: ScreeningReport file|folder...");
+            System.exit(20);
+        }
+        List<File> files = new ArrayList<>();
+        for (String a : args) {
+            File f = new File(a);
+            if (f.isDirectory()) {
+                File[] children = f.listFiles((dir, name) -> name.toLowerCase(Locale.US).endsWith(".mp3"));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else {
+                files.add(f);
+            }
+        }
+
+        System.out.printf(Locale.US, "%-24s %9s %9s %7s %9s %9s %7s%n",
+                "file", "loudness", "screened", "delta", "noise", "screened", "delta");
+        double loudnessSum = 0d, loudnessMax = 0d, noiseSum = 0d, noiseMax = 0d;
+        long fullNanos = 0L, screenNanos = 0L;
+        int count = 0;
+        for (File f : files) {
+            byte[] data = Files.readAllBytes(f.toPath());
+            Measurement full = measure(data, false);
+            Measurement screen = measure(data, true);
+            if (full == null || screen == null) {
+                System.out.printf(Locale.US, "%-24s too short to measure%n", f.getName());
+                continue;
+            }
+            final double dl = screen.loudness - full.loudness;
+            final double dn = screen.noise - full.noise;
+            System.out.printf(Locale.US, "%-24s %9.2f %9.2f %+7.2f %9.2f %9.2f %+7.2f%n",
+                    f.getName(), full.loudness, screen.loudness, dl, full.noise, screen.noise, dn);
+            loudnessSum += Math.abs(dl);
+            loudnessMax = Math.max(loudnessMax, Math.abs(dl));
+            noiseSum += Math.abs(dn);
+            noiseMax = Math.max(noiseMax, Math.abs(dn));
+            fullNanos += full.nanos;
+            screenNanos += screen.nanos;
+            ++count;
+        }
+        if (count > 0) {
+            System.out.printf(Locale.US, "loudness deviation: mean %.2f dB, max %.2f dB%n", loudnessSum / count, loudnessMax);
+            System.out.printf(Locale.US, "noise deviation:    mean %.2f dB, max %.2f dB%n", noiseSum / count, noiseMax);
+            System.out.printf(Locale.US, "decode and measure: full %.0f ms, screening %.0f ms (%.2fx)%n",
+                    fullNanos / 1e6, screenNanos / 1e6, (double) fullNanos / screenNanos);
+        }
+    }
+
+    /**
+     * Decodes a file in the requested mode and measures it.
+     *
+     * @return the measurement, or <code>null</code> if the file is too short
+     * to have a noise floor
+     */
+    private static Measurement measure(byte[] data, boolean screening) throws IOException {
+        Checker.getSettings().setBoolean("screening-decode", screening);
+        final int windowSlices = (int) Math.round(0.5d / ReplayGainAnalyzer.SLICE_DURATION);
+        NoiseFloorEstimator estimator = new NoiseFloorEstimator(windowSlices);
+        ReplayGainAnalyzer analyzer = new ReplayGainAnalyzer();
+        analyzer.setSliceListener(estimator);
+
+        final long start = System.nanoTime();
+        StreamDecoder d = DecoderFactory.createDecoder(new ByteArrayInputStream(data), StreamDecoder.ErrorTolerance.ALL);
+        AudioFrame frame;
+        while ((frame = d.getNextFrame()) != null) {
+            analyzer.processFrame(frame);
+        }
+        Measurement m = new Measurement();
+        m.loudness = analyzer.done().getVolume();
+        m.nanos = System.nanoTime() - start;
+        if (estimator.getWindowCount() == 0L) {
+            return null;
+        }
+        m.noise = estimator.getNoiseVolume(1d);
+        return m;
+    }
+
+    private static final class Measurement {
+
+        double loudness;
+        double noise;
+        long nanos;
+    }
+}
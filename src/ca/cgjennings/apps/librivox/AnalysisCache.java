@@ -0,0 +1,581 @@
+package ca.cgjennings.apps.librivox;
+
+import static ca.cgjennings.apps.librivox.Checker.getLogger;
+import ca.cgjennings.apps.librivox.decoder.MP3Source;
+import ca.cgjennings.apps.librivox.tools.PeakPyramid;
+import ca.cgjennings.apps.librivox.validators.AbstractValidator;
+import ca.cgjennings.apps.librivox.validators.Validator;
+import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
+import ca.cgjennings.util.Settings;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * A persistent cache of analysis results. When a file is checked again and
+ * neither its content nor the validation settings have changed, the report
+ * from the earlier check is restored instead of decoding the audio again.
+ *
+ * <p>
+ * Each result is stored in its own file in the cache folder. The name of the
+ * file is derived from a key that combines a hash of the audio file's content
+ * with its name (which the file validator checks) and everything about the
+ * configuration that can change the report: the application version, the
+ * enabled validators and their rules, the user strictness level, the locale,
+ * and a digest of each validator's settings files. The cache is limited in
+ * size; when it grows too large, the least recently used results are deleted.
+ *
+ * <p>
+ * The waveform peaks collected while a file is decoded are kept next to the
+ * results, in files named for the hash of the audio content alone, since the
+ * peaks do not depend on the configuration. These files are larger than
+ * results, so they have their own size limit and are evicted separately.
+ *
+ * <p>
+ * The cache is controlled by the following application settings:
+ * <dl>
+ * <dt><code>analysis-cache</code><dd>whether the cache is used (default is
+ * true)
+ * <dt><code>analysis-cache-folder</code><dd>the folder to store results in; if
+ * empty, a folder in the platform's standard location for per-user caches is
+ * used
+ * <dt><code>analysis-cache-size</code><dd>the maximum size of the cache, in
+ * kibibytes
+ * <dt><code>waveform-cache-size</code><dd>the maximum size of the stored
+ * waveform peaks, in kibibytes
+ * </dl>
+ *
+ * <p>
+ * <b>Note:</b> This package-private class is used internally
+ * {@link LibriVoxAudioFile}. It is intended only for use by that class.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class AnalysisCache {
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private AnalysisCache() {
+    }
+
+    /**
+     * Sets whether the cache is used, overriding the application setting. This
+     * is used to force every file to be decoded in batch mode and when
+     * measuring performance.
+     *
+     * @param enable if <code>false</code>, results are neither looked up nor
+     * stored
+     */
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Returns <code>true</code> if the cache is used.
+     *
+     * @return <code>true</code> if results are looked up and stored
+     */
+    static boolean isEnabled() {
+        return enabled && getFolder() != null;
+    }
+
+    /**
+     * Returns the key that identifies the result of analyzing a file with the
+     * current settings. The entire file is read to compute the hash of its
+     * content.
+     *
+     * @param file the file being analyzed
+     * @param source the open source for the file's content
+     * @return the key for the file, or <code>null</code> if the cache is not
+     * used or the key could not be computed
+     */
+    static String createKey(LibriVoxAudioFile file, MP3Source source) {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance(KEY_DIGEST);
+            ByteBuffer buff = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            FileChannel channel = source.getChannel();
+            long pos = 0L;
+            int read;
+            while ((read = channel.read(buff, pos)) >= 0) {
+                pos += read;
+                buff.flip();
+                md.update(buff);
+                buff.clear();
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            return createKey(file, md.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            getLogger().log(Level.WARNING, "unable to compute cache key", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key that identifies the result of analyzing a file with the
+     * current settings, given a digest of the file's content that was computed
+     * while the file was written.
+     *
+     * @param file the file being analyzed
+     * @param contentDigest the SHA-256 digest of the file's content
+     * @return the key for the file, or <code>null</code> if the cache is not
+     * used
+     */
+    static String createKey(LibriVoxAudioFile file, byte[] contentDigest) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return toHex(contentDigest) + '\n' + file.getFileName() + '\n' + getConfiguration();
+    }
+
+    /**
+     * Fills in a report from the cache, if a result with the specified key is
+     * available. If a result is restored, the report will be closed.
+     *
+     * @param key the key returned by {@link #createKey}, may be
+     * <code>null</code>
+     * @param report the open report to restore the result into
+     * @return <code>true</code> if the report was restored from the cache
+     */
+    static boolean restore(String key, Report report) {
+        if (key == null) {
+            return false;
+        }
+        File entry = getEntryFile(key);
+        if (entry == null || !entry.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return false;
+            }
+            report.restore(in);
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "discarding unreadable cache entry " + entry.getName(), e);
+            entry.delete();
+            return false;
+        }
+        // mark the entry as recently used
+        entry.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stores the result of analyzing a file in the cache. Only reports that
+     * completed normally are stored; reports with an error message are ignored.
+     *
+     * @param key the key returned by {@link #createKey}, may be
+     * <code>null</code>
+     * @param report the closed report to store
+     */
+    static void store(String key, Report report) {
+        if (key == null || report.getErrorMessage() != null) {
+            return;
+        }
+        File entry = getEntryFile(key);
+        if (entry == null) {
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("entry", ".tmp", entry.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                report.write(out);
+            }
+            long length = temp.length();
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            added(ENTRY_EXTENSION, length);
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "unable to write cache entry", e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the waveform peaks stored for the audio content identified by a
+     * key, or <code>null</code> if none are available. The peak file is
+     * mapped into memory and copied into a new pyramid.
+     *
+     * @param key the key returned by {@link #createKey}, may be
+     * <code>null</code>
+     * @return the stored peaks, or <code>null</code>
+     */
+    static PeakPyramid restorePeaks(String key) {
+        if (key == null) {
+            return null;
+        }
+        File entry = getPeakFile(key);
+        if (entry == null || !entry.isFile()) {
+            return null;
+        }
+        PeakPyramid peaks;
+        try (FileChannel ch = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buff = ch.map(FileChannel.MapMode.READ_ONLY, 0L, ch.size());
+            byte[] digest = new byte[DIGEST_LENGTH];
+            if (buff.remaining() < 8 + DIGEST_LENGTH
+                    || buff.getInt() != PEAKS_MAGIC || buff.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            buff.get(digest);
+            if (!toHex(digest).equals(getContentHash(key))) {
+                return null;
+            }
+            peaks = PeakPyramid.read(buff);
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "discarding unreadable peak file " + entry.getName(), e);
+            entry.delete();
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return peaks;
+    }
+
+    /**
+     * Stores the waveform peaks for the audio content identified by a key.
+     *
+     * @param key the key returned by {@link #createKey}, may be
+     * <code>null</code>
+     * @param peaks the complete peaks to store
+     */
+    static void storePeaks(String key, PeakPyramid peaks) {
+        if (key == null || peaks == null || !peaks.isComplete()) {
+            return;
+        }
+        File entry = getPeakFile(key);
+        if (entry == null) {
+            return;
+        }
+        // the peaks only depend on the content, so a file that is checked
+        // again with different settings already has them
+        if (entry.isFile()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("peaks", ".tmp", entry.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+                out.writeInt(PEAKS_MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(fromHex(getContentHash(key)));
+                peaks.write(out);
+            }
+            long length = temp.length();
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            added(PEAKS_EXTENSION, length);
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "unable to write peak file", e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the file that holds the waveform peaks for the content
+     * identified by a key, or <code>null</code> if there is no cache folder.
+     */
+    private static File getPeakFile(String key) {
+        File folder = getFolder();
+        return folder == null ? null : new File(folder, getContentHash(key) + PEAKS_EXTENSION);
+    }
+
+    /**
+     * Returns the part of a key that is the hash of the audio content.
+     */
+    private static String getContentHash(String key) {
+        final int end = key.indexOf('\n');
+        return end < 0 ? key : key.substring(0, end);
+    }
+
+    /**
+     * Returns the file that holds the result for a key, or <code>null</code>
+     * if there is no cache folder.
+     */
+    private static File getEntryFile(String key) {
+        File folder = getFolder();
+        if (folder == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance(KEY_DIGEST);
+            return new File(folder, toHex(md.digest(key.getBytes(StandardCharsets.UTF_8))) + ENTRY_EXTENSION);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Records that an entry was added, and trims the entries of the same type
+     * if they have grown too large.
+     */
+    private static synchronized void added(String extension, long length) {
+        Long size = cacheSizes.get(extension);
+        long cacheSize;
+        if (size == null) {
+            cacheSize = 0L;
+            for (File f : listEntries(extension)) {
+                cacheSize += f.length();
+            }
+        } else {
+            cacheSize = size + length;
+        }
+        cacheSizes.put(extension, cacheSize);
+        final long limit = extension.equals(PEAKS_EXTENSION)
+                ? Checker.getSettings().getLong(KEY_PEAKS_SIZE, DEFAULT_PEAKS_SIZE) * 1024L
+                : Checker.getSettings().getLong(KEY_SIZE, DEFAULT_SIZE) * 1024L;
+        if (cacheSize <= limit) {
+            return;
+        }
+
+        // delete the least recently used entries until the cache is
+        // comfortably below the limit, so that this doesn't run for
+        // every new entry once the cache is full
+        final long target = limit * 3L / 4L;
+        File[] entries = listEntries(extension);
+        final long[] used = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        cacheSize = 0L;
+        for (int i = 0; i < entries.length; ++i) {
+            used[i] = entries[i].lastModified();
+            order[i] = i;
+            cacheSize += entries[i].length();
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for (int i = 0; i < order.length && cacheSize > target; ++i) {
+            File f = entries[order[i]];
+            long entryLength = f.length();
+            if (f.delete()) {
+                cacheSize -= entryLength;
+            }
+        }
+        cacheSizes.put(extension, cacheSize);
+    }
+
+    private static File[] listEntries(String extension) {
+        File folder = getFolder();
+        File[] entries = folder == null ? null : folder.listFiles((dir, name) -> name.endsWith(extension));
+        return entries == null ? new File[0] : entries;
+    }
+
+    /**
+     * Returns the cache folder, creating it if necessary. Returns
+     * <code>null</code> if the cache is disabled or the folder cannot be
+     * created.
+     */
+    private static synchronized File getFolder() {
+        if (folder == null) {
+            Settings s = Checker.getSettings();
+            if (!s.getBoolean(KEY_ENABLED, true)) {
+                return null;
+            }
+            String path = s.get(KEY_FOLDER, "").trim();
+            File f = path.isEmpty() ? getDefaultFolder() : new File(path);
+            if (!f.isDirectory() && !f.mkdirs()) {
+                getLogger().log(Level.WARNING, "unable to create analysis cache folder {0}", f);
+                enabled = false;
+                return null;
+            }
+            folder = f;
+        }
+        return folder;
+    }
+
+    /**
+     * Returns the default cache folder, which is in the standard location for
+     * per-user application caches on the host platform.
+     */
+    private static File getDefaultFolder() {
+        final String os = System.getProperty("os.name", "").toLowerCase(Locale.US);
+        final String home = System.getProperty("user.home");
+        File base;
+        if (os.startsWith("windows")) {
+            String local = System.getenv("LOCALAPPDATA");
+            base = local == null ? new File(home, "AppData\\Local") : new File(local);
+        } else if (os.startsWith("mac")) {
+            base = new File(home, "Library/Caches");
+        } else {
+            String xdg = System.getenv("XDG_CACHE_HOME");
+            base = xdg == null || xdg.isEmpty() ? new File(home, ".cache") : new File(xdg);
+        }
+        return new File(new File(base, "librivox-checker"), "analysis");
+    }
+
+    /**
+     * Returns a description of all of the current settings that affect the
+     * result of an analysis.
+     */
+    private static String getConfiguration() {
+        final String strictness = AbstractValidator.getUserStrictnessSuffix();
+        final Locale locale = Checker.getPreferredLocale();
+        ValidatorFactory factory = ValidatorFactory.getFactory();
+
+        StringBuilder b = new StringBuilder(256);
+        b.append(Checker.VERSION).append('\n')
+                .append(locale).append('\n')
+                .append(strictness).append('\n')
+                .append(getApplicationSettingsVersion());
+        for (Validator v : factory.createValidators()) {
+            b.append('\n').append(v.getClass().getName())
+                    .append(':').append(factory.getStrictness(v))
+                    .append(':').append(getSettingsVersion(v.getClass(), strictness, locale));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Returns a digest of the current values of the application settings
+     * that can change the result of an analysis. Unlike validator settings,
+     * these can be changed while the application is running, so the digest
+     * is not kept.
+     */
+    private static String getApplicationSettingsVersion() {
+        try {
+            MessageDigest md = MessageDigest.getInstance(KEY_DIGEST);
+            Settings settings = Checker.getSettings();
+            for (String key : RESULT_SETTINGS) {
+                final String value = settings.get(key);
+                md.update(key.getBytes(StandardCharsets.UTF_8));
+                if (value == null) {
+                    md.update((byte) 0);
+                } else {
+                    md.update((byte) 1);
+                    md.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                md.update((byte) '\n');
+            }
+            return toHex(md.digest()).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a digest of the settings files that a validator reads for a
+     * given strictness level. The settings are application resources, so the
+     * digest is computed once per validator and level.
+     */
+    private static String getSettingsVersion(Class<? extends Validator> c, String strictness, Locale locale) {
+        final String mapKey = c.getName() + strictness;
+        synchronized (settingsVersions) {
+            String version = settingsVersions.get(mapKey);
+            if (version == null) {
+                try {
+                    MessageDigest md = MessageDigest.getInstance(KEY_DIGEST);
+                    digestSettings(md, c, c.getSimpleName(), locale);
+                    if (!strictness.isEmpty()) {
+                        digestSettings(md, c, c.getSimpleName() + strictness, locale);
+                    }
+                    version = toHex(md.digest()).substring(0, 16);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new AssertionError(e);
+                }
+                settingsVersions.put(mapKey, version);
+            }
+            return version;
+        }
+    }
+
+    private static void digestSettings(MessageDigest md, Class<?> c, String name, Locale locale) {
+        URL url = Settings.findResourceForLocale(c, locale, "/resources/" + name, ".properties");
+        if (url == null) {
+            md.update((byte) 0);
+            return;
+        }
+        md.update((byte) 1);
+        try (InputStream in = url.openStream()) {
+            byte[] buff = new byte[8192];
+            int read;
+            while ((read = in.read(buff)) >= 0) {
+                md.update(buff, 0, read);
+            }
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "unable to read validator settings " + url, e);
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte v : bytes) {
+            b.append(HEX[(v >> 4) & 0xf]).append(HEX[v & 0xf]);
+        }
+        return b.toString();
+    }
+
+    private static volatile boolean enabled = true;
+    private static File folder;
+    private static final Map<String, Long> cacheSizes = new HashMap<>();
+    private static final Map<String, String> settingsVersions = new HashMap<>();
+
+    private static final String KEY_ENABLED = "analysis-cache";
+    private static final String KEY_FOLDER = "analysis-cache-folder";
+    private static final String KEY_SIZE = "analysis-cache-size";
+    private static final long DEFAULT_SIZE = 32L * 1024L;
+    private static final String KEY_PEAKS_SIZE = "waveform-cache-size";
+    private static final long DEFAULT_PEAKS_SIZE = 256L * 1024L;
+
+    private static final String KEY_DIGEST = "SHA-256";
+    /**
+     * The application settings, read through {@link Checker#getSettings()},
+     * whose values can change the result of an analysis. A setting that is
+     * added for a validator or the decoder and that affects the report must
+     * be listed here, or cached results will not be updated when it changes.
+     */
+    private static final String[] RESULT_SETTINGS = {
+        "clipping-run-length",
+        "fast-decoder-kernels",
+        "screening-decode"
+    };
+    private static final int DIGEST_LENGTH = 32;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final String ENTRY_EXTENSION = ".result";
+    private static final String PEAKS_EXTENSION = ".peaks";
+    private static final int MAGIC = 0x4c564143; // "LVAC"
+    private static final int PEAKS_MAGIC = 0x4c56504b; // "LVPK"
+    private static final int FORMAT_VERSION = 1;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
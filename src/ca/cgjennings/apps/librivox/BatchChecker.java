@@ -0,0 +1,535 @@
+package ca.cgjennings.apps.librivox;
+
+import static ca.cgjennings.apps.librivox.Checker.getLogger;
+import static ca.cgjennings.apps.librivox.Checker.string;
+import ca.cgjennings.apps.librivox.LibriVoxAudioFile.Status;
+import ca.cgjennings.apps.librivox.decoder.ZipArchive;
+import ca.cgjennings.apps.librivox.metadata.MP3FileMetadata;
+import ca.cgjennings.apps.librivox.validators.AbstractValidator;
+import ca.cgjennings.apps.librivox.validators.AmplitudeValidator;
+import ca.cgjennings.apps.librivox.validators.NoiseValidator;
+import ca.cgjennings.apps.librivox.validators.Validator;
+import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Checks files from the command line without displaying the application
+ * window. This is started by passing <code>--batch</code> to
+ * {@link Checker#main}. The remaining arguments are options and the files,
+ * folders, ZIP archives, and URLs to be checked. Files are analyzed in parallel
+ * by the same {@link JobManager} that the application window uses, and one
+ * record per file is written in a machine-readable format (JSON lines or CSV),
+ * followed by a summary of the overall throughput.
+ *
+ * <p>
+ * Options:
+ * <dl>
+ * <dt><code>--format=json|csv</code><dd>the record format (default is json)
+ * <dt><code>--output=<i>file</i></code><dd>write records to a file instead of
+ * standard output
+ * <dt><code>--strict</code>, <code>--gentle</code><dd>the validation strictness
+ * (default is gentle)
+ * <dt><code>--no-cache</code><dd>decode every file, even if a result for it is
+ * in the analysis cache
+ * <dt><code>--metadata-only</code><dd>run only the validators that do not
+ * read through the audio, such as the file name and metadata checks; only
+ * the tags and the first frame header are read, so this is very fast
+ * <dt><code>--screen</code><dd>decode the audio at half the sample rate and
+ * run only the loudness and noise checks along with the validators that do
+ * not process audio; this is faster than a full check, and the loudness and
+ * noise levels it reports are typically within a fraction of a dB of a full
+ * check, though peak levels may read lower
+ * </dl>
+ *
+ * <p>
+ * The exit code is 0 if every file passed (possibly with warnings), 1 if any
+ * file failed, and 2 if any file could not be analyzed or the arguments were
+ * invalid.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class BatchChecker {
+
+    private BatchChecker() {
+    }
+
+    /**
+     * The command line option that selects batch mode.
+     */
+    public static final String BATCH_OPTION = "--batch";
+
+    /**
+     * Returns <code>true</code> if the command line arguments request batch
+     * mode.
+     *
+     * @param args the command line arguments passed to the application
+     * @return <code>true</code> if the files should be checked without a user
+     * interface
+     */
+    public static boolean isBatchRequest(String[] args) {
+        for (String a : args) {
+            if (BATCH_OPTION.equals(a)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the files named on the command line, writes the results, and
+     * exits.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /**
+     * Checks the files named on the command line and writes the results,
+     * returning the exit code instead of exiting.
+     *
+     * @param args the command line arguments
+     * @return the process exit code
+     */
+    static int run(String[] args) {
+        Format format = Format.JSON;
+        String output = null;
+        String strictness = AbstractValidator.USER_STRICTNESS_GENTLE;
+        boolean metadataOnly = false;
+        boolean screen = false;
+        List<String> sources = new ArrayList<>();
+
+        for (String a : args) {
+            if (a.equals(BATCH_OPTION)) {
+                continue;
+            } else if (a.startsWith("--format=")) {
+                try {
+                    format = Format.valueOf(a.substring("--format=".length()).toUpperCase(Locale.US));
+                } catch (IllegalArgumentException e) {
+                    return usage();
+                }
+            } else if (a.startsWith("--output=")) {
+                output = a.substring("--output=".length());
+            } else if (a.equals("--strict")) {
+                strictness = AbstractValidator.USER_STRICTNESS_STRICT;
+            } else if (a.equals("--gentle")) {
+                strictness = AbstractValidator.USER_STRICTNESS_GENTLE;
+            } else if (a.equals("--no-cache")) {
+                AnalysisCache.setEnabled(false);
+            } else if (a.equals("--metadata-only")) {
+                metadataOnly = true;
+            } else if (a.equals("--screen")) {
+                screen = true;
+            } else if (a.startsWith("-")) {
+                return usage();
+            } else {
+                sources.add(a);
+            }
+        }
+        if (sources.isEmpty()) {
+            return usage();
+        }
+
+        AbstractValidator.setUserStrictnessSuffix(strictness);
+        LibriVoxAudioFile.setBatchMode(true);
+        if (metadataOnly) {
+            // batch mode never writes its settings back to local storage,
+            // so this only affects the current run
+            for (Validator v : ValidatorFactory.getFactory().createAllValidators()) {
+                ValidatorFactory.setClassEnabled(v.getClass(), !v.readsAudioStream());
+            }
+        } else if (screen) {
+            // the silence and spectrum checks need the full sample rate, and
+            // half rate peaks must not be cached for the waveform viewer
+            Checker.getSettings().setBoolean("screening-decode", true);
+            Checker.getSettings().setBoolean("collect-waveform-peaks", false);
+            for (Validator v : ValidatorFactory.getFactory().createAllValidators()) {
+                ValidatorFactory.setClassEnabled(v.getClass(), !v.isAudioProcessor()
+                        || v instanceof AmplitudeValidator || v instanceof NoiseValidator);
+            }
+        }
+        ValidatorFactory.getFactory();
+
+        List<Object> inputs = new ArrayList<>();
+        for (String s : sources) {
+            if (s.startsWith("file:") || s.startsWith("http:") || s.startsWith("https:")) {
+                try {
+                    inputs.add(new URL(s));
+                } catch (MalformedURLException e) {
+                    getLogger().warning("unable to check supplied file: " + s + " (" + e.getLocalizedMessage() + ')');
+                }
+            } else {
+                collect(new File(s), inputs);
+            }
+        }
+
+        PrintWriter out;
+        try {
+            out = new PrintWriter(new OutputStreamWriter(
+                    output == null ? System.out : new FileOutputStream(output), "utf-8"
+            ));
+        } catch (IOException e) {
+            System.err.println(string("batch-error-output", output, e.getLocalizedMessage()));
+            return EXIT_ERROR;
+        }
+
+        final long start = System.nanoTime();
+        LibriVoxAudioFile[] files = queue(inputs);
+
+        if (format == Format.CSV) {
+            out.println("file,status,validity,audio_seconds,validations,features");
+        }
+
+        int passed = 0, warnings = 0, failed = 0, errors = 0;
+        long bytes = 0L;
+        double audioSeconds = 0d;
+        for (LibriVoxAudioFile f : files) {
+            f.waitUntilProcessed();
+
+            Status status = f.getStatus();
+            if (status.isProgressive()) {
+                // the job stopped without reaching a final state
+                status = Status.ERROR;
+            }
+            switch (status) {
+                case PASSED:
+                    ++passed;
+                    break;
+                case WARNINGS:
+                    ++warnings;
+                    break;
+                case FAILED:
+                    ++failed;
+                    break;
+                default:
+                    ++errors;
+                    break;
+            }
+
+            double seconds = 0d;
+            MP3FileMetadata md = f.getMetadata();
+            if (md != null) {
+                seconds = md.getTrackLength();
+            }
+            audioSeconds += seconds;
+            bytes += f.getFileSize();
+
+            if (format == Format.CSV) {
+                writeCSVRecord(out, f, status, seconds);
+            } else {
+                writeJSONRecord(out, f, status, seconds);
+            }
+            out.flush();
+            f.dispose();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9d;
+        if (format == Format.JSON) {
+            out.print("{\"summary\":{");
+            out.print("\"files\":" + files.length);
+            out.print(",\"passed\":" + passed);
+            out.print(",\"warnings\":" + warnings);
+            out.print(",\"failed\":" + failed);
+            out.print(",\"errors\":" + errors);
+            out.print(",\"bytes\":" + bytes);
+            out.print(",\"audio_seconds\":" + number(audioSeconds));
+            out.print(",\"elapsed_seconds\":" + number(elapsed));
+            out.print(",\"files_per_second\":" + number(files.length / elapsed));
+            out.print(",\"megabytes_per_second\":" + number(bytes / (1024d * 1024d) / elapsed));
+            out.print(",\"realtime_factor\":" + number(audioSeconds / elapsed));
+            out.println("}}");
+        }
+        out.flush();
+        if (output != null) {
+            out.close();
+        }
+
+        System.err.println(string("batch-summary",
+                files.length, elapsed, passed, warnings, failed, errors,
+                files.length / elapsed, bytes / (1024d * 1024d) / elapsed, audioSeconds / elapsed
+        ));
+
+        if (errors > 0) {
+            return EXIT_ERROR;
+        }
+        return failed > 0 ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * Adds a file, or the MP3 files in a folder or ZIP archive, to the list of
+     * inputs. Files are added as <code>File</code>s and ZIP entries as
+     * {@link ZipArchive.Entry}s; the archives are left open for
+     * {@link #queue}.
+     */
+    private static void collect(File f, List<Object> inputs) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles(mp3FileFilter);
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, inputs);
+                }
+            }
+        } else if (f.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip")) {
+            try {
+                ZipArchive zip = new ZipArchive(f);
+                boolean empty = true;
+                for (ZipArchive.Entry entry : zip.getEntries()) {
+                    if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ENGLISH).endsWith(".mp3")) {
+                        inputs.add(entry);
+                        empty = false;
+                    }
+                }
+                if (empty) {
+                    zip.close();
+                }
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "unable to read ZIP archive " + f, e);
+            }
+        } else {
+            inputs.add(f);
+        }
+    }
+
+    /**
+     * Creates and queues a file for each input. Local files are queued from
+     * largest to smallest so that a long file is not left running on its own
+     * after all of the other worker threads have run out of work. The returned
+     * array is in the same order as the inputs.
+     */
+    private static LibriVoxAudioFile[] queue(List<Object> inputs) {
+        Integer[] order = new Integer[inputs.size()];
+        final long[] sizes = new long[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+            Object in = inputs.get(i);
+            if (in instanceof File) {
+                sizes[i] = ((File) in).length();
+            } else if (in instanceof ZipArchive.Entry) {
+                sizes[i] = ((ZipArchive.Entry) in).getSize();
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
+
+        LibriVoxAudioFile[] files = new LibriVoxAudioFile[order.length];
+        for (Integer i : order) {
+            Object in = inputs.get(i);
+            if (in instanceof File) {
+                files[i] = new LibriVoxAudioFile((File) in);
+            } else if (in instanceof ZipArchive.Entry) {
+                files[i] = new LibriVoxAudioFile((ZipArchive.Entry) in);
+            } else {
+                files[i] = new LibriVoxAudioFile((URL) in);
+            }
+        }
+
+        // each file now holds its own reference to its archive
+        Set<ZipArchive> archives = new LinkedHashSet<>();
+        for (Object in : inputs) {
+            if (in instanceof ZipArchive.Entry) {
+                archives.add(((ZipArchive.Entry) in).getArchive());
+            }
+        }
+        for (ZipArchive zip : archives) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "closing " + zip.getFile(), e);
+            }
+        }
+        return files;
+    }
+
+    private static void writeJSONRecord(PrintWriter out, LibriVoxAudioFile f, Status status, double seconds) {
+        Report report = f.getReport();
+        StringBuilder b = new StringBuilder(512);
+        b.append("{\"file\":");
+        jsonString(b, f.getFileName());
+        b.append(",\"source\":");
+        jsonString(b, f.getSource().toExternalForm());
+        b.append(",\"status\":");
+        jsonString(b, status.name());
+        b.append(",\"validity\":");
+        jsonString(b, status == Status.ERROR ? null : report.getValidity().name());
+        b.append(",\"error\":");
+        jsonString(b, status == Status.ERROR ? toPlainText(report.getErrorMessage()) : null);
+        b.append(",\"audio_seconds\":").append(number(seconds));
+
+        b.append(",\"validations\":[");
+        boolean first = true;
+        for (Report.Entry e : report.getEntries()) {
+            if (e.getType() != Report.EntryType.VALIDATION) {
+                continue;
+            }
+            if (!first) {
+                b.append(',');
+            }
+            first = false;
+            b.append("{\"category\":");
+            jsonString(b, e.getCategory().name());
+            b.append(",\"validity\":");
+            jsonString(b, e.getValidity().name());
+            b.append(",\"message\":");
+            jsonString(b, toPlainText(e.getText()));
+            b.append('}');
+        }
+
+        b.append("],\"features\":[");
+        first = true;
+        for (Report.Entry e : report.getEntries()) {
+            if (e.getType() == Report.EntryType.VALIDATION) {
+                continue;
+            }
+            String value = toPlainText(e.getText());
+            if (value.isEmpty()) {
+                // e.g., cover art thumbnails
+                continue;
+            }
+            if (!first) {
+                b.append(',');
+            }
+            first = false;
+            b.append("{\"category\":");
+            jsonString(b, e.getCategory().name());
+            b.append(",\"name\":");
+            jsonString(b, e.getName() == null ? null : toPlainText(e.getName()));
+            b.append(",\"value\":");
+            jsonString(b, value);
+            b.append('}');
+        }
+        b.append("]}");
+        out.println(b);
+    }
+
+    private static void writeCSVRecord(PrintWriter out, LibriVoxAudioFile f, Status status, double seconds) {
+        Report report = f.getReport();
+        StringBuilder validations = new StringBuilder();
+        StringBuilder features = new StringBuilder();
+        if (status == Status.ERROR) {
+            validations.append("ERROR: ").append(toPlainText(report.getErrorMessage()));
+        }
+        for (Report.Entry e : report.getEntries()) {
+            String text = toPlainText(e.getText()).replace('\n', ' ');
+            if (e.getType() == Report.EntryType.VALIDATION) {
+                if (validations.length() > 0) {
+                    validations.append(" | ");
+                }
+                validations.append(e.getValidity()).append(": ").append(text);
+            } else if (!text.isEmpty()) {
+                if (features.length() > 0) {
+                    features.append(" | ");
+                }
+                if (e.getName() != null) {
+                    features.append(toPlainText(e.getName())).append(" = ");
+                }
+                features.append(text);
+            }
+        }
+
+        StringBuilder b = new StringBuilder(512);
+        csvField(b, f.getFileName()).append(',');
+        csvField(b, status.name()).append(',');
+        csvField(b, status == Status.ERROR ? "" : report.getValidity().name()).append(',');
+        b.append(number(seconds)).append(',');
+        csvField(b, validations.toString()).append(',');
+        csvField(b, features.toString());
+        out.println(b);
+    }
+
+    /**
+     * Converts a report string, which may contain simple HTML markup, to plain
+     * text.
+     */
+    static String toPlainText(String html) {
+        if (html == null) {
+            return null;
+        }
+        String s = html.replaceAll("(?i)<br\\s*/?>|<p>|</p>", "\n");
+        s = s.replaceAll("<[^>]*>", "");
+        s = s.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&#39;", "'")
+                .replace("&ndash;", "–").replace("&mdash;", "—")
+                .replace("&hellip;", "…").replace("&amp;", "&");
+        s = s.replaceAll("[ \\t]*\\n[\\s]*", "\n");
+        return s.trim();
+    }
+
+    private static void jsonString(StringBuilder b, String s) {
+        if (s == null) {
+            b.append("null");
+            return;
+        }
+        b.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        b.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        b.append(c);
+                    }
+            }
+        }
+        b.append('"');
+    }
+
+    private static StringBuilder csvField(StringBuilder b, String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return b.append(s);
+        }
+        return b.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static int usage() {
+        System.err.println(string("batch-usage"));
+        return EXIT_ERROR;
+    }
+
+    private enum Format {
+        JSON, CSV
+    }
+
+    private static final MP3FileFilter mp3FileFilter = new MP3FileFilter();
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_ERROR = 2;
+}
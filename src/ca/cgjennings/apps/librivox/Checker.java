@@ -1,6 +1,7 @@
 package ca.cgjennings.apps.librivox;
 
 import ca.cgjennings.apps.librivox.LibriVoxAudioFile.Status;
+import ca.cgjennings.apps.librivox.decoder.ZipArchive;
 import ca.cgjennings.apps.librivox.metadata.MetadataEditorLinkFactory;
 import ca.cgjennings.apps.librivox.tools.ID3Editor;
 import ca.cgjennings.apps.librivox.tools.ID3UpgradeTool;
@@ -33,7 +34,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -42,8 +42,6 @@ import java.util.ResourceBundle;
 import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -567,22 +565,15 @@ public final class Checker extends javax.swing.JFrame {
     }
 
     public void checkZIPFile(File f) {
-        ZipFile zip = null;
+        ZipArchive zip = null;
         try {
-            String baseURL = f.toURI().toURL().toExternalForm();
-            zip = new ZipFile(f);
-            Enumeration<? extends ZipEntry> entries = zip.entries();
+            // the entries are checked in place; each file keeps the
+            // archive open until it is removed from the table
+            zip = new ZipArchive(f);
             int top = model.getRowCount();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                if (name.toLowerCase(Locale.ENGLISH).endsWith(".mp3")) {
-                    try {
-                        URL zipEntryURL = new URL("jar:" + baseURL + "!/" + name);
-                        checkURL(zipEntryURL);
-                    } catch (MalformedURLException e) {
-                        getLogger().log(Level.SEVERE, "unable to compose URL for {0}!{1}", new Object[]{f, name});
-                    }
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ENGLISH).endsWith(".mp3")) {
+                    check(new LibriVoxAudioFile(entry));
                 }
             }
             ensureRowIsVisible(top);
@@ -1009,6 +1000,11 @@ private void strictItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
     public static void main(String args[]) {
         initLoggerLevel(Level.WARNING);
 
+        if (BatchChecker.isBatchRequest(args)) {
+            BatchChecker.main(args);
+            return;
+        }
+
         java.awt.EventQueue.invokeLater(() -> {
             initLookAndFeel();
             mainApp = new Checker();
@@ -0,0 +1,788 @@
+package ca.cgjennings.apps.librivox;
+
+import static ca.cgjennings.apps.librivox.Checker.getLogger;
+import static ca.cgjennings.apps.librivox.Checker.string;
+import ca.cgjennings.apps.librivox.decoder.Spool;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Downloads a remote file to a local file in the background. If the server
+ * supports range requests, the file is fetched as a series of blocks over
+ * several connections at once, each written to its place in the local file. A
+ * block that fails part way through is requested again from where it stopped,
+ * so a dropped connection does not restart the download. The number of
+ * connections open to any one host is limited across all downloads.
+ *
+ * <p>
+ * Blocks are handed out in order, so the start of the file arrives first and
+ * the file can be analyzed while it downloads by reading it through the
+ * {@linkplain #getSpool() spool}. The ID3v1 tag at the end of a file is read
+ * along with the tags at the start, before any audio is decoded, so the last
+ * few bytes are requested ahead of the rest. The content is hashed in order as
+ * it arrives, so the analysis cache does not have to read the file again.
+ *
+ * <p>
+ * If a ranged download fails or is cancelled, what has arrived so far can be
+ * kept as a {@linkplain #getPartial() partial download}. A later download of
+ * the same URL can continue from it, fetching only the missing parts, as long
+ * as the server reports the same length and the same entity tag (or, failing
+ * that, modification time). Range requests carry an <code>If-Range</code>
+ * header with that validator, so a file that changes on the server part way
+ * through is detected rather than spliced together.
+ *
+ * <p>
+ * If the server does not support ranges, the file is downloaded over a single
+ * connection from start to end, and cannot be resumed if it fails.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class Download {
+
+    /**
+     * Returns <code>true</code> if files should be analyzed while they are
+     * downloaded. This can be turned off with the
+     * <code>streaming-download</code> application setting.
+     *
+     * @return <code>true</code> if streaming downloads should be used
+     */
+    static boolean isStreamingEnabled() {
+        return Checker.getSettings().getBoolean("streaming-download", true);
+    }
+
+    /**
+     * Creates a download of a URL.
+     *
+     * @param url the URL to download
+     */
+    Download(URL url) {
+        this.url = url;
+        permits = getHostPermits(url);
+    }
+
+    /**
+     * Connects to the server to find the length of the file and whether it
+     * can be downloaded in ranges. This is called before the download is
+     * started, so that errors such as a missing file are reported
+     * immediately. The connection counts against the host's connection
+     * limit until the worker that fetches the first block takes it over, or
+     * the download ends.
+     *
+     * @throws IOException if the connection fails
+     */
+    void open() throws IOException {
+        acquirePermit();
+        URLConnection connection = null;
+        try {
+            connection = connect(url, 0L, BLOCK_SIZE - 1L);
+            InputStream in = connection.getInputStream();
+            if (connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                long total = parseLength(connection.getHeaderField("Content-Range"), 0L);
+                if (total < 0L) {
+                    // an unusable range response: try again without a range
+                    in.close();
+                    connection = connect(url, -1L, -1L);
+                    in = connection.getInputStream();
+                } else {
+                    length = total;
+                    ranged = true;
+                    validator = getValidator(connection);
+                }
+            }
+            if (!ranged) {
+                length = connection.getContentLengthLong();
+            }
+            synchronized (this) {
+                first = connection;
+                firstIn = in;
+            }
+        } catch (IOException | RuntimeException e) {
+            disconnect(connection);
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the length of the file, or -1 if the server did not report it.
+     *
+     * @return the file length, or -1
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns <code>true</code> if the file is being downloaded in ranges,
+     * which means that failed connections are resumed.
+     *
+     * @return <code>true</code> if the server supports range requests
+     */
+    boolean isRanged() {
+        return ranged;
+    }
+
+    /**
+     * Returns a spool that tracks the progress of the download, so that the
+     * file can be read while it downloads. This is only available once the
+     * download has started, and only if the length of the file is known.
+     *
+     * @return the spool for the local file
+     * @throws IllegalStateException if there is no spool
+     */
+    Spool getSpool() {
+        if (spool == null) {
+            throw new IllegalStateException("no spool");
+        }
+        return spool;
+    }
+
+    /**
+     * Returns <code>true</code> if this download can continue from a partial
+     * download. This is only possible once the download has been
+     * {@linkplain #open() opened}, and only if the partial download is of the
+     * same URL and the server reports the same length and validator for it as
+     * it did before.
+     *
+     * @param partial the partial download to check, or <code>null</code>
+     * @return <code>true</code> if the partial download can be resumed
+     */
+    boolean canResume(Partial partial) {
+        return partial != null && ranged && validator != null
+                && partial.url.equals(url.toExternalForm())
+                && partial.validator.equals(validator)
+                && partial.length == length
+                && partial.file.isFile() && partial.file.length() == length;
+    }
+
+    /**
+     * Returns the part of this download that has arrived so far, so that a
+     * later download of the same URL can {@linkplain #canResume resume} from
+     * it. This is meant to be called after a download has failed or been
+     * cancelled. It returns <code>null</code> if the download cannot be
+     * resumed: the server does not support ranges or did not send a
+     * validator, or the download was never started.
+     * <p>
+     * The positions recorded for each block are a snapshot. Data may still be
+     * written after a download is cancelled, but only past those positions,
+     * and it is the same data that a resumed download would write there.
+     *
+     * @return the partial download, or <code>null</code>
+     */
+    synchronized Partial getPartial() {
+        if (!ranged || validator == null || file == null || blocks == null) {
+            return null;
+        }
+        long[] positions = new long[blocks.length];
+        for (int i = 0; i < blocks.length; ++i) {
+            positions[i] = blocks[i].position;
+        }
+        return new Partial(url.toExternalForm(), validator, length, file, positions);
+    }
+
+    /**
+     * Starts downloading in the background.
+     *
+     * @param file the local file to write; it is replaced
+     * @param progress if non-<code>null</code>, called with the total number
+     * of bytes received so far, from the download threads
+     * @throws IOException if the local file cannot be created
+     */
+    void start(File file, LongConsumer progress) throws IOException {
+        start(file, progress, null);
+    }
+
+    /**
+     * Starts downloading in the background, continuing from a partial
+     * download if possible. If the partial download
+     * {@linkplain #canResume can be resumed}, its file is written and only the
+     * missing parts are fetched; otherwise this is the same as
+     * {@link #start(java.io.File, java.util.function.LongConsumer)}.
+     *
+     * @param file the local file to write; this must be the partial
+     * download's file to resume it, and it is otherwise replaced
+     * @param progress if non-<code>null</code>, called with the total number
+     * of bytes received so far, from the download threads
+     * @param resume the partial download to continue from, or
+     * <code>null</code>
+     * @throws IOException if the local file cannot be created
+     */
+    void start(File file, LongConsumer progress, Partial resume) throws IOException {
+        if (resume != null && (!canResume(resume) || !resume.file.equals(file))) {
+            resume = null;
+        }
+        this.progress = progress;
+        synchronized (this) {
+            this.file = file;
+        }
+        if (length >= 0L) {
+            spool = new Spool(file, length);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (resume == null) {
+                raf.setLength(0L);
+            }
+            raf.setLength(Math.max(0L, length));
+            out = raf.getChannel();
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (IOException | NoSuchAlgorithmException e) {
+            raf.close();
+            releaseFirst();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        if (ranged) {
+            // the first block is followed by the last, so that a tag at the
+            // end of the file is available early
+            int count = (int) ((length + BLOCK_SIZE - 1L) / BLOCK_SIZE);
+            long tailStart = length - TAIL_LENGTH;
+            boolean splitTail = count > 1 && tailStart > (count - 1) * BLOCK_SIZE;
+            blocks = new Block[splitTail ? count + 1 : count];
+            for (int i = 0; i < count; ++i) {
+                long start = i * BLOCK_SIZE;
+                blocks[i] = new Block(start, Math.min(length, start + BLOCK_SIZE));
+            }
+            if (splitTail) {
+                Block last = blocks[count - 1];
+                blocks[count - 1] = new Block(last.start, tailStart);
+                blocks[count] = new Block(tailStart, length);
+            }
+            order = new int[blocks.length];
+            for (int i = 0, next = 1; i < order.length; ++i) {
+                if (i == 1 && splitTail) {
+                    order[i] = blocks.length - 1;
+                } else {
+                    order[i] = i == 0 ? 0 : next++;
+                }
+            }
+        } else {
+            blocks = new Block[]{new Block(0L, length < 0L ? Long.MAX_VALUE : length)};
+            order = new int[]{0};
+        }
+
+        int remaining = blocks.length;
+        if (resume != null && resume.positions.length == blocks.length) {
+            remaining = 0;
+            for (int i = 0; i < blocks.length; ++i) {
+                blocks[i].position = Math.max(blocks[i].start, Math.min(blocks[i].end, resume.positions[i]));
+                if (blocks[i].position < blocks[i].end) {
+                    ++remaining;
+                }
+            }
+            getLogger().log(Level.INFO, "resuming download of {0} with {1} of {2} bytes", new Object[]{url, received(), length});
+            // the opening connection starts at the beginning of the file, so
+            // it is only of use if none of the first block has arrived
+            if (blocks[0].position != 0L) {
+                releaseFirst();
+            }
+            // hash the part that is already here, and let the spool know
+            try {
+                advanced();
+            } catch (IOException e) {
+                out.close();
+                releaseFirst();
+                throw e;
+            }
+        }
+
+        int workers = ranged ? Math.max(1, Math.min(remaining, getConnectionLimit())) : 1;
+        running.set(workers);
+        for (int i = 0; i < workers; ++i) {
+            threads.execute(this::work);
+        }
+    }
+
+    /**
+     * Waits for the download to complete, and returns a digest of the
+     * content.
+     *
+     * @return the SHA-256 digest of the downloaded file
+     * @throws IOException if the download failed
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting
+     */
+    byte[] await() throws IOException, InterruptedException {
+        done.await();
+        if (failure != null) {
+            throw failure;
+        }
+        return digest;
+    }
+
+    /**
+     * Returns the exception that stopped the download, or <code>null</code>
+     * if it has not failed.
+     *
+     * @return the reason the download failed, or <code>null</code>
+     */
+    IOException getFailure() {
+        return cancelled ? null : failure;
+    }
+
+    /**
+     * Stops the download if it is still in progress. It is safe to call this
+     * more than once.
+     */
+    void cancel() {
+        cancelled = true;
+        synchronized (active) {
+            for (URLConnection c : active) {
+                disconnect(c);
+            }
+        }
+        releaseFirst();
+    }
+
+    /**
+     * Closes the connection made by {@link #open()} if no worker has taken it
+     * over, and returns its connection permit.
+     */
+    private synchronized void releaseFirst() {
+        if (first != null) {
+            close(firstIn);
+            disconnect(first);
+            first = null;
+            firstIn = null;
+            permits.release();
+        }
+    }
+
+    /**
+     * Waits for a permit to open a connection to the host. Workers wait with
+     * a timeout so that they notice if the download is cancelled while every
+     * permit is held by other downloads.
+     *
+     * @throws InterruptedIOException if the download is cancelled or the
+     * thread is interrupted while waiting
+     */
+    private void acquirePermit() throws InterruptedIOException {
+        try {
+            while (!permits.tryAcquire(PERMIT_WAIT, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    throw new InterruptedIOException();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Downloads blocks until there are none left, or the download fails.
+     */
+    private void work() {
+        try {
+            for (int next; (next = nextBlock.getAndIncrement()) < order.length;) {
+                if (cancelled || failure != null) {
+                    break;
+                }
+                Block block = blocks[order[next]];
+                if (block.position < block.end) {
+                    fetch(block);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e));
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Fetches one block, resuming from where it stopped if the connection
+     * fails.
+     */
+    private void fetch(Block block) throws IOException {
+        for (int attempt = 0;; ++attempt) {
+            URLConnection c = null;
+            InputStream in = null;
+            synchronized (this) {
+                if (first != null && block.position == 0L) {
+                    c = first;
+                    in = firstIn;
+                    first = null;
+                    firstIn = null;
+                }
+            }
+            // the first connection already holds a permit, which is
+            // released below along with the others
+            if (c == null) {
+                acquirePermit();
+            }
+            try {
+                if (cancelled) {
+                    throw new InterruptedIOException();
+                }
+                if (c == null) {
+                    c = connect(url, block.position, block.end - 1L);
+                    if (validator != null) {
+                        c.setRequestProperty("If-Range", validator);
+                    }
+                    in = c.getInputStream();
+                    if (((HttpURLConnection) c).getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                            || parseLength(c.getHeaderField("Content-Range"), block.position) != length) {
+                        throw new IOException(string("error-download-range", block.position));
+                    }
+                }
+                synchronized (active) {
+                    active.add(c);
+                }
+                copy(in, block);
+                return;
+            } catch (IOException e) {
+                if (cancelled) {
+                    throw new InterruptedIOException();
+                }
+                if (!ranged || attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                getLogger().log(Level.INFO, "resuming download of " + url + " at " + block.position, e);
+            } finally {
+                if (c != null) {
+                    synchronized (active) {
+                        active.remove(c);
+                    }
+                }
+                close(in);
+                permits.release();
+            }
+            try {
+                Thread.sleep(RETRY_DELAY * (attempt + 1));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Copies a block from a stream to its place in the local file.
+     */
+    private void copy(InputStream in, Block block) throws IOException {
+        final byte[] buff = new byte[BUFFER_SIZE];
+        while (block.position < block.end) {
+            int read = in.read(buff, 0, (int) Math.min(buff.length, block.end - block.position));
+            if (read < 0) {
+                break;
+            }
+            if (cancelled) {
+                throw new InterruptedIOException();
+            }
+            ByteBuffer bb = ByteBuffer.wrap(buff, 0, read);
+            long pos = block.position;
+            while (bb.hasRemaining()) {
+                pos += out.write(bb, pos);
+            }
+            block.position = pos;
+            advanced();
+        }
+        if (block.end == Long.MAX_VALUE) {
+            // a file of unknown length ends when the stream does
+            block.end = block.position;
+            length = block.position;
+            advanced();
+        } else if (block.position < block.end) {
+            throw new IOException(string("error-download-incomplete", received(), length));
+        }
+    }
+
+    /**
+     * Called after data is written to update the hash, the spool, and the
+     * progress listener. The hash is only updated for the part of the file
+     * that has arrived without gaps, by reading back the new data.
+     */
+    private synchronized void advanced() throws IOException {
+        long prefix = 0L;
+        for (Block b : blocks) {
+            if (b.start != prefix) {
+                break;
+            }
+            prefix = b.position;
+            if (b.position < b.end) {
+                break;
+            }
+        }
+        if (prefix > hashed) {
+            ByteBuffer bb = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, prefix - hashed));
+            while (hashed < prefix) {
+                bb.clear();
+                bb.limit((int) Math.min(bb.capacity(), prefix - hashed));
+                int read = out.read(bb, hashed);
+                if (read < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+                bb.flip();
+                md.update(bb);
+                hashed += read;
+            }
+        }
+        if (spool != null) {
+            spool.setWritten(prefix);
+            Block last = blocks[blocks.length - 1];
+            if (last.position == last.end && last.start > prefix) {
+                spool.setTail(last.start);
+            }
+        }
+        if (progress != null) {
+            progress.accept(received());
+        }
+    }
+
+    private long received() {
+        long total = 0L;
+        for (Block b : blocks) {
+            total += b.position - b.start;
+        }
+        return total;
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            if (!cancelled) {
+                getLogger().log(Level.WARNING, "download failed: " + url, e);
+            }
+        }
+    }
+
+    /**
+     * Called by the last worker to stop.
+     */
+    private void finish() {
+        synchronized (this) {
+            if (failure == null && !cancelled && hashed == length) {
+                digest = md.digest();
+                if (spool != null) {
+                    spool.finish();
+                }
+            } else {
+                if (failure == null) {
+                    failure = new InterruptedIOException();
+                }
+                if (spool != null) {
+                    spool.fail(failure);
+                }
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "exception on closing download file", e);
+        }
+        releaseFirst();
+        done.countDown();
+    }
+
+    /**
+     * Opens a connection, requesting a range of the content if
+     * <code>start</code> is not negative.
+     */
+    private static URLConnection connect(URL url, long start, long end) throws IOException {
+        URLConnection c = url.openConnection();
+        c.setUseCaches(false);
+        c.setConnectTimeout(LibriVoxAudioFile.CONNECT_TIMEOUT);
+        c.setReadTimeout(LibriVoxAudioFile.CONNECT_TIMEOUT);
+        if (start >= 0L && c instanceof HttpURLConnection) {
+            c.setRequestProperty("Range", "bytes=" + start + '-' + end);
+        }
+        return c;
+    }
+
+    /**
+     * Parses the complete length from a content range header of the form
+     * <code>bytes start-end/length</code>, returning -1 if the header is
+     * missing, does not start at the expected offset, or has no length.
+     */
+    private static long parseLength(String range, long start) {
+        if (range == null || !range.startsWith("bytes " + start + '-')) {
+            return -1L;
+        }
+        int slash = range.indexOf('/');
+        try {
+            return slash < 0 ? -1L : Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns the value that identifies the version of the file on the
+     * server, for use in an <code>If-Range</code> header: a strong entity
+     * tag, or else the modification time. Returns <code>null</code> if the
+     * server sent neither; such a download cannot be resumed later.
+     */
+    private static String getValidator(URLConnection c) {
+        String etag = c.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return c.getHeaderField("Last-Modified");
+    }
+
+    private static void disconnect(URLConnection c) {
+        if (c instanceof HttpURLConnection) {
+            ((HttpURLConnection) c).disconnect();
+        }
+    }
+
+    private static void close(InputStream in) {
+        if (in != null) try {
+            in.close();
+        } catch (IOException e) {
+            getLogger().log(Level.FINE, "exception on closing input stream", e);
+        }
+    }
+
+    /**
+     * Returns the number of connections that a single download may open.
+     */
+    private static int getConnectionLimit() {
+        return Math.max(1, Checker.getSettings().getInt("download-connections", 4));
+    }
+
+    /**
+     * Returns the semaphore that limits the number of connections to the host
+     * of a URL, shared by all downloads. A URL that names its protocol's
+     * default port explicitly shares the semaphore of one that leaves it out.
+     */
+    private static Semaphore getHostPermits(URL url) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String host = url.getProtocol() + "://" + url.getHost() + ':' + port;
+        synchronized (hostPermits) {
+            Semaphore s = hostPermits.get(host);
+            if (s == null) {
+                s = new Semaphore(Math.max(1, Checker.getSettings().getInt("download-connections-per-host", 6)));
+                hostPermits.put(host, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * A range of the file that is fetched with a single request.
+     */
+    private static final class Block {
+
+        final long start;
+        volatile long end;
+        /**
+         * The offset of the next byte to be written.
+         */
+        volatile long position;
+
+        Block(long start, long end) {
+            this.start = start;
+            this.end = end;
+            position = start;
+        }
+    }
+
+    /**
+     * The part of a ranged download that arrived before it stopped: the local
+     * file, and how far each block got. Partial downloads are kept in memory
+     * only, so they last as long as the local file does.
+     */
+    static final class Partial {
+
+        private final String url;
+        private final String validator;
+        private final long length;
+        private final File file;
+        private final long[] positions;
+
+        private Partial(String url, String validator, long length, File file, long[] positions) {
+            this.url = url;
+            this.validator = validator;
+            this.length = length;
+            this.file = file;
+            this.positions = positions;
+        }
+
+        /**
+         * Returns the local file that holds the data received so far.
+         *
+         * @return the partial file
+         */
+        File getFile() {
+            return file;
+        }
+    }
+
+    private final URL url;
+    private final Semaphore permits;
+    private volatile long length = -1L;
+    private boolean ranged;
+    private String validator;
+    private File file;
+    private URLConnection first;
+    private InputStream firstIn;
+
+    private volatile Spool spool;
+    private LongConsumer progress;
+    private FileChannel out;
+    private Block[] blocks;
+    private int[] order;
+    private final AtomicInteger nextBlock = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Set<URLConnection> active = new HashSet<>();
+
+    private MessageDigest md;
+    private long hashed;
+    private volatile byte[] digest;
+    private volatile boolean cancelled;
+    private volatile IOException failure;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private static final Map<String, Semaphore> hostPermits = new HashMap<>();
+
+    /**
+     * The size of each range that is requested.
+     */
+    private static final long BLOCK_SIZE = 2L * 1024L * 1024L;
+    /**
+     * The number of bytes at the end of the file that are requested early;
+     * this is the length of an ID3v1 tag.
+     */
+    private static final int TAIL_LENGTH = 128;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_DELAY = 1000L;
+    /**
+     * How long a worker waits for a connection permit, in milliseconds,
+     * before checking whether the download was cancelled.
+     */
+    private static final long PERMIT_WAIT = 250L;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "download " + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+}
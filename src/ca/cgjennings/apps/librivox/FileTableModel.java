@@ -11,10 +11,18 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JLabel;
 import javax.swing.JTable;
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 
@@ -22,12 +30,22 @@ import javax.swing.table.DefaultTableCellRenderer;
  * Structures a collection of {@link LibriVoxAudioFile} objects for display in a
  * <code>JTable</code>.
  *
+ * <p>
+ * Files report progress from their worker threads much more often than the
+ * table can usefully be repainted. Rather than posting an event for each
+ * report, the model notes which files have changed and updates their rows
+ * together, at most {@link #REFRESH_RATE} times per second. The cost of
+ * keeping the table up to date therefore depends on how many files are busy,
+ * not on how many files are in the table.
+ *
  * @author Christopher G. Jennings https://cgjennings.ca/contact/
  */
 class FileTableModel extends AbstractTableModel {
 
     public FileTableModel() {
         rows = new ArrayList<>();
+        refreshTimer = new Timer(1000 / REFRESH_RATE, e -> refresh());
+        refreshTimer.setRepeats(false);
     }
 
     public int addAudioFile(LibriVoxAudioFile af) {
@@ -38,7 +56,12 @@ class FileTableModel extends AbstractTableModel {
 
     public void addAudioFile(int index, LibriVoxAudioFile af) {
         assertEDT();
-        rows.add(af);
+        rows.add(index, af);
+        if (index == rows.size() - 1) {
+            rowIndex.put(af, index);
+        } else {
+            rowIndexIsStale = true;
+        }
         af.setOwner(this);
         fireTableRowsInserted(index, index);
     }
@@ -46,6 +69,11 @@ class FileTableModel extends AbstractTableModel {
     public void removeRow(int row) {
         LibriVoxAudioFile file = rows.get(row);
         rows.remove(row);
+        if (row == rows.size()) {
+            rowIndex.remove(file);
+        } else {
+            rowIndexIsStale = true;
+        }
         fireTableRowsDeleted(row, row);
         file.dispose();
     }
@@ -55,13 +83,27 @@ class FileTableModel extends AbstractTableModel {
     }
 
     public int findRowForFile(LibriVoxAudioFile file) {
-        for (int r = 0; r < rows.size(); ++r) {
-            if (rows.get(r) == file) {
-                fireTableRowsUpdated(r, r);
-                return r;
+        int r = indexOf(file);
+        if (r >= 0) {
+            fireTableRowsUpdated(r, r);
+        }
+        return r;
+    }
+
+    /**
+     * Returns the row that holds a file, or -1. The index is rebuilt after
+     * rows are inserted or removed anywhere but at the end of the table.
+     */
+    private int indexOf(LibriVoxAudioFile file) {
+        if (rowIndexIsStale) {
+            rowIndex.clear();
+            for (int r = 0; r < rows.size(); ++r) {
+                rowIndex.put(rows.get(r), r);
             }
+            rowIndexIsStale = false;
         }
-        return -1;
+        Integer r = rowIndex.get(file);
+        return r == null ? -1 : r;
     }
 
     @Override
@@ -120,21 +162,47 @@ class FileTableModel extends AbstractTableModel {
 
     /**
      * Called from an {@link LibriVoxAudioFile} when that file's progress or
-     * status has changed.
+     * status has changed. This may be called from any thread, and does not
+     * wait for the table to be updated.
      *
      * @param source the {@link LibriVoxAudioFile} that has changed state
      */
     void progressUpdate(LibriVoxAudioFile source) {
-        assertEDT();
+        changedFiles.add(source);
+        if (refreshPending.compareAndSet(false, true)) {
+            EventQueue.invokeLater(refreshTimer::start);
+        }
+    }
 
-        for (int r = 0; r < rows.size(); ++r) {
-            if (rows.get(r) == source) {
-                fireTableRowsUpdated(r, r);
-                return;
+    /**
+     * Updates the rows of the files that have changed since the last refresh.
+     * Each run of adjacent rows is updated with a single event; the rows are
+     * not merged into one range since that would also update the rows in
+     * between, including the row shown in the report views.
+     */
+    private void refresh() {
+        refreshPending.set(false);
+        int[] changed = new int[changedFiles.size() + 8];
+        int n = 0;
+        for (Iterator<LibriVoxAudioFile> it = changedFiles.iterator(); it.hasNext();) {
+            int r = indexOf(it.next());
+            it.remove();
+            if (r >= 0) {
+                if (n == changed.length) {
+                    changed = Arrays.copyOf(changed, n * 2);
+                }
+                changed[n++] = r;
             }
         }
-
-        throw new AssertionError("file not in table: " + source);
+        Arrays.sort(changed, 0, n);
+        for (int i = 0; i < n;) {
+            int first = changed[i];
+            int last = first;
+            while (++i < n && changed[i] <= last + 1) {
+                last = changed[i];
+            }
+            fireTableRowsUpdated(first, last);
+        }
     }
 
     public ProgressRenderer getProgressRenderer() {
@@ -247,6 +315,18 @@ class FileTableModel extends AbstractTableModel {
     }
 
     private final List<LibriVoxAudioFile> rows;
+    private final Map<LibriVoxAudioFile, Integer> rowIndex = new IdentityHashMap<>();
+    private boolean rowIndexIsStale;
+
+    private final Set<LibriVoxAudioFile> changedFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private final Timer refreshTimer;
+
+    /**
+     * The maximum number of times per second that rows are updated to show
+     * the progress of the files being checked.
+     */
+    static final int REFRESH_RATE = 20;
 
     public static final int COL_FILE = 0;
     public static final int COL_PROGRESS = 1;
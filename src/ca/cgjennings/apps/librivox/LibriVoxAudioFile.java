@@ -3,28 +3,37 @@ package ca.cgjennings.apps.librivox;
 import static ca.cgjennings.apps.librivox.Checker.getLogger;
 import static ca.cgjennings.apps.librivox.Checker.string;
 import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.AudioHeader;
 import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
+import ca.cgjennings.apps.librivox.decoder.FrameScan;
+import ca.cgjennings.apps.librivox.decoder.MP3Source;
 import ca.cgjennings.apps.librivox.decoder.NotAnMP3Exception;
 import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import ca.cgjennings.apps.librivox.decoder.ZipArchive;
 import ca.cgjennings.apps.librivox.metadata.MP3FileMetadata;
 import ca.cgjennings.apps.librivox.metadata.MetadataEditorLinkFactory;
+import ca.cgjennings.apps.librivox.tools.PeakPyramid;
+import ca.cgjennings.apps.librivox.tools.WaveformImager;
 import ca.cgjennings.apps.librivox.validators.Validator;
 import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
+import ca.cgjennings.apps.librivox.validators.ValidatorPipeline;
 import java.awt.EventQueue;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 /**
@@ -133,27 +142,60 @@ public class LibriVoxAudioFile {
         queueForAnalysis(WORKER_TASK_DOWNLOAD | WORKER_TASK_ANALYZE);
     }
 
+    /**
+     * Creates a file for an entry in a ZIP archive. The entry is analyzed in
+     * place, without extracting it. The archive is kept open until this file
+     * is disposed of.
+     *
+     * @param entry the archive entry to check
+     * @since 1.3
+     */
+    public LibriVoxAudioFile(ZipArchive.Entry entry) {
+        try {
+            source = new URL("jar:" + entry.getArchive().getFile().toURI().toURL().toExternalForm() + "!/" + entry.getName());
+        } catch (MalformedURLException e) {
+            throw new AssertionError("ZIP entry URL conversion failed: " + e);
+        }
+        entry.getArchive().retain();
+        archiveEntry = entry;
+        localFileIsTemporary = true;
+
+        queueForAnalysis(WORKER_TASK_ANALYZE);
+    }
+
     private synchronized void queueForAnalysis(final int taskFlags) {
-        if (!EventQueue.isDispatchThread()) {
+        if (!batchMode && !EventQueue.isDispatchThread()) {
             throw new IllegalStateException("must be called from dispatch thread");
         }
         cancelAnalysis(true);
         Runnable job = () -> {
             boolean ok;
-            if ((taskFlags & WORKER_TASK_DOWNLOAD) != 0) {
-                setStatus(Status.DOWNLOADING);
-                ok = download();
-                if (!ok || Thread.interrupted()) {
-                    return;
+            try {
+                if ((taskFlags & WORKER_TASK_DOWNLOAD) != 0) {
+                    setStatus(Status.DOWNLOADING);
+                    // if the file will be analyzed, it can be analyzed
+                    // while it downloads
+                    ok = download((taskFlags & WORKER_TASK_ANALYZE) != 0 && Download.isStreamingEnabled());
+                    if (!ok || Thread.interrupted()) {
+                        return;
+                    }
                 }
-            }
-            if ((taskFlags & WORKER_TASK_ANALYZE) != 0) {
-                ok = analyze();
-                if (!ok || Thread.interrupted()) {
-                    return;
+                if ((taskFlags & WORKER_TASK_ANALYZE) != 0) {
+                    ok = analyze();
+                    if (!ok || Thread.interrupted()) {
+                        return;
+                    }
+                }
+                // ... additional tasks
+            } finally {
+                if (streamingDownload != null) {
+                    streamingDownload.cancel();
+                    if (!downloaded) {
+                        keepPartialDownload(streamingDownload);
+                    }
+                    streamingDownload = null;
                 }
             }
-            // ... additional tasks
         };
         report = new Report(this);
         jobToken = JobManager.analyzeInFuture(this, job);
@@ -165,8 +207,16 @@ public class LibriVoxAudioFile {
     /**
      * Download a file from a URL to a temporary local file for processing.
      * Assumes that it is called from within a worker thread.
+     *
+     * @param stream if <code>true</code>, and the length of the file is
+     * known, the download continues in the background and this returns as
+     * soon as the download starts; the file is then analyzed as it arrives
+     * <p>
+     * If an earlier download of the file stopped part way through and the
+     * file has not changed on the server since, the download continues from
+     * where it stopped.
      */
-    private boolean download() {
+    private boolean download(boolean stream) {
         // flip to downloading status with dummy progress info
         synchronized (this) {
             setMaximumProgress(100);
@@ -174,56 +224,87 @@ public class LibriVoxAudioFile {
             setStatus(Status.DOWNLOADING);
         }
 
-        InputStream in = null;
-        OutputStream out = null;
+        Download download = new Download(source);
+        boolean started = false;
+        downloaded = false;
         try {
-            URLConnection connection = source.openConnection();
-            connection.setUseCaches(false);
-            connection.setConnectTimeout(CONNECT_TIMEOUT);
-            synchronized (this) {
-                setMaximumProgress(connection.getContentLength());
-                setCurrentProgress(0);
-            }
-            in = connection.getInputStream();
-
-            localFile = File.createTempFile("dltmp", ".mp3");
-            localFile.deleteOnExit();
+            download.open();
 
-            out = new FileOutputStream(localFile);
+            final Download.Partial resume = download.canResume(partialDownload) ? partialDownload : null;
+            if (resume != null) {
+                localFile = resume.getFile();
+            } else {
+                discardPartialDownload();
+                localFile = File.createTempFile("dltmp", ".mp3");
+                localFile.deleteOnExit();
+            }
+            partialDownload = null;
+
+            if (stream && download.length() >= 0L) {
+                getLogger().log(Level.INFO, "Analyzing {0} while it downloads", source);
+                download.start(localFile, null, resume);
+                streamingDownload = download;
+                started = true;
+                return true;
+            }
 
-            byte[] buff = new byte[IO_BUFFER_SIZE];
-            int read;
-            long totalRead = 0;
-            while ((read = in.read(buff)) >= 0) {
-                out.write(buff, 0, read);
-                totalRead += read;
-                setCurrentProgress(totalRead);
-                if (Thread.interrupted()) {
-                    return false;
-                }
+            synchronized (this) {
+                setMaximumProgress(download.length());
+                setCurrentProgress(0);
             }
+            download.start(localFile, this::setCurrentProgress, resume);
+            download.await();
+            downloaded = true;
+            started = true;
+        } catch (InterruptedException e) {
+            return false;
         } catch (IOException e) {
             setErrorMessage(string("error-download", e.getLocalizedMessage()));
             return false;
         } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    getLogger().log(Level.WARNING, "exception on closing input stream", e);
-                }
-            }
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    getLogger().log(Level.WARNING, "exception on closing temporary file", e);
-                }
+            if (!started) {
+                download.cancel();
+                keepPartialDownload(download);
             }
         }
         return true;
     }
 
+    /**
+     * Keeps what has arrived of a download that did not finish, so that the
+     * next attempt can continue from it.
+     */
+    private void keepPartialDownload(Download download) {
+        Download.Partial partial = download.getPartial();
+        if (partial != null) {
+            partialDownload = partial;
+        }
+    }
+
+    /**
+     * Deletes the file of a partial download that will not be resumed.
+     */
+    private void discardPartialDownload() {
+        if (partialDownload != null) {
+            partialDownload.getFile().delete();
+            partialDownload = null;
+        }
+    }
+
+    /**
+     * Returns the channels that must be decoded for a set of audio
+     * processors. Two channel audio is mixed down to mono as it is decoded
+     * unless one of the processors looks at the channels separately.
+     */
+    private static StreamDecoder.ChannelSelection getRequiredChannels(List<Validator> audioProcessors) {
+        for (Validator v : audioProcessors) {
+            if (v.getRequiredChannels() != StreamDecoder.ChannelSelection.DOWNMIX) {
+                return StreamDecoder.ChannelSelection.BOTH;
+            }
+        }
+        return StreamDecoder.ChannelSelection.DOWNMIX;
+    }
+
     private void validatorFailure(Throwable t) {
         setStatus(Status.ERROR);
         StringBuilder b = new StringBuilder();
@@ -250,41 +331,98 @@ public class LibriVoxAudioFile {
             setStatus(Status.ANALYZING);
         }
 
-        File f = getLocalFile();
-        if (f == null) {
+        if (localFile == null && archiveEntry == null) {
             throw new AssertionError("exptected localFile to be non-null at start of analyze()");
         }
-
-        getLogger().log(Level.INFO, "Reading metadata for {0}", f.getName());
+        final String name = getFileName();
+        waveformPeaks = null;
+        peaksKey = null;
+
+        // the file is opened once: the metadata is parsed from the start
+        // of the file, and the audio is then streamed from the same source
+        MP3Source source = null;
+        getLogger().log(Level.INFO, "Reading metadata for {0}", name);
         try {
+            source = openSource();
             if (metadata == null) {
-                metadata = new MP3FileMetadata(f);
+                metadata = new MP3FileMetadata(source);
             } else {
-                metadata.update();
+                metadata.update(source);
             }
         } catch (NotAnMP3Exception e) {
+            closeSource(source);
             badFileType();
             return false;
         } catch (IOException e) {
-            setErrorMessage(string("error-io-read", e.getLocalizedMessage()));
+            closeSource(source);
+            if (!downloadFailed()) {
+                setErrorMessage(string("error-io-read", e.getLocalizedMessage()));
+            }
             return false;
         } catch (Exception e) {
+            closeSource(source);
             getLogger().log(Level.SEVERE, null, e);
             throw new AssertionError();
         }
 
-        InputStream in = null;
-        try {
-            in = new FileInputStream(f);
-            in = new BufferedInputStream(in, 64 * 1024);
+        // the validators are created first: if none of them processes
+        // audio, the file is checked using only its metadata and the
+        // header of its first frame, and no decoder is created
+        Validator[] validators = ValidatorFactory.getFactory().createValidators();
+        final List<Validator> audioProcessors = new ArrayList<>(validators.length + 1);
+        for (Validator v : validators) {
+            if (v.isAudioProcessor()) {
+                audioProcessors.add(v);
+            }
+        }
+        final boolean metadataOnly = audioProcessors.isEmpty();
+
+        // if the audio is being decoded anyway, the waveform peaks are
+        // collected along the way so the waveform viewer can show them
+        // without decoding the file again
+        if (!metadataOnly && WaveformImager.isPeakCollectionEnabled()) {
+            WaveformImager imager = new WaveformImager();
+            validators = Arrays.copyOf(validators, validators.length + 1);
+            validators[validators.length - 1] = imager;
+            audioProcessors.add(imager);
+        }
 
+        // if this exact file was already checked with the same settings,
+        // the earlier result is restored rather than decoding it again;
+        // hashing the file costs more than a metadata-only check, though,
+        // and a file that is still downloading is hashed as it arrives
+        String cacheKey = metadataOnly || streamingDownload != null ? null : AnalysisCache.createKey(this, source);
+        if (Thread.interrupted()) {
+            closeSource(source);
+            return false;
+        }
+        if (AnalysisCache.restore(cacheKey, report)) {
+            peaksKey = cacheKey;
+            closeSource(source);
+            getLogger().log(Level.INFO, "Restored cached result for {0}", name);
+            setStatusFromReport();
+            return true;
+        }
+
+        try {
             final int skipBytes = metadata.getStartOfAudio();
+            scanSource = source;
+            frameScan = null;
             if (skipBytes > 0) {
-                getLogger().log(Level.INFO, "Skipping {0} metadata tag bytes in {1}", new Object[]{skipBytes, f.getName()});
-                in.skip(skipBytes);
+                getLogger().log(Level.INFO, "Skipping {0} metadata tag bytes in {1}", new Object[]{skipBytes, name});
             }
 
-            StreamDecoder decoder = DecoderFactory.createDecoder(in, report);
+            // long files are decoded in parallel chunks; either way, the
+            // validators see the frames one at a time and in order
+            final StreamDecoder decoder;
+            final AudioHeader audioHeader;
+            if (metadataOnly) {
+                decoder = null;
+                audioHeader = DecoderFactory.readAudioHeader(source, skipBytes, report);
+            } else {
+                decoder = DecoderFactory.createDecoder(source, skipBytes, report, getRequiredChannels(audioProcessors));
+                audioHeader = decoder.getAudioHeader();
+            }
             long frameNumber = 0;
 
             synchronized (this) {
@@ -292,19 +430,15 @@ public class LibriVoxAudioFile {
                 setCurrentProgress(0L);
             }
 
-            Validator[] validators = ValidatorFactory.getFactory().createValidators();
-            boolean needsStreamDecoder = false;
-
             for (int i = 0; i < validators.length; ++i) {
                 Validator v = validators[i];
-                needsStreamDecoder |= v.isAudioProcessor();
                 try {
                     v.initialize(this, report);
 
                     Validator[] predecessors = new Validator[i];
                     System.arraycopy(validators, 0, predecessors, 0, i);
 
-                    v.beginAnalysis(decoder.getAudioHeader(), predecessors);
+                    v.beginAnalysis(audioHeader, predecessors);
                 } catch (Throwable t) {
                     validatorFailure(t);
                     return false;
@@ -318,40 +452,81 @@ public class LibriVoxAudioFile {
             // amount of audio---it must be corrupt instead
             // TODO: do something useful with the decoder error system and
             //       put errors in the report
-            if (needsStreamDecoder) try {
-                AudioFrame frame = decoder.getNextFrame();
-                while (frame != null) {
-                    for (Validator v : validators) {
-                        if (v.isAudioProcessor()) {
-                            v.analyzeFrame(frame);
-                            if (Thread.interrupted()) {
-                                return false;
+
+            // on a multicore system, the audio processors each run in their
+            // own thread so that decoding and analysis overlap
+            if (!metadataOnly) {
+                final Validator[] processors = audioProcessors.toArray(new Validator[audioProcessors.size()]);
+                final ValidatorPipeline pipeline = ValidatorPipeline.isEnabled() ? new ValidatorPipeline(processors) : null;
+                try {
+                    AudioFrame frame = decoder.getNextFrame();
+                    while (frame != null) {
+                        if (pipeline != null) {
+                            pipeline.publish(frame);
+                        } else {
+                            for (Validator v : processors) {
+                                v.analyzeFrame(frame);
                             }
                         }
-                    }
+                        if (Thread.interrupted()) {
+                            return false;
+                        }
 
-                    ++frameNumber;
-                    if (frameNumber % FRAME_UPDATE_RATE == 0) {
-                        setCurrentProgress(frameNumber);
+                        ++frameNumber;
+                        if (frameNumber % FRAME_UPDATE_RATE == 0) {
+                            setCurrentProgress(frameNumber);
+                        }
+
+                        frame = decoder.getNextFrame();
+                    }
+                    if (pipeline != null) {
+                        pipeline.finish();
+                    }
+                } catch (InterruptedException e) {
+                    return false;
+                } catch (ExecutionException e) {
+                    validatorFailure(e.getCause());
+                    return false;
+                } catch (NotAnMP3Exception e) {
+                    badFileType();
+                    return false;
+                } catch (IOException e) {
+                    if (downloadFailed()) {
+                        return false;
                     }
+                    setStatus(Status.ERROR);
+                    // TODO: improve error message
+                    report.setErrorMessage(e.toString());
+                    getLogger().log(Level.WARNING, null, e);
+                    report.close();
+                    return false;
+                } catch (Throwable t) {
+                    validatorFailure(t);
+                    return false;
+                } finally {
+                    if (pipeline != null) {
+                        pipeline.close();
+                    }
+                    decoder.close();
+                }
+            }
 
-                    frame = decoder.getNextFrame();
+            // a file that was analyzed as it downloaded must have arrived
+            // intact before the results can be trusted
+            if (streamingDownload != null) {
+                try {
+                    cacheKey = AnalysisCache.createKey(this, streamingDownload.await());
+                    downloaded = true;
+                } catch (InterruptedException e) {
+                    return false;
+                } catch (IOException e) {
+                    setErrorMessage(string("error-download", e.getLocalizedMessage()));
+                    return false;
                 }
-            } catch (NotAnMP3Exception e) {
-                badFileType();
-                return false;
-            } catch (IOException e) {
-                setStatus(Status.ERROR);
-                // TODO: improve error message
-                report.setErrorMessage(e.toString());
-                getLogger().log(Level.WARNING, null, e);
-                report.close();
-                return false;
-            } catch (Throwable t) {
-                validatorFailure(t);
-                return false;
             }
 
+            // the imager's peaks are stored when it finishes
+            peaksKey = cacheKey;
             for (Validator v : validators) {
                 try {
                     v.endAnalysis();
@@ -365,22 +540,13 @@ public class LibriVoxAudioFile {
             }
 
             report.close();
-
-            Status finalStatus = Status.ERROR;
-            switch (report.getValidity()) {
-                case PASS:
-                    finalStatus = Status.PASSED;
-                    break;
-                case WARN:
-                    finalStatus = Status.WARNINGS;
-                    break;
-                case FAIL:
-                    finalStatus = Status.FAILED;
-                    break;
-            }
-            setStatus(finalStatus);
+            AnalysisCache.store(cacheKey, report);
+            setStatusFromReport();
 
         } catch (IOException e) {
+            if (downloadFailed()) {
+                return false;
+            }
             getLogger().log(Level.SEVERE, null, e);
             setStatus(Status.ERROR);
             // TODO: improve error message
@@ -389,14 +555,118 @@ public class LibriVoxAudioFile {
             report.close();
             return false;
         } finally {
-            if (in != null) try {
-                in.close();
-            } catch (IOException e) {
+            scanSource = null;
+            frameScan = null;
+            closeSource(source);
+        }
+        return true;
+    }
+
+    /**
+     * Opens the source that the file is analyzed from. Archive entries are
+     * read in place unless they would take too much memory to inflate, or
+     * have already been extracted so that they could be edited.
+     */
+    private MP3Source openSource() throws IOException {
+        if (streamingDownload != null) {
+            return new MP3Source(streamingDownload.getSpool());
+        }
+        synchronized (this) {
+            if (localFile == null) {
+                final long limit = Checker.getSettings().getInt("zip-inflate-limit", 64) * 1024L * 1024L;
+                if (!archiveEntry.isCompressed() || archiveEntry.getSize() <= limit) {
+                    return new MP3Source(archiveEntry);
+                }
+                getLogger().log(Level.INFO, "Extracting {0} to check it", archiveEntry);
+                extract();
             }
         }
+        return new MP3Source(localFile);
+    }
+
+    /**
+     * Copies an archive entry to a temporary file.
+     */
+    private void extract() throws IOException {
+        File f = File.createTempFile("dltmp", ".mp3");
+        f.deleteOnExit();
+        try (InputStream in = archiveEntry.openStream()) {
+            Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+        localFile = f;
+    }
+
+    /**
+     * Returns a description of the frames in this file's audio, found by
+     * walking the frame headers without decoding the audio. The file is
+     * scanned the first time that this is called during an analysis, and the
+     * result is shared by all of the validators. This may only be called by
+     * validators while the file is being analyzed.
+     *
+     * @return the frames in the audio data
+     * @throws NotAnMP3Exception if the file contains no valid frames
+     * @throws IOException if an I/O error occurs while scanning the file
+     * @throws IllegalStateException if the file is not being analyzed
+     * @since 1.3
+     */
+    public FrameScan getFrameScan() throws IOException {
+        if (scanSource == null) {
+            throw new IllegalStateException("not analyzing");
+        }
+        if (frameScan == null) {
+            frameScan = DecoderFactory.scanFrames(scanSource, metadata.getStartOfAudio());
+        }
+        return frameScan;
+    }
+
+    /**
+     * If the file is being analyzed while it downloads and the download has
+     * failed, sets the error message to describe the download error. This
+     * is called when reading the file fails, since the read error is only a
+     * symptom of the failed download.
+     *
+     * @return <code>true</code> if the download failed
+     */
+    private boolean downloadFailed() {
+        IOException failure = streamingDownload == null ? null : streamingDownload.getFailure();
+        if (failure == null) {
+            return false;
+        }
+        setErrorMessage(string("error-download", failure.getLocalizedMessage()));
         return true;
     }
 
+    /**
+     * Sets the final status of the file from the validity of its closed
+     * report.
+     */
+    private void setStatusFromReport() {
+        Status finalStatus = Status.ERROR;
+        switch (report.getValidity()) {
+            case PASS:
+                finalStatus = Status.PASSED;
+                break;
+            case WARN:
+                finalStatus = Status.WARNINGS;
+                break;
+            case FAIL:
+                finalStatus = Status.FAILED;
+                break;
+        }
+        setStatus(finalStatus);
+    }
+
+    private static void closeSource(MP3Source source) {
+        if (source != null) try {
+            source.close();
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "exception on closing file", e);
+        }
+    }
+
     /**
      * When a file is not thought to be an MP3 file, this method is called to
      * try to guess the file type and create an appropriate message.
@@ -404,7 +674,13 @@ public class LibriVoxAudioFile {
     private void badFileType() {
         String guess = null;
         try {
-            guess = FileTypeDeducer.deduceFileType(localFile);
+            if (localFile == null) {
+                try (InputStream in = archiveEntry.openStream()) {
+                    guess = FileTypeDeducer.deduceFileType(in);
+                }
+            } else {
+                guess = FileTypeDeducer.deduceFileType(localFile);
+            }
         } catch (IOException e) {
             // treat as if we couldn't identify the file
         }
@@ -426,7 +702,9 @@ public class LibriVoxAudioFile {
 
     /**
      * Adds this file back to the analysis queue. This has no effect if the file
-     * is still downloading or is already in the queue.
+     * is still downloading or is already in the queue. If the file is
+     * downloaded and its download did not finish, it is downloaded again
+     * first, continuing from where it stopped if possible.
      *
      * @throws IllegalStateException if the file has been disposed
      */
@@ -439,7 +717,8 @@ public class LibriVoxAudioFile {
         if (s == Status.DISPOSED) {
             throw new IllegalStateException("file has been released using dispose()");
         }
-        queueForAnalysis(WORKER_TASK_ANALYZE);
+        final boolean download = localFileIsTemporary && archiveEntry == null && !downloaded;
+        queueForAnalysis(download ? WORKER_TASK_DOWNLOAD | WORKER_TASK_ANALYZE : WORKER_TASK_ANALYZE);
     }
 
     /**
@@ -510,10 +789,39 @@ public class LibriVoxAudioFile {
         return path.substring(nameStart);
     }
 
-    public File getLocalFile() {
+    /**
+     * Returns the local copy of the file. For a file in a ZIP archive, the
+     * file is extracted to a temporary file the first time that this is
+     * called, and that copy is checked from then on; validators should use
+     * {@link #getFileSize()} or the analysis source instead.
+     *
+     * @return the file on disk, or <code>null</code> if it is not available
+     */
+    public synchronized File getLocalFile() {
+        if (localFile == null && archiveEntry != null && status != Status.DISPOSED) {
+            try {
+                extract();
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "unable to extract " + archiveEntry, e);
+            }
+        }
         return localFile;
     }
 
+    /**
+     * Returns the size of the file, in bytes, without extracting it if it is
+     * in an archive.
+     *
+     * @return the file size, or 0 if it is not yet known
+     * @since 1.3
+     */
+    public synchronized long getFileSize() {
+        if (localFile != null) {
+            return localFile.length();
+        }
+        return archiveEntry == null ? 0L : archiveEntry.getSize();
+    }
+
     public URL getSource() {
         return source;
     }
@@ -526,6 +834,43 @@ public class LibriVoxAudioFile {
         return metadata;
     }
 
+    /**
+     * Returns the waveform peaks collected the last time this file was
+     * decoded, or <code>null</code> if they are not available. The peaks are
+     * only softly reachable, so they may be discarded if memory runs low. If
+     * they are not in memory but were stored in the analysis cache, possibly
+     * by an earlier session, they are read from the cache, so this should not
+     * be called from the event dispatch thread.
+     *
+     * @return the file's waveform peaks, or <code>null</code>
+     * @since 1.3
+     */
+    public PeakPyramid getWaveformPeaks() {
+        SoftReference<PeakPyramid> ref = waveformPeaks;
+        PeakPyramid peaks = ref == null ? null : ref.get();
+        if (peaks == null) {
+            peaks = AnalysisCache.restorePeaks(peaksKey);
+            if (peaks != null) {
+                waveformPeaks = new SoftReference<>(peaks);
+            }
+        }
+        return peaks;
+    }
+
+    /**
+     * Sets the waveform peaks for this file. This is called by the
+     * {@link WaveformImager} when it finishes collecting them. If the file's
+     * content has been hashed for the analysis cache, the peaks are also
+     * stored in the cache.
+     *
+     * @param peaks the complete waveform peaks for the file
+     * @since 1.3
+     */
+    public void setWaveformPeaks(PeakPyramid peaks) {
+        waveformPeaks = peaks == null ? null : new SoftReference<>(peaks);
+        AnalysisCache.storePeaks(peaksKey, peaks);
+    }
+
     private synchronized void setStatus(Status status) {
         this.status = status;
         if (!isBusy()) {
@@ -575,6 +920,16 @@ public class LibriVoxAudioFile {
         if (localFileIsTemporary && localFile != null) {
             localFile.delete();
         }
+        if (partialDownload != null) {
+            partialDownload.getFile().delete();
+        }
+        if (archiveEntry != null && status != Status.DISPOSED) {
+            try {
+                archiveEntry.getArchive().close();
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "closing " + archiveEntry.getArchive().getFile(), e);
+            }
+        }
         setStatus(Status.DISPOSED);
     }
 
@@ -594,10 +949,41 @@ public class LibriVoxAudioFile {
         return doc;
     }
 
+    /**
+     * Returns the report for the most recent analysis of this file. The report
+     * is not complete until the file is done processing.
+     *
+     * @return the report that the file's validators write to
+     * @see #isDone()
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * Sets whether files are being checked in batch mode. In batch mode there
+     * is no user interface, so new files can be created and queued from any
+     * thread rather than only from the event dispatch thread.
+     *
+     * @param batch <code>true</code> to allow files to be queued from any
+     * thread
+     */
+    static void setBatchMode(boolean batch) {
+        batchMode = batch;
+    }
+
+    private static volatile boolean batchMode;
+
     private boolean localFileIsTemporary = false;
     private File localFile;
+    private ZipArchive.Entry archiveEntry;
     private URL source;
     private Report report;
+    private MP3Source scanSource;
+    private volatile Download streamingDownload;
+    private volatile boolean downloaded;
+    private volatile Download.Partial partialDownload;
+    private FrameScan frameScan;
     private volatile Status status = Status.QUEUED;
     private String errorMessage;
 
@@ -606,6 +992,8 @@ public class LibriVoxAudioFile {
     private volatile long progress = -1L, progressMax = 100L;
     private volatile FileTableModel owner;
     private volatile MP3FileMetadata metadata;
+    private volatile SoftReference<PeakPyramid> waveformPeaks;
+    private volatile String peaksKey;
 
     /**
      * <b>Important:</b> assumes that setCurrentProgress() will be called
@@ -627,15 +1015,13 @@ public class LibriVoxAudioFile {
     /**
      * Informs the owning component that the status or progress have changed,
      * and the display should be updated accordingly. It is safe to call this
-     * from any thread.
+     * from any thread; the owner coalesces updates, so this does not wait for
+     * the display.
      */
     private void fireProgressUpdate() {
-        if (owner != null) {
-            EventQueue.invokeLater(() -> {
-                if (owner != null) {
-                    owner.progressUpdate(LibriVoxAudioFile.this);
-                }
-            });
+        FileTableModel o = owner;
+        if (o != null) {
+            o.progressUpdate(this);
         }
     }
 
@@ -677,7 +1063,22 @@ public class LibriVoxAudioFile {
         return isDone();
     }
 
-    private final int IO_BUFFER_SIZE = 32 * 1024;
-    private final int CONNECT_TIMEOUT = 30 * 1000;
+    /**
+     * Puts the calling thread to sleep until the job that is processing this
+     * file stops, whether or not it completed normally. Unlike
+     * {@link #waitForReport}, this does not hold a lock on the file while
+     * waiting, so the worker thread can continue to update the file's state.
+     */
+    void waitUntilProcessed() {
+        JobManager.JobToken token;
+        synchronized (this) {
+            token = jobToken;
+        }
+        if (token != null) {
+            token.waitUntilDone();
+        }
+    }
+
+    static final int CONNECT_TIMEOUT = 30 * 1000;
     private final long FRAME_UPDATE_RATE = 500;
 }
@@ -7,7 +7,14 @@ import ca.cgjennings.apps.librivox.validators.Validator.Category;
 import ca.cgjennings.apps.librivox.validators.Validator.Validity;
 import ca.cgjennings.apps.librivox.validators.ValidatorFactory;
 import ca.cgjennings.util.Settings;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Used to compile reports of the validation of a {@link LibriVoxAudioFile}.
@@ -36,6 +43,7 @@ public class Report {
     public void addStatement(Category cat, Object text) {
         checkClosure();
         oneColumnEntry(INFORMATION, informationSegments[cat.ordinal()], text);
+        entries.add(new Entry(EntryType.STATEMENT, cat, null, null, format(text)));
     }
 
     private void oneColumnEntry(int reportID, StringBuilder b, Object text) {
@@ -58,6 +66,7 @@ public class Report {
         checkClosure();
         StringBuilder b = informationSegments[cat.ordinal()];
         keyValueEntry(INFORMATION, b, name, value);
+        entries.add(new Entry(EntryType.FEATURE, cat, null, format(name), format(value)));
     }
 
     /**
@@ -96,6 +105,7 @@ public class Report {
 
         StringBuilder b = validationSegments[cat.ordinal()];
         validationEntry(VALIDATION, b, validity, description, helpURL);
+        entries.add(new Entry(EntryType.VALIDATION, cat, validity, null, format(description)));
     }
 
     private void keyValueEntry(int reportID, StringBuilder b, Object key, Object value) {
@@ -315,6 +325,207 @@ public class Report {
         return validity;
     }
 
+    /**
+     * Returns the error message that overrides the standard report content, or
+     * <code>null</code> if no error message has been set.
+     *
+     * @return the report's error message, or <code>null</code>
+     * @see #setErrorMessage(java.lang.String)
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Returns the entries that have been added to this report, in the order
+     * that they were added. Unlike the report text, the entries are available
+     * as individual values which makes them suitable for writing the results
+     * in a machine-readable format. Validation entries that passed are not
+     * included, since they do not produce any output in the report.
+     *
+     * @return an immutable list of the report's entries
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * The kinds of entry that can be added to a report.
+     */
+    public enum EntryType {
+        /**
+         * An entry added with {@link #addStatement}.
+         */
+        STATEMENT,
+        /**
+         * An entry added with {@link #addFeature}.
+         */
+        FEATURE,
+        /**
+         * An entry added with {@link #addValidation}.
+         */
+        VALIDATION
+    }
+
+    /**
+     * A single entry in a report. The text of an entry is formatted as it
+     * would appear in the report document, and so it may include HTML markup.
+     */
+    public static final class Entry {
+
+        private final EntryType type;
+        private final Category category;
+        private final Validity validity;
+        private final String name;
+        private final String text;
+
+        private Entry(EntryType type, Category category, Validity validity, String name, String text) {
+            this.type = type;
+            this.category = category;
+            this.validity = validity;
+            this.name = name;
+            this.text = text;
+        }
+
+        /**
+         * Returns the type of the entry.
+         *
+         * @return the entry type
+         */
+        public EntryType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the category that the entry was filed under.
+         *
+         * @return the entry category
+         */
+        public Category getCategory() {
+            return category;
+        }
+
+        /**
+         * Returns the validity of a validation entry, after applying any
+         * strictness settings; for other entry types, returns
+         * <code>null</code>.
+         *
+         * @return the validity of the entry, or <code>null</code>
+         */
+        public Validity getValidity() {
+            return validity;
+        }
+
+        /**
+         * Returns the feature name of a feature entry; for other entry types,
+         * returns <code>null</code>.
+         *
+         * @return the feature name, or <code>null</code>
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the text of the entry: the value of a feature, the
+         * description of a validation, or the statement text.
+         *
+         * @return the formatted text of the entry
+         */
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + type + ' ' + category + (validity == null ? "" : " " + validity)
+                    + (name == null ? "" : " " + name) + ": " + text + ']';
+        }
+    }
+
+    /**
+     * Writes the content of a closed report so that it can be restored later
+     * by calling {@link #restore} on a new report for the same file.
+     *
+     * @param out the stream to write to
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the report is still open
+     */
+    void write(DataOutputStream out) throws IOException {
+        if (isOpen) {
+            throw new IllegalStateException("report is open");
+        }
+        out.writeUTF(validity.name());
+        writeString(out, informationReportText);
+        writeString(out, validationReportText);
+        out.writeInt(entries.size());
+        for (Entry e : entries) {
+            out.writeUTF(e.type.name());
+            out.writeUTF(e.category.name());
+            out.writeUTF(e.validity == null ? "" : e.validity.name());
+            writeString(out, e.name);
+            writeString(out, e.text);
+        }
+    }
+
+    /**
+     * Replaces the content of an open report with content written by
+     * {@link #write}, and closes the report. If the content cannot be read,
+     * the report is left unchanged.
+     *
+     * @param in the stream to read from
+     * @throws IOException if an I/O error occurs or the content is invalid
+     */
+    void restore(DataInputStream in) throws IOException {
+        checkClosure();
+        try {
+            Validity restoredValidity = Validity.valueOf(in.readUTF());
+            String information = readString(in);
+            String validation = readString(in);
+            int count = in.readInt();
+            List<Entry> restoredEntries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                EntryType type = EntryType.valueOf(in.readUTF());
+                Category cat = Category.valueOf(in.readUTF());
+                String v = in.readUTF();
+                restoredEntries.add(new Entry(
+                        type, cat, v.isEmpty() ? null : Validity.valueOf(v), readString(in), readString(in)
+                ));
+            }
+
+            validity = restoredValidity;
+            entries.clear();
+            entries.addAll(restoredEntries);
+            informationReportText = information;
+            validationReportText = validation;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid report data", e);
+        }
+        isOpen = false;
+        informationSegments = null;
+        validationSegments = null;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
     /**
      * Throw an exception if the report has already been closed.
      */
@@ -367,6 +578,7 @@ public class Report {
 
     private boolean isOpen;
     private StringBuilder[] informationSegments, validationSegments;
+    private final List<Entry> entries = new ArrayList<>();
 
     // for each report, tracks how many rows with multiple columns have been
     // emitted and how many rows have been emitted; this tells us whether
@@ -1,8 +1,13 @@
 package ca.cgjennings.apps.librivox.decoder;
 
+import ca.cgjennings.apps.librivox.Checker;
 import ca.cgjennings.apps.librivox.Report;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Header;
 
 /**
  * A factory that creates MP3 decoders for input streams.
@@ -90,6 +95,129 @@ public final class DecoderFactory {
      * ca.cgjennings.apps.librivox.decoder.StreamDecoder.ErrorTolerance)
      */
     public static StreamDecoder createDecoder(InputStream in, Report report, StreamDecoder.ErrorTolerance tolerance) throws IOException {
-        return new JavaLayerStreamDecoder(in, report, tolerance);
+        return createDecoder(in, report, tolerance, StreamDecoder.ChannelSelection.BOTH);
     }
+
+    /**
+     * Creates a new stream decoder with the specified parameters, as for
+     * {@link #createDecoder(java.io.InputStream,
+     * ca.cgjennings.apps.librivox.Report,
+     * ca.cgjennings.apps.librivox.decoder.StreamDecoder.ErrorTolerance)},
+     * that decodes the selected channels.
+     *
+     * @param in an input stream containing MP3 audio data
+     * @param report an optional report that will be used to record information
+     * about decoding errors; may be <code>null</code>
+     * @param tolerance a hint regarding how many errors are acceptable before
+     * giving up
+     * @param channels the channels to decode
+     * @return a stream decoder with the requested characteristics
+     * @throws java.io.IOException if an I/O exception occurs while creating the
+     * decoder
+     * @since 1.3
+     */
+    public static StreamDecoder createDecoder(InputStream in, Report report, StreamDecoder.ErrorTolerance tolerance, StreamDecoder.ChannelSelection channels) throws IOException {
+        return new JavaLayerStreamDecoder(in, report, tolerance, channels);
+    }
+
+    /**
+     * Creates a new stream decoder for the audio in an MP3 source, starting
+     * from the specified offset, with a moderate tolerance for decoding errors.
+     * If the audio is long enough to benefit from it, more than one core is
+     * available, and the <code>parallel-decoding</code> setting is on, the
+     * returned decoder will decode several parts of the file in parallel.
+     * Either way, frames are returned in order just as they would be by a
+     * decoder created from an input stream.
+     *
+     * @param source the source to read audio data from; it must remain open
+     * until decoding is finished
+     * @param offset the offset of the start of the audio data in the source
+     * @param report an optional report that will be used to record information
+     * about decoding errors; may be <code>null</code>
+     * @return a stream decoder for the audio in the source
+     * @throws java.io.IOException if an I/O exception occurs while creating the
+     * decoder
+     * @since 1.3
+     */
+    public static StreamDecoder createDecoder(MP3Source source, long offset, Report report) throws IOException {
+        return createDecoder(source, offset, report, StreamDecoder.ChannelSelection.BOTH);
+    }
+
+    /**
+     * Creates a new stream decoder for the audio in an MP3 source, as for
+     * {@link #createDecoder(ca.cgjennings.apps.librivox.decoder.MP3Source,
+     * long, ca.cgjennings.apps.librivox.Report)}, that decodes the selected
+     * channels.
+     *
+     * @param source the source to read audio data from; it must remain open
+     * until decoding is finished
+     * @param offset the offset of the start of the audio data in the source
+     * @param report an optional report that will be used to record information
+     * about decoding errors; may be <code>null</code>
+     * @param channels the channels to decode
+     * @return a stream decoder for the audio in the source
+     * @throws java.io.IOException if an I/O exception occurs while creating the
+     * decoder
+     * @since 1.3
+     */
+    public static StreamDecoder createDecoder(MP3Source source, long offset, Report report, StreamDecoder.ChannelSelection channels) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        // a file that is still downloading cannot be read ahead of the
+        // download, so there would be nothing for the extra threads to do
+        if (pool.getParallelism() > 1 && Checker.getSettings().getBoolean("parallel-decoding", true) && !source.isSpooling() && source.length() - offset >= MIN_PARALLEL_LENGTH) {
+            return new ParallelStreamDecoder(source, offset, report, StreamDecoder.ErrorTolerance.MODERATE, channels, pool);
+        }
+        InputStream in = new BufferedInputStream(source.createInputStream(offset), 64 * 1024);
+        return createDecoder(in, report, StreamDecoder.ErrorTolerance.MODERATE, channels);
+    }
+
+    /**
+     * Returns the audio header of the first valid frame in a source, without
+     * creating a decoder. This only reads as far as the first valid frame, so
+     * it is much faster than creating a decoder when the audio itself will not
+     * be analyzed.
+     *
+     * @param source the source to read the header from
+     * @param offset the offset of the start of the audio data in the source
+     * @param report an optional report that will be used to record information
+     * about invalid frames before the first valid frame; may be
+     * <code>null</code>
+     * @return the header of the first valid frame
+     * @throws NotAnMP3Exception if no valid frame can be found
+     * @throws java.io.IOException if an I/O exception occurs while reading the
+     * header
+     * @since 1.3
+     */
+    public static AudioHeader readAudioHeader(MP3Source source, long offset, Report report) throws IOException {
+        try (InputStream in = new BufferedInputStream(source.createInputStream(offset), 8 * 1024)) {
+            DecodingErrorHandler errors = new DecodingErrorHandler(report, StreamDecoder.ErrorTolerance.MODERATE);
+            Header header = JavaLayerStreamDecoder.readFirstHeader(new Bitstream(in), errors);
+            return new JavaLayerAudioHeader(header);
+        }
+    }
+
+    /**
+     * Walks the frame headers of the audio in a source without decoding it.
+     * This finds the exact number of frames and length of the audio, along
+     * with the bit rates and channel formats used by the frames and any
+     * places where the stream is damaged, in about the time it takes to read
+     * the file.
+     *
+     * @param source the source to scan
+     * @param offset the offset of the start of the audio data in the source
+     * @return a description of the frames in the source
+     * @throws NotAnMP3Exception if no valid frames can be found
+     * @throws java.io.IOException if an I/O exception occurs while reading the
+     * source
+     * @since 1.3
+     */
+    public static FrameScan scanFrames(MP3Source source, long offset) throws IOException {
+        return new FrameScan(source, offset);
+    }
+
+    /**
+     * Audio shorter than this is always decoded sequentially, as the cost of
+     * starting the parallel decoder would outweigh the benefit.
+     */
+    private static final long MIN_PARALLEL_LENGTH = 4L * ParallelStreamDecoder.CHUNK_LENGTH;
 }
@@ -0,0 +1,152 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.Report;
+import ca.cgjennings.apps.librivox.validators.Validator.Category;
+import ca.cgjennings.apps.librivox.validators.Validator.Validity;
+import java.io.IOException;
+import java.util.logging.Level;
+import javazoom.jl.decoder.BitstreamErrors;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.DecoderErrors;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.JavaLayerException;
+
+/**
+ * Handles the errors raised by the JavaLayer library while decoding a stream.
+ * Each error is logged and optionally noted in a report, and an exception is
+ * thrown once the stream has produced more errors than the error tolerance
+ * allows.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class DecodingErrorHandler {
+
+    private final Report report;
+    private final int maxErrors;
+    private int errorCount;
+
+    /**
+     * The number of frames that must be decoded successfully before decoding
+     * errors are treated as a corrupt MP3 file rather than a file that is not
+     * an MP3 file at all.
+     */
+    static final int NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3 = 3;
+
+    /**
+     * Creates a new error handler.
+     *
+     * @param report a report that will be used to note any problems when
+     * decoding; may be <code>null</code>
+     * @param tolerance a hint regarding how many errors are acceptable before
+     * giving up
+     */
+    DecodingErrorHandler(Report report, StreamDecoder.ErrorTolerance tolerance) {
+        this.report = report;
+        switch (tolerance) {
+            case NONE:
+                maxErrors = 0;
+                break;
+            case MODERATE:
+                maxErrors = 10;
+                break;
+            case ALL:
+                maxErrors = Integer.MAX_VALUE;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown tolerance " + tolerance);
+        }
+    }
+
+    /**
+     * Returns the number of errors that have been handled.
+     *
+     * @return the error count
+     */
+    int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Handles a decoding error.
+     *
+     * @param e the exception thrown by the library
+     * @param frameNumber the number of the frame where the error occurred
+     * @param validFramesDecoded the number of valid frames decoded so far
+     * @param logInReport if <code>true</code>, the error is noted in the
+     * report
+     * @throws IOException if the error is an I/O error, or if too many errors
+     * have occurred
+     */
+    @SuppressWarnings("fallthrough")
+    void handle(JavaLayerException e, long frameNumber, long validFramesDecoded, boolean logInReport) throws IOException {
+        // COMPOSE the error message
+        boolean isIOError = false;
+        String key;
+        Throwable cause = e.getCause();
+
+        int code = Integer.MAX_VALUE;
+        if (e instanceof DecoderException) {
+            code = ((DecoderException) e).getErrorCode();
+        } else if (e instanceof BitstreamException) {
+            code = ((BitstreamException) e).getErrorCode();
+        }
+
+        switch (code) {
+            case BitstreamErrors.INVALIDFRAME:
+                key = "invalid-frame";
+                break;
+            case BitstreamErrors.STREAM_ERROR:
+                key = "stream";
+                isIOError = true;
+                break;
+            case BitstreamErrors.STREAM_EOF:
+                isIOError = true; // fallthrough
+            case BitstreamErrors.UNEXPECTED_EOF:
+                key = "eof";
+                break;
+            case BitstreamErrors.UNKNOWN_SAMPLE_RATE:
+                key = "sample-rate";
+                break;
+            case DecoderErrors.ILLEGAL_SUBBAND_ALLOCATION:
+                key = "allocation";
+                break;
+            case DecoderErrors.UNSUPPORTED_LAYER:
+                key = "layer";
+                break;
+            case DecoderErrors.UNKNOWN_ERROR:
+            case BitstreamErrors.UNKNOWN_ERROR:
+            default:
+                key = "unknown";
+                break;
+        }
+
+        String message = Checker.string("error-decoder", frameNumber)
+                + "\n" + Checker.string("error-decoder-" + key);
+        if (cause != null && cause instanceof IOException) {
+            String causeMessage = cause.getLocalizedMessage();
+            if (causeMessage != null && causeMessage.length() > 0) {
+                message += "\n" + causeMessage;
+            }
+            isIOError = true;
+        }
+
+        ++errorCount;
+        if (logInReport && (report != null)) {
+            report.addValidation(Category.ERROR, null, Validity.WARN, message.replace("\n", "<br>"), null);
+        }
+
+        Checker.getLogger().log(Level.WARNING, "Error while decoding frame", e);
+
+        if (isIOError) {
+            throw new IOException(message);
+        }
+        if (errorCount > maxErrors) {
+            if (validFramesDecoded < NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3) {
+                throw new NotAnMP3Exception();
+            }
+            throw new DecodingException(Checker.string("error-decoder-too-many"));
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Describes the frames of an MP3 stream, as found by walking from one frame
+ * header to the next without decoding any audio. Only the four header bytes of
+ * each frame are examined, so a scan runs at about the speed that the file can
+ * be read, while still giving an exact frame count and track length.
+ *
+ * <p>
+ * When the data at the expected start of a frame is not a valid header (or is
+ * not compatible with the first frame of the stream), a synchronization error
+ * is recorded and the scan continues from the next offset that starts a chain
+ * of valid frames. A trailing ID3v1 or APE tag is not considered to be an
+ * error.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ * @see DecoderFactory#scanFrames
+ */
+public final class FrameScan {
+
+    /**
+     * Scans the frames in a source, starting from the specified offset.
+     *
+     * @param source the source to scan
+     * @param offset the offset of the start of the audio data in the source
+     * @throws NotAnMP3Exception if no valid frames are found
+     * @throws IOException if an I/O error occurs while reading the source
+     */
+    FrameScan(MP3Source source, long offset) throws IOException {
+        channel = source.getChannel();
+        end = audioEnd(source);
+        scan(offset);
+        if (frameCount == 0L) {
+            throw new NotAnMP3Exception();
+        }
+        buffer = null;
+    }
+
+    /**
+     * Returns the number of frames in the stream.
+     *
+     * @return the number of valid frames
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of frames that have a given channel format.
+     *
+     * @param format the channel format to count
+     * @return the number of frames whose header specifies the format
+     */
+    public long getFrameCount(ChannelFormat format) {
+        return channelCounts[format.ordinal()];
+    }
+
+    /**
+     * Returns the number of frames that have a given bit rate.
+     *
+     * @param kbps the bit rate, in kbps
+     * @return the number of frames encoded at that bit rate
+     */
+    public long getFrameCount(int kbps) {
+        long count = 0L;
+        for (int i = 1; i < bitRateCounts.length; ++i) {
+            if (bitRateCounts[i] > 0L && bitRate(i) == kbps) {
+                count += bitRateCounts[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the different bit rates used by the frames in the stream, in
+     * ascending order. Use {@link #getFrameCount(int)} to obtain the number of
+     * frames for each bit rate.
+     *
+     * @return the bit rates, in kbps
+     */
+    public int[] getBitRates() {
+        int[] rates = new int[bitRateCounts.length];
+        int n = 0;
+        for (int i = 1; i < bitRateCounts.length; ++i) {
+            if (bitRateCounts[i] > 0L) {
+                rates[n++] = bitRate(i);
+            }
+        }
+        return Arrays.copyOf(rates, n);
+    }
+
+    /**
+     * Returns the bit rate of the stream, in kbps, averaged over all of the
+     * frames.
+     *
+     * @return the average bit rate
+     */
+    public int getAverageBitRate() {
+        double seconds = getTrackLength();
+        return seconds <= 0d ? 0 : (int) Math.round(audioBytes * 8d / 1000d / seconds);
+    }
+
+    /**
+     * Returns <code>true</code> if the frames do not all have the same bit
+     * rate.
+     *
+     * @return <code>true</code> if the stream is encoded at a variable bit
+     * rate
+     */
+    public boolean isVariableBitRate() {
+        return getBitRates().length > 1;
+    }
+
+    /**
+     * Returns the sampling frequency of the stream, in Hz.
+     *
+     * @return the sampling frequency
+     */
+    public int getFrequency() {
+        return FrameSync.frequency(signature);
+    }
+
+    /**
+     * Returns the total number of samples per channel in the stream.
+     *
+     * @return the number of samples that the stream decodes to
+     */
+    public long getSampleCount() {
+        return frameCount * FrameSync.sampleCount(signature);
+    }
+
+    /**
+     * Returns the exact length of the stream, in seconds.
+     *
+     * @return the track length
+     */
+    public double getTrackLength() {
+        return (double) getSampleCount() / (double) getFrequency();
+    }
+
+    /**
+     * Returns the offset of the first frame in the source.
+     *
+     * @return the start of the audio data
+     */
+    public long getStartOfAudio() {
+        return startOfAudio;
+    }
+
+    /**
+     * Returns the number of places where the stream lost synchronization.
+     *
+     * @return the number of synchronization errors
+     */
+    public int getSyncErrorCount() {
+        return syncErrorCount;
+    }
+
+    /**
+     * Returns the offsets in the source at which the stream lost
+     * synchronization, in ascending order. At most
+     * {@link #MAX_RECORDED_ERRORS} offsets are recorded, even if
+     * {@link #getSyncErrorCount()} is higher.
+     *
+     * @return the offsets of the synchronization errors
+     */
+    public long[] getSyncErrorOffsets() {
+        return Arrays.copyOf(syncErrors, Math.min(syncErrorCount, MAX_RECORDED_ERRORS));
+    }
+
+    /**
+     * The maximum number of synchronization error offsets that are recorded.
+     */
+    public static final int MAX_RECORDED_ERRORS = 256;
+
+    /**
+     * Returns the bit rate, in kbps, for a bit rate index in this stream.
+     */
+    private int bitRate(int index) {
+        return FrameSync.bitRate((signature & ~0xf000) | (index << 12));
+    }
+
+    private void scan(long offset) throws IOException {
+        long pos = resync(offset);
+        if (pos < 0L) {
+            return;
+        }
+        if (pos > offset) {
+            syncError(offset);
+        }
+        startOfAudio = pos;
+        signature = header(pos);
+
+        while (pos + 4L <= end) {
+            final int h = header(pos);
+            final int length = FrameSync.frameLength(h);
+            if (length > 0 && FrameSync.isCompatible(h, signature)) {
+                if (pos + length > end) {
+                    // the last frame was cut short
+                    syncError(pos);
+                    break;
+                }
+                ++frameCount;
+                ++bitRateCounts[(h >>> 12) & 15];
+                ++channelCounts[FrameSync.channelFormat(h).ordinal()];
+                audioBytes += length;
+                pos += length;
+                continue;
+            }
+            if (isTag(pos)) {
+                break;
+            }
+            syncError(pos);
+            pos = resync(pos + 1L);
+            if (pos < 0L) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the next frame that starts at or after an offset
+     * and is followed by a chain of valid frames, or -1.
+     */
+    private long resync(long from) throws IOException {
+        for (long pos = from; pos + 4L <= end; ++pos) {
+            if (buffer[ensure(pos, LOOKAHEAD)] == (byte) 0xff && isChain(pos)) {
+                return pos;
+            }
+        }
+        return -1L;
+    }
+
+    private boolean isChain(long pos) throws IOException {
+        final int first = header(pos);
+        final int sig = signature == 0 ? first : signature;
+        for (int links = 0; links < FrameSync.CHAIN_LENGTH; ++links) {
+            if (pos + 4L > end) {
+                // accept a shorter chain at the end of the stream
+                return links > 0 && pos == end;
+            }
+            final int h = header(pos);
+            final int length = FrameSync.frameLength(h);
+            if (length < 0 || !FrameSync.isCompatible(h, sig)) {
+                return false;
+            }
+            pos += length;
+        }
+        return true;
+    }
+
+    private boolean isTag(long pos) throws IOException {
+        final int i = ensure(pos, APE_PREAMBLE.length);
+        if (bufferEnd - pos < APE_PREAMBLE.length) {
+            return false;
+        }
+        for (int j = 0; j < APE_PREAMBLE.length; ++j) {
+            if (buffer[i + j] != APE_PREAMBLE[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void syncError(long pos) {
+        if (syncErrorCount < MAX_RECORDED_ERRORS) {
+            if (syncErrorCount == syncErrors.length) {
+                syncErrors = Arrays.copyOf(syncErrors, Math.min(MAX_RECORDED_ERRORS, syncErrors.length * 4));
+            }
+            syncErrors[syncErrorCount] = pos;
+        }
+        ++syncErrorCount;
+    }
+
+    /**
+     * Reads the four bytes at an offset as a frame header.
+     */
+    private int header(long pos) throws IOException {
+        return FrameSync.header(buffer, ensure(pos, 4));
+    }
+
+    /**
+     * Makes sure that the buffer holds the bytes starting at an offset, and at
+     * least the requested number of following bytes unless that would go past
+     * the end of the audio. Returns the index of the offset in the buffer.
+     */
+    private int ensure(long pos, int length) throws IOException {
+        if (pos < bufferStart || (pos + length > bufferEnd && bufferEnd < end)) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - pos));
+            long p = pos;
+            while (bb.hasRemaining()) {
+                int read = channel.read(bb, p);
+                if (read < 0) {
+                    break;
+                }
+                p += read;
+            }
+            bufferStart = pos;
+            bufferEnd = p;
+        }
+        return (int) (pos - bufferStart);
+    }
+
+    /**
+     * Returns the offset of the end of the audio, which is the end of the
+     * source unless it ends with an ID3v1 tag.
+     */
+    private static long audioEnd(MP3Source source) throws IOException {
+        final long length = source.length();
+        if (length >= ID3V1_LENGTH) {
+            ByteBuffer tag = ByteBuffer.allocate(3);
+            source.getChannel().read(tag, length - ID3V1_LENGTH);
+            if (tag.get(0) == 'T' && tag.get(1) == 'A' && tag.get(2) == 'G') {
+                return length - ID3V1_LENGTH;
+            }
+        }
+        return length;
+    }
+
+    private final FileChannel channel;
+    private final long end;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private long bufferStart;
+    private long bufferEnd;
+
+    private int signature;
+    private long startOfAudio;
+    private long frameCount;
+    private long audioBytes;
+    private final long[] bitRateCounts = new long[16];
+    private final long[] channelCounts = new long[ChannelFormat.values().length];
+    private int syncErrorCount;
+    private long[] syncErrors = new long[4];
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int LOOKAHEAD = FrameSync.MAX_FRAME_LENGTH * FrameSync.CHAIN_LENGTH + 4;
+    private static final int ID3V1_LENGTH = 128;
+    private static final byte[] APE_PREAMBLE = {'A', 'P', 'E', 'T', 'A', 'G', 'E', 'X'};
+}
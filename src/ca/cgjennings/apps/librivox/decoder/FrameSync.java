@@ -0,0 +1,240 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Locates MPEG audio frame boundaries by inspecting raw frame headers, without
+ * decoding any audio. A position is only accepted as the start of a frame if
+ * it is followed by a chain of further frames with matching headers, which
+ * makes false synchronization on audio data that happens to resemble a header
+ * very unlikely.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class FrameSync {
+
+    private FrameSync() {
+    }
+
+    /**
+     * The number of consecutive frames that must be found for a frame start to
+     * be accepted.
+     */
+    static final int CHAIN_LENGTH = 3;
+
+    /**
+     * The largest possible frame length, in bytes (Layer II at 384 kbps and 32
+     * kHz with padding).
+     */
+    static final int MAX_FRAME_LENGTH = 1729;
+
+    /**
+     * The bits of a frame header that must not change from frame to frame:
+     * the sync word, version, layer, and sampling frequency.
+     */
+    private static final int SIGNATURE_MASK = 0xfffe0c00;
+
+    /**
+     * Returns the length of the frame with the given header, including the
+     * header itself, or -1 if the header is not a valid frame header.
+     * Free-format streams are not supported, so a header with a bit rate index
+     * of 0 is considered invalid.
+     *
+     * @param header the four header bytes, most significant byte first
+     * @return the frame length in bytes, or -1
+     */
+    static int frameLength(int header) {
+        if ((header & 0xffe00000) != 0xffe00000) {
+            return -1;
+        }
+        final int version = (header >>> 19) & 3;
+        final int layer = (header >>> 17) & 3;
+        final int bitrateIndex = (header >>> 12) & 15;
+        final int frequencyIndex = (header >>> 10) & 3;
+        final int padding = (header >>> 9) & 1;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || frequencyIndex == 3) {
+            return -1;
+        }
+
+        final boolean mpeg1 = version == 3;
+        final int frequency = FREQUENCIES[frequencyIndex] >> (mpeg1 ? 0 : (version == 2 ? 1 : 2));
+        final int bitrate = BITRATES[mpeg1 ? 0 : 1][3 - layer][bitrateIndex - 1] * 1000;
+
+        switch (layer) {
+            case 3: // Layer I
+                return (12 * bitrate / frequency + padding) * 4;
+            case 2: // Layer II
+                return 144 * bitrate / frequency + padding;
+            default: // Layer III
+                return (mpeg1 ? 144 : 72) * bitrate / frequency + padding;
+        }
+    }
+
+    /**
+     * Returns the bit rate of a valid frame header, in kbps.
+     *
+     * @param header a header for which {@link #frameLength} is not -1
+     * @return the bit rate of the frame
+     */
+    static int bitRate(int header) {
+        final int version = (header >>> 19) & 3;
+        final int layer = (header >>> 17) & 3;
+        return BITRATES[version == 3 ? 0 : 1][3 - layer][((header >>> 12) & 15) - 1];
+    }
+
+    /**
+     * Returns the sampling frequency of a valid frame header, in Hz.
+     *
+     * @param header a header for which {@link #frameLength} is not -1
+     * @return the sampling frequency of the frame
+     */
+    static int frequency(int header) {
+        final int version = (header >>> 19) & 3;
+        return FREQUENCIES[(header >>> 10) & 3] >> (version == 3 ? 0 : (version == 2 ? 1 : 2));
+    }
+
+    /**
+     * Returns the number of samples per channel in the frame with a valid
+     * frame header.
+     *
+     * @param header a header for which {@link #frameLength} is not -1
+     * @return the number of samples that the frame decodes to
+     */
+    static int sampleCount(int header) {
+        final int version = (header >>> 19) & 3;
+        final int layer = (header >>> 17) & 3;
+        switch (layer) {
+            case 3: // Layer I
+                return 384;
+            case 2: // Layer II
+                return 1152;
+            default: // Layer III
+                return version == 3 ? 1152 : 576;
+        }
+    }
+
+    /**
+     * Returns the channel format of a frame header.
+     *
+     * @param header a frame header
+     * @return the channel format described by the mode bits of the header
+     */
+    static ChannelFormat channelFormat(int header) {
+        return MODES[(header >>> 6) & 3];
+    }
+
+    /**
+     * Returns <code>true</code> if two frame headers could belong to the same
+     * stream.
+     *
+     * @param header the header to test
+     * @param signature a header from the stream, typically the first
+     * @return <code>true</code> if the unchanging parts of the headers match
+     */
+    static boolean isCompatible(int header, int signature) {
+        return (header & SIGNATURE_MASK) == (signature & SIGNATURE_MASK);
+    }
+
+    /**
+     * Reads a frame header from a byte array.
+     *
+     * @param b the array to read from
+     * @param offset the offset of the first header byte
+     * @return the header as an integer
+     */
+    static int header(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    /**
+     * Returns the file offset of the first frame that starts at or after
+     * <code>from</code> and before <code>to</code>, or -1 if no frame can be
+     * found in that range. Any frame that is found is compatible with the
+     * signature header and is followed by a chain of compatible frames (unless
+     * the chain is cut short by the end of the file).
+     *
+     * @param source the source to search
+     * @param from the first offset to consider
+     * @param to the offset at which to give up
+     * @param signature a known header from the stream
+     * @return the offset of the first frame found, or -1
+     * @throws IOException if an I/O error occurs
+     */
+    static long findFrame(MP3Source source, long from, long to, int signature) throws IOException {
+        final long end = Math.min(source.length(), to + (long) MAX_FRAME_LENGTH * CHAIN_LENGTH + 4);
+        if (from >= end || from >= to) {
+            return -1L;
+        }
+        final byte[] b = new byte[(int) (end - from)];
+        final int n;
+        try (InputStream in = source.createInputStream(from, end)) {
+            n = readFully(in, b);
+        }
+
+        final int limit = (int) Math.min(n - 4, to - from - 1);
+        for (int i = 0; i <= limit; ++i) {
+            if (b[i] != (byte) 0xff) {
+                continue;
+            }
+            int pos = i;
+            int links = 0;
+            while (links < CHAIN_LENGTH) {
+                if (pos + 4 > n) {
+                    // ran out of data: accept only if at the end of the file
+                    if (from + pos < source.length()) {
+                        links = -1;
+                    }
+                    break;
+                }
+                int h = header(b, pos);
+                int len = frameLength(h);
+                if (len < 0 || !isCompatible(h, signature)) {
+                    links = -1;
+                    break;
+                }
+                pos += len;
+                ++links;
+            }
+            if (links > 0) {
+                return from + i;
+            }
+        }
+        return -1L;
+    }
+
+    private static int readFully(InputStream in, byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int read = in.read(b, n, b.length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+
+    private static final ChannelFormat[] MODES = {
+        ChannelFormat.STEREO, ChannelFormat.JOINT_STEREO, ChannelFormat.DUAL_CHANNEL, ChannelFormat.MONO
+    };
+
+    private static final int[] FREQUENCIES = {44100, 48000, 32000};
+
+    private static final int[][][] BITRATES = {
+        // MPEG-1
+        {
+            {32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+        },
+        // MPEG-2 and MPEG-2.5
+        {
+            {32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+            {8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+        }
+    };
+}
@@ -1,19 +1,14 @@
 package ca.cgjennings.apps.librivox.decoder;
 
 import ca.cgjennings.apps.librivox.*;
-import ca.cgjennings.apps.librivox.validators.Validator.Category;
-import ca.cgjennings.apps.librivox.validators.Validator.Validity;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Level;
 import javazoom.jl.decoder.Bitstream;
-import javazoom.jl.decoder.BitstreamErrors;
 import javazoom.jl.decoder.BitstreamException;
 import javazoom.jl.decoder.Decoder;
-import javazoom.jl.decoder.DecoderErrors;
-import javazoom.jl.decoder.DecoderException;
 import javazoom.jl.decoder.Header;
 import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.OutputChannels;
 import javazoom.jl.decoder.SampleBuffer;
 
 /**
@@ -28,17 +23,13 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
     private Decoder decoder;
     private Header header;
     private AudioFrame frame;
-    private Report report;
+    private DecodingErrorHandler errors;
     private long frameNumber = -1;
     private long validFramesDecoded = 0;
-    private int errorCount = 0;
     private float msPerFrame;
     private Header firstHeader; // the JavaLayer header
     private AudioHeader firstAudioHeader; // the implementation-independent header
 
-    private static int MAX_ERRORS;
-    private static final int NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3 = 3;
-
     private JavaLayerStreamDecoder() {
     }
 
@@ -50,53 +41,57 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
      * decoding; may be <code>null</code>
      * @param tolerance a hint regarding how many errors are acceptable before
      * giving up
+     * @param channels the channels to decode
      * @throws java.io.IOException if an I/O exception occurs while creating the
      * decoder
      */
-    public JavaLayerStreamDecoder(InputStream in, Report report, ErrorTolerance tolerance) throws IOException {
-        this.report = report;
-
-        switch (tolerance) {
-            case NONE:
-                MAX_ERRORS = 0;
-                break;
-            case MODERATE:
-                MAX_ERRORS = 10;
-                break;
-            case ALL:
-                MAX_ERRORS = Integer.MAX_VALUE;
-                break;
-            default:
-                throw new IllegalArgumentException("unknown tolerance " + tolerance);
-        }
+    public JavaLayerStreamDecoder(InputStream in, Report report, ErrorTolerance tolerance, ChannelSelection channels) throws IOException {
+        errors = new DecodingErrorHandler(report, tolerance);
 
         // prefetch the first MP3 header so we know if there is one
         // (so mayHaveMoreFrames returns an accurate result)
-        decoder = new Decoder();
+        decoder = createDecoder(channels);
         bitstream = new Bitstream(in);
 
-        boolean foundValidHeader = false;
-        do {
+        header = readFirstHeader(bitstream, errors);
+        // each frame that was skipped over was reported as an error
+        frameNumber = errors.getErrorCount();
+
+        frame = new AudioFrame();
+        msPerFrame = header.ms_per_frame();
+        firstHeader = header;
+        firstAudioHeader = new JavaLayerAudioHeader(header);
+    }
+
+    /**
+     * Reads frames from a stream until a valid frame header is found. Only
+     * the header is read; the frame is not decoded. Each invalid frame that is
+     * skipped over is passed to the error handler.
+     *
+     * @param bitstream the stream to read from
+     * @param errors the handler that decides how many invalid frames are
+     * acceptable
+     * @return the first valid frame header
+     * @throws NotAnMP3Exception if the stream ends before a valid header is
+     * found
+     * @throws IOException if an I/O error occurs, or too many invalid frames
+     * are found
+     */
+    static Header readFirstHeader(Bitstream bitstream, DecodingErrorHandler errors) throws IOException {
+        for (long frameNumber = 0L;; ++frameNumber) {
             try {
-                ++frameNumber;
-                header = bitstream.readFrame();
-                foundValidHeader = true;
+                Header header = bitstream.readFrame();
+                if (header == null) {
+                    throw new NotAnMP3Exception();
+                }
+                return header;
             } catch (BitstreamException e) {
                 // will throw IOException if
                 // too many errors occur
-                handleDecodingError(e, true);
+                errors.handle(e, frameNumber, 0L, true);
                 bitstream.closeFrame();
             }
-        } while (!foundValidHeader);
-
-        if (header == null) {
-            throw new NotAnMP3Exception();
         }
-
-        frame = new AudioFrame();
-        msPerFrame = header.ms_per_frame();
-        firstHeader = header;
-        firstAudioHeader = new JavaLayerAudioHeader(header);
     }
 
     @Override
@@ -104,6 +99,11 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
         return firstAudioHeader;
     }
 
+    @Override
+    public void close() {
+        // nothing is decoded ahead, and the caller owns the stream
+    }
+
     /**
      * Returns the estimated track length, in seconds.
      *
@@ -187,7 +187,7 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
         try {
             if (decode) {
                 SampleBuffer buff = (SampleBuffer) decoder.decodeFrame(header, bitstream);
-                frame.set(getChannelFormatFromHeader(header), buff.getSampleFrequency(), buff.getBuffer(), buff.getBufferLength());
+                frame.set(getChannelFormat(header, decoder), buff.getSampleFrequency(), buff.getBuffer(), buff.getBufferLength());
             } else {
                 frame.set(getChannelFormatFromHeader(header), header.frequency(), null, 0);
             }
@@ -198,11 +198,11 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
         } catch (JavaLayerException e) {
             // Something bad happened while getting this frame
             // we will log it and try to skip ahead to the next frame.
-            // If we encounter more than MAX_ERRORS errors, we
+            // If we encounter more than the maximum number of errors, we
             // give up. When this happens, log() throws an
             // IOException, which will escape from this method.
             bitstream.closeFrame();
-            handleDecodingError(e, true);
+            errors.handle(e, frameNumber, validFramesDecoded, true);
 
             // try to resychronize on a valid frame
             boolean resynchronized = false;
@@ -212,7 +212,7 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
                     header = bitstream.readFrame();
                     resynchronized = true;
                 } catch (BitstreamException synchException) {
-                    handleDecodingError(e, false);
+                    errors.handle(e, frameNumber, validFramesDecoded, false);
                     bitstream.closeFrame();
                 }
             }
@@ -222,7 +222,7 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
             // (this will eventually throw IOException if we keep getting
             // decoder errors)
             if (header == null) {
-                if (validFramesDecoded < NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3) {
+                if (validFramesDecoded < DecodingErrorHandler.NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3) {
                     throw new NotAnMP3Exception();
                 }
                 return null;
@@ -235,75 +235,42 @@ final class JavaLayerStreamDecoder implements StreamDecoder {
         return frame;
     }
 
-    @SuppressWarnings("fallthrough")
-    private void handleDecodingError(JavaLayerException e, boolean logInReport) throws IOException {
-        // COMPOSE the error message
-        boolean isIOError = false;
-        String key;
-        Throwable cause = e.getCause();
-
-        int code = Integer.MAX_VALUE;
-        if (e instanceof DecoderException) {
-            code = ((DecoderException) e).getErrorCode();
-        } else if (e instanceof BitstreamException) {
-            code = ((BitstreamException) e).getErrorCode();
-        }
-
-        switch (code) {
-            case BitstreamErrors.INVALIDFRAME:
-                key = "invalid-frame";
-                break;
-            case BitstreamErrors.STREAM_ERROR:
-                key = "stream";
-                isIOError = true;
-                break;
-            case BitstreamErrors.STREAM_EOF:
-                isIOError = true; // fallthrough
-            case BitstreamErrors.UNEXPECTED_EOF:
-                key = "eof";
-                break;
-            case BitstreamErrors.UNKNOWN_SAMPLE_RATE:
-                key = "sample-rate";
-                break;
-            case DecoderErrors.ILLEGAL_SUBBAND_ALLOCATION:
-                key = "allocation";
-                break;
-            case DecoderErrors.UNSUPPORTED_LAYER:
-                key = "layer";
-                break;
-            case DecoderErrors.UNKNOWN_ERROR:
-            case BitstreamErrors.UNKNOWN_ERROR:
-            default:
-                key = "unknown";
-                break;
-        }
-
-        String message = Checker.string("error-decoder", frameNumber)
-                + "\n" + Checker.string("error-decoder-" + key);
-        if (cause != null && cause instanceof IOException) {
-            String causeMessage = cause.getLocalizedMessage();
-            if (causeMessage != null && causeMessage.length() > 0) {
-                message += "\n" + causeMessage;
-            }
-            isIOError = true;
+    /**
+     * Creates a JavaLayer decoder that decodes the selected channels. The
+     * decoder uses the standard IMDCT and synthesis kernels unless the fast
+     * ones have been turned on with the <code>fast-decoder-kernels</code>
+     * setting.
+     *
+     * @param channels the channels to decode
+     * @return a new decoder
+     */
+    static Decoder createDecoder(ChannelSelection channels) {
+        Decoder.Params params = Decoder.getDefaultParams();
+        if (channels == ChannelSelection.DOWNMIX) {
+            params.setOutputChannels(OutputChannels.DOWNMIX);
         }
-
-        ++errorCount;
-        if (logInReport && (report != null)) {
-            report.addValidation(Category.ERROR, null, Validity.WARN, message.replace("\n", "<br>"), null);
+        params.setFastKernels(Checker.getSettings().getBoolean("fast-decoder-kernels", false));
+        if (Checker.getSettings().getBoolean("screening-decode", false)) {
+            params.setQuality(Decoder.MEDIUM_QUALITY);
         }
+        return new Decoder(params);
+    }
 
-        Checker.getLogger().log(Level.WARNING, "Error while decoding frame", e);
-
-        if (isIOError) {
-            throw new IOException(message);
-        }
-        if (errorCount > MAX_ERRORS) {
-            if (validFramesDecoded < NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3) {
-                throw new NotAnMP3Exception();
-            }
-            throw new DecodingException(Checker.string("error-decoder-too-many"));
+    /**
+     * Returns the channel format of the samples that a decoder produced for
+     * a frame. This is the format of the frame, unless the decoder mixed the
+     * channels down to one.
+     *
+     * @param h the frame header structure
+     * @param d the decoder that decoded the frame
+     * @return the format of the decoded samples
+     */
+    static ChannelFormat getChannelFormat(Header h, Decoder d) {
+        ChannelFormat format = getChannelFormatFromHeader(h);
+        if (format != ChannelFormat.MONO && d.getOutputChannels() == 1) {
+            format = ChannelFormat.MONO;
         }
+        return format;
     }
 
     /**
@@ -0,0 +1,344 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Provides single-pass access to the content of an MP3 file. The file is
+ * opened once, and the start of the file (any ID3v2 tag plus the first part of
+ * the audio) is read into memory. The metadata parser reads the tags and audio
+ * headers from this buffer, and the audio stream passed to the decoder is
+ * served from the buffer before continuing on from the same open channel. This
+ * means that each byte of the file is only read once, no matter how many parts
+ * of the application need to look at it.
+ *
+ * <p>
+ * The file is not memory mapped because a mapped file cannot be modified on
+ * some platforms until the mapping is garbage collected, which would prevent
+ * the tag editor from updating it.
+ *
+ * <p>
+ * A source can also read a file that is still being downloaded, so that it
+ * can be analyzed as it arrives; see {@link Spool}. Or, it can read an entry
+ * in a ZIP archive without extracting it; see {@link ZipArchive}.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class MP3Source implements Closeable {
+
+    private final File file;
+    private final String name;
+    private final Spool spool;
+    private final FileChannel channel;
+    private final long length;
+    private final int tagLength;
+    private final ByteBuffer head;
+
+    /**
+     * Opens a file and reads the start of it into memory.
+     *
+     * @param file the file to read
+     * @throws IOException if an I/O error occurs while reading the file
+     */
+    public MP3Source(File file) throws IOException {
+        this(file, file.getName(), null, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens a file that is still being written, and reads the start of it
+     * into memory. Reads from the source block until the bytes that they
+     * need have been written, so the file can be analyzed while it is
+     * downloaded. This includes reads from the {@linkplain #getChannel()
+     * channel}.
+     *
+     * @param spool the spool that tracks the progress of the file
+     * @throws IOException if an I/O error occurs while reading the file, or
+     * the file could not be written
+     */
+    public MP3Source(Spool spool) throws IOException {
+        this(spool.getFile(), spool.getFile().getName(), spool, spool.openChannel());
+    }
+
+    /**
+     * Opens an entry in a ZIP archive and reads the start of it into memory.
+     * If the entry is stored without compression, it is read directly from
+     * the archive. Otherwise, the entire entry is inflated into memory first.
+     * The archive must remain open until the source is closed.
+     *
+     * @param entry the archive entry to read
+     * @throws IOException if an I/O error occurs while reading the entry
+     */
+    public MP3Source(ZipArchive.Entry entry) throws IOException {
+        this(null, entry.getName().substring(entry.getName().lastIndexOf('/') + 1), null, entry.openChannel());
+    }
+
+    private MP3Source(File file, String name, Spool spool, FileChannel channel) throws IOException {
+        this.file = file;
+        this.name = name;
+        this.spool = spool;
+        this.channel = channel;
+        try {
+            length = channel.size();
+
+            ByteBuffer header = ByteBuffer.allocate(ID3V2_HEADER_LENGTH);
+            readFully(header, 0L);
+            header.flip();
+            tagLength = id3v2TagLength(header);
+
+            long headLength = Math.min(length, Math.min(MAX_HEAD_LENGTH, (long) tagLength + HEAD_AUDIO_LENGTH));
+            head = ByteBuffer.allocate((int) headLength);
+            header.rewind();
+            head.put(header);
+            readFully(head, head.position());
+            head.flip();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the file that this source reads from, or <code>null</code> if
+     * it reads an entry in an archive.
+     *
+     * @return the source file, or <code>null</code>
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the name of the file or archive entry that this source reads,
+     * without any folders.
+     *
+     * @return the source file name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the length of the file, in bytes.
+     *
+     * @return the file length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns the length of the ID3v2 tag at the start of the file, including
+     * the tag header, or 0 if the file does not start with an ID3v2 tag.
+     *
+     * @return the number of bytes before the audio, according to the tag
+     */
+    public int getID3v2TagLength() {
+        return tagLength;
+    }
+
+    /**
+     * Returns a read-only buffer of the bytes that were read from the start of
+     * the file. This normally includes the entire ID3v2 tag, if any, and (if
+     * the file is long enough) at least the first several frames of audio.
+     *
+     * @return a new read-only view of the start of the file
+     */
+    public ByteBuffer getHead() {
+        return head.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns <code>true</code> if the file is still being written. The data
+     * in the file can be read, but reads may block until it arrives.
+     *
+     * @return <code>true</code> if the source reads from an incomplete spool
+     */
+    public boolean isSpooling() {
+        return spool != null && !spool.isComplete();
+    }
+
+    /**
+     * Returns the open channel used to read the file. It can be used for
+     * positional reads, but must not be closed or repositioned.
+     *
+     * @return the file channel
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns a new stream that reads the file starting from the specified
+     * offset. Bytes that are in the buffered head of the file are returned
+     * from memory; the remainder are read from the open channel. Each stream
+     * keeps its own position, so more than one stream may be open at a time.
+     * The returned streams are not buffered; wrap them in a buffered stream if
+     * they will be read a little at a time.
+     *
+     * @param offset the offset into the file of the first byte to read
+     * @return a stream over the content of the file
+     */
+    public InputStream createInputStream(long offset) {
+        return createInputStream(offset, length);
+    }
+
+    /**
+     * Returns a new stream that reads the part of the file from the start
+     * offset up to, but not including, the end offset. Streams over different
+     * parts of the file may be read concurrently from different threads.
+     *
+     * @param offset the offset into the file of the first byte to read
+     * @param end the offset at which the stream will report the end of file
+     * @return a stream over the content of the file
+     * @see #createInputStream(long)
+     */
+    public InputStream createInputStream(long offset, long end) {
+        if (offset < 0L) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        if (end < offset) {
+            throw new IllegalArgumentException("end: " + end);
+        }
+        return new SourceStream(offset, Math.min(end, length));
+    }
+
+    /**
+     * Closes the underlying file. Streams created by this source can no longer
+     * read from the channel after it is closed. Closing a source for an
+     * archive entry does not close the archive.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Returns the total length of the ID3v2 tag that starts the buffer, or 0.
+     */
+    private static int id3v2TagLength(ByteBuffer b) {
+        if (b.remaining() < ID3V2_HEADER_LENGTH) {
+            return 0;
+        }
+        if (b.get(0) != 'I' || b.get(1) != 'D' || b.get(2) != '3') {
+            return 0;
+        }
+        int major = b.get(3);
+        if (major < 2 || major > 4) {
+            return 0;
+        }
+        // syncsafe integer: 7 bits per byte
+        int size = 0;
+        for (int i = 6; i < 10; ++i) {
+            size = (size << 7) | (b.get(i) & 0x7f);
+        }
+        return size + ID3V2_HEADER_LENGTH;
+    }
+
+    private class SourceStream extends InputStream {
+
+        private long pos;
+        private long mark;
+        private final long end;
+
+        SourceStream(long offset, long end) {
+            pos = offset;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= end) {
+                return -1;
+            }
+            len = (int) Math.min(len, end - pos);
+            int read;
+            if (pos < head.limit()) {
+                read = Math.min(len, head.limit() - (int) pos);
+                ByteBuffer src = head.duplicate();
+                src.position((int) pos);
+                src.get(b, off, read);
+            } else {
+                read = channel.read(ByteBuffer.wrap(b, off, len), pos);
+                if (read < 0) {
+                    return -1;
+                }
+            }
+            pos += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0L) {
+                return 0L;
+            }
+            n = Math.min(n, Math.max(0L, end - pos));
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, end - pos));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = pos;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            pos = mark;
+        }
+    }
+
+    private static final int ID3V2_HEADER_LENGTH = 10;
+
+    /**
+     * The number of bytes after the ID3v2 tag that are read into memory. This
+     * must be large enough for the metadata parser to locate and confirm the
+     * first audio frames (and any Xing/LAME information frame) without having
+     * to go back to the file.
+     */
+    private static final int HEAD_AUDIO_LENGTH = 64 * 1024;
+
+    /**
+     * Limits the size of the head buffer if a (possibly corrupt) tag claims to
+     * be extremely large. Anything past this is read from the channel.
+     */
+    private static final long MAX_HEAD_LENGTH = 16L * 1024L * 1024L;
+}
@@ -0,0 +1,476 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.Report;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamErrors;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * A {@link StreamDecoder} that decodes a single long file on several cores.
+ * The audio is divided into chunks of about {@link #CHUNK_LENGTH} bytes that
+ * are split at frame boundaries, and the chunks are decoded concurrently by
+ * tasks on a fork-join pool. Frames are still returned one at a time and in
+ * their original order, so callers see exactly the same sequence of frames
+ * that a {@link JavaLayerStreamDecoder} would produce.
+ *
+ * <p>
+ * A Layer III frame may store part of its data in the bit reservoir of the
+ * frames before it, and the synthesis filter and IMDCT overlap buffers carry
+ * state from one frame to the next. To reproduce that state, each chunk
+ * decoder starts {@link #PRIMING_LENGTH} bytes before its chunk and decodes
+ * (and then discards) the frames in that region first.
+ *
+ * <p>
+ * Decoding errors are collected by the chunk tasks and replayed, in order, as
+ * the frames are returned; they are therefore reported and counted against the
+ * error tolerance exactly as for sequential decoding. To bound memory use,
+ * only a few chunks are decoded ahead of the frame being returned, and the
+ * decoded audio held by all of the parallel decoders together is limited by
+ * the <code>parallel-decoding-buffer</code> setting. Each decoder can always
+ * decode at least one chunk ahead, so a decoder makes progress no matter how
+ * many other files are being decoded at the same time.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class ParallelStreamDecoder implements StreamDecoder {
+
+    private final MP3Source source;
+    private final long start;
+    private final long end;
+    private final int signature;
+    private final DecodingErrorHandler errors;
+    private final ForkJoinPool pool;
+    private final ChannelSelection channels;
+    private final int window;
+    private final long chunkBytes;
+
+    private final Header firstHeader;
+    private final AudioHeader firstAudioHeader;
+
+    private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+    private long nextChunkStart;
+    private Chunk chunk;
+    private int chunkFrame;
+    private int chunkError;
+    private final AudioFrame frame = new AudioFrame();
+    private long validFramesDecoded;
+    private boolean finished;
+    private long reservedBytes;
+
+    /**
+     * The approximate number of bytes of compressed audio in each chunk.
+     */
+    static final int CHUNK_LENGTH = 512 * 1024;
+
+    /**
+     * The number of bytes before the start of each chunk that are decoded to
+     * restore the decoder state. This must cover the maximum bit reservoir
+     * size (511 bytes) plus enough whole frames to fill the synthesis filter
+     * and IMDCT overlap buffers at the highest bit rate.
+     */
+    static final int PRIMING_LENGTH = 4 * 1024;
+
+    /**
+     * Creates a new parallel decoder for the audio in part of a source.
+     *
+     * @param source the source to decode; it must remain open while the
+     * decoder is in use
+     * @param start the offset of the start of the audio in the source
+     * @param report a report that will be used to note any problems when
+     * decoding; may be <code>null</code>
+     * @param tolerance a hint regarding how many errors are acceptable before
+     * giving up
+     * @param channels the channels to decode
+     * @param pool the pool that will decode the chunks
+     * @throws IOException if an I/O exception occurs while creating the
+     * decoder
+     */
+    ParallelStreamDecoder(MP3Source source, long start, Report report, ErrorTolerance tolerance, ChannelSelection channels, ForkJoinPool pool) throws IOException {
+        this.source = source;
+        this.pool = pool;
+        this.channels = channels;
+        end = source.length();
+        errors = new DecodingErrorHandler(report, tolerance);
+        window = Math.max(2, Math.min(pool.getParallelism(), MAX_WINDOW) + 1);
+
+        // find the first valid frame in the same way as the sequential decoder
+        Bitstream bitstream = new Bitstream(new BufferedInputStream(source.createInputStream(start), 16 * 1024));
+        Header header = JavaLayerStreamDecoder.readFirstHeader(bitstream, errors);
+        firstHeader = header;
+        firstAudioHeader = new JavaLayerAudioHeader(header);
+        this.start = start + bitstream.frame_pos();
+
+        byte[] b = new byte[4];
+        try (InputStream in = source.createInputStream(this.start)) {
+            if (in.read(b) != 4) {
+                throw new NotAnMP3Exception();
+            }
+        }
+        signature = FrameSync.header(b, 0);
+        nextChunkStart = this.start;
+        chunkBytes = estimateChunkBytes(header, channels);
+    }
+
+    /**
+     * Returns an estimate of the number of bytes of decoded samples in a
+     * chunk. This is based on the bit rate of the first frame; for a variable
+     * bit rate stream, that is usually the lowest rate in the stream, so the
+     * estimate errs on the high side.
+     */
+    private static long estimateChunkBytes(Header header, ChannelSelection channels) {
+        final int outputChannels = header.mode() == Header.SINGLE_CHANNEL || channels == ChannelSelection.DOWNMIX ? 1 : 2;
+        final long bitrate = Math.max(8_000, header.bitrate());
+        return CHUNK_LENGTH * 8L * header.frequency() / bitrate * outputChannels * 2L;
+    }
+
+    @Override
+    public AudioHeader getAudioHeader() {
+        return firstAudioHeader;
+    }
+
+    @Override
+    public double estimateTrackLength(int streamLength) {
+        return ((double) firstHeader.total_ms(streamLength)) / 1000d;
+    }
+
+    @Override
+    public int estimateFrameCount(int streamLength) {
+        return firstHeader.max_number_of_frames(streamLength);
+    }
+
+    @Override
+    public long getValidFramesDecoded() {
+        return validFramesDecoded;
+    }
+
+    @Override
+    public boolean mayHaveMoreFrames() {
+        return !finished;
+    }
+
+    @Override
+    public AudioFrame getNextFrame() throws IOException {
+        return getNextFrameImpl(true);
+    }
+
+    @Override
+    public AudioFrame skipFrame() throws IOException {
+        return getNextFrameImpl(false);
+    }
+
+    private AudioFrame getNextFrameImpl(boolean decode) throws IOException {
+        while (!finished) {
+            if (chunk == null) {
+                fillWindow();
+                Future<Chunk> next = pending.poll();
+                if (next == null) {
+                    finish();
+                    return null;
+                }
+                fillWindow();
+                chunk = await(next);
+                chunkFrame = 0;
+                chunkError = 0;
+                // replace the estimate with the actual size of the chunk
+                adjustBudget(chunk.bytes - chunkBytes);
+            }
+
+            replayErrors(chunkFrame);
+
+            if (chunkFrame < chunk.frameCount) {
+                final int i = chunkFrame++;
+                if (decode) {
+                    frame.set(chunk.formats[i], chunk.frequencies[i], chunk.samples[i], chunk.samples[i].length);
+                } else {
+                    frame.set(chunk.formats[i], chunk.frequencies[i], null, 0);
+                }
+                ++validFramesDecoded;
+                return frame;
+            }
+
+            adjustBudget(-chunk.bytes);
+            chunk = null;
+        }
+        return null;
+    }
+
+    /**
+     * Passes any errors that occurred before the specified frame of the
+     * current chunk to the error handler.
+     */
+    private void replayErrors(int beforeFrame) throws IOException {
+        while (chunkError < chunk.errors.size() && chunk.errors.get(chunkError).frame <= beforeFrame) {
+            ChunkError e = chunk.errors.get(chunkError++);
+            errors.handle(e.exception, validFramesDecoded + errors.getErrorCount(), validFramesDecoded, e.logInReport);
+        }
+    }
+
+    private void finish() throws IOException {
+        finished = true;
+        adjustBudget(-reservedBytes);
+        if (errors.getErrorCount() > 0 && validFramesDecoded < DecodingErrorHandler.NUMBER_OF_VALID_FRAMES_BEFORE_FILE_ASSUMED_MP3) {
+            throw new NotAnMP3Exception();
+        }
+    }
+
+    /**
+     * Submits chunk tasks until the window of chunks being decoded is full or
+     * there are no more chunks.
+     */
+    private void fillWindow() {
+        while (pending.size() < window && nextChunkStart < end) {
+            if (!reserve(chunkBytes, pending.isEmpty())) {
+                break;
+            }
+            reservedBytes += chunkBytes;
+            final long chunkStart = nextChunkStart;
+            final long chunkEnd = Math.min(end, chunkStart + CHUNK_LENGTH);
+            nextChunkStart = chunkEnd;
+            pending.add(pool.submit(new ChunkDecoder(chunkStart, chunkEnd)));
+        }
+    }
+
+    private Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void cancel() {
+        finished = true;
+        for (Future<Chunk> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        chunk = null;
+        adjustBudget(-reservedBytes);
+    }
+
+    @Override
+    public void close() {
+        if (!finished) {
+            cancel();
+        }
+    }
+
+    /**
+     * Changes the number of bytes that this decoder has reserved from the
+     * shared buffer budget by the specified amount.
+     */
+    private void adjustBudget(long delta) {
+        if (delta != 0L) {
+            reservedBytes += delta;
+            synchronized (ParallelStreamDecoder.class) {
+                bufferedBytes += delta;
+            }
+        }
+    }
+
+    /**
+     * Reserves room in the shared buffer budget for a chunk that is about to
+     * be submitted. The caller must add the reserved bytes to
+     * {@link #reservedBytes} if this returns <code>true</code>.
+     *
+     * @param bytes the estimated size of the chunk
+     * @param force if <code>true</code>, the reservation is made even if it
+     * exceeds the budget
+     * @return <code>true</code> if the reservation was made
+     */
+    private static synchronized boolean reserve(long bytes, boolean force) {
+        final long budget = Checker.getSettings().getInt("parallel-decoding-buffer", 64) * 1024L * 1024L;
+        if (!force && bufferedBytes + bytes > budget) {
+            return false;
+        }
+        bufferedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * The number of bytes of decoded samples reserved by all of the parallel
+     * decoders, including estimates for the chunks still being decoded.
+     */
+    private static long bufferedBytes;
+
+    /**
+     * Returns the offset of the first frame at or after the nominal start of a
+     * chunk. If no frame can be found within the chunk, the chunk is empty and
+     * its frames, if any, are decoded as part of the preceding chunk.
+     */
+    private long findChunkBoundary(long nominal) throws IOException {
+        if (nominal <= start) {
+            return start;
+        }
+        if (nominal >= end) {
+            return end;
+        }
+        long f = FrameSync.findFrame(source, nominal, Math.min(end, nominal + CHUNK_LENGTH), signature);
+        return f < 0L ? Math.min(end, nominal + CHUNK_LENGTH) : f;
+    }
+
+    /**
+     * Decodes the frames in one chunk of the stream.
+     */
+    private final class ChunkDecoder implements Callable<Chunk> {
+
+        private final long nominalStart, nominalEnd;
+
+        ChunkDecoder(long nominalStart, long nominalEnd) {
+            this.nominalStart = nominalStart;
+            this.nominalEnd = nominalEnd;
+        }
+
+        @Override
+        public Chunk call() throws Exception {
+            final long chunkStart = findChunkBoundary(nominalStart);
+            final long chunkEnd = findChunkBoundary(nominalEnd);
+            final Chunk c = new Chunk();
+            if (chunkStart >= chunkEnd) {
+                return c;
+            }
+
+            long primingStart = start;
+            if (chunkStart > start) {
+                long f = FrameSync.findFrame(source, Math.max(start, chunkStart - PRIMING_LENGTH), chunkStart, signature);
+                primingStart = f < 0L ? chunkStart : f;
+            }
+
+            final Bitstream bitstream = new Bitstream(new BufferedInputStream(source.createInputStream(primingStart, chunkEnd), 16 * 1024));
+            final Decoder decoder = JavaLayerStreamDecoder.createDecoder(channels);
+            // as in the sequential decoder, the bitstream errors met while
+            // resynchronizing after a decoder error are not reported
+            DecoderException resyncCause = null;
+
+            for (;;) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Header header;
+                try {
+                    header = bitstream.readFrame();
+                } catch (BitstreamException e) {
+                    if (e.getErrorCode() == BitstreamErrors.STREAM_ERROR) {
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+                    }
+                    if (primingStart + bitstream.frame_pos() >= chunkStart) {
+                        if (resyncCause == null) {
+                            c.addError(e, true);
+                        } else {
+                            c.addError(resyncCause, false);
+                        }
+                    }
+                    bitstream.closeFrame();
+                    continue;
+                }
+                if (header == null) {
+                    break;
+                }
+                resyncCause = null;
+
+                final boolean priming = primingStart + bitstream.frame_pos() < chunkStart;
+                try {
+                    SampleBuffer buff = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                    if (!priming) {
+                        c.addFrame(JavaLayerStreamDecoder.getChannelFormat(header, decoder), buff.getSampleFrequency(), buff.getBuffer(), buff.getBufferLength());
+                    }
+                } catch (DecoderException e) {
+                    if (!priming) {
+                        c.addError(e, true);
+                        resyncCause = e;
+                    }
+                }
+                bitstream.closeFrame();
+            }
+            return c;
+        }
+    }
+
+    /**
+     * The decoded frames of one chunk, and the errors that occurred while
+     * decoding them.
+     */
+    private static final class Chunk {
+
+        int frameCount;
+        ChannelFormat[] formats = new ChannelFormat[64];
+        int[] frequencies = new int[64];
+        short[][] samples = new short[64][];
+        long bytes;
+        final List<ChunkError> errors = new ArrayList<>();
+
+        void addFrame(ChannelFormat format, int frequency, short[] buffer, int length) {
+            if (frameCount == formats.length) {
+                int size = frameCount * 2;
+                formats = Arrays.copyOf(formats, size);
+                frequencies = Arrays.copyOf(frequencies, size);
+                samples = Arrays.copyOf(samples, size);
+            }
+            formats[frameCount] = format;
+            frequencies[frameCount] = frequency;
+            samples[frameCount] = Arrays.copyOf(buffer, length);
+            bytes += length * 2L;
+            ++frameCount;
+        }
+
+        void addError(JavaLayerException e, boolean logInReport) {
+            errors.add(new ChunkError(frameCount, e, logInReport));
+        }
+    }
+
+    /**
+     * An error that occurred before a given frame of a chunk.
+     */
+    private static final class ChunkError {
+
+        final int frame;
+        final JavaLayerException exception;
+        final boolean logInReport;
+
+        ChunkError(int frame, JavaLayerException exception, boolean logInReport) {
+            this.frame = frame;
+            this.exception = exception;
+            this.logInReport = logInReport;
+        }
+    }
+
+    /**
+     * The maximum number of chunks that will be decoded ahead of the chunk
+     * being read, regardless of the number of available cores.
+     */
+    private static final int MAX_WINDOW = 8;
+}
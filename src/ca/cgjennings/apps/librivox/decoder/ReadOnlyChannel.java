@@ -0,0 +1,134 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A base class for the read-only channels that let an {@link MP3Source} read
+ * data that is not a complete file on disk. Subclasses only need to implement
+ * positional reads, the size, and closing; relative reads and transfers are
+ * built on positional reads, and all writes are refused.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+abstract class ReadOnlyChannel extends FileChannel {
+
+    private long position;
+
+    @Override
+    public abstract int read(ByteBuffer dst, long position) throws IOException;
+
+    @Override
+    public abstract long size() throws IOException;
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int count) throws IOException {
+        long total = 0L;
+        for (int i = offset; i < offset + count; ++i) {
+            if (dsts[i].hasRemaining()) {
+                int read = read(dsts[i]);
+                if (read < 0) {
+                    return total == 0L ? -1L : total;
+                }
+                total += read;
+                if (dsts[i].hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) {
+        if (newPosition < 0L) {
+            throw new IllegalArgumentException("position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buff = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        long total = 0L;
+        while (total < count) {
+            buff.clear();
+            buff.limit((int) Math.min(buff.capacity(), count - total));
+            int read = read(buff, position + total);
+            if (read < 0) {
+                break;
+            }
+            buff.flip();
+            while (buff.hasRemaining()) {
+                total += target.write(buff);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("this channel cannot be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("this channel cannot be locked");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("this channel cannot be locked");
+    }
+}
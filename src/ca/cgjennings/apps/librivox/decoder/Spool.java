@@ -0,0 +1,208 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tracks which parts of a file have been written while the file is still being
+ * downloaded, so that it can be analyzed at the same time. The file is written
+ * from start to end, except that a region at the end of the file (such as an
+ * ID3v1 tag) may be filled in early. An {@link MP3Source} that reads from a
+ * spool blocks until the bytes it needs have been written.
+ *
+ * <p>
+ * The writer calls {@link #setWritten} as data arrives, and then either
+ * {@link #finish} or {@link #fail}. These methods may be called from a
+ * different thread than the one that reads the file.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class Spool {
+
+    /**
+     * Creates a spool for a file that will be written up to the specified
+     * length. The file must already exist.
+     *
+     * @param file the file that is being written
+     * @param length the final length of the file
+     */
+    public Spool(File file, long length) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (length < 0L) {
+            throw new IllegalArgumentException("length: " + length);
+        }
+        this.file = file;
+        this.length = length;
+        tailStart = length;
+    }
+
+    /**
+     * Returns the file that is being written.
+     *
+     * @return the spooled file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the length that the file will have once it is complete.
+     *
+     * @return the final file length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Marks the part of the file from the specified offset to the end of the
+     * file as written, ahead of the rest of the file.
+     *
+     * @param start the offset of the start of the tail
+     */
+    public synchronized void setTail(long start) {
+        if (start < 0L || start > length) {
+            throw new IllegalArgumentException("start: " + start);
+        }
+        tailStart = start;
+        notifyAll();
+    }
+
+    /**
+     * Marks the file as written from the start of the file up to the
+     * specified offset.
+     *
+     * @param written the number of bytes written from the start of the file
+     */
+    public synchronized void setWritten(long written) {
+        this.written = written;
+        notifyAll();
+    }
+
+    /**
+     * Marks the file as complete.
+     */
+    public synchronized void finish() {
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks the file as incomplete because the writer failed. Readers that
+     * are waiting for data that was never written will throw an exception.
+     *
+     * @param cause the exception that stopped the writer
+     */
+    public synchronized void fail(IOException cause) {
+        failure = cause;
+        notifyAll();
+    }
+
+    /**
+     * Returns <code>true</code> if the entire file has been written.
+     *
+     * @return <code>true</code> if {@link #finish} has been called
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Waits until at least one byte at the specified offset can be read,
+     * returning the number of bytes (up to the requested length) that can be
+     * read from that offset without waiting. Once the file is complete, this
+     * always returns the requested length.
+     *
+     * @param position the offset of the first byte to be read
+     * @param count the number of bytes to be read
+     * @return the number of bytes that can be read, at least 1
+     * @throws IOException if the writer failed before writing the data, or
+     * the thread was interrupted
+     */
+    synchronized int await(long position, int count) throws IOException {
+        for (;;) {
+            if (complete || position >= tailStart) {
+                return count;
+            }
+            if (written > position) {
+                return (int) Math.min(count, written - position);
+            }
+            if (failure != null) {
+                throw new IOException(failure.getLocalizedMessage(), failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Opens a read-only channel for the spooled file. Reads from the channel
+     * wait for the data they need, and never return data past the written
+     * part of the file. The size of the channel is the final file length.
+     *
+     * @return a channel that reads the file as it is written
+     * @throws IOException if the file cannot be opened
+     */
+    FileChannel openChannel() throws IOException {
+        return new SpoolChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    private final class SpoolChannel extends ReadOnlyChannel {
+
+        private final FileChannel fc;
+
+        SpoolChannel(FileChannel fc) {
+            this.fc = fc;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            final int count = (int) Math.min(dst.remaining(), length - position);
+            final int available = await(position, count);
+            if (available == dst.remaining()) {
+                return fc.read(dst, position);
+            }
+            ByteBuffer part = dst.duplicate();
+            part.limit(part.position() + available);
+            int read = fc.read(part, position);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            fc.close();
+        }
+    }
+
+    private final File file;
+    private final long length;
+    private long written;
+    private long tailStart;
+    private boolean complete;
+    private IOException failure;
+}
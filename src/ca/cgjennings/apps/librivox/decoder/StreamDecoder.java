@@ -85,6 +85,17 @@ public interface StreamDecoder {
      */
     AudioHeader getAudioHeader() throws IllegalStateException;
 
+    /**
+     * Releases any resources held by the decoder, such as audio that has been
+     * decoded ahead of the frame being returned. This should be called when
+     * the decoder is no longer needed, whether or not it has reached the end
+     * of the stream. It does not close the stream or source that the audio is
+     * read from.
+     *
+     * @since 1.3
+     */
+    void close();
+
     /**
      * An enumeration of hint values that can be used to control how the decoder
      * will handle corrupt or invalid audio frames.
@@ -104,4 +115,36 @@ public interface StreamDecoder {
          */
         ALL
     }
+
+    /**
+     * An enumeration of the ways that the channels of a two channel stream
+     * can be decoded. Single channel streams are decoded the same way no
+     * matter which value is used.
+     *
+     * @since 1.3
+     */
+    public enum ChannelSelection {
+        /**
+         * Both channels are decoded, and frames have the channel format of
+         * the stream.
+         */
+        BOTH,
+        /**
+         * The channels are mixed down to a single channel, and frames have
+         * the {@link ChannelFormat#MONO} channel format. Where the decoder
+         * supports it, the channels are mixed before the synthesis stage, so
+         * only one channel has to be synthesized, which makes decoding
+         * noticeably faster. The header returned by
+         * {@link #getAudioHeader()} still describes the stream.
+         * <p>
+         * Each sample is within 1 (of 32768) of the average of the two
+         * channels of a {@link #BOTH} decode. For layer III, the channels
+         * of a granule can only be mixed before the inverse MDCT when they
+         * use the same block type. When their block types differ, as when
+         * one channel switches to short blocks, both channels of that
+         * granule are transformed and mixed afterward. Those granules
+         * decode at about the speed of two channels.
+         */
+        DOWNMIX
+    }
 }
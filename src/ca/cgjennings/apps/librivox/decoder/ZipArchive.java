@@ -0,0 +1,586 @@
+package ca.cgjennings.apps.librivox.decoder;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A ZIP archive whose entries can be read in place. The central directory is
+ * read once when the archive is opened, and the archive then stays open on a
+ * single channel that is shared by all of its entries. Since the channel is
+ * only used for positional reads, any number of entries may be read at once
+ * from different threads.
+ *
+ * <p>
+ * An entry that is stored without compression can be read directly from the
+ * archive, through a channel that is a window onto the part of the archive
+ * that holds the entry's data. A compressed entry is inflated into memory
+ * when a channel is opened for it, since the decoder and the metadata parser
+ * both need random access to the data. Neither kind of entry is extracted to
+ * disk.
+ *
+ * <p>
+ * An archive counts its users: each user other than the one that opened it
+ * calls {@link #retain()}, and every user calls {@link #close()} when done.
+ * The file is closed when the last user closes it.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class ZipArchive implements Closeable {
+
+    /**
+     * Opens a ZIP archive and reads its central directory.
+     *
+     * @param file the archive file
+     * @throws ZipException if the file is not a ZIP archive, or uses features
+     * that are not supported (such as spanning more than one disk)
+     * @throws IOException if an I/O error occurs while reading the file
+     */
+    public ZipArchive(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        users = 1;
+    }
+
+    /**
+     * Returns the archive file.
+     *
+     * @return the file that the archive was opened from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the entries in the archive, in the order that they are listed in
+     * the central directory. Folders are included.
+     *
+     * @return an immutable list of the archive's entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the entry with the specified name, or <code>null</code> if the
+     * archive has no such entry.
+     *
+     * @param name the full name of the entry, including any folders
+     * @return the named entry, or <code>null</code>
+     */
+    public Entry getEntry(String name) {
+        for (Entry e : entries) {
+            if (e.name.equals(name)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a user to the archive, so that it stays open until that user also
+     * calls {@link #close()}.
+     *
+     * @throws IllegalStateException if the archive has already been closed
+     */
+    public synchronized void retain() {
+        if (users == 0) {
+            throw new IllegalStateException("archive is closed");
+        }
+        ++users;
+    }
+
+    /**
+     * Removes a user from the archive. When the last user closes the archive,
+     * the archive file is closed and its entries can no longer be read.
+     *
+     * @throws IOException if an I/O error occurs while closing the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (users == 0 || --users > 0) {
+            return;
+        }
+        channel.close();
+    }
+
+    /**
+     * An entry in a {@link ZipArchive}.
+     */
+    public final class Entry {
+
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long headerOffset;
+        private long dataOffset = -1L;
+
+        private Entry(String name, int method, long compressedSize, long size, long headerOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        /**
+         * Returns the archive that contains this entry.
+         *
+         * @return the entry's archive
+         */
+        public ZipArchive getArchive() {
+            return ZipArchive.this;
+        }
+
+        /**
+         * Returns the full name of the entry, including any folders.
+         *
+         * @return the entry name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns <code>true</code> if the entry is a folder.
+         *
+         * @return <code>true</code> if the name ends in a slash
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Returns <code>true</code> if the entry is compressed, in which case
+         * opening a source for it will inflate it into memory.
+         *
+         * @return <code>true</code> if the entry is not stored as is
+         */
+        public boolean isCompressed() {
+            return method != STORED;
+        }
+
+        /**
+         * Returns the size of the entry's data.
+         *
+         * @return the uncompressed size, in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the number of bytes that the entry's data occupies in the
+         * archive.
+         *
+         * @return the compressed size, in bytes
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Returns a new stream that reads the entry's data, inflating it if
+         * necessary. The stream reads from the archive as it is read; it does
+         * not load the entry into memory.
+         *
+         * @return a stream over the uncompressed data
+         * @throws IOException if the entry cannot be read
+         */
+        public InputStream openStream() throws IOException {
+            InputStream in = Channels.newInputStream(new EntryChannel(dataOffset(), compressedSize));
+            if (method == STORED) {
+                return in;
+            }
+            checkMethod();
+            return new EntryInflaterStream(in);
+        }
+
+        /**
+         * Opens a read-only channel over the entry's data. A stored entry is
+         * read from the archive; a compressed entry is first inflated into
+         * memory.
+         *
+         * @return a channel that reads the uncompressed data
+         * @throws IOException if the entry cannot be read
+         */
+        FileChannel openChannel() throws IOException {
+            if (method == STORED) {
+                return new EntryChannel(dataOffset(), size);
+            }
+            checkMethod();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("entry too large to inflate: " + name);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            try (InputStream in = openStream()) {
+                byte[] buff = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buff)) >= 0) {
+                    if (read > data.remaining()) {
+                        throw new ZipException("entry is larger than recorded size: " + name);
+                    }
+                    data.put(buff, 0, read);
+                }
+            }
+            if (data.hasRemaining()) {
+                throw new ZipException("entry is smaller than recorded size: " + name);
+            }
+            data.flip();
+            return new BufferChannel(data);
+        }
+
+        private void checkMethod() throws ZipException {
+            if (method != DEFLATED) {
+                throw new ZipException("unsupported compression method " + method + ": " + name);
+            }
+        }
+
+        /**
+         * Returns the offset of the entry's data, reading it from the entry's
+         * local header the first time that it is needed.
+         */
+        private synchronized long dataOffset() throws IOException {
+            if (dataOffset < 0L) {
+                ByteBuffer header = read(headerOffset, LOCAL_HEADER_LENGTH);
+                if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new ZipException("bad local header: " + name);
+                }
+                dataOffset = headerOffset + LOCAL_HEADER_LENGTH
+                        + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            }
+            return dataOffset;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + '!' + name;
+        }
+    }
+
+    /**
+     * Reads the list of entries from the central directory at the end of the
+     * archive.
+     */
+    private List<Entry> readCentralDirectory() throws IOException {
+        final long fileLength = channel.size();
+        final int tailLength = (int) Math.min(fileLength, END_LENGTH + MAX_COMMENT_LENGTH);
+        final ByteBuffer tail = read(fileLength - tailLength, tailLength);
+
+        // the end record is followed by a comment of unknown length,
+        // so search for it backwards from the end
+        int end = -1;
+        for (int i = tailLength - END_LENGTH; i >= 0; --i) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("not a ZIP archive: " + file.getName());
+        }
+        final long endOffset = fileLength - tailLength + end;
+        if (tail.getShort(end + 4) != 0 || tail.getShort(end + 6) != 0) {
+            throw new ZipException("multi-disk archives are not supported");
+        }
+        long count = tail.getShort(end + 10) & 0xffff;
+        long cdLength = tail.getInt(end + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+        // a ZIP64 archive saturates these fields, and the real values
+        // are in a second end record that comes before this one
+        if (count == 0xffff || cdLength == 0xffffffffL || cdOffset == 0xffffffffL) {
+            if (endOffset >= ZIP64_LOCATOR_LENGTH) {
+                ByteBuffer locator = read(endOffset - ZIP64_LOCATOR_LENGTH, ZIP64_LOCATOR_LENGTH);
+                if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    ByteBuffer end64 = read(locator.getLong(8), ZIP64_END_LENGTH);
+                    if (end64.getInt(0) != ZIP64_END_SIGNATURE) {
+                        throw new ZipException("bad ZIP64 end record");
+                    }
+                    count = end64.getLong(32);
+                    cdLength = end64.getLong(40);
+                    cdOffset = end64.getLong(48);
+                }
+            }
+        }
+        if (cdLength > Integer.MAX_VALUE || cdOffset + cdLength > endOffset) {
+            throw new ZipException("bad central directory");
+        }
+
+        final ByteBuffer cd = read(cdOffset, (int) cdLength);
+        final List<Entry> list = new ArrayList<>((int) Math.min(count, 1024L));
+        int pos = 0;
+        for (long i = 0; i < count; ++i) {
+            if (pos + CENTRAL_HEADER_LENGTH > cd.limit() || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("bad central directory entry");
+            }
+            final int flags = cd.getShort(pos + 8) & 0xffff;
+            final int method = cd.getShort(pos + 10) & 0xffff;
+            long compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            long size = cd.getInt(pos + 24) & 0xffffffffL;
+            final int nameLength = cd.getShort(pos + 28) & 0xffff;
+            final int extraLength = cd.getShort(pos + 30) & 0xffff;
+            final int commentLength = cd.getShort(pos + 32) & 0xffff;
+            long headerOffset = cd.getInt(pos + 42) & 0xffffffffL;
+
+            final int namePos = pos + CENTRAL_HEADER_LENGTH;
+            final int extraPos = namePos + nameLength;
+            final int next = extraPos + extraLength + commentLength;
+            if (next > cd.limit()) {
+                throw new ZipException("bad central directory entry");
+            }
+            final byte[] nameBytes = new byte[nameLength];
+            cd.position(namePos);
+            cd.get(nameBytes);
+            final String name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : LEGACY_CHARSET);
+
+            // saturated sizes and offsets are found in the ZIP64 extra field,
+            // which only includes the values that did not fit
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || headerOffset == 0xffffffffL) {
+                for (int x = extraPos; x + 4 <= extraPos + extraLength;) {
+                    final int id = cd.getShort(x) & 0xffff;
+                    final int length = cd.getShort(x + 2) & 0xffff;
+                    int v = x + 4;
+                    if (id == ZIP64_EXTRA_ID) {
+                        if (size == 0xffffffffL && v + 8 <= x + 4 + length) {
+                            size = cd.getLong(v);
+                            v += 8;
+                        }
+                        if (compressedSize == 0xffffffffL && v + 8 <= x + 4 + length) {
+                            compressedSize = cd.getLong(v);
+                            v += 8;
+                        }
+                        if (headerOffset == 0xffffffffL && v + 8 <= x + 4 + length) {
+                            headerOffset = cd.getLong(v);
+                        }
+                        break;
+                    }
+                    x += 4 + length;
+                }
+            }
+
+            if ((flags & FLAG_ENCRYPTED) == 0) {
+                list.add(new Entry(name, method, compressedSize, size, headerOffset));
+            }
+            pos = next;
+        }
+        return list;
+    }
+
+    /**
+     * Reads part of the archive into a new little-endian buffer.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            int read = read(b, position + b.position());
+            if (read < 0) {
+                throw new EOFException(file.getName());
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Reads from the shared channel. A file channel is closed when a thread
+     * that is reading from it is interrupted, which happens whenever an
+     * analysis is cancelled. So that one cancelled entry does not break the
+     * others, the channel is reopened if it was closed by another thread.
+     */
+    private int read(ByteBuffer dst, long position) throws IOException {
+        for (;;) {
+            final FileChannel fc = channel;
+            try {
+                return fc.read(dst, position);
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                reopen(fc, e);
+            }
+        }
+    }
+
+    private synchronized void reopen(FileChannel closed, ClosedChannelException cause) throws IOException {
+        if (users == 0) {
+            throw cause;
+        }
+        if (channel == closed) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * A view of the part of the archive that holds an entry's data. Closing
+     * the view does not close the archive.
+     */
+    private final class EntryChannel extends ReadOnlyChannel {
+
+        private final long offset;
+        private final long length;
+
+        EntryChannel(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            final long available = length - position;
+            if (dst.remaining() <= available) {
+                return ZipArchive.this.read(dst, offset + position);
+            }
+            ByteBuffer part = dst.duplicate();
+            part.limit(part.position() + (int) available);
+            int read = ZipArchive.this.read(part, offset + position);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+
+    /**
+     * A channel over an entry that was inflated into memory.
+     */
+    private static final class BufferChannel extends ReadOnlyChannel {
+
+        private final ByteBuffer data;
+
+        BufferChannel(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            if (position >= data.limit()) {
+                return -1;
+            }
+            ByteBuffer src = data.duplicate();
+            src.position((int) position);
+            if (src.remaining() > dst.remaining()) {
+                src.limit(src.position() + dst.remaining());
+            }
+            final int read = src.remaining();
+            dst.put(src);
+            return read;
+        }
+
+        @Override
+        public long size() {
+            return data.limit();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+
+    /**
+     * Inflates raw deflate data. As with <code>ZipFile</code>, a dummy byte
+     * is supplied at the end of the input since the inflater may need one
+     * more byte than the entry holds to detect the end of the data.
+     */
+    private static final class EntryInflaterStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        EntryInflaterStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("unexpected end of compressed entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len < 0) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    private final File file;
+    private volatile FileChannel channel;
+    private final List<Entry> entries;
+    private int users;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_LENGTH = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_LENGTH = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    /**
+     * Names that are not flagged as UTF-8 use the original IBM PC code page.
+     */
+    private static final Charset LEGACY_CHARSET = Charset.isSupported("IBM437")
+            ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+}
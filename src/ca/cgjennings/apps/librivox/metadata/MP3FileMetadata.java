@@ -3,13 +3,13 @@ package ca.cgjennings.apps.librivox.metadata;
 import ca.cgjennings.apps.librivox.ImageUtils;
 import ca.cgjennings.apps.librivox.Checker;
 import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
+import ca.cgjennings.apps.librivox.decoder.MP3Source;
 import ca.cgjennings.apps.librivox.decoder.NotAnMP3Exception;
 import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
@@ -17,7 +17,6 @@ import java.util.List;
 import java.util.logging.Level;
 import javax.imageio.ImageIO;
 import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
-import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
 import org.jaudiotagger.audio.mp3.MP3AudioHeader;
 import org.jaudiotagger.audio.mp3.MP3File;
 import org.jaudiotagger.tag.Tag;
@@ -44,7 +43,6 @@ public class MP3FileMetadata {
 
     /**
      * Creates a new instance based on the metadata stored in the given file.
-     * The file must be writable, or an I/O exception will be thrown.
      *
      * @param file the file to obtain metadata for
      * @throws NotAnMP3Exception if the file does not appear to be an MP3 file
@@ -58,6 +56,24 @@ public class MP3FileMetadata {
         update();
     }
 
+    /**
+     * Creates a new instance based on the metadata read from an open source.
+     * Only the start and end of the file are read, so the source can then be
+     * used to stream the audio to a decoder.
+     *
+     * @param source the source to obtain metadata from
+     * @throws NotAnMP3Exception if the file does not appear to be an MP3 file
+     * @throws IOException if an I/O error occurs while parsing the file
+     * @since 1.3
+     */
+    public MP3FileMetadata(MP3Source source) throws IOException {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        f = source.getFile();
+        update(source);
+    }
+
     /**
      * Returns the estimated track length, in seconds.
      *
@@ -142,13 +158,31 @@ public class MP3FileMetadata {
      * its content.
      *
      * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the metadata was read from an archive
+     * entry rather than a file
      */
     public void update() throws IOException {
-        mp3f = openMP3File(f);
+        if (f == null) {
+            throw new IllegalStateException("metadata was not read from a file");
+        }
+        try (MP3Source source = new MP3Source(f)) {
+            update(source);
+        }
+    }
+
+    /**
+     * Re-reads the metadata from an open source for the same file.
+     *
+     * @param source the source to read metadata from
+     * @throws IOException if an I/O error occurs
+     * @since 1.3
+     */
+    public void update(MP3Source source) throws IOException {
+        mp3f = openMP3File(source);
 
         if (mp3f == null) {
             // assume no valid metadata available
-            fillInFallback(f);
+            fillInFallback(source);
         } else {
             // gather metadata
             fillIn(mp3f);
@@ -156,47 +190,36 @@ public class MP3FileMetadata {
     }
 
     /**
-     * Create an MP3File for reading metadata from a file, or return
+     * Create an MP3File for reading metadata from a source, or return
      * <code>null</code>
      *
-     * @param f
+     * @param source
      * @return
      * @throws IOException
      */
-    private MP3File openMP3File(File f) throws IOException {
-        // the file must be read/write for the tagging library to use it
-        // if it is not read/write we try to make it read/write here
-        // if that fails, an exception will be thrown later by the tag library
-        if (!f.canWrite()) {
-            f.setWritable(true);
-        }
-
+    private MP3File openMP3File(MP3Source source) throws IOException {
         MP3File mp3f = null;
         try {
-            mp3f = new MP3File(f, MP3File.LOAD_ALL);
+            mp3f = new MP3File(source.getChannel(), source.getHead(), source.length(), source.getName(), MP3File.LOAD_ALL);
         } catch (TagException e) {
             // this is not necessarily an error
             Checker.getLogger().log(Level.WARNING, "TagException while reading metadata", e);
-        } catch (ReadOnlyFileException e) {
-            throw new IOException(Checker.string("error-io-readonly"));
         } catch (InvalidAudioFrameException e) {
             throw new NotAnMP3Exception();
         }
         return mp3f;
     }
 
-    private void fillInFallback(File f) throws IOException {
+    private void fillInFallback(MP3Source source) throws IOException {
         v1 = null;
         v2 = null;
         encoder = null;
         startOfAudio = 0;
 
-        InputStream in = null;
-        try {
-            in = new BufferedInputStream(new FileInputStream(f));
+        try (InputStream in = new BufferedInputStream(source.createInputStream(0L))) {
             StreamDecoder decoder = DecoderFactory.createDecoder(in);
 
-            long len = f.length();
+            long len = source.length();
             if (len < 0L) {
                 len = 0L;
             }
@@ -206,10 +229,6 @@ public class MP3FileMetadata {
 
             trackLen = decoder.estimateTrackLength((int) len);
             frames = decoder.estimateFrameCount((int) len);
-        } finally {
-            if (in != null) {
-                in.close();
-            }
         }
     }
 
@@ -0,0 +1,454 @@
+package ca.cgjennings.apps.librivox.tools;
+
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact, multi-resolution summary of a waveform that can be drawn at any
+ * zoom level without decoding the audio again. The samples of each channel
+ * are divided into buckets of {@link #BASE_BUCKET_SIZE} samples, and the
+ * minimum, maximum, and RMS amplitude of each bucket are recorded. Each higher
+ * level combines {@link #REDUCTION} buckets from the level below, so drawing
+ * a long file at a small size only needs to look at a few values per pixel.
+ *
+ * <p>
+ * A pyramid is built one frame at a time by a single thread, and may be read
+ * by other threads while it is being built; readers only see buckets that are
+ * complete.
+ *
+ * <p>
+ * A complete pyramid can be written in a compact binary form with
+ * {@link #write} and read back with {@link #read}. All values are big-endian
+ * and each level's arrays are stored whole, so the data can be copied
+ * straight out of a memory-mapped file.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class PeakPyramid {
+
+    /**
+     * The number of samples per channel that are summarized by each bucket in
+     * the lowest level of the pyramid.
+     */
+    public static final int BASE_BUCKET_SIZE = 256;
+
+    /**
+     * The number of buckets in one level that are combined into a single
+     * bucket in the next level.
+     */
+    public static final int REDUCTION = 4;
+
+    /**
+     * Creates a new, empty pyramid.
+     *
+     * @param channels the number of channels (1 or 2)
+     * @param sampleRate the sample rate of the audio, in Hz
+     * @param expectedSamples an estimate of the number of samples per channel
+     * that will be added, used to size the pyramid, or 0 if unknown
+     */
+    public PeakPyramid(int channels, int sampleRate, long expectedSamples) {
+        if (channels < 1 || channels > 2) {
+            throw new IllegalArgumentException("channels: " + channels);
+        }
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        long buckets = expectedSamples / BASE_BUCKET_SIZE + 1L;
+        for (int i = 0; i < MAX_LEVELS; ++i) {
+            levels[i] = new Level(i == 0 ? BASE_BUCKET_SIZE : levels[i - 1].bucketSize * REDUCTION,
+                    (int) Math.min(Integer.MAX_VALUE / 2, (buckets + 1L) * channels));
+            buckets = buckets / REDUCTION + 1L;
+        }
+    }
+
+    /**
+     * Creates a complete pyramid whose levels will be filled in by
+     * {@link #read}.
+     */
+    private PeakPyramid(int channels, int sampleRate) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        complete = true;
+    }
+
+    /**
+     * Adds the samples in a frame to the pyramid. If the frame has more
+     * channels than the pyramid, the extra channels are ignored; if it has
+     * fewer, the first channel is repeated.
+     *
+     * @param frame the frame to add
+     */
+    public void add(AudioFrame frame) {
+        add(frame.getSamples(), frame.getSampleCount(), frame.getChannelCount());
+    }
+
+    /**
+     * Adds interleaved samples to the pyramid.
+     *
+     * @param samples the sample buffer
+     * @param count the number of samples per channel
+     * @param stride the number of interleaved channels in the buffer
+     */
+    public void add(short[] samples, int count, int stride) {
+        if (complete) {
+            throw new IllegalStateException("pyramid is complete");
+        }
+        final Level base = levels[0];
+        int s = 0;
+        while (s < count) {
+            final int n = Math.min(count - s, BASE_BUCKET_SIZE - (int) base.accSamples);
+            for (int ch = 0; ch < channels; ++ch) {
+                int off = s * stride + (ch < stride ? ch : 0);
+                int min = base.accMin[ch], max = base.accMax[ch];
+                long sq = 0L;
+                for (int i = 0; i < n; ++i, off += stride) {
+                    final int v = samples[off];
+                    if (v < min) {
+                        min = v;
+                    }
+                    if (v > max) {
+                        max = v;
+                    }
+                    sq += v * v;
+                }
+                base.accMin[ch] = min;
+                base.accMax[ch] = max;
+                base.accSquares[ch] += sq;
+            }
+            base.accSamples += n;
+            s += n;
+            if (base.accSamples == BASE_BUCKET_SIZE) {
+                closeBucket(0);
+            }
+        }
+        sampleCount += count;
+    }
+
+    /**
+     * Adds any partly filled buckets to the pyramid. No more samples can be
+     * added after this is called.
+     */
+    public void finish() {
+        if (complete) {
+            return;
+        }
+        for (int i = 0; i < MAX_LEVELS; ++i) {
+            if (levels[i].accSamples > 0L) {
+                closeBucket(i);
+            }
+        }
+        complete = true;
+    }
+
+    /**
+     * Returns <code>true</code> once {@link #finish()} has been called.
+     *
+     * @return <code>true</code> if all of the audio has been added
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the number of channels in the pyramid.
+     *
+     * @return the channel count
+     */
+    public int getChannelCount() {
+        return channels;
+    }
+
+    /**
+     * Returns the sample rate of the summarized audio.
+     *
+     * @return the sample rate, in Hz
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns the number of samples per channel that have been added.
+     *
+     * @return the number of samples summarized so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the number of levels in the pyramid.
+     *
+     * @return the level count
+     */
+    public int getLevelCount() {
+        return MAX_LEVELS;
+    }
+
+    /**
+     * Returns the number of samples per channel covered by each bucket in a
+     * level.
+     *
+     * @param level the level, where 0 is the most detailed
+     * @return the bucket size for the level
+     */
+    public int getBucketSize(int level) {
+        return levels[level].bucketSize;
+    }
+
+    /**
+     * Returns the number of complete buckets in a level.
+     *
+     * @param level the level, where 0 is the most detailed
+     * @return the number of buckets that can be read
+     */
+    public int getBucketCount(int level) {
+        return levels[level].count;
+    }
+
+    /**
+     * Returns the most compact level whose buckets are no larger than the
+     * specified number of samples, or level 0 if there is none. This is the
+     * level to draw from when each pixel covers that many samples.
+     *
+     * @param samplesPerPixel the number of samples per channel covered by
+     * one unit of the destination
+     * @return the level to read from
+     */
+    public int getLevelFor(double samplesPerPixel) {
+        int level = 0;
+        while (level + 1 < MAX_LEVELS && levels[level + 1].bucketSize <= samplesPerPixel) {
+            ++level;
+        }
+        return level;
+    }
+
+    /**
+     * Summarizes a range of buckets in one level. The minimum, maximum, and
+     * RMS amplitude of the buckets are stored in the first three elements of
+     * the destination array. If none of the buckets are complete, the array
+     * is not changed and the method returns <code>false</code>.
+     *
+     * @param level the level to read from
+     * @param channel the channel to summarize
+     * @param from the index of the first bucket
+     * @param to the index after the last bucket; at least one bucket is
+     * always read
+     * @param dest an array that will hold the minimum, maximum, and RMS
+     * @return <code>true</code> if the destination was filled in
+     */
+    public boolean getPeaks(int level, int channel, int from, int to, int[] dest) {
+        final Level lv = levels[level];
+        final int count = lv.count;
+        if (from < 0) {
+            from = 0;
+        }
+        if (to > count) {
+            to = count;
+        }
+        if (to <= from) {
+            if (from >= count) {
+                return false;
+            }
+            to = from + 1;
+        }
+        final short[] mins = lv.min, maxs = lv.max, rmss = lv.rms;
+        int min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+        double sq = 0d;
+        for (int b = from, i = from * channels + channel; b < to; ++b, i += channels) {
+            if (mins[i] < min) {
+                min = mins[i];
+            }
+            if (maxs[i] > max) {
+                max = maxs[i];
+            }
+            final double r = rmss[i];
+            sq += r * r;
+        }
+        dest[0] = min;
+        dest[1] = max;
+        dest[2] = (int) Math.round(Math.sqrt(sq / (to - from)));
+        return true;
+    }
+
+    /**
+     * Writes a complete pyramid in the binary form read by {@link #read}.
+     *
+     * @param out the output to write to
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the pyramid is not complete
+     */
+    public void write(DataOutput out) throws IOException {
+        if (!complete) {
+            throw new IllegalStateException("pyramid is not complete");
+        }
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(channels);
+        out.writeInt(sampleRate);
+        out.writeLong(sampleCount);
+        out.writeInt(BASE_BUCKET_SIZE);
+        out.writeInt(REDUCTION);
+        out.writeInt(MAX_LEVELS);
+        for (Level lv : levels) {
+            out.writeInt(lv.count);
+        }
+        for (Level lv : levels) {
+            final int n = lv.count * channels;
+            writeShorts(out, lv.min, n);
+            writeShorts(out, lv.max, n);
+            writeShorts(out, lv.rms, n);
+        }
+    }
+
+    private static void writeShorts(DataOutput out, short[] values, int n) throws IOException {
+        byte[] b = new byte[n * 2];
+        for (int i = 0, j = 0; i < n; ++i) {
+            final short v = values[i];
+            b[j++] = (byte) (v >> 8);
+            b[j++] = (byte) v;
+        }
+        out.write(b);
+    }
+
+    /**
+     * Reads a pyramid that was written by {@link #write}, starting at the
+     * buffer's current position. The returned pyramid is complete and does not
+     * refer to the buffer.
+     *
+     * @param in the buffer to read from, typically a mapped file
+     * @return the pyramid that was read
+     * @throws IOException if the data is not a pyramid in a supported format
+     */
+    public static PeakPyramid read(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != FORMAT_VERSION) {
+                throw new IOException("unsupported peak format");
+            }
+            final int channels = in.getInt();
+            final int sampleRate = in.getInt();
+            final long sampleCount = in.getLong();
+            if (channels < 1 || channels > 2 || sampleCount < 0L
+                    || in.getInt() != BASE_BUCKET_SIZE || in.getInt() != REDUCTION
+                    || in.getInt() != MAX_LEVELS) {
+                throw new IOException("incompatible peak data");
+            }
+            final int[] counts = new int[MAX_LEVELS];
+            long bucketSize = BASE_BUCKET_SIZE;
+            for (int i = 0; i < MAX_LEVELS; ++i, bucketSize *= REDUCTION) {
+                counts[i] = in.getInt();
+                if (counts[i] != (sampleCount + bucketSize - 1L) / bucketSize) {
+                    throw new IOException("inconsistent peak data");
+                }
+            }
+
+            PeakPyramid p = new PeakPyramid(channels, sampleRate);
+            p.sampleCount = sampleCount;
+            ShortBuffer data = in.slice().asShortBuffer();
+            for (int i = 0; i < MAX_LEVELS; ++i) {
+                final int n = counts[i] * channels;
+                Level lv = new Level(i == 0 ? BASE_BUCKET_SIZE : p.levels[i - 1].bucketSize * REDUCTION, n);
+                data.get(lv.min);
+                data.get(lv.max);
+                data.get(lv.rms);
+                lv.count = counts[i];
+                p.levels[i] = lv;
+            }
+            in.position(in.position() + data.position() * 2);
+            return p;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated peak data");
+        }
+    }
+
+    /**
+     * Writes the accumulated bucket for a level and passes it up to the next
+     * level.
+     */
+    private void closeBucket(int level) {
+        final Level lv = levels[level];
+        final int b = lv.count;
+        lv.ensureCapacity(b + 1, channels);
+        final Level up = level + 1 < MAX_LEVELS ? levels[level + 1] : null;
+        for (int ch = 0; ch < channels; ++ch) {
+            final int i = b * channels + ch;
+            lv.min[i] = (short) lv.accMin[ch];
+            lv.max[i] = (short) lv.accMax[ch];
+            lv.rms[i] = (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(lv.accSquares[ch] / (double) lv.accSamples)));
+            if (up != null) {
+                up.accMin[ch] = Math.min(up.accMin[ch], lv.accMin[ch]);
+                up.accMax[ch] = Math.max(up.accMax[ch], lv.accMax[ch]);
+                up.accSquares[ch] += lv.accSquares[ch];
+            }
+        }
+        if (up != null) {
+            up.accSamples += lv.accSamples;
+        }
+        lv.reset();
+        // publish the bucket only once it has been written
+        lv.count = b + 1;
+
+        if (up != null && up.accSamples == up.bucketSize) {
+            closeBucket(level + 1);
+        }
+    }
+
+    private static final class Level {
+
+        final int bucketSize;
+        volatile short[] min, max, rms;
+        volatile int count;
+
+        final int[] accMin = new int[2];
+        final int[] accMax = new int[2];
+        final long[] accSquares = new long[2];
+        long accSamples;
+
+        Level(int bucketSize, int capacity) {
+            this.bucketSize = bucketSize;
+            min = new short[capacity];
+            max = new short[capacity];
+            rms = new short[capacity];
+            reset();
+        }
+
+        void ensureCapacity(int buckets, int channels) {
+            if (buckets * channels > min.length) {
+                final int size = Math.max(buckets * channels, min.length + min.length / 2);
+                // readers may still be using the old arrays, which remain
+                // valid up to the published count
+                rms = Arrays.copyOf(rms, size);
+                max = Arrays.copyOf(max, size);
+                min = Arrays.copyOf(min, size);
+            }
+        }
+
+        void reset() {
+            accMin[0] = accMin[1] = Short.MAX_VALUE;
+            accMax[0] = accMax[1] = Short.MIN_VALUE;
+            accSquares[0] = accSquares[1] = 0L;
+            accSamples = 0L;
+        }
+    }
+
+    private final int channels;
+    private final int sampleRate;
+    private final Level[] levels = new Level[MAX_LEVELS];
+    private volatile long sampleCount;
+    private volatile boolean complete;
+
+    /**
+     * The number of levels; the top level has buckets of about a billion
+     * samples, which is far more than any file needs.
+     */
+    private static final int MAX_LEVELS = 12;
+
+    /**
+     * The version of the binary form written by {@link #write}.
+     */
+    private static final int FORMAT_VERSION = 1;
+}
@@ -1,9 +1,11 @@
 package ca.cgjennings.apps.librivox.tools;
 
+import ca.cgjennings.apps.librivox.Checker;
 import ca.cgjennings.apps.librivox.validators.*;
 import ca.cgjennings.apps.librivox.decoder.AudioFrame;
 import ca.cgjennings.apps.librivox.decoder.AudioHeader;
 import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import ca.cgjennings.apps.librivox.metadata.MP3FileMetadata;
 import ca.cgjennings.apps.librivox.validators.Validator.Category;
 import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
@@ -19,108 +21,58 @@ import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import javax.swing.JComponent;
-import org.jaudiotagger.audio.mp3.MP3AudioHeader;
 
 /**
  * A "validator" that creates an oscilloscope image of the file's waveform.
+ * Rather than drawing the waveform as it is decoded, it collects a
+ * {@link PeakPyramid}, which the viewer then draws at whatever size and zoom
+ * level is needed. When the waveform is collected during a file's normal
+ * analysis, the pyramid is kept with the file so that the waveform can be
+ * viewed later without decoding the file again.
  *
  * @author Christopher G. Jennings https://cgjennings.ca/contact/
  */
-class WaveformImager extends AbstractValidator {
+public class WaveformImager extends AbstractValidator {
 
     @Override
     public Category getCategory() {
         return Category.AUDIO;
     }
 
-    public enum OverdrawMethod {
-        NONE,
-        ANTIALIAS
-    }
-
-    private OverdrawMethod overdraw = OverdrawMethod.ANTIALIAS;
-
-    //
-    // TODO: clean this up generally, and possibly move to non-validator class
-    //       could convert to use a stream of samples instead of a frame,
-    //       then increase the width for drawing samples
-    //
     @Override
     public boolean isAudioProcessor() {
         return true;
     }
 
-    private Graphics2D initGraphics(int channel) {
-        Graphics2D g = image.createGraphics();
-
-        if (overdraw == OverdrawMethod.ANTIALIAS) {
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        }
-
-        if (channel >= 0) {
-            double hscale = width / samples;
-            double waveheight = 65535;
-            double vscale = height / (waveheight * channelCount);
-
-            double ty = height / 2d;
-            if (channelCount == 2) {
-                if (channel == 0) {
-                    ty /= 2d;
-                } else {
-                    ty += ty / 2d;
-                }
-            }
-            g.translate(0d, ty);
-            g.scale(hscale, vscale);
-
-            g.setPaint(new Color(0x44ffff));
-        }
-        return g;
-    }
-
-    private void drawScales() {
-        Graphics2D g = image.createGraphics();
-        try {
-            int w = (int) samples;
-
-            Stroke solid = g.getStroke();
-            BasicStroke dashed = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 1f, new float[]{4, 4}, 0);
-
-            g.setPaint(Color.WHITE);
-            int total = 4 * channelCount;
-            for (int i = 1; i < total; ++i) {
-                g.setStroke((i & 1) == 1 ? dashed : solid);
-                int y = i * (height - 1) / total;
-                if (i == 4) {
-                    g.setPaint(Color.PINK);
-                }
-                g.drawLine(0, y, width, y);
-                if (i == 4) {
-                    g.setPaint(Color.WHITE);
-                }
-            }
-        } finally {
-            g.dispose();
-        }
+    /**
+     * Returns <code>true</code> if the waveform peaks should be collected
+     * while files are analyzed.
+     *
+     * @return <code>true</code> if an imager should be added to the analysis
+     * @since 1.3
+     */
+    public static boolean isPeakCollectionEnabled() {
+        return Checker.getSettings().getBoolean("collect-waveform-peaks", true);
     }
 
     @Override
     public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
-        File src = getLibriVoxFile().getLocalFile();
         sampleRate = header.getFrequency();
 
-        try {
-            MP3AudioHeader metadataHeader = new MP3AudioHeader(src);
-            metadataHeader.getPreciseTrackLength();
-            samples = metadataHeader.getPreciseTrackLength() * sampleRate;
-        } catch (Exception e) {
+        // the file's metadata has already located the audio and read any
+        // Xing/LAME header, so there is no need to scan the file again
+        MP3FileMetadata metadata = getLibriVoxFile().getMetadata();
+        if (metadata != null && metadata.getTrackLength() > 0d) {
+            samples = metadata.getTrackLength() * sampleRate;
+        } else if (decoder != null) {
             // fallback on raw header, which will not account for metadata
-            long len = src.length();
+            long len = getLibriVoxFile().getFileSize();
             if (len < 0L) {
                 len = 0L;
             }
@@ -130,84 +82,21 @@ class WaveformImager extends AbstractValidator {
             samples = decoder.estimateTrackLength((int) len) * sampleRate;
         }
 
-        if (header.getChannelFormat().getChannelCount() > 1) {
-            height *= 2;
-        }
-
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        peaks = new PeakPyramid(
+                header.getChannelFormat().getChannelCount() > 1 ? 2 : 1,
+                header.getFrequency(), (long) samples
+        );
 
         n = 0;
-
         lastUpdate = 0;
-        updateRate = 2 * (int) samples / width; // the multiplier means more decoding, less window repaints
-
-        // there is less than 1 pixel per MPEG frame; we can speed up drawing by
-        // only drawing one line per block
-        useFastLines = width * 1152 < (int) samples;
+        updateRate = Math.max(1, 2 * (int) samples / WIDTH);
     }
 
     @Override
     public void analyzeFrame(AudioFrame frame) {
-        int channelCount = frame.getChannelCount();
-        short[] buff = frame.getSamples();
-
-        if (g == null) {
-            // the assumed count for the whole thing is based on the count for frame 0
-            this.channelCount = frame.getChannelCount() > 1 ? 2 : 1;
-
-            // create transformed graphics devices for each channel
-            g = new Graphics2D[2];
-            g[0] = initGraphics(0);
-            g[1] = initGraphics(1);
-
-            // this is a per-channel memory of the last sample from the previous frame
-            lastAmplitude[0] = frame.getSamples()[0];
-            lastAmplitude[1] = channelCount > 1 ? buff[1] : 0;
-
-            drawScales();
-            updateViewer();
-        }
-
-        int len = frame.getSampleCount();
-
-        for (int channel = 0; channel < channelCount; ++channel) {
-            int off = channel;
-            int p = n;
-            Graphics2D channelGraphics = g[channel];
-
-            if (useFastLines) {
-                int p0 = p;
-                int min = Short.MAX_VALUE, max = Short.MIN_VALUE;
-                for (int s = 0; s < len; ++s, off += channelCount, ++p) {
-                    int amplitude = buff[off];
-                    if (amplitude < min) {
-                        min = amplitude;
-                    } else if (amplitude > max) {
-                        max = amplitude;
-                    }
-                }
-                min = -min;
-                max = -max;
-                channelGraphics.fillRect(p0, max, p - p0, min - max);
-                if (overdraw == OverdrawMethod.ANTIALIAS) {
-                    // AA tends to end up very dark, painting again will brighten it
-                    channelGraphics.fillRect(p0, max, p - p0, min - max);
-                }
-            } else {
-                int lastAmplitudeForChannel = lastAmplitude[channel];
-                for (int s = 0; s < len; ++s, off += channelCount, ++p) {
-                    int amplitude = -((int) buff[off]);
-                    channelGraphics.drawLine(p - 1, lastAmplitudeForChannel, p, amplitude);
-                    lastAmplitudeForChannel = amplitude;
-                }
-                lastAmplitude[channel] = lastAmplitudeForChannel;
-            }
-
-        }
-        n += len;
-
+        peaks.add(frame);
+        n += frame.getSampleCount();
         if (n > (lastUpdate + updateRate)) {
-            drawScales();
             updateViewer();
             lastUpdate = n;
         }
@@ -215,15 +104,41 @@ class WaveformImager extends AbstractValidator {
 
     @Override
     public void endAnalysis() {
-        drawScales();
-        for (int i = 0; i < g.length; ++i) {
-            if (g[i] != null) {
-                g[i].dispose();
-            }
-        }
+        peaks.finish();
+        getLibriVoxFile().setWaveformPeaks(peaks);
+        updateViewer();
+    }
+
+    /**
+     * Shows a waveform that was collected earlier, instead of analyzing the
+     * file.
+     *
+     * @param peaks the complete waveform peaks
+     */
+    void setPeaks(PeakPyramid peaks) {
+        this.peaks = peaks;
+        sampleRate = peaks.getSampleRate();
+        samples = peaks.getSampleCount();
         updateViewer();
     }
 
+    /**
+     * Returns the number of samples per channel that the image spans. Until
+     * the waveform is complete, this is an estimate.
+     */
+    private double getTotalSamples() {
+        PeakPyramid p = peaks;
+        if (p == null) {
+            return samples;
+        }
+        return p.isComplete() ? p.getSampleCount() : Math.max(samples, p.getSampleCount());
+    }
+
+    private int getChannelCount() {
+        PeakPyramid p = peaks;
+        return p == null ? 1 : p.getChannelCount();
+    }
+
     public JComponent getViewer() {
         if (viewer == null) {
             viewer = new Viewer();
@@ -242,26 +157,22 @@ class WaveformImager extends AbstractValidator {
         }
     }
 
-    private BufferedImage image;
-    private Graphics2D[] g;
-    private int width = 620, height = 196;
-    private int channelCount;
-    private double samples, sampleRate;
+    private volatile PeakPyramid peaks;
+    private volatile double samples;
+    private volatile double sampleRate;
     private int n;
-    private int[] lastAmplitude = new int[MAX_CHANNEL_COUNT];
     private int lastUpdate = 0;
     private int updateRate;
-    private boolean useFastLines = false;
 
     private volatile Viewer viewer;
 
     class Viewer extends JComponent {
 
         public Viewer() {
-            setOpaque(false);
-            setPreferredSize(new Dimension(width, height));
+            setOpaque(true);
+            setPreferredSize(new Dimension(WIDTH, HEIGHT * getChannelCount()));
 
-            addMouseListener(new MouseAdapter() {
+            MouseAdapter mouse = new MouseAdapter() {
                 @Override
                 public void mouseEntered(MouseEvent e) {
                     lastMouseX = e.getX();
@@ -273,63 +184,118 @@ class WaveformImager extends AbstractValidator {
                     lastMouseX = -1;
                     repaint();
                 }
-            });
 
-            addMouseMotionListener(new MouseMotionListener() {
                 @Override
                 public void mouseMoved(MouseEvent e) {
                     lastMouseX = e.getX();
                     repaint();
                 }
 
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    dragX = e.getX();
+                    dragStart = viewStart;
+                }
+
                 @Override
                 public void mouseDragged(MouseEvent e) {
+                    if (!fit) {
+                        viewStart = dragStart - (e.getX() - dragX) * samplesPerPixel;
+                    }
                     lastMouseX = e.getX();
                     repaint();
                 }
-            });
+
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        fit = true;
+                        repaint();
+                    }
+                }
+
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    zoom(Math.pow(2d, e.getPreciseWheelRotation()), e.getX());
+                }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
+        }
+
+        /**
+         * Changes the number of samples per pixel by a factor, keeping the
+         * sample under the specified point in place.
+         */
+        private void zoom(double factor, int x) {
+            updateView(getWidth());
+            final double anchor = viewStart + x * samplesPerPixel;
+            samplesPerPixel *= factor;
+            fit = false;
+            viewStart = anchor - x * samplesPerPixel;
+            repaint();
+        }
+
+        /**
+         * Limits the view to the extent of the waveform.
+         */
+        private void updateView(int w) {
+            final double total = getTotalSamples();
+            final double fitted = Math.max(MIN_SAMPLES_PER_PIXEL, total / Math.max(1, w));
+            if (fit || samplesPerPixel >= fitted) {
+                fit = true;
+                samplesPerPixel = fitted;
+                viewStart = 0d;
+                return;
+            }
+            samplesPerPixel = Math.max(MIN_SAMPLES_PER_PIXEL, samplesPerPixel);
+            viewStart = Math.max(0d, Math.min(viewStart, total - w * samplesPerPixel));
         }
 
         @Override
         protected void paintComponent(Graphics g1) {
-            int w = getWidth();
-            int h = getHeight();
-            int x = 0;
-            if (w != width) {
-                x = (w - width) / 2;
+            final int w = getWidth();
+            final int h = getHeight();
+            if (w <= 0 || h <= 0) {
+                return;
             }
-            int y = 0;
-            if (h != height) {
-                y = (h - height) / 2;
+            if (image == null || image.getWidth() != w || image.getHeight() != h) {
+                image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
             }
-            g1.drawImage(image, x, y, null);
+            updateView(w);
+            rasterize(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), w, h);
+            g1.drawImage(image, 0, 0, null);
+
+            final int channelCount = getChannelCount();
+            drawScales((Graphics2D) g1, w, h, channelCount);
 
             g1.setColor(Color.WHITE);
             g1.setFont(scaleFont);
             label(g1, "+1", 0, -1);
-            label(g1, "-1", height, 1);
+            label(g1, "-1", h, 1);
             if (channelCount > 1) {
-                label(g1, "-1", height / 2, 1);
-                label(g1, "+1", height / 2, -1);
+                label(g1, "-1", h / 2, 1);
+                label(g1, "+1", h / 2, -1);
             }
 
-            if (lastMouseX >= 0) {
+            if (lastMouseX >= 0 && sampleRate > 0d) {
                 setFont(timeFont);
                 Graphics2D g = (Graphics2D) g1;
                 g.setPaint(Color.ORANGE);
-                g.drawLine(lastMouseX, 0, lastMouseX, getHeight());
+                g.drawLine(lastMouseX, 0, lastMouseX, h);
                 g.setFont(getFont());
-                double time = (((double) lastMouseX / (double) width) * samples) / sampleRate;
+                double time = (viewStart + lastMouseX * samplesPerPixel) / sampleRate;
                 int mins = ((int) time) / 60;
                 time -= mins * 60d;
-                String text = String.format("%d:%02.2f", mins, time);
+                String text = String.format("%d:%05.2f", mins, time);
                 FontMetrics fm = g.getFontMetrics();
 
                 final int XINSET = 4, YINSET = 3, BOXGAP = 2;
 
                 int stringWidth = fm.stringWidth(text);
-                int tx = width - stringWidth - XINSET;
-                int ty = height - fm.getDescent() - YINSET;
+                int tx = w - stringWidth - XINSET;
+                int ty = h - fm.getDescent() - YINSET;
                 int bw = stringWidth + BOXGAP * 2;
                 int bh = fm.getAscent() + fm.getDescent() + BOXGAP * 2;
 
@@ -345,6 +311,69 @@ class WaveformImager extends AbstractValidator {
             }
         }
 
+        /**
+         * Draws the waveform directly into the pixels of the image. Each
+         * column is drawn from the level of the pyramid whose buckets are
+         * closest to, but not larger than, the number of samples per pixel,
+         * so only a few buckets are read per column no matter how long the
+         * file is.
+         */
+        private void rasterize(int[] pixels, int w, int h) {
+            Arrays.fill(pixels, BACKGROUND);
+            final PeakPyramid p = peaks;
+            if (p == null) {
+                return;
+            }
+            final int channelCount = p.getChannelCount();
+            final int band = h / channelCount;
+            final int level = p.getLevelFor(samplesPerPixel);
+            final double bucketsPerPixel = samplesPerPixel / p.getBucketSize(level);
+            final double firstBucket = viewStart / p.getBucketSize(level);
+            final int[] peak = new int[3];
+
+            for (int ch = 0; ch < channelCount; ++ch) {
+                final int top = ch * band;
+                final int center = top + band / 2;
+                final double scale = (band / 2 - 1) / 32768d;
+                for (int x = 0; x < w; ++x) {
+                    final int from = (int) (firstBucket + x * bucketsPerPixel);
+                    final int to = (int) Math.ceil(firstBucket + (x + 1) * bucketsPerPixel);
+                    if (!p.getPeaks(level, ch, from, to, peak)) {
+                        break;
+                    }
+                    // sample values are positive upwards; y is positive downwards
+                    final int y0 = center - (int) Math.round(peak[1] * scale);
+                    final int y1 = center - (int) Math.round(peak[0] * scale);
+                    final int r = (int) Math.round(peak[2] * scale);
+                    final int r0 = Math.max(y0, center - r);
+                    final int r1 = Math.min(y1, center + r);
+                    for (int y = y0, i = y0 * w + x; y <= y1; ++y, i += w) {
+                        pixels[i] = y >= r0 && y <= r1 ? RMS_COLOUR : PEAK_COLOUR;
+                    }
+                }
+            }
+        }
+
+        private void drawScales(Graphics2D g, int w, int h, int channelCount) {
+            Stroke solid = g.getStroke();
+            BasicStroke dashed = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 1f, new float[]{4, 4}, 0);
+
+            g.setPaint(Color.WHITE);
+            int total = 4 * channelCount;
+            for (int i = 1; i < total; ++i) {
+                g.setStroke((i & 1) == 1 ? dashed : solid);
+                int y = i * (h - 1) / total;
+                if (i == 4) {
+                    g.setPaint(Color.PINK);
+                }
+                g.drawLine(0, y, w, y);
+                if (i == 4) {
+                    g.setPaint(Color.WHITE);
+                }
+            }
+            g.setStroke(solid);
+        }
+
         private void label(Graphics g, String s, int y, int bias) {
             FontMetrics fm = g.getFontMetrics();
             y += fm.getAscent();
@@ -359,6 +388,12 @@ class WaveformImager extends AbstractValidator {
             g.drawString(s, 2 + fm.stringWidth("+1") - fm.stringWidth(s), y);
         }
 
+        private BufferedImage image;
+        private boolean fit = true;
+        private double viewStart;
+        private double samplesPerPixel = MIN_SAMPLES_PER_PIXEL;
+        private int dragX;
+        private double dragStart;
         private int lastMouseX = -1;
 
         // Font.SANS_SERIF requires Java 6
@@ -368,7 +403,19 @@ class WaveformImager extends AbstractValidator {
                 .deriveFont(AffineTransform.getScaleInstance(1.5d, 1d));
     }
 
-    private static final int MAX_CHANNEL_COUNT = 2;
+    /**
+     * The initial size of the viewer; the height is per channel.
+     */
+    private static final int WIDTH = 620, HEIGHT = 196;
+
+    /**
+     * The closest zoom level, at which each base bucket is 8 pixels wide.
+     */
+    private static final double MIN_SAMPLES_PER_PIXEL = PeakPyramid.BASE_BUCKET_SIZE / 8d;
+
+    private static final int BACKGROUND = 0x000000;
+    private static final int PEAK_COLOUR = 0x44ffff;
+    private static final int RMS_COLOUR = 0xb4ffff;
 
     void setDecoder(StreamDecoder decoder) {
         this.decoder = decoder;
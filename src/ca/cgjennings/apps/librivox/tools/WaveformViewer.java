@@ -10,6 +10,8 @@ import ca.cgjennings.apps.librivox.decoder.AudioFrame;
 import ca.cgjennings.apps.librivox.decoder.DecoderFactory;
 import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
 import ca.cgjennings.apps.librivox.tools.WaveformImager;
+import ca.cgjennings.apps.librivox.validators.Validator;
+import ca.cgjennings.apps.librivox.validators.ValidatorPipeline;
 import java.awt.BorderLayout;
 import java.awt.EventQueue;
 import java.io.BufferedInputStream;
@@ -17,6 +19,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 /**
@@ -64,7 +67,6 @@ public class WaveformViewer extends javax.swing.JDialog {
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setCursor(new java.awt.Cursor(java.awt.Cursor.CROSSHAIR_CURSOR));
-        setResizable(false);
         addWindowListener(new java.awt.event.WindowAdapter() {
             public void windowClosing(java.awt.event.WindowEvent evt) {
                 onWindowClosing(evt);
@@ -78,7 +80,28 @@ private void onWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_
     decodeThread.interrupt();
 }//GEN-LAST:event_onWindowClosing
 
+    private void showViewer() {
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                getContentPane().add(imager.getViewer(), BorderLayout.CENTER);
+                pack();
+                Checker.popToEdge(WaveformViewer.this, -1);
+                setVisible(true);
+            }
+        });
+    }
+
     private void createWaveform() {
+        // if the peaks were collected when the file was checked,
+        // there is no need to decode it again
+        PeakPyramid peaks = file.getWaveformPeaks();
+        if (peaks != null && peaks.isComplete()) {
+            imager.setPeaks(peaks);
+            showViewer();
+            return;
+        }
+
         File f = file.getLocalFile();
         InputStream in = null;
         try {
@@ -97,33 +120,46 @@ private void onWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_
             imager.beginAnalysis(decoder.getAudioHeader(), null);
 
             // now we know how big the image should be (stereo is double height)
-            EventQueue.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    getContentPane().add(imager.getViewer(), BorderLayout.CENTER);
-                    pack();
-                    Checker.popToEdge(WaveformViewer.this, -1);
-                    setVisible(true);
-                }
-            });
+            showViewer();
 
             if (Thread.interrupted()) {
                 return;
             }
 
-            AudioFrame frame = decoder.getNextFrame();
-            while (frame != null) {
-                imager.analyzeFrame(frame);
-                if (Thread.interrupted()) {
-                    return;
+            // the peaks are collected in another thread if possible, so that
+            // it overlaps with decoding
+            ValidatorPipeline pipeline = ValidatorPipeline.isEnabled()
+                    ? new ValidatorPipeline(new Validator[]{imager}) : null;
+            try {
+                AudioFrame frame = decoder.getNextFrame();
+                while (frame != null) {
+                    if (pipeline != null) {
+                        pipeline.publish(frame);
+                    } else {
+                        imager.analyzeFrame(frame);
+                    }
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                    frame = decoder.getNextFrame();
+                }
+                if (pipeline != null) {
+                    pipeline.finish();
+                }
+            } finally {
+                if (pipeline != null) {
+                    pipeline.close();
                 }
-                frame = decoder.getNextFrame();
             }
 
             imager.endAnalysis();
         } catch (IOException e) {
             // TODO: handle errors
             getToolkit().beep();
+        } catch (InterruptedException e) {
+            // the window was closed
+        } catch (ExecutionException e) {
+            Checker.getLogger().log(Level.WARNING, "Viewer Exception", e.getCause());
         } finally {
             if (in != null) {
                 try {
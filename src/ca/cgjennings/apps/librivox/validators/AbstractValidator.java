@@ -5,6 +5,7 @@ import ca.cgjennings.apps.librivox.Checker;
 import ca.cgjennings.apps.librivox.LibriVoxAudioFile;
 import ca.cgjennings.apps.librivox.Report;
 import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
 import ca.cgjennings.util.SettingConverter;
 import ca.cgjennings.util.Settings;
 import java.io.IOException;
@@ -54,6 +55,28 @@ public abstract class AbstractValidator implements Validator {
         return false;
     }
 
+    /**
+     * {@inheritdoc }
+     * <p>
+     * This base class implementation returns the value of
+     * {@link #isAudioProcessor()}.
+     */
+    @Override
+    public boolean readsAudioStream() {
+        return isAudioProcessor();
+    }
+
+    /**
+     * {@inheritdoc }
+     * <p>
+     * This base class implementation returns
+     * {@link StreamDecoder.ChannelSelection#BOTH}.
+     */
+    @Override
+    public StreamDecoder.ChannelSelection getRequiredChannels() {
+        return StreamDecoder.ChannelSelection.BOTH;
+    }
+
     /**
      * The base class implementation does nothing.
      * <p>
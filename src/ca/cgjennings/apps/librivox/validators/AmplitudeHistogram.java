@@ -0,0 +1,259 @@
+package ca.cgjennings.apps.librivox.validators;
+
+/**
+ * A histogram of the 16-bit sample values in one channel of audio. Adding
+ * samples costs a single array increment per sample; statistics such as the
+ * peak level, DC offset, RMS level, percentiles, and the number of samples
+ * above a given level are then computed from the 65,536 bins, so their cost
+ * does not depend on the length of the audio.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class AmplitudeHistogram {
+
+    /**
+     * The bins are counted in <code>int</code>s while samples are added, and
+     * moved into <code>long</code> totals before any of them could overflow.
+     */
+    private final int[] bins = new int[BINS];
+    private long[] totals;
+    private long count;
+    private long sinceFold;
+
+    /**
+     * Creates a new, empty histogram.
+     */
+    public AmplitudeHistogram() {
+    }
+
+    /**
+     * Adds samples from an interleaved buffer.
+     *
+     * @param samples the buffer that holds the samples
+     * @param offset the index of the first sample to add
+     * @param count the number of samples to add
+     * @param stride the distance between consecutive samples in the buffer
+     */
+    public void add(short[] samples, int offset, int count, int stride) {
+        if (sinceFold + count > Integer.MAX_VALUE) {
+            fold();
+        }
+        final int[] b = bins;
+        for (int i = 0, off = offset; i < count; ++i, off += stride) {
+            ++b[samples[off] + ZERO];
+        }
+        this.count += count;
+        sinceFold += count;
+    }
+
+    /**
+     * Adds the samples in another histogram to this one.
+     *
+     * @param other the histogram to merge into this one
+     */
+    public void add(AmplitudeHistogram other) {
+        for (int i = 0; i < BINS; ++i) {
+            final long n = other.getBin(i);
+            if (n != 0L) {
+                if (totals == null) {
+                    totals = new long[BINS];
+                }
+                totals[i] += n;
+            }
+        }
+        count += other.count;
+    }
+
+    private void fold() {
+        if (totals == null) {
+            totals = new long[BINS];
+        }
+        for (int i = 0; i < BINS; ++i) {
+            totals[i] += bins[i];
+            bins[i] = 0;
+        }
+        sinceFold = 0L;
+    }
+
+    private long getBin(int i) {
+        return totals == null ? bins[i] : totals[i] + bins[i];
+    }
+
+    /**
+     * Returns the number of samples that have been added.
+     *
+     * @return the total sample count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of samples with a given value.
+     *
+     * @param amplitude the sample value, from -32768 to 32767
+     * @return the number of samples with that value
+     */
+    public long getCount(int amplitude) {
+        return getBin(amplitude + ZERO);
+    }
+
+    /**
+     * Returns the number of samples at either extreme of the sample range
+     * (-32768 or 32767).
+     *
+     * @return the number of full scale samples
+     */
+    public long getFullScaleCount() {
+        return getBin(0) + getBin(BINS - 1);
+    }
+
+    /**
+     * Returns the smallest sample value, or 0 if the histogram is empty.
+     *
+     * @return the minimum sample value
+     */
+    public int getMinimum() {
+        for (int i = 0; i < BINS; ++i) {
+            if (getBin(i) != 0L) {
+                return i - ZERO;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the largest sample value, or 0 if the histogram is empty.
+     *
+     * @return the maximum sample value
+     */
+    public int getMaximum() {
+        for (int i = BINS - 1; i >= 0; --i) {
+            if (getBin(i) != 0L) {
+                return i - ZERO;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the largest absolute sample value, from 0 to 32768.
+     *
+     * @return the peak level
+     */
+    public int getPeak() {
+        return Math.max(-getMinimum(), getMaximum());
+    }
+
+    /**
+     * Returns the mean sample value, which is the DC offset of the audio. If
+     * the histogram is empty, returns 0.
+     *
+     * @return the mean sample value
+     */
+    public double getMean() {
+        if (count == 0L) {
+            return 0d;
+        }
+        double sum = 0d;
+        for (int i = 0; i < BINS; ++i) {
+            sum += (double) (i - ZERO) * getBin(i);
+        }
+        return sum / count;
+    }
+
+    /**
+     * Returns the root mean square sample value. If the histogram is empty,
+     * returns 0.
+     *
+     * @return the RMS level, from 0 to 32768
+     */
+    public double getRMS() {
+        if (count == 0L) {
+            return 0d;
+        }
+        double sum = 0d;
+        for (int i = 0; i < BINS; ++i) {
+            final double v = i - ZERO;
+            sum += v * v * getBin(i);
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    /**
+     * Returns the ratio of the peak level to the RMS level, in decibels. If
+     * the histogram is empty or silent, returns 0.
+     *
+     * @return the crest factor in dB
+     */
+    public double getCrestFactor() {
+        final double rms = getRMS();
+        if (rms == 0d) {
+            return 0d;
+        }
+        return 20d * Math.log10(getPeak() / rms);
+    }
+
+    /**
+     * Returns the smallest level such that at least the given fraction of
+     * samples have an absolute value no greater than that level. For example,
+     * <code>getPercentileLevel(0.99)</code> returns the level that 99% of
+     * samples do not exceed.
+     *
+     * @param fraction the fraction of samples, from 0 to 1
+     * @return the level, from 0 to 32768
+     */
+    public int getPercentileLevel(double fraction) {
+        if (count == 0L) {
+            return 0;
+        }
+        final long target = (long) Math.ceil(Math.max(0d, Math.min(1d, fraction)) * count);
+        long seen = getBin(ZERO);
+        for (int level = 0; level < ZERO; ++level) {
+            if (seen >= target) {
+                return level;
+            }
+            seen += getBin(ZERO - level - 1);
+            if (level + 1 < ZERO) {
+                seen += getBin(ZERO + level + 1);
+            }
+        }
+        return ZERO;
+    }
+
+    /**
+     * Returns the number of samples whose absolute value is greater than a
+     * level.
+     *
+     * @param level the level, from 0 to 32768
+     * @return the number of samples above the level
+     */
+    public long getCountAbove(int level) {
+        long n = 0L;
+        for (int i = Math.max(0, level + 1); i <= ZERO; ++i) {
+            n += getBin(ZERO - i);
+            if (i < ZERO) {
+                n += getBin(ZERO + i);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the fraction of samples whose absolute value is greater than a
+     * given percentage of full scale.
+     *
+     * @param percent the level as a percentage of full scale
+     * @return the fraction of samples above the level, from 0 to 1
+     */
+    public double getFractionAbove(double percent) {
+        if (count == 0L) {
+            return 0d;
+        }
+        return getCountAbove((int) Math.floor(percent / 100d * ZERO)) / (double) count;
+    }
+
+    private static final int BINS = 65536;
+    private static final int ZERO = 32768;
+}
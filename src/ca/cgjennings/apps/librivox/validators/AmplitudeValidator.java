@@ -31,20 +31,13 @@ public class AmplitudeValidator extends AbstractValidator {
         maxChannelCount = 0;
 
         for (int i = 0; i < MAX_CHANNELS; ++i) {
-            sum[i] = 0d;
-            n[i] = 0d;
-            dcBias[i] = 0d;
+            histogram[i] = new AmplitudeHistogram();
         }
 
         // clipping
-        clippedSamples = totalSamples = clipRunLength = 0;
+        clippedSamples = clipRunLength = 0;
         clipLength = getLibriVoxFile().getMetadata().getTrackLength();
 
-        // range
-        samplesAbove80 = 0;
-        maxAmplitude = Short.MIN_VALUE;
-        minAmplitude = Short.MAX_VALUE;
-
         gainAnalyzer = new ReplayGainAnalyzer();
     }
 
@@ -58,13 +51,40 @@ public class AmplitudeValidator extends AbstractValidator {
         short[] buff = frame.getSamples();
         int len = frame.getSampleCount();
 
+        // every statistic except clipping is derived from the histograms
+        // at the end, so the per-sample work is one increment
+        boolean fullScale = false;
+        for (int c = 0; c < channels; ++c) {
+            final AmplitudeHistogram h = histogram[c];
+            final long before = h.getFullScaleCount();
+            h.add(buff, c, len, channels);
+            fullScale |= h.getFullScaleCount() != before;
+        }
+
+        // Clipping --- does not distinguish between channels; only frames
+        // with full scale samples need to be scanned for runs
+        if (fullScale) {
+            countClippedSamples(buff, len, channels);
+        } else if (len > 0) {
+            clipRunLength = 0;
+        }
+    }
+
+    /**
+     * Returns the loudness analyzer used to measure the volume, so that other
+     * validators can share its work. This is only valid during analysis.
+     *
+     * @return the analyzer, or <code>null</code> if analysis has not begun
+     */
+    ReplayGainAnalyzer getLoudnessAnalyzer() {
+        return gainAnalyzer;
+    }
+
+    private void countClippedSamples(short[] buff, int len, int channels) {
         for (int c = 0; c < channels; ++c) {
             int off = c;
             for (int s = 0; s < len; ++s, off += channels) {
                 short amplitude = buff[off];
-                sum[c] += amplitude;
-
-                // Clipping --- does not distinguish between channels
                 if (amplitude >= Short.MAX_VALUE || amplitude <= Short.MIN_VALUE) {
                     ++clipRunLength;
                     if (clipRunLength >= MINIMUM_CLIP_RUN) {
@@ -77,28 +97,8 @@ public class AmplitudeValidator extends AbstractValidator {
                 } else {
                     clipRunLength = 0;
                 }
-
-                // Range --- does not distinguish between channels
-                if (amplitude > maxAmplitude) {
-                    maxAmplitude = amplitude;
-                }
-                if (amplitude < minAmplitude) {
-                    minAmplitude = amplitude;
-                }
-                if (amplitude < m80Amplitude) {
-                    ++samplesAbove80;
-                }
-                if (amplitude > p80Amplitude) {
-                    ++samplesAbove80;
-                }
             }
         }
-        for (int c = 0; c < channels; ++c) {
-            // Clipping (total samples in *all* channels)
-            totalSamples += len;
-            // Total samples per channel
-            n[c] += len;
-        }
     }
 
     /**
@@ -144,15 +144,16 @@ public class AmplitudeValidator extends AbstractValidator {
         }
 
         String val1, val2;
-        dcBias[0] = (double) sum[0] / (double) n[0];
+        final double[] dcBias = new double[MAX_CHANNELS];
+        for (int c = 0; c < MAX_CHANNELS; ++c) {
+            dcBias[c] = histogram[c].getMean();
+        }
         val1 = string("av-dc-bias-val",
                 Math.round(dcBias[0]),
                 dcBias[0] / 32768d * 100d
         );
-
-        dcBias[1] = (double) sum[1] / (double) n[1];
         val2 = string("av-dc-bias-val",
-                Math.round(dcBias[0]),
+                Math.round(dcBias[1]),
                 dcBias[1] / 32768d * 100d
         );
 
@@ -171,6 +172,43 @@ public class AmplitudeValidator extends AbstractValidator {
             warn("must-avoid-dc-bias", string("av-must-avoid-dc-bias"));
         }
 
+        feature("av-peak", getTwoChannelString(
+                string("av-level-val", toDecibels(histogram[0].getPeak())),
+                string("av-level-val", toDecibels(histogram[1].getPeak()))
+        ));
+
+        final double percentile = settings.getDouble("level-percentile", 99.9d);
+        addFeature(string("av-percentile-level", percentile), getTwoChannelString(
+                string("av-level-val", toDecibels(histogram[0].getPercentileLevel(percentile / 100d))),
+                string("av-level-val", toDecibels(histogram[1].getPercentileLevel(percentile / 100d)))
+        ));
+
+        final double crest0 = histogram[0].getCrestFactor();
+        final double crest1 = maxChannelCount > 1 ? histogram[1].getCrestFactor() : crest0;
+        feature("av-crest-factor", getTwoChannelString(
+                string("av-crest-factor-val", crest0),
+                string("av-crest-factor-val", crest1)
+        ));
+
+        // Headroom --- like clipping, loud samples are counted over all channels
+        AmplitudeHistogram all = new AmplitudeHistogram();
+        for (int c = 0; c < maxChannelCount; ++c) {
+            all.add(histogram[c]);
+        }
+        final double loudLevel = settings.getDouble("loud-sample-level", 80d);
+        final double loudPercent = all.getFractionAbove(loudLevel) * 100d;
+        addFeature(string("av-loud-samples", loudLevel), string("av-loud-samples-val", loudPercent));
+
+        final double crestMin = settings.getDouble("crest-factor-min", 0d);
+        if (loudPercent > settings.getDouble("loud-sample-limit-fail", 100d)) {
+            fail("must-have-headroom", string("av-must-have-headroom-loud", loudLevel));
+        } else if (loudPercent > settings.getDouble("loud-sample-limit-warn", 1d)) {
+            warn("must-have-headroom", string("av-must-have-headroom-loud", loudLevel));
+        } else if (all.getCount() > 0L && Math.min(crest0, crest1) < crestMin) {
+            warn("must-have-headroom", string("av-must-have-headroom-crest", crestMin));
+        }
+
+        final long totalSamples = all.getCount();
         double clippedRatio = (double) clippedSamples / (double) totalSamples;
         double clippedMs = (clippedRatio * clipLength) / 1000d;
         double clippedPercent = clippedRatio * 100d;
@@ -183,12 +221,17 @@ public class AmplitudeValidator extends AbstractValidator {
         }
     }
 
+    /**
+     * Converts an absolute sample level to decibels relative to full scale;
+     * silence is treated as the smallest nonzero level.
+     */
+    private static double toDecibels(int level) {
+        return 20d * Math.log10(Math.max(1, level) / 32768d);
+    }
+
     private int maxChannelCount;
-    double[] sum = new double[MAX_CHANNELS];
-    double[] n = new double[MAX_CHANNELS];
-    double[] dcBias = new double[MAX_CHANNELS];
-    private int clippedSamples;
-    private int totalSamples;
+    private final AmplitudeHistogram[] histogram = new AmplitudeHistogram[MAX_CHANNELS];
+    private long clippedSamples;
     private int clipRunLength;
 
     // there must be at least this many clipped samples in a row to count as clipped
@@ -196,13 +239,6 @@ public class AmplitudeValidator extends AbstractValidator {
 
     private static final int MAX_CHANNELS = 2;
 
-    private int maxAmplitude;
-    private int minAmplitude;
-
-    private int p80Amplitude = Math.round(Short.MAX_VALUE * 0.8f);
-    private int m80Amplitude = Math.round(Short.MIN_VALUE * 0.8f);
-    private int samplesAbove80;
-
     private double clipLength;
 
     private ReplayGainAnalyzer gainAnalyzer;
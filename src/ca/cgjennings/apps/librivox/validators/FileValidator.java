@@ -6,7 +6,6 @@ import ca.cgjennings.apps.librivox.metadata.MetadataView;
 import ca.cgjennings.apps.librivox.metadata.SafeMetadataView;
 import ca.cgjennings.apps.librivox.validators.Validator.Category;
 import ca.cgjennings.util.Settings;
-import java.io.File;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.regex.Pattern;
@@ -26,10 +25,8 @@ public class FileValidator extends AbstractValidator {
 
     @Override
     public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
-        File file = getLibriVoxFile().getLocalFile();
-
         feature("fv-file-size", string("fv-file-size-val",
-                (double) file.length() / (1024d * 1024d))
+                (double) getLibriVoxFile().getFileSize() / (1024d * 1024d))
         );
 
         String name = getLibriVoxFile().getFileName();
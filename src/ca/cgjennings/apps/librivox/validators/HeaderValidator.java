@@ -1,10 +1,12 @@
 package ca.cgjennings.apps.librivox.validators;
 
-import ca.cgjennings.apps.librivox.decoder.AudioFrame;
 import ca.cgjennings.apps.librivox.decoder.AudioHeader;
 import ca.cgjennings.apps.librivox.decoder.ChannelFormat;
+import ca.cgjennings.apps.librivox.decoder.FrameScan;
 import ca.cgjennings.apps.librivox.metadata.MP3FileMetadata;
 import ca.cgjennings.util.Settings;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * Validates and gathers information from the MP3 header.
@@ -18,23 +20,21 @@ public class HeaderValidator extends AbstractValidator {
         return Category.FORMAT;
     }
 
+    /**
+     * {@inheritdoc }
+     * <p>
+     * The header validator does not process samples, but it walks every
+     * frame header to find the exact length and channel formats.
+     */
     @Override
-    public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
-        // save this so we can use it in endAnalysis()
-        this.header = header;
-    }
-
-    @Override
-    public void analyzeFrame(AudioFrame frame) {
-        // corrupt ID3 tags can give a misleading value for track length
-        // we determine an exact length based on the actual number of samples
-        trackLength += (double) frame.getSampleCount() / (double) frame.getFrequency();
-        ++channelTypeCounts[frame.getChannelFormat().ordinal()];
+    public boolean readsAudioStream() {
+        return true;
     }
 
     @Override
-    public boolean isAudioProcessor() {
-        return true;
+    public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
+        // save this so we can use it in endAnalysis()
+        this.header = header;
     }
 
     @Override
@@ -44,6 +44,21 @@ public class HeaderValidator extends AbstractValidator {
 
         MP3FileMetadata metadata = getLibriVoxFile().getMetadata();
 
+        // corrupt ID3 tags can give a misleading value for track length,
+        // so the frame headers are walked to count the actual frames
+        FrameScan scan;
+        try {
+            scan = getLibriVoxFile().getFrameScan();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        double trackLength = scan.getTrackLength();
+        long[] channelTypeCounts = new long[ChannelFormat.values().length];
+        for (ChannelFormat f : ChannelFormat.values()) {
+            channelTypeCounts[f.ordinal()] = scan.getFrameCount(f);
+        }
+        boolean vbr = header.isVariableBitRate() || scan.isVariableBitRate();
+
         // ENCODING
         String format = "" + header.getMPEGVersion() + " " + header.getLayerType();
         String encoder = metadata.getEncoder();
@@ -55,12 +70,13 @@ public class HeaderValidator extends AbstractValidator {
         feature("hv-file-type", val);
 
         // AUDIO FORMAT
-        long kbps = header.getBitRate();
+        long kbps = vbr ? scan.getAverageBitRate() : header.getBitRate();
         int freq = header.getFrequency();
 
         // we will decide what channel format is the main one by counting which
         // has the most frames
-        int dominantChanneltype = 0, dominantCount = -1;
+        int dominantChanneltype = 0;
+        long dominantCount = -1L;
         int nonZeroChannelTypes = 0;
         for (int i = 0; i < channelTypeCounts.length; ++i) {
             if (channelTypeCounts[i] != 0) {
@@ -106,13 +122,25 @@ public class HeaderValidator extends AbstractValidator {
             }
         }
 
-        val = string((header.isVariableBitRate() ? "hv-format-vbr" : "hv-format-cbr"), kbps, freq, channels);
+        val = string((vbr ? "hv-format-vbr" : "hv-format-cbr"), kbps, freq, channels);
         feature("hv-format", val);
 
-        if (header.isVariableBitRate()) {
+        if (vbr) {
             fail("must-be-constant-bit-rate", string("hv-must-be-constant-bit-rate"));
         }
 
+        // FRAMES
+        feature("hv-frame-count", string("hv-frame-count-val", scan.getFrameCount()));
+        if (scan.getSyncErrorCount() > 0) {
+            long[] offsets = scan.getSyncErrorOffsets();
+            StringBuilder b = new StringBuilder(string("hv-sync-errors", scan.getSyncErrorCount()));
+            for (int i = 0; i < offsets.length && i < MAX_LISTED_SYNC_ERRORS; ++i) {
+                b.append("<br>");
+                b.append(string("hv-sync-errors-entry", offsets[i]));
+            }
+            warn("must-have-intact-frames", b.toString());
+        }
+
         // TRACK LENGTH
         // we compute this exactly instead of estimating it
         long hours = 0L;
@@ -141,9 +169,11 @@ public class HeaderValidator extends AbstractValidator {
     }
 
     private AudioHeader header;
-    private double trackLength = 0d;
 
-    private int[] channelTypeCounts = new int[ChannelFormat.values().length];
+    /**
+     * The number of damaged locations that are listed in the report.
+     */
+    private static final int MAX_LISTED_SYNC_ERRORS = 10;
 
     @Override
     public String toString() {
@@ -0,0 +1,114 @@
+package ca.cgjennings.apps.librivox.validators;
+
+/**
+ * Estimates the background noise level of a recording from the weighted
+ * slices produced by a {@link ReplayGainAnalyzer}. The level of every window
+ * of consecutive slices is measured, with each window starting one slice after
+ * the last, so a quiet passage is found wherever it falls. The window levels
+ * are counted in a histogram, and the noise floor is taken to be a low
+ * percentile of them; this is less affected by a single unusually quiet window
+ * (such as a short dropout) than the quietest window alone.
+ *
+ * <p>
+ * The level of a window is the level of its loudest slice, which is the
+ * volume that ReplayGain analysis reports for a window of up to 20 slices.
+ * It is tracked with a queue of the slices that could still become the
+ * loudest, so each slice costs a constant amount of work on average no matter
+ * how long the window is.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+final class NoiseFloorEstimator implements ReplayGainAnalyzer.SliceListener {
+
+    private final int window;
+    // slices that are louder than every later slice in the window, oldest
+    // first, stored in a circular buffer
+    private final int[] queueLevel;
+    private final long[] queueIndex;
+    private int head, size;
+    private long slices;
+    private final int[] histogram = new int[ReplayGainAnalyzer.LEVELS];
+    private long windows;
+
+    /**
+     * Creates an estimator that measures windows of the specified length.
+     *
+     * @param windowSlices the number of slices per window
+     */
+    NoiseFloorEstimator(int windowSlices) {
+        window = Math.max(1, windowSlices);
+        queueLevel = new int[window];
+        queueIndex = new long[window];
+    }
+
+    @Override
+    public void sliceAnalyzed(double meanSquare) {
+        final int level = ReplayGainAnalyzer.toLevel(meanSquare);
+        final int capacity = window;
+
+        // drop the oldest slice once it leaves the window
+        if (size > 0 && queueIndex[head] <= slices - capacity) {
+            head = (head + 1) % capacity;
+            --size;
+        }
+        // drop slices that can no longer be the loudest
+        while (size > 0 && queueLevel[(head + size - 1) % capacity] <= level) {
+            --size;
+        }
+        final int tail = (head + size) % capacity;
+        queueLevel[tail] = level;
+        queueIndex[tail] = slices;
+        ++size;
+
+        if (++slices >= capacity) {
+            ++histogram[queueLevel[head]];
+            ++windows;
+        }
+    }
+
+    /**
+     * Returns the number of windows that have been measured. If this is 0,
+     * there was not enough audio to fill a single window.
+     *
+     * @return the window count
+     */
+    long getWindowCount() {
+        return windows;
+    }
+
+    /**
+     * Returns the level of the window at the specified percentile, where 0
+     * is the quietest window.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the level, in the units returned by
+     * {@link ReplayGainAnalyzer#toLevel}
+     * @throws IllegalStateException if no windows were measured
+     */
+    int getNoiseLevel(double percentile) {
+        if (windows == 0L) {
+            throw new IllegalStateException("no windows");
+        }
+        final long rank = (long) Math.floor(Math.max(0d, Math.min(100d, percentile)) / 100d * (windows - 1L));
+        long seen = 0L;
+        for (int level = 0; level < histogram.length; ++level) {
+            seen += histogram[level];
+            if (seen > rank) {
+                return level;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    /**
+     * Returns the standardized volume of the noise floor.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the noise volume, in dB
+     * @throws IllegalStateException if no windows were measured
+     */
+    float getNoiseVolume(double percentile) {
+        return ReplayGainAnalyzer.toVolume(getNoiseLevel(percentile));
+    }
+}
@@ -7,7 +7,7 @@ import java.util.logging.Level;
 import static ca.cgjennings.apps.librivox.Checker.string;
 
 /**
- * Measures background noise by capturing the quietest part of the audio.
+ * Measures background noise by finding the quietest parts of the audio.
  *
  * @author Christopher G. Jennings https://cgjennings.ca/contact/
  * @since 0.92
@@ -31,122 +31,52 @@ public class NoiseValidator extends AbstractValidator {
     }
 
     /**
-     * Size of window to capture.
+     * Measures the noise floor from the weighted slices of the audio.
      */
-    private static int WINDOW_SIZE_MS;
+    private NoiseFloorEstimator estimator;
 
     /**
-     * The current leader for quietest window.
+     * The analyzer that weights the audio for this validator, or
+     * <code>null</code> if the slices come from the amplitude validator's
+     * analyzer.
      */
-    private short[] leaderBuff;
-
-    /**
-     * The buffer used to capture the next segment to compare to the leader;
-     * when a new leader is found, the buffers are simply swapped.
-     */
-    private short[] captureBuff;
-
-    /**
-     * The smallest means of squares of the windows we have found so far. That
-     * is, we take the RMS amplitude of each window, and look for the one with
-     * the smallest value. The only difference is that we don't bother taking
-     * the square root since we don't care about the exact RMS value, just which
-     * one would be smallest.
-     */
-    private double minMS = Double.MAX_VALUE;
+    private ReplayGainAnalyzer analyzer;
 
     @Override
     public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
-        WINDOW_SIZE_MS = getSettings().getInt("noise-window", 500);
-
-        // calculate window size in samples
-        int winSize = header.getFrequency() * WINDOW_SIZE_MS / 1000;
-        winSize *= header.getChannelFormat().getChannelCount();
-        // just in case win size is so large it wraps the int
-        if (winSize < 0) {
-            throw new AssertionError();
+        final int windowMs = getSettings().getInt("noise-window", 500);
+        final int windowSlices = (int) Math.round(windowMs / (ReplayGainAnalyzer.SLICE_DURATION * 1000d));
+        estimator = new NoiseFloorEstimator(windowSlices);
+
+        // the amplitude validator already runs every sample through the
+        // loudness filter, so if it is enabled its slices are reused
+        analyzer = null;
+        if (predecessors != null) {
+            for (Validator v : predecessors) {
+                if (v instanceof AmplitudeValidator) {
+                    ReplayGainAnalyzer shared = ((AmplitudeValidator) v).getLoudnessAnalyzer();
+                    if (shared != null && shared.getSliceListener() == null) {
+                        shared.setSliceListener(estimator);
+                        return;
+                    }
+                }
+            }
         }
-
-        leaderBuff = new short[winSize];
-        captureBuff = new short[winSize];
+        analyzer = new ReplayGainAnalyzer();
+        analyzer.setSliceListener(estimator);
     }
 
-    /**
-     * The pointer to the position in the buffer where the next frame should be
-     * written
-     */
-    private int p;
-
     @Override
     public void analyzeFrame(AudioFrame frame) {
-        // if the current leader is all zeroes, there is no way we will beat
-        // so don't bother doing the work
-        if (minMS <= 0d) {
-            return;
-        }
-
-        // we need the basic stats from a frame in endAnalysis
-        frameTemplate = frame;
-
-        // all we do here is fill up the capture buffer;
-        // whenever we get a full window (buffer), we pass that to analyzeWindow
-        // to see if we have a new winner
-        int winSize = captureBuff.length;
-        int nSamples = frame.getSampleCount();
-        short[] samples = frame.getSamples();
-
-        if (p + nSamples >= winSize) {
-            // fill up the buffer and analyze
-            final int samplesToCopy = winSize - p;
-            System.arraycopy(samples, 0, captureBuff, p, samplesToCopy);
-            analyzeWindow();
-            p = 0;
-            // if there are leftover samples from the frame, capture them
-            // for next time
-            final int leftovers = nSamples - samplesToCopy;
-            if (leftovers > 0) {
-                System.arraycopy(samples, samplesToCopy, captureBuff, 0, leftovers);
-                p = leftovers;
-            }
-        } else {
-            System.arraycopy(samples, 0, captureBuff, p, nSamples);
-            p += nSamples;
-        }
-
-    }
-
-    private void analyzeWindow() {
-        final int winSize = captureBuff.length;
-        double sum = 0d;
-        for (int i = 0; i < winSize; ++i) {
-            final double sample = (double) captureBuff[i];
-            sum += sample * sample;
-        }
-
-        // is this window the new leader for quietest?
-        sum /= (double) winSize;
-        if (sum < minMS) {
-            minMS = sum;
-            short[] temp = leaderBuff;
-            leaderBuff = captureBuff;
-            captureBuff = temp;
+        if (analyzer != null) {
+            analyzer.processFrame(frame);
         }
     }
 
-    /**
-     * Keep a frame around so we can duplicate it to create a frame in
-     * endAnalysis().
-     */
-    private AudioFrame frameTemplate;
-
     @Override
     public void endAnalysis() {
-        if (minMS < Double.MAX_VALUE) {
-            AudioFrame f = new AudioFrame();
-            f.set(frameTemplate.getChannelFormat(), frameTemplate.getFrequency(), leaderBuff, leaderBuff.length);
-            ReplayGainAnalyzer rga = new ReplayGainAnalyzer();
-            rga.processFrame(f);
-            float noiseVolume = rga.done().getVolume();
+        if (estimator.getWindowCount() > 0L) {
+            final float noiseVolume = estimator.getNoiseVolume(getSettings().getDouble("noise-percentile", 1d));
 
             feature("bn-noise", string("av-volume-val", noiseVolume));
 
@@ -0,0 +1,189 @@
+package ca.cgjennings.apps.librivox.validators;
+
+/**
+ * A fast Fourier transform of real-valued input. A transform of
+ * <i>n</i> real samples is computed as a radix-2 complex transform of
+ * <i>n</i>/2 points, which is then split into the spectrum of the real input.
+ * The twiddle factors and the bit reversal permutation are computed when the
+ * transform is created, and the transform works in place, so an instance
+ * can be reused for any number of transforms without allocating memory.
+ *
+ * <p>
+ * An instance is not thread safe; each thread that performs transforms needs
+ * its own instance.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class RealFFT {
+
+    private final int size;
+    private final int half;
+    // twiddle factors for the complex transform: exp(-2 pi i k / half)
+    private final float[] cos;
+    private final float[] sin;
+    // twiddle factors for splitting the real spectrum: exp(-2 pi i k / size)
+    private final float[] splitCos;
+    private final float[] splitSin;
+    // the complex index that each complex index is swapped with, or -1
+    private final int[] swap;
+
+    /**
+     * Creates a transform of the specified size.
+     *
+     * @param size the number of real samples in each transform; must be a
+     * power of 2 and at least 4
+     * @throws IllegalArgumentException if the size is not valid
+     */
+    public RealFFT(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of 2 >= 4: " + size);
+        }
+        this.size = size;
+        half = size / 2;
+
+        cos = new float[half / 2];
+        sin = new float[half / 2];
+        for (int k = 0; k < cos.length; ++k) {
+            final double a = 2d * Math.PI * k / half;
+            cos[k] = (float) Math.cos(a);
+            sin[k] = (float) Math.sin(a);
+        }
+
+        splitCos = new float[half / 2 + 1];
+        splitSin = new float[half / 2 + 1];
+        for (int k = 0; k < splitCos.length; ++k) {
+            final double a = 2d * Math.PI * k / size;
+            splitCos[k] = (float) Math.cos(a);
+            splitSin[k] = (float) Math.sin(a);
+        }
+
+        swap = new int[half];
+        final int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; ++i) {
+            final int j = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            swap[i] = j > i ? j : -1;
+        }
+    }
+
+    /**
+     * Returns the number of real samples in each transform.
+     *
+     * @return the transform size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Replaces the real samples in an array with their spectrum. On return,
+     * element 0 holds the (real) DC term, element 1 holds the (real) term at
+     * the Nyquist frequency, and for 0 &lt; <i>k</i> &lt; <i>n</i>/2, elements
+     * 2<i>k</i> and 2<i>k</i>+1 hold the real and imaginary parts of
+     * frequency bin <i>k</i>. The result is not normalized.
+     *
+     * @param data an array of at least {@link #getSize()} samples
+     */
+    public void transform(float[] data) {
+        complexTransform(data);
+        split(data);
+    }
+
+    /**
+     * Computes the power (squared magnitude) of each frequency bin of a
+     * spectrum returned by {@link #transform}.
+     *
+     * @param spectrum the transformed data
+     * @param power an array of at least <i>n</i>/2+1 elements that will be
+     * filled in with the power of bins 0 to <i>n</i>/2
+     */
+    public void power(float[] spectrum, float[] power) {
+        power[0] = spectrum[0] * spectrum[0];
+        power[half] = spectrum[1] * spectrum[1];
+        for (int k = 1, i = 2; k < half; ++k, i += 2) {
+            final float re = spectrum[i];
+            final float im = spectrum[i + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+
+    /**
+     * Performs an in-place complex transform of the <i>n</i>/2 points formed
+     * by taking pairs of real samples as the real and imaginary parts.
+     */
+    private void complexTransform(float[] d) {
+        final int n = half;
+        for (int i = 0; i < n; ++i) {
+            final int j = swap[i];
+            if (j >= 0) {
+                final int a = i * 2, b = j * 2;
+                float t = d[a];
+                d[a] = d[b];
+                d[b] = t;
+                t = d[a + 1];
+                d[a + 1] = d[b + 1];
+                d[b + 1] = t;
+            }
+        }
+
+        // the first pass has no twiddle factors
+        for (int a = 0, end = n * 2; a < end; a += 4) {
+            final float re = d[a + 2], im = d[a + 3];
+            d[a + 2] = d[a] - re;
+            d[a + 3] = d[a + 1] - im;
+            d[a] += re;
+            d[a + 1] += im;
+        }
+
+        for (int len = 4; len <= n; len <<= 1) {
+            final int span = len >> 1;
+            final int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int j = 0, w = 0; j < span; ++j, w += step) {
+                    final float wr = cos[w];
+                    final float wi = -sin[w];
+                    final int a = (i + j) * 2, b = a + len;
+                    final float br = d[b], bi = d[b + 1];
+                    final float tr = wr * br - wi * bi;
+                    final float ti = wr * bi + wi * br;
+                    d[b] = d[a] - tr;
+                    d[b + 1] = d[a + 1] - ti;
+                    d[a] += tr;
+                    d[a + 1] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Separates the transform of the even and odd samples, which were
+     * transformed together as one complex sequence, and combines them into
+     * the spectrum of the real samples.
+     */
+    private void split(float[] d) {
+        final float r0 = d[0], i0 = d[1];
+        d[0] = r0 + i0;
+        d[1] = r0 - i0;
+
+        for (int k = 1, m = half - 1; k <= m; ++k, --m) {
+            final int a = k * 2, b = m * 2;
+            final float ar = d[a], ai = d[a + 1];
+            final float br = d[b], bi = d[b + 1];
+
+            // even = (Z[k] + conj(Z[m])) / 2, odd = (Z[k] - conj(Z[m])) / 2i
+            final float er = 0.5f * (ar + br);
+            final float ei = 0.5f * (ai - bi);
+            final float or = 0.5f * (ai + bi);
+            final float oi = -0.5f * (ar - br);
+
+            // X[k] = even + w * odd, X[m] = conj(even - w * odd)
+            final float wr = splitCos[k], wi = -splitSin[k];
+            final float tr = wr * or - wi * oi;
+            final float ti = wr * oi + wi * or;
+            d[a] = er + tr;
+            d[a + 1] = ei + ti;
+            d[b] = er - tr;
+            d[b + 1] = -(ei - ti);
+        }
+    }
+}
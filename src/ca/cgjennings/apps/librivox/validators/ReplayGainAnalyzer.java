@@ -19,22 +19,11 @@ import ca.cgjennings.apps.librivox.decoder.AudioFrame;
 final class ReplayGainAnalyzer {
 
     private static final int ALGORITHMDB = 89;          // Target dB level for this algorithm
-    private static final int YULE_ORDER = 10;
-    private static final int BUTTER_ORDER = 2;
     private static final double RMS_PERCENTILE = 0.95;   // percentile which is louder than proposed level
-    private static final double MAX_SAMP_FREQ = 96000;   // maximum allowed sample frequency [Hz]
     private static final double RMS_WINDOW_TIME = 0.050; // Time slice size [s]
     private static final double STEPS_per_dB = 100;      // Table entries per dB
     private static final double MAX_dB = 120;            // Table of 0...MAX_dB
     private static final double PINK_REF = 64.82;        // 298640883795: calibration value
-    private static final int MAX_SAMPLES_PER_WINDOW = (int) (MAX_SAMP_FREQ * RMS_WINDOW_TIME + 1);
-    private static final int MAX = Math.max(YULE_ORDER, BUTTER_ORDER);
-    private short[] linprebuf = new short[MAX * 2];
-    private short[] rinprebuf = new short[MAX * 2];
-    private double[] lstepbuf = new double[MAX_SAMPLES_PER_WINDOW + MAX];
-    private double[] loutbuf = new double[MAX_SAMPLES_PER_WINDOW + MAX];
-    private double[] rstepbuf = new double[MAX_SAMPLES_PER_WINDOW + MAX];
-    private double[] routbuf = new double[MAX_SAMPLES_PER_WINDOW + MAX];
     private int sampleWindow;  // number of samples required to reach number of ms required for RMS window
     private int totsamp;
     private double lsum;
@@ -70,49 +59,118 @@ final class ReplayGainAnalyzer {
         {0.94597685600279, -1.88903307939452, -1.89195371200558, 0.89487434461664, 0.94597685600279}
     };
 
-    private static void filterYule(short[] in, int inoff, double[] out, int outoff, int len, double[] kernel) {
-        for (int i = 0; i < len; i++) {
-            out[outoff + i] = 1e-10 /* 1e-10 is a hack to avoid slowdown because of denormals */
-                    + in[inoff + i + 0] * kernel[0]
-                    - out[outoff + i - 1] * kernel[1]
-                    + in[inoff + i - 1] * kernel[2]
-                    - out[outoff + i - 2] * kernel[3]
-                    + in[inoff + i - 2] * kernel[4]
-                    - out[outoff + i - 3] * kernel[5]
-                    + in[inoff + i - 3] * kernel[6]
-                    - out[outoff + i - 4] * kernel[7]
-                    + in[inoff + i - 4] * kernel[8]
-                    - out[outoff + i - 5] * kernel[9]
-                    + in[inoff + i - 5] * kernel[10]
-                    - out[outoff + i - 6] * kernel[11]
-                    + in[inoff + i - 6] * kernel[12]
-                    - out[outoff + i - 7] * kernel[13]
-                    + in[inoff + i - 7] * kernel[14]
-                    - out[outoff + i - 8] * kernel[15]
-                    + in[inoff + i - 8] * kernel[16]
-                    - out[outoff + i - 9] * kernel[17]
-                    + in[inoff + i - 9] * kernel[18]
-                    - out[outoff + i - 10] * kernel[19]
-                    + in[inoff + i - 10] * kernel[20];
+    /**
+     * The filter state for one channel. The history of each filter is held in
+     * fields between calls to {@link #filter}, and in local variables while
+     * filtering, so that samples can be read directly from the interleaved
+     * frame buffer without being copied.
+     */
+    private static final class ChannelFilter {
+
+        // input history: x1 is the previous input sample, x2 the one before...
+        private double x1, x2, x3, x4, x5, x6, x7, x8, x9, x10;
+        // Yule filter output history
+        private double y1, y2, y3, y4, y5, y6, y7, y8, y9, y10;
+        // Butterworth filter output history
+        private double z1, z2;
+
+        void reset() {
+            x1 = x2 = x3 = x4 = x5 = x6 = x7 = x8 = x9 = x10 = 0d;
+            y1 = y2 = y3 = y4 = y5 = y6 = y7 = y8 = y9 = y10 = 0d;
+            z1 = z2 = 0d;
         }
-    }
 
-    private static void filterButter(double[] in, int inoff, double[] out, int outoff, int len, double[] kernel) {
-        for (int i = 0; i < len; i++) {
-            out[outoff + i]
-                    = in[inoff + i + 0] * kernel[0]
-                    - out[outoff + i - 1] * kernel[1]
-                    + in[inoff + i - 1] * kernel[2]
-                    - out[outoff + i - 2] * kernel[3]
-                    + in[inoff + i - 2] * kernel[4];
+        /**
+         * Applies the Yule and Butterworth filters in turn to a run of
+         * samples and adds the squares of the filtered values to a running
+         * sum. The terms of each filter are summed pairwise rather than left
+         * to right, which shortens the chain of dependent additions from one
+         * sample to the next; the results differ from a left to right sum
+         * only by rounding error.
+         *
+         * @param in the sample buffer
+         * @param off the offset of the first sample for this channel
+         * @param stride the distance between samples (the channel count)
+         * @param len the number of samples to filter
+         * @param sum the running sum of squares
+         * @param a the Yule filter kernel
+         * @param b the Butterworth filter kernel
+         * @return the updated sum of squares
+         */
+        double filter(short[] in, int off, int stride, int len, double sum, double[] a, double[] b) {
+            double x1 = this.x1, x2 = this.x2, x3 = this.x3, x4 = this.x4, x5 = this.x5,
+                    x6 = this.x6, x7 = this.x7, x8 = this.x8, x9 = this.x9, x10 = this.x10;
+            double y1 = this.y1, y2 = this.y2, y3 = this.y3, y4 = this.y4, y5 = this.y5,
+                    y6 = this.y6, y7 = this.y7, y8 = this.y8, y9 = this.y9, y10 = this.y10;
+            double z1 = this.z1, z2 = this.z2;
+
+            for (int i = 0, p = off; i < len; ++i, p += stride) {
+                final double x0 = in[p];
+                // the feed-forward terms do not depend on earlier outputs,
+                // so only the last feedback term is on the critical path
+                final double ff = ((x0 * a[0] + x1 * a[2]) + (x2 * a[4] + x3 * a[6]))
+                        + ((x4 * a[8] + x5 * a[10]) + (x6 * a[12] + x7 * a[14]))
+                        + ((x8 * a[16] + x9 * a[18]) + (x10 * a[20] + 1e-10 /* avoids slowdown because of denormals */));
+                final double fb = ((y2 * a[3] + y3 * a[5]) + (y4 * a[7] + y5 * a[9]))
+                        + ((y6 * a[11] + y7 * a[13]) + (y8 * a[15] + y9 * a[17]))
+                        + y10 * a[19];
+                final double y0 = (ff - fb) - y1 * a[1];
+                final double z0 = ((y0 * b[0] + y1 * b[2]) + (y2 * b[4] - z2 * b[3])) - z1 * b[1];
+                sum += z0 * z0;
+
+                x10 = x9;
+                x9 = x8;
+                x8 = x7;
+                x7 = x6;
+                x6 = x5;
+                x5 = x4;
+                x4 = x3;
+                x3 = x2;
+                x2 = x1;
+                x1 = x0;
+                y10 = y9;
+                y9 = y8;
+                y8 = y7;
+                y7 = y6;
+                y6 = y5;
+                y5 = y4;
+                y4 = y3;
+                y3 = y2;
+                y2 = y1;
+                y1 = y0;
+                z2 = z1;
+                z1 = z0;
+            }
+
+            this.x1 = x1;
+            this.x2 = x2;
+            this.x3 = x3;
+            this.x4 = x4;
+            this.x5 = x5;
+            this.x6 = x6;
+            this.x7 = x7;
+            this.x8 = x8;
+            this.x9 = x9;
+            this.x10 = x10;
+            this.y1 = y1;
+            this.y2 = y2;
+            this.y3 = y3;
+            this.y4 = y4;
+            this.y5 = y5;
+            this.y6 = y6;
+            this.y7 = y7;
+            this.y8 = y8;
+            this.y9 = y9;
+            this.y10 = y10;
+            this.z1 = z1;
+            this.z2 = z2;
+            return sum;
         }
     }
 
     private void resetSampleFrequency(int samplefreq) {
-        for (int i = 0; i < MAX; i++) {
-            lstepbuf[i] = loutbuf[i] = rstepbuf[i] = routbuf[i] = 0;
-            linprebuf[i] = rinprebuf[i] = 0;
-        }
+        left.reset();
+        right.reset();
 
         switch (samplefreq) {
             case 96000:
@@ -164,98 +222,116 @@ final class ReplayGainAnalyzer {
         }
     }
 
-    private static double square(double x) {
-        return x * x;
-    }
+    private boolean firstFrame = true;
+    private final ChannelFilter left = new ChannelFilter();
+    private final ChannelFilter right = new ChannelFilter();
 
-    private void analyze(short[] lsamp, int loff, short[] rsamp, int roff, int len) {
-        if (len == 0) {
-            return;
+    public void processFrame(AudioFrame frame) {
+        if (firstFrame) {
+            resetSampleFrequency(frame.getFrequency());
+            firstFrame = false;
         }
-        System.arraycopy(lsamp, loff, linprebuf, MAX, Math.min(len, MAX));
-        System.arraycopy(rsamp, roff, rinprebuf, MAX, Math.min(len, MAX));
-
-        for (int i = 0; i < len;) {
-            int n = Math.min(len - i, sampleWindow - totsamp);
-            if (i < MAX) {
-                n = Math.min(n, MAX - i);
-                filterYule(linprebuf, MAX + i, lstepbuf, MAX + totsamp, n, ABYule[freqindex]);
-                filterYule(rinprebuf, MAX + i, rstepbuf, MAX + totsamp, n, ABYule[freqindex]);
-            } else {
-                filterYule(lsamp, loff + i, lstepbuf, MAX + totsamp, n, ABYule[freqindex]);
-                filterYule(rsamp, roff + i, rstepbuf, MAX + totsamp, n, ABYule[freqindex]);
-            }
-            filterButter(lstepbuf, MAX + totsamp, loutbuf, MAX + totsamp, n, ABButter[freqindex]);
-            filterButter(rstepbuf, MAX + totsamp, routbuf, MAX + totsamp, n, ABButter[freqindex]);
 
-            for (int j = 0; j < n; j++) {
-                lsum += square(loutbuf[MAX + totsamp + j]);
-                rsum += square(routbuf[MAX + totsamp + j]);
+        final short[] data = frame.getSamples();
+        final int nChan = frame.getChannelCount();
+        final int samples = frame.getSampleCount();
+        final double[] yule = ABYule[freqindex];
+        final double[] butter = ABButter[freqindex];
+
+        for (int i = 0; i < samples;) {
+            final int n = Math.min(samples - i, sampleWindow - totsamp);
+            lsum = left.filter(data, i * nChan, nChan, n, lsum, yule, butter);
+            if (nChan > 1) {
+                rsum = right.filter(data, i * nChan + 1, nChan, n, rsum, yule, butter);
+            } else {
+                // only one channel; treat as two identical channels
+                rsum = lsum;
             }
             i += n;
             totsamp += n;
 
             if (totsamp == sampleWindow) {  // Get the Root Mean Square (RMS) for this set of samples
-                double val = STEPS_per_dB * 10 * Math.log10((lsum + rsum) / totsamp * 0.5 + 1.0e-37);
-                track[(int) Math.max(0, Math.min(track.length - 1, val))]++;
+                final double meanSquare = (lsum + rsum) / totsamp * 0.5;
+                track[toLevel(meanSquare)]++;
+                if (sliceListener != null) {
+                    sliceListener.sliceAnalyzed(meanSquare);
+                }
                 lsum = rsum = 0.;
-                System.arraycopy(loutbuf, totsamp, loutbuf, 0, MAX);
-                System.arraycopy(routbuf, totsamp, routbuf, 0, MAX);
-                System.arraycopy(lstepbuf, totsamp, lstepbuf, 0, MAX);
-                System.arraycopy(rstepbuf, totsamp, rstepbuf, 0, MAX);
                 totsamp = 0;
-            } else if (totsamp > sampleWindow) {
-                throw new IllegalStateException("totsamp > sampleWindow");
             }
         }
-        if (len < MAX) {
-            System.arraycopy(linprebuf, len, linprebuf, 0, MAX - len);
-            System.arraycopy(rinprebuf, len, rinprebuf, 0, MAX - len);
-            System.arraycopy(lsamp, loff + len, linprebuf, MAX - len, len);
-            System.arraycopy(rsamp, roff + len, rinprebuf, MAX - len, len);
-        } else {
-            System.arraycopy(lsamp, loff + len - MAX, linprebuf, 0, MAX);
-            System.arraycopy(rsamp, roff + len - MAX, rinprebuf, 0, MAX);
-        }
     }
-    private boolean firstFrame = true;
-    private short[] leftBuffer = new short[1152];
-    private short[] rightBuffer = new short[1152];
 
-    public void processFrame(AudioFrame frame) {
-        if (firstFrame) {
-            resetSampleFrequency(frame.getFrequency());
-            firstFrame = false;
-        }
+    /**
+     * Receives the loudness-weighted mean square of each slice of audio as it
+     * is analyzed.
+     */
+    interface SliceListener {
 
-        int nChan = frame.getChannelCount();
-        int samples = frame.getSampleCount();
+        /**
+         * Called when a slice of {@link #SLICE_DURATION} seconds has been
+         * analyzed.
+         *
+         * @param meanSquare the mean square of the weighted samples in the
+         * slice, averaged over the channels
+         */
+        void sliceAnalyzed(double meanSquare);
+    }
 
-        // Check that the buffers are big enough
-        // should never happen since initial length set to max MP3 frame size
-        if (samples > leftBuffer.length) {
-            leftBuffer = new short[samples];
-            rightBuffer = new short[samples];
-        }
+    /**
+     * The length of the slices that are passed to a {@link SliceListener}, in
+     * seconds.
+     */
+    static final double SLICE_DURATION = RMS_WINDOW_TIME;
 
-        short[] left = leftBuffer;
-        short[] right = rightBuffer;
+    /**
+     * The number of distinct levels returned by {@link #toLevel}.
+     */
+    static final int LEVELS = (int) (STEPS_per_dB * MAX_dB);
 
-        if (nChan > 1) {
-            // If multiple channels, the data is interleaved; we must separate it
-            // into two different buffers
-            short[] data = frame.getSamples();
-            for (int p = 0, i = 0; i < samples; ++i, p += nChan) {
-                left[i] = data[p];
-                right[i] = data[p + 1];
-            }
-        } else {
-            // only one channel; treat as two identical channels
-            left = frame.getSamples();
-            right = left;
-        }
+    private SliceListener sliceListener;
 
-        analyze(left, 0, right, 0, samples);
+    /**
+     * Sets a listener that is told the weighted level of each slice as it is
+     * analyzed. This lets other measurements share the filtering work done
+     * by this analyzer. Only one listener is supported.
+     *
+     * @param listener the listener to notify, or <code>null</code>
+     */
+    void setSliceListener(SliceListener listener) {
+        sliceListener = listener;
+    }
+
+    /**
+     * Returns the listener set with {@link #setSliceListener}.
+     *
+     * @return the slice listener, or <code>null</code>
+     */
+    SliceListener getSliceListener() {
+        return sliceListener;
+    }
+
+    /**
+     * Converts a weighted mean square to a level index, in steps of 1/100 dB.
+     *
+     * @param meanSquare the weighted mean square of some samples
+     * @return the level, from 0 to {@link #LEVELS}-1
+     */
+    static int toLevel(double meanSquare) {
+        double val = STEPS_per_dB * 10 * Math.log10(meanSquare + 1.0e-37);
+        return (int) Math.max(0, Math.min(LEVELS - 1, val));
+    }
+
+    /**
+     * Returns the volume of audio whose weighted level is steady at the given
+     * level. This is the volume an {@link Analysis} reports when every slice
+     * has this level.
+     *
+     * @param level a level returned by {@link #toLevel}
+     * @return the standardized volume, in dB
+     */
+    static float toVolume(int level) {
+        return Math.abs((float) (PINK_REF - level / STEPS_per_dB - ALGORITHMDB));
     }
 
     public Analysis done() {
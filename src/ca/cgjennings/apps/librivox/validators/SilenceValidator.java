@@ -0,0 +1,227 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import ca.cgjennings.util.Settings;
+import java.util.logging.Level;
+import static ca.cgjennings.apps.librivox.Checker.string;
+
+/**
+ * Measures the silence at the start and end of the recording.
+ *
+ * <p>
+ * The audio is divided into short windows, and the RMS level of each window is
+ * measured as the audio is decoded. The levels of the windows at the start of
+ * the file are kept in one buffer, and those of the most recent windows in a
+ * ring buffer, so only a bounded amount of silence is ever measured at either
+ * end. A histogram of all window levels is also kept. Once the whole file has
+ * been seen, the histogram gives the typical level of the speech, and a window
+ * is considered silent if it is well below that level.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public class SilenceValidator extends AbstractValidator {
+
+    /**
+     * Creates a new silence validator.
+     */
+    public SilenceValidator() {
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.AUDIO;
+    }
+
+    @Override
+    public boolean isAudioProcessor() {
+        return true;
+    }
+
+    /**
+     * {@inheritdoc }
+     * <p>
+     * The level of a mono mixdown is close enough to the combined level of
+     * the channels to find the silence at either end.
+     */
+    @Override
+    public StreamDecoder.ChannelSelection getRequiredChannels() {
+        return StreamDecoder.ChannelSelection.DOWNMIX;
+    }
+
+    @Override
+    public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
+        Settings settings = getSettings();
+        windowMs = Math.max(1, settings.getInt("silence-window", 20));
+        windowSamples = Math.max(1, header.getFrequency() * windowMs / 1000);
+
+        final double limit = settings.getDouble("silence-measure-limit", 30d);
+        final int bufferWindows = Math.max(1, (int) Math.ceil(limit * 1000d / windowMs));
+        head = new short[bufferWindows];
+        tail = new short[bufferWindows];
+        headCount = tailNext = 0;
+        windows = 0L;
+        histogram = new int[LEVELS];
+        sumOfSquares = 0L;
+        accumulated = 0;
+    }
+
+    @Override
+    public void analyzeFrame(AudioFrame frame) {
+        final short[] buff = frame.getSamples();
+        final int channels = frame.getChannelCount();
+        final int len = frame.getSampleCount();
+
+        // the channels are interleaved, so the samples of every channel for
+        // a run of sample frames are a contiguous block of the buffer
+        int s = 0;
+        while (s < len) {
+            final int n = Math.min(len - s, windowSamples - accumulated);
+            long sq = 0L;
+            for (int i = s * channels, end = (s + n) * channels; i < end; ++i) {
+                final int v = buff[i];
+                sq += v * v;
+            }
+            sumOfSquares += sq;
+            accumulated += n;
+            s += n;
+            if (accumulated == windowSamples) {
+                endWindow(channels);
+            }
+        }
+        lastChannelCount = channels;
+    }
+
+    /**
+     * Records the level of the current window and starts a new one.
+     */
+    private void endWindow(int channels) {
+        final double meanSquare = sumOfSquares / ((double) accumulated * channels);
+        final short level = toLevel(meanSquare);
+        if (headCount < head.length) {
+            head[headCount++] = level;
+        }
+        tail[tailNext] = level;
+        if (++tailNext == tail.length) {
+            tailNext = 0;
+        }
+        ++histogram[level];
+        ++windows;
+        sumOfSquares = 0L;
+        accumulated = 0;
+    }
+
+    @Override
+    public void endAnalysis() {
+        if (accumulated > 0) {
+            endWindow(lastChannelCount);
+        }
+        if (windows == 0L) {
+            Checker.getLogger().log(Level.WARNING, "not enough samples to measure silence: {0}", getLibriVoxFile().getFileName());
+            return;
+        }
+
+        Settings settings = getSettings();
+
+        // the speech level is a level that most of the file is below, and
+        // silence is anything far enough below the speech
+        final int speech = getPercentileLevel(settings.getDouble("speech-percentile", 90d));
+        final double margin = settings.getDouble("silence-margin", 30d);
+        final double ceiling = settings.getDouble("silence-threshold-max", -40d);
+        final int threshold = (int) Math.round(Math.min(
+                speech - margin * STEPS_PER_DB,
+                (ceiling - MIN_DB) * STEPS_PER_DB
+        ));
+
+        int leading = 0;
+        while (leading < headCount && head[leading] < threshold) {
+            ++leading;
+        }
+        final int tailCount = (int) Math.min(windows, tail.length);
+        int trailing = 0;
+        for (int i = tailNext - 1; trailing < tailCount; --i) {
+            if (i < 0) {
+                i = tail.length - 1;
+            }
+            if (tail[i] >= threshold) {
+                break;
+            }
+            ++trailing;
+        }
+
+        final double leadingSeconds = leading * windowMs / 1000d;
+        final double trailingSeconds = trailing * windowMs / 1000d;
+        feature("sv-leading", formatDuration(leadingSeconds, leading == head.length));
+        feature("sv-trailing", formatDuration(trailingSeconds, trailing == tail.length));
+
+        final double leadingMin = settings.getDouble("leading-silence-min", 0.5d);
+        final double leadingMax = settings.getDouble("leading-silence-max", 1d);
+        if (leadingSeconds < leadingMin || leadingSeconds > leadingMax) {
+            fail("must-have-leading-silence", string("sv-must-have-leading-silence", leadingMin, leadingMax));
+        }
+
+        final double trailingMin = settings.getDouble("trailing-silence-min", 5d);
+        final double trailingMax = settings.getDouble("trailing-silence-max", 10d);
+        if (trailingSeconds < trailingMin || trailingSeconds > trailingMax) {
+            fail("must-have-trailing-silence", string("sv-must-have-trailing-silence", trailingMin, trailingMax));
+        }
+    }
+
+    private String formatDuration(double seconds, boolean atLimit) {
+        return atLimit ? string("sv-silence-val-limit", seconds) : string("sv-silence-val", seconds);
+    }
+
+    /**
+     * Returns the smallest level that the given percentage of windows do not
+     * exceed.
+     */
+    private int getPercentileLevel(double percentile) {
+        final long rank = (long) Math.floor(Math.max(0d, Math.min(100d, percentile)) / 100d * (windows - 1L));
+        long seen = 0L;
+        for (int level = 0; level < LEVELS; ++level) {
+            seen += histogram[level];
+            if (seen > rank) {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    /**
+     * Converts a mean square sample value to a level index, in steps of
+     * 1/{@link #STEPS_PER_DB} dB above {@link #MIN_DB} dBFS.
+     */
+    private static short toLevel(double meanSquare) {
+        final double dB = 10d * Math.log10(meanSquare / (32768d * 32768d) + 1e-37);
+        return (short) Math.max(0, Math.min(LEVELS - 1, Math.round((dB - MIN_DB) * STEPS_PER_DB)));
+    }
+
+    private int windowMs;
+    private int windowSamples;
+    private short[] head;
+    private int headCount;
+    private short[] tail;
+    private int tailNext;
+    private long windows;
+    private int[] histogram;
+    private long sumOfSquares;
+    private int accumulated;
+    private int lastChannelCount = 1;
+
+    private static final int STEPS_PER_DB = 10;
+    private static final double MIN_DB = -120d;
+    private static final int LEVELS = (int) (-MIN_DB * STEPS_PER_DB) + 1;
+
+    @Override
+    public String toString() {
+        return string("sv-name");
+    }
+
+    @Override
+    public String getDescription() {
+        return string("sv-desc");
+    }
+}
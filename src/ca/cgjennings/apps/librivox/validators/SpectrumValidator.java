@@ -0,0 +1,388 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
+import ca.cgjennings.util.Settings;
+import java.util.Arrays;
+import java.util.logging.Level;
+import static ca.cgjennings.apps.librivox.Checker.string;
+
+/**
+ * Looks for problems that show up in the frequency content of the audio:
+ * mains hum, high frequency hiss, and a low cutoff frequency left by the
+ * encoder.
+ *
+ * <p>
+ * The channels are mixed to mono, and the audio is divided into segments.
+ * Each segment is multiplied by a Hann window and transformed, and the power
+ * spectra of the segments are averaged (Welch's method). Since hum, hiss, and
+ * the cutoff frequency do not change over the course of a recording, the
+ * segments need not cover all of the audio: by default, they are spaced out
+ * with a gap between each segment and the next, which keeps the cost of the
+ * transforms small compared to the cost of decoding. Hum and
+ * the cutoff frequency are found in the averaged spectrum. Hiss is measured
+ * separately for each segment, since it is only audible in the quiet parts of
+ * the recording: the level of the high frequency band of each segment is
+ * counted in a histogram, and a low percentile of these levels is taken as
+ * the hiss level.
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public class SpectrumValidator extends AbstractValidator {
+
+    /**
+     * Creates a new spectrum validator.
+     */
+    public SpectrumValidator() {
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.AUDIO;
+    }
+
+    @Override
+    public boolean isAudioProcessor() {
+        return true;
+    }
+
+    /**
+     * {@inheritdoc }
+     * <p>
+     * The spectrum is measured on a mono mixdown of the audio.
+     */
+    @Override
+    public StreamDecoder.ChannelSelection getRequiredChannels() {
+        return StreamDecoder.ChannelSelection.DOWNMIX;
+    }
+
+    @Override
+    public void beginAnalysis(AudioHeader header, Validator[] predecessors) {
+        Settings settings = getSettings();
+        frequency = header.getFrequency();
+
+        final int size = Integer.highestOneBit(Math.max(256, settings.getInt("fft-size", 16384)));
+        fft = new RealFFT(size);
+        final double step = Math.max(10d, settings.getDouble("fft-step", 200d));
+        hop = Math.max(1, (int) Math.round(size * step / 100d));
+
+        segment = new float[size];
+        work = new float[size];
+        power = new float[size / 2 + 1];
+        spectrum = new double[size / 2 + 1];
+        filled = 0;
+        skip = 0;
+        segments = 0L;
+
+        window = new float[size];
+        double windowPower = 0d;
+        for (int i = 0; i < size; ++i) {
+            final double w = 0.5d - 0.5d * Math.cos(2d * Math.PI * i / size);
+            window[i] = (float) w;
+            windowPower += w * w;
+        }
+        // converts a sum of bin powers to the mean square of the signal,
+        // where full scale is 1; bins other than DC and Nyquist stand for
+        // both a positive and a negative frequency
+        scale = 2d / (size * windowPower);
+
+        hissLow = Math.max(1, toBin(settings.getDouble("hiss-band-low", 4000d)));
+        hissHigh = Math.min(size / 2, toBin(settings.getDouble("hiss-band-high", 10000d)));
+        hissHistogram = new int[LEVELS];
+    }
+
+    @Override
+    public void analyzeFrame(AudioFrame frame) {
+        final short[] buff = frame.getSamples();
+        final int channels = frame.getChannelCount();
+        final int len = frame.getSampleCount();
+        final float[] seg = segment;
+
+        int s = 0;
+        if (skip > 0) {
+            final int n = Math.min(len, skip);
+            skip -= n;
+            s = n;
+        }
+        while (s < len) {
+            final int n = Math.min(len - s, seg.length - filled);
+            if (channels == 1) {
+                for (int i = 0; i < n; ++i) {
+                    seg[filled + i] = buff[s + i];
+                }
+            } else {
+                for (int i = 0, in = s * channels; i < n; ++i) {
+                    int sum = 0;
+                    for (int c = 0; c < channels; ++c) {
+                        sum += buff[in++];
+                    }
+                    seg[filled + i] = sum / (float) channels;
+                }
+            }
+            filled += n;
+            s += n;
+            if (filled == seg.length) {
+                analyzeSegment();
+                if (hop < seg.length) {
+                    // keep the part that the next segment overlaps
+                    final int keep = seg.length - hop;
+                    System.arraycopy(seg, hop, seg, 0, keep);
+                    filled = keep;
+                } else {
+                    // skip the gap before the next segment
+                    filled = 0;
+                    skip = hop - seg.length;
+                    final int skipped = Math.min(len - s, skip);
+                    skip -= skipped;
+                    s += skipped;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the spectrum of the current segment to the average.
+     */
+    private void analyzeSegment() {
+        final float[] w = work;
+        final float[] win = window;
+        final float[] seg = segment;
+        for (int i = 0; i < w.length; ++i) {
+            w[i] = seg[i] * win[i];
+        }
+        fft.transform(w);
+        fft.power(w, power);
+
+        final float[] p = power;
+        final double[] sum = spectrum;
+        double hiss = 0d;
+        for (int k = 0; k < p.length; ++k) {
+            sum[k] += p[k];
+        }
+        for (int k = hissLow; k < hissHigh; ++k) {
+            hiss += p[k];
+        }
+        ++hissHistogram[toLevel(hiss * scale / FULL_SCALE_POWER)];
+        ++segments;
+    }
+
+    @Override
+    public void endAnalysis() {
+        if (segments == 0L) {
+            Checker.getLogger().log(Level.WARNING, "not enough samples to analyze spectrum: {0}", getLibriVoxFile().getFileName());
+            return;
+        }
+
+        Settings settings = getSettings();
+        final double[] avg = spectrum;
+        final double norm = scale / (FULL_SCALE_POWER * segments);
+        for (int k = 0; k < avg.length; ++k) {
+            avg[k] *= norm;
+        }
+
+        checkHum(settings, avg);
+        checkBandwidth(settings, avg);
+        checkHiss(settings);
+    }
+
+    /**
+     * Compares the power at the mains frequencies and their harmonics to the
+     * power at nearby frequencies.
+     */
+    private void checkHum(Settings settings, double[] avg) {
+        final int harmonics = Math.max(1, settings.getInt("hum-harmonics", 3));
+        final int guard = Math.max(1, toBin(HUM_GUARD_HZ));
+        final int reach = Math.max(guard + 2, toBin(HUM_NEIGHBOURHOOD_HZ));
+        final double[] neighbours = new double[reach * 2];
+
+        double worst = 0d;
+        int worstHz = 0;
+        for (int mains : MAINS_HZ) {
+            for (int h = 1; h <= harmonics; ++h) {
+                final int hz = mains * h;
+                final int bin = toBin(hz);
+                if (bin - reach < 1 || bin + reach >= avg.length) {
+                    continue;
+                }
+                double peak = 0d;
+                for (int k = bin - 1; k <= bin + 1; ++k) {
+                    peak = Math.max(peak, avg[k]);
+                }
+                int n = 0;
+                for (int k = bin - reach; k <= bin + reach; ++k) {
+                    if (Math.abs(k - bin) > guard) {
+                        neighbours[n++] = avg[k];
+                    }
+                }
+                Arrays.sort(neighbours, 0, n);
+                final double floor = neighbours[n / 2];
+                if (floor <= 0d || peak <= 0d) {
+                    continue;
+                }
+                final double prominence = 10d * Math.log10(peak / floor);
+                if (prominence > worst) {
+                    worst = prominence;
+                    worstHz = hz;
+                }
+            }
+        }
+
+        if (worst < settings.getDouble("hum-detect-level", 6d)) {
+            feature("sp-hum", string("sp-hum-none"));
+        } else {
+            feature("sp-hum", string("sp-hum-val", worst, worstHz));
+        }
+
+        if (worst > settings.getDouble("hum-limit-fail", 20d)) {
+            fail("must-not-have-hum", string("sp-must-not-have-hum", worstHz));
+        } else if (worst > settings.getDouble("hum-limit-warn", 10d)) {
+            warn("must-not-have-hum", string("sp-must-not-have-hum", worstHz));
+        }
+    }
+
+    /**
+     * Finds the frequency above which the spectrum drops away steeply and
+     * never recovers, as it does above the cutoff of an encoder's low pass
+     * filter. The natural high frequency roll-off of speech is much more
+     * gradual than this.
+     */
+    private void checkBandwidth(Settings settings, double[] avg) {
+        final int binsPerBand = Math.max(1, toBin(BAND_HZ));
+        final int bands = (avg.length - 1) / binsPerBand;
+        if (bands < 2) {
+            return;
+        }
+        final double[] level = new double[bands];
+        for (int b = 0; b < bands; ++b) {
+            double sum = 0d;
+            for (int k = b * binsPerBand + 1, end = k + binsPerBand; k < end; ++k) {
+                sum += avg[k];
+            }
+            level[b] = 10d * Math.log10(sum + 1e-30);
+        }
+        // the loudest band at or above each band
+        final double[] above = new double[bands];
+        above[bands - 1] = level[bands - 1];
+        for (int b = bands - 2; b >= 0; --b) {
+            above[b] = Math.max(level[b], above[b + 1]);
+        }
+
+        final double drop = settings.getDouble("cutoff-drop", 30d);
+        final int first = Math.max(CUTOFF_REFERENCE_BANDS, (int) (settings.getDouble("cutoff-search-min", 1000d) / BAND_HZ));
+        int cutoffBand = bands;
+        for (int b = first; b < bands - 1; ++b) {
+            double below = 0d;
+            for (int i = b - CUTOFF_REFERENCE_BANDS + 1; i <= b; ++i) {
+                below += level[i];
+            }
+            below /= CUTOFF_REFERENCE_BANDS;
+            if (above[b + 1] < below - drop) {
+                cutoffBand = b + 1;
+                break;
+            }
+        }
+        final double bandwidth = Math.min(frequency / 2d, cutoffBand * binsPerBand * (double) frequency / fft.getSize());
+
+        feature("sp-bandwidth", string("sp-bandwidth-val", bandwidth / 1000d));
+
+        final double failLimit = settings.getDouble("bandwidth-limit-fail", 5000d);
+        final double warnLimit = settings.getDouble("bandwidth-limit-warn", 8000d);
+        if (bandwidth < failLimit) {
+            fail("must-have-full-bandwidth", string("sp-must-have-full-bandwidth", bandwidth / 1000d));
+        } else if (bandwidth < warnLimit) {
+            warn("must-have-full-bandwidth", string("sp-must-have-full-bandwidth", bandwidth / 1000d));
+        }
+    }
+
+    /**
+     * Takes a low percentile of the high frequency levels of the segments as
+     * the level of the hiss.
+     */
+    private void checkHiss(Settings settings) {
+        if (hissHigh <= hissLow) {
+            return;
+        }
+        final double percentile = Math.max(0d, Math.min(100d, settings.getDouble("hiss-percentile", 10d)));
+        final long rank = (long) Math.floor(percentile / 100d * (segments - 1L));
+        long seen = 0L;
+        int level = LEVELS - 1;
+        for (int i = 0; i < LEVELS; ++i) {
+            seen += hissHistogram[i];
+            if (seen > rank) {
+                level = i;
+                break;
+            }
+        }
+        final double hiss = level / (double) STEPS_PER_DB + MIN_DB;
+
+        feature("sp-hiss", string("sp-hiss-val", hiss));
+
+        if (hiss > settings.getDouble("hiss-limit-fail", -45d)) {
+            fail("must-have-hiss-under-limit", string("sp-must-have-hiss-under-limit"));
+        } else if (hiss > settings.getDouble("hiss-limit-warn", -55d)) {
+            warn("must-have-hiss-under-limit", string("sp-must-have-hiss-under-limit"));
+        }
+    }
+
+    /**
+     * Returns the index of the frequency bin nearest a frequency.
+     */
+    private int toBin(double hz) {
+        return (int) Math.round(hz * fft.getSize() / frequency);
+    }
+
+    /**
+     * Converts a mean square level, where full scale is 1, to a level index,
+     * in steps of 1/{@link #STEPS_PER_DB} dB above {@link #MIN_DB} dBFS.
+     */
+    private static int toLevel(double meanSquare) {
+        final double dB = 10d * Math.log10(meanSquare + 1e-37);
+        return (int) Math.max(0, Math.min(LEVELS - 1, Math.round((dB - MIN_DB) * STEPS_PER_DB)));
+    }
+
+    private int frequency;
+    private RealFFT fft;
+    private int hop;
+    private float[] window;
+    private double scale;
+    // the samples of the segment being collected, mixed to mono
+    private float[] segment;
+    private int filled;
+    // the number of samples to discard before the next segment starts
+    private int skip;
+    private float[] work;
+    private float[] power;
+    private double[] spectrum;
+    private long segments;
+    private int hissLow, hissHigh;
+    private int[] hissHistogram;
+
+    private static final double FULL_SCALE_POWER = 32768d * 32768d;
+    private static final int STEPS_PER_DB = 10;
+    private static final double MIN_DB = -120d;
+    private static final int LEVELS = (int) (-MIN_DB * STEPS_PER_DB) + 1;
+
+    private static final int[] MAINS_HZ = {50, 60};
+    // peaks are compared to the median power of the bins within
+    // HUM_NEIGHBOURHOOD_HZ, excluding those within HUM_GUARD_HZ of the peak
+    private static final double HUM_GUARD_HZ = 6d;
+    private static final double HUM_NEIGHBOURHOOD_HZ = 30d;
+
+    // the width of the bands used to find the cutoff frequency, and the
+    // number of bands just below a candidate cutoff that it is compared to
+    private static final double BAND_HZ = 100d;
+    private static final int CUTOFF_REFERENCE_BANDS = 5;
+
+    @Override
+    public String toString() {
+        return string("sp-name");
+    }
+
+    @Override
+    public String getDescription() {
+        return string("sp-desc");
+    }
+}
@@ -3,6 +3,7 @@ package ca.cgjennings.apps.librivox.validators;
 import ca.cgjennings.apps.librivox.decoder.AudioFrame;
 import ca.cgjennings.apps.librivox.*;
 import ca.cgjennings.apps.librivox.decoder.AudioHeader;
+import ca.cgjennings.apps.librivox.decoder.StreamDecoder;
 
 /**
  * An object that is capable of analyzing a {@link LibriVoxAudioFile}.
@@ -160,6 +161,34 @@ public interface Validator {
      */
     boolean isAudioProcessor();
 
+    /**
+     * Returns <code>true</code> if the validator reads through the file's
+     * audio stream, whether by processing its samples or by some other means,
+     * such as walking its frame headers. The cost of such a validator grows
+     * with the length of the audio, so it is skipped by checks that only look
+     * at a file's name, tags, and first frame header.
+     *
+     * @return <code>true</code> if the validator reads the whole audio stream
+     * @since 1.3
+     */
+    boolean readsAudioStream();
+
+    /**
+     * Returns the channels that an audio processor needs to see. A validator
+     * that only looks at a mono mixdown of the audio can return
+     * {@link StreamDecoder.ChannelSelection#DOWNMIX}; if every audio processor
+     * that will analyze a two channel file does so, the file is decoded to
+     * mono, which is faster. In that case, the frames passed to
+     * {@link #analyzeFrame} have a single channel, although the header passed
+     * to {@link #beginAnalysis} still describes the file. A validator that
+     * looks at each channel separately must return
+     * {@link StreamDecoder.ChannelSelection#BOTH}.
+     *
+     * @return the channels that the validator needs
+     * @since 1.3
+     */
+    StreamDecoder.ChannelSelection getRequiredChannels();
+
     /**
      * This method is called at the start of validation, after
      * <code>initialize()</code>, when the analysis process is about to begin.
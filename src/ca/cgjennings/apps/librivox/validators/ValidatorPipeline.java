@@ -0,0 +1,322 @@
+package ca.cgjennings.apps.librivox.validators;
+
+import ca.cgjennings.apps.librivox.Checker;
+import ca.cgjennings.apps.librivox.decoder.AudioFrame;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes decoded frames to audio processing validators that each run in their
+ * own thread, so that decoding and analysis overlap on multiple cores.
+ *
+ * <p>
+ * Decoders reuse a single {@link AudioFrame}, so frames cannot simply be handed
+ * off to another thread. Instead, each frame is copied into the next slot of a
+ * ring of preallocated frames. Once every validator has analyzed a slot, it can
+ * be filled again; no memory is allocated per frame. The ring has a fixed
+ * size, so if the validators fall behind, {@link #publish} blocks until a slot
+ * is free.
+ *
+ * <p>
+ * Each validator sees every published frame exactly once, in the order that
+ * the frames were published, and always from the same thread. Validators run
+ * independently of each other, so a validator must not depend on the state of
+ * another validator while analyzing frames. Once {@link #finish} returns, all
+ * of the validators' work is visible to the calling thread, and it is safe to
+ * call {@link Validator#endAnalysis()}.
+ *
+ * <p>
+ * A pipeline is used for a single pass over the audio:
+ * <pre>
+ * ValidatorPipeline pipeline = new ValidatorPipeline(audioValidators);
+ * try {
+ *     while ((frame = decoder.getNextFrame()) != null) {
+ *         pipeline.publish(frame);
+ *     }
+ *     pipeline.finish();
+ * } finally {
+ *     pipeline.close();
+ * }
+ * </pre>
+ *
+ * @author Christopher G. Jennings https://cgjennings.ca/contact/
+ * @since 1.3
+ */
+public final class ValidatorPipeline implements AutoCloseable {
+
+    /**
+     * Returns <code>true</code> if validators should be run in a pipeline.
+     * This requires more than one CPU, and can be turned off with the
+     * <code>analysis-pipeline</code> application setting.
+     *
+     * @return <code>true</code> if a pipeline should be used
+     */
+    public static boolean isEnabled() {
+        return enabled && Runtime.getRuntime().availableProcessors() > 1
+                && Checker.getSettings().getBoolean("analysis-pipeline", true);
+    }
+
+    /**
+     * Sets whether pipelines are used, overriding the default. This is used to
+     * compare the two approaches when measuring performance.
+     *
+     * @param enable if <code>false</code>, {@link #isEnabled()} will return
+     * <code>false</code>
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Creates a new pipeline and starts a worker for each validator. The
+     * validators must already have begun their analysis.
+     *
+     * @param validators the audio processing validators to pass frames to
+     */
+    public ValidatorPipeline(Validator[] validators) {
+        ring = new AudioFrame[RING_SIZE];
+        buffers = new short[RING_SIZE][];
+        for (int i = 0; i < RING_SIZE; ++i) {
+            ring[i] = new AudioFrame();
+            buffers[i] = new short[INITIAL_BUFFER_SIZE];
+        }
+        workers = new Worker[validators.length];
+        for (int i = 0; i < validators.length; ++i) {
+            workers[i] = new Worker(validators[i]);
+        }
+        for (Worker w : workers) {
+            threads.execute(w);
+        }
+    }
+
+    /**
+     * Copies a frame into the pipeline to be analyzed by each validator. If
+     * the pipeline is full, this blocks until the slowest validator has
+     * finished with the oldest frame.
+     *
+     * @param frame the frame to publish; it is not retained
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting
+     * @throws ExecutionException if a validator has thrown an exception; the
+     * cause is the exception thrown by the validator
+     */
+    public void publish(AudioFrame frame) throws InterruptedException, ExecutionException {
+        final long next = published + 1L;
+        final long wrap = next - RING_SIZE;
+        if (minimumSequence() < wrap) {
+            waitForWorkers(wrap);
+        }
+        checkFailure();
+
+        final int slot = (int) next & MASK;
+        final int length = frame.getSampleCount() * frame.getChannelCount();
+        short[] buffer = buffers[slot];
+        if (buffer.length < length) {
+            buffer = new short[length];
+            buffers[slot] = buffer;
+        }
+        System.arraycopy(frame.getSamples(), 0, buffer, 0, length);
+        ring[slot].set(frame.getChannelFormat(), frame.getFrequency(), buffer, length);
+
+        published = next;
+        if (workersWaiting.get() > 0) {
+            signal();
+        }
+    }
+
+    /**
+     * Waits until every validator has analyzed every published frame.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting
+     * @throws ExecutionException if a validator has thrown an exception; the
+     * cause is the exception thrown by the validator
+     */
+    public void finish() throws InterruptedException, ExecutionException {
+        finished = true;
+        signal();
+        if (minimumSequence() < published) {
+            waitForWorkers(published);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the workers. If {@link #finish} has not been called, frames that
+     * have not been analyzed yet are skipped. It is safe to call this more than
+     * once.
+     */
+    @Override
+    public void close() {
+        halted = true;
+        signal();
+    }
+
+    private void checkFailure() throws ExecutionException {
+        if (failure != null) {
+            halted = true;
+            throw new ExecutionException(failure);
+        }
+    }
+
+    private long minimumSequence() {
+        long min = Long.MAX_VALUE;
+        for (Worker w : workers) {
+            min = Math.min(min, w.sequence);
+        }
+        return min;
+    }
+
+    /**
+     * Waits until every worker has analyzed the frame with the specified
+     * sequence number, or a worker fails.
+     */
+    private void waitForWorkers(long sequence) throws InterruptedException {
+        for (int spin = 0; spin < SPIN_LIMIT; ++spin) {
+            if (minimumSequence() >= sequence || failure != null) {
+                return;
+            }
+            Thread.yield();
+        }
+        synchronized (lock) {
+            producerWaiting = true;
+            try {
+                while (minimumSequence() < sequence && failure == null) {
+                    lock.wait();
+                }
+            } finally {
+                producerWaiting = false;
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Analyzes each published frame with one validator, in order.
+     */
+    private final class Worker implements Runnable {
+
+        private final Validator validator;
+        /**
+         * The sequence number of the last frame this worker has analyzed.
+         */
+        volatile long sequence = -1L;
+
+        Worker(Validator validator) {
+            this.validator = validator;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long next = 0L;
+                for (;;) {
+                    long available = published;
+                    if (available < next) {
+                        available = waitForFrame(next);
+                        if (available < next) {
+                            return;
+                        }
+                    }
+                    for (; next <= available; ++next) {
+                        if (halted) {
+                            return;
+                        }
+                        validator.analyzeFrame(ring[(int) next & MASK]);
+                        sequence = next;
+                        if (producerWaiting) {
+                            signal();
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+                halted = true;
+                signal();
+            }
+        }
+
+        /**
+         * Waits for a frame to be published, returning the sequence number of
+         * the last published frame. If this is less than <code>next</code>,
+         * the pipeline has finished or was halted.
+         */
+        private long waitForFrame(long next) throws InterruptedException {
+            for (int spin = 0; spin < SPIN_LIMIT; ++spin) {
+                if (published >= next || finished || halted) {
+                    return available();
+                }
+                Thread.yield();
+            }
+            synchronized (lock) {
+                workersWaiting.incrementAndGet();
+                try {
+                    while (published < next && !finished && !halted) {
+                        lock.wait();
+                    }
+                    return available();
+                } finally {
+                    workersWaiting.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Reads the sequence number of the last published frame. This must be
+         * read <i>after</i> checking the finished flag, since the last frames
+         * may have been published after an earlier read.
+         */
+        private long available() {
+            return halted ? -1L : published;
+        }
+    }
+
+    private final AudioFrame[] ring;
+    private final short[][] buffers;
+    private final Worker[] workers;
+
+    /**
+     * The sequence number of the last published frame.
+     */
+    private volatile long published = -1L;
+    private volatile boolean finished;
+    private volatile boolean halted;
+    private volatile Throwable failure;
+
+    private final Object lock = new Object();
+    private final AtomicInteger workersWaiting = new AtomicInteger();
+    private volatile boolean producerWaiting;
+
+    /**
+     * The number of frames that can be waiting to be analyzed; a power of 2.
+     */
+    private static final int RING_SIZE = 64;
+    private static final int MASK = RING_SIZE - 1;
+    /**
+     * Samples in a stereo MPEG-1 Layer III frame; larger frames are handled
+     * by growing the buffer for the slot.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1152 * 2;
+    /**
+     * The number of times to check for progress before blocking.
+     */
+    private static final int SPIN_LIMIT = 64;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "validator pipeline " + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+}
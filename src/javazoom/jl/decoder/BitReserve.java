@@ -30,11 +30,11 @@ package javazoom.jl.decoder;
 /**
  * Implementation of Bit Reservoir for Layer III.
  * <p>
- * The implementation stores single bits as a word in the buffer. If
- * a bit is set, the corresponding word in the buffer will be non-zero.
- * If a bit is clear, the corresponding word is zero. Although this
- * may seem waseful, this can be a factor of two quicker than 
- * packing 8 bits to a byte and extracting. 
+ * The implementation packs the reserved bits into 32-bit words, most
+ * significant bit first. Reads of up to 32 bits are served by combining
+ * at most two adjacent words, so that multi-bit fields and Huffman
+ * lookups can be peeked at and skipped without touching each bit
+ * individually.
  * <p> 
  */
 
@@ -44,8 +44,7 @@ final class BitReserve
 {
    /**
     * Size of the internal buffer to store the reserved bits.
-    * Must be a power of 2. And x8, as each bit is stored as a single
-    * entry.
+    * Must be a power of 2. And x8, as the position is tracked in bits.
     */
 	private static final int		BUFSIZE = 4096*8;
 	
@@ -54,10 +53,15 @@ final class BitReserve
 	 * modulus operation on BUFSIZE.
 	 */
 	private static final int		BUFSIZE_MASK = BUFSIZE-1;
+
+	/**
+	 * Mask that implements the modulus operation on the number
+	 * of words in the buffer.
+	 */
+	private static final int		WORD_MASK = (BUFSIZE >>> 5)-1;
 	
 	private int 					offset, totbit, buf_byte_idx;
-	private final int[] 			buf = new int[BUFSIZE];
-	private int 					buf_bit_idx;
+	private final int[] 			buf = new int[BUFSIZE >>> 5];
 	
    BitReserve()
    {
@@ -76,61 +80,49 @@ final class BitReserve
 	   return(totbit); 
    }
 
+   /**
+    * Returns the next N bits from the reserve without consuming them.
+    * @param N the number of bits, from 1 to 32
+    */
+   public int peekbits(int N)
+   {
+	  int pos = buf_byte_idx;
+	  int w = pos >>> 5;
+	  long bits = ((long) buf[w] << 32) | (buf[(w+1) & WORD_MASK] & 0xffffffffL);
+	  return (int) ((bits << (pos & 31)) >>> (64 - N));
+   }
+
+   /**
+    * Consumes N bits from the reserve.
+    */
+   public void skipbits(int N)
+   {
+	  totbit += N;
+	  buf_byte_idx = (buf_byte_idx + N) & BUFSIZE_MASK;
+   }
+
    /**
     * Read a number bits from the bit stream.
     * @param N the number of
 	*/
    public int hgetbits(int N)
    {
-   	 totbit += N;
-	 
-	 int val = 0;
-	 
-	 int pos = buf_byte_idx;
-	 if (pos+N < BUFSIZE)
+	 if (N <= 0)
+	 {
+		 totbit += N;
+		 return 0;
+	 }
+	 // only the last 32 bits fit in the result
+	 if (N > 32)
 	 {
-		while (N-- > 0)
-		{
-			val <<= 1;
-			val |= ((buf[pos++]!=0) ? 1 : 0);		 
-		}
-	}
-	 else
-	 {	 
-		 while (N-- > 0)
-		{
-			 val <<= 1;			 
-			 val |= ((buf[pos]!=0) ? 1 : 0);
-			 pos = (pos+1) & BUFSIZE_MASK;
-		}		 
-	 }	
-	 buf_byte_idx = pos;
+		 skipbits(N - 32);
+		 N = 32;
+	 }
+	 int val = peekbits(N);
+	 skipbits(N);
 	 return val;
    }
    
-	 
-   
-   /**
-    * Read 1 bit from the bit stream.
-	*/
-/*
-   public int hget1bit_old()
-   {
-   	  int val;
-	  totbit++;
-	  if (buf_bit_idx == 0)
-	  {
-         buf_bit_idx = 8;
-	     buf_byte_idx++;		 
-	  }
-      // BUFSIZE = 4096 = 2^12, so
-      // buf_byte_idx%BUFSIZE == buf_byte_idx & 0xfff
-      val = buf[buf_byte_idx & BUFSIZE_MASK] & putmask[buf_bit_idx];
-      buf_bit_idx--;
-	  val = val >>> buf_bit_idx;
-      return val;   
-   }
- */
    /**
     * Returns next bit from reserve.
     * @returns 0 if next bit is reset, or 1 if next bit is set.
@@ -138,64 +130,22 @@ final class BitReserve
    public int hget1bit()
    {   	  
 	  totbit++;	  
-	  int val = buf[buf_byte_idx];
-	  buf_byte_idx = (buf_byte_idx+1) & BUFSIZE_MASK;
+	  int pos = buf_byte_idx;
+	  int val = (buf[pos >>> 5] << (pos & 31)) >>> 31;
+	  buf_byte_idx = (pos+1) & BUFSIZE_MASK;
       return val;
    }
    
-   /**
-    * Retrieves bits from the reserve.     
-    */
-/*   
-   public int readBits(int[] out, int len)
-   {
-		if (buf_bit_idx == 0)
-		{
-		   buf_bit_idx = 8;
-		   buf_byte_idx++;
-		   current = buf[buf_byte_idx & BUFSIZE_MASK];
-		}      
-		
-		
-		
-		// save total number of bits returned
-		len = buf_bit_idx;
-		buf_bit_idx = 0;
-		  
-		int b = current;
-		int count = len-1;
-		  
-		while (count >= 0)
-		{
-		    out[count--] = (b & 0x1);
-		    b >>>= 1;
-		}
-	  
-		totbit += len;
-		return len;
-   }
-  */
-   
    /**
     * Write 8 bits into the bit stream.
 	*/
    public void hputbuf(int val)
    {   	  
 	   int ofs = offset;
-	   buf[ofs++] = val & 0x80;
-	   buf[ofs++] = val & 0x40;
-	   buf[ofs++] = val & 0x20;
-	   buf[ofs++] = val & 0x10;
-	   buf[ofs++] = val & 0x08;
-	   buf[ofs++] = val & 0x04;
-	   buf[ofs++] = val & 0x02;
-	   buf[ofs++] = val & 0x01;
-	   
-	   if (ofs==BUFSIZE)
-			offset = 0;
-	   else
-			offset = ofs;
-	   
+	   int shift = 24 - (ofs & 31);
+	   int w = ofs >>> 5;
+	   buf[w] = (buf[w] & ~(0xff << shift)) | ((val & 0xff) << shift);
+	   offset = (ofs + 8) & BUFSIZE_MASK;
    }
  
    /**
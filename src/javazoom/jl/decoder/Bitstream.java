@@ -106,6 +106,17 @@ public final class Bitstream implements BitstreamErrors
 	 */
 	private int				header_pos = 0;
 
+	/**
+	 * Number of bytes consumed from the source stream.
+	 */
+	private long			stream_pos = 0;
+
+	/**
+	 * Position in the source stream of the most recently
+	 * synchronized frame header.
+	 */
+	private long			frame_pos = -1;
+
 	/**
 	 *
 	 */
@@ -161,6 +172,17 @@ public final class Bitstream implements BitstreamErrors
 	{
 		return header_pos;
 	}
+
+	/**
+	 * Return the offset, relative to the start of the stream that
+	 * this bitstream reads from (after any ID3v2 tag), of the header
+	 * of the current frame.
+	 * @return offset of the last frame header read, or -1 if none.
+	 */
+	public long frame_pos()
+	{
+		return frame_pos;
+	}
 	
 	/**
 	 * Load ID3v2 frames.
@@ -340,6 +362,7 @@ public final class Bitstream implements BitstreamErrors
 			try
 			{
 				source.unread(frame_bytes, 0, framesize);
+				stream_pos -= framesize;
 			}
 			catch (IOException ex)
 			{
@@ -370,6 +393,7 @@ public final class Bitstream implements BitstreamErrors
 		try
 		{
 			source.unread(syncbuf, 0, read);
+			stream_pos -= read;
 		}
 		catch (IOException ex)
 		{
@@ -444,6 +468,8 @@ public final class Bitstream implements BitstreamErrors
 		}
 		while (!sync);
 
+		frame_pos = stream_pos - 4;
+
 		//current_frame_number++;
 		//if (last_frame_number < current_frame_number) last_frame_number = current_frame_number;
 
@@ -613,6 +639,7 @@ public final class Bitstream implements BitstreamErrors
 					//throw newBitstreamException(UNEXPECTED_EOF, new EOFException());
 				}
 				nRead = nRead + bytesread;
+				stream_pos += bytesread;
 				offs += bytesread;
 				len -= bytesread;
 			}
@@ -642,6 +669,7 @@ public final class Bitstream implements BitstreamErrors
 					break;
 				}
 				totalBytesRead += bytesread;
+				stream_pos += bytesread;
 				offs += bytesread;
 				len -= bytesread;
 			}
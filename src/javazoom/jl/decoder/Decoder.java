@@ -32,6 +32,26 @@ public class Decoder implements DecoderErrors
 {
 	static private final Params DEFAULT_PARAMS = new Params();
 
+	/**
+	 * Synthesis quality that produces every sample at the stream's
+	 * sample rate.
+	 */
+	public static final int HIGH_QUALITY = 1;
+
+	/**
+	 * Synthesis quality that produces output at half of the stream's
+	 * sample rate by synthesizing only the lower 16 subbands. For a
+	 * 44.1 kHz stream, the output is 22.05 kHz and content above about
+	 * 11 kHz is lost.
+	 */
+	public static final int MEDIUM_QUALITY = 2;
+
+	/**
+	 * Synthesis quality that produces output at a quarter of the
+	 * stream's sample rate by synthesizing only the lower 8 subbands.
+	 */
+	public static final int LOW_QUALITY = 4;
+
 	/**
 	 * The Bistream from which the MPEG audio frames are read.
 	 */
@@ -63,6 +83,12 @@ public class Decoder implements DecoderErrors
 	private int						outputFrequency;
 	private int						outputChannels;
 
+	/**
+	 * The channel selection code passed to the frame decoders;
+	 * one of the constants in <code>OutputChannels</code>.
+	 */
+	private int						outputChannelsCode = OutputChannels.BOTH_CHANNELS;
+
 	private Equalizer				equalizer = new Equalizer();
 
 	private Params					params;
@@ -219,8 +245,6 @@ public class Decoder implements DecoderErrors
 	{
 		FrameDecoder decoder = null;
 
-		// REVIEW: allow channel output selection type
-		// (LEFT, RIGHT, BOTH, DOWNMIX)
 		switch (layer)
 		{
 		case 3:
@@ -228,7 +252,7 @@ public class Decoder implements DecoderErrors
 			{
 				l3decoder = new LayerIIIDecoder(stream,
 					header, filter1, filter2,
-					output, OutputChannels.BOTH_CHANNELS);
+					output, outputChannelsCode, params.isFastKernels());
 			}
 
 			decoder = l3decoder;
@@ -239,7 +263,7 @@ public class Decoder implements DecoderErrors
 				l2decoder = new LayerIIDecoder();
 				l2decoder.create(stream,
 					header, filter1, filter2,
-					output, OutputChannels.BOTH_CHANNELS);
+					output, outputChannelsCode);
 			}
 			decoder = l2decoder;
 			break;
@@ -249,7 +273,7 @@ public class Decoder implements DecoderErrors
 				l1decoder = new LayerIDecoder();
 				l1decoder.create(stream,
 					header, filter1, filter2,
-					output, OutputChannels.BOTH_CHANNELS);
+					output, outputChannelsCode);
 			}
 			decoder = l1decoder;
 			break;
@@ -275,19 +299,34 @@ public class Decoder implements DecoderErrors
 		int channels = mode==Header.SINGLE_CHANNEL ? 1 : 2;
 
 
+		// a single channel can be selected from a two channel stream;
+		// only the layer III decoder can mix the channels down, which it
+		// does before synthesis so that only one synthesis filter is needed
+		OutputChannels selection = params.getOutputChannels();
+		if (selection==OutputChannels.DOWNMIX && layer!=3)
+			selection = OutputChannels.BOTH;
+		outputChannelsCode = selection.getChannelsOutputCode();
+		if (channels==2)
+			channels = selection.getChannelCount();
+
+		// a reduced quality never takes the output below 8 kHz
+		int quality = params.getQuality();
+		while (quality > HIGH_QUALITY && header.frequency() / quality < 8000)
+			quality /= 2;
+
 		// set up output buffer if not set up by client.
 		if (output==null)
-			output = new SampleBuffer(header.frequency(), channels);
+			output = new SampleBuffer(header.frequency() / quality, channels);
 
 		float[] factors = equalizer.getBandFactors();
-		filter1 = new SynthesisFilter(0, scalefactor, factors);
+		boolean fast = params.isFastKernels();
+		filter1 = new SynthesisFilter(0, scalefactor, factors, fast, quality);
 
-		// REVIEW: allow mono output for stereo
 		if (channels==2)
-			filter2 = new SynthesisFilter(1, scalefactor, factors);
+			filter2 = new SynthesisFilter(1, scalefactor, factors, fast, quality);
 
 		outputChannels = channels;
-		outputFrequency = header.frequency();
+		outputFrequency = header.frequency() / quality;
 
 		initialized = true;
 	}
@@ -304,6 +343,10 @@ public class Decoder implements DecoderErrors
 
 		private Equalizer		equalizer = new Equalizer();
 
+		private boolean			fastKernels = false;
+
+		private int				quality = HIGH_QUALITY;
+
 		public Params()
 		{
 		}
@@ -333,6 +376,54 @@ public class Decoder implements DecoderErrors
 			return outputChannels;
 		}
 
+		/**
+		 * Selects the kernels used for the layer III IMDCT and for
+		 * synthesis. The fast kernels skip the IMDCT of subbands that
+		 * have no signal and synthesize from V buffers laid out so that
+		 * one windowing loop serves every write position. They produce
+		 * the same samples as the standard kernels, but they have been
+		 * measured as slower for most streams, so they are off by
+		 * default. Reduced quality synthesis always uses the fast
+		 * synthesis layout.
+		 *
+		 * @param fast	<code>true</code> to use the fast kernels
+		 */
+		public void setFastKernels(boolean fast)
+		{
+			fastKernels = fast;
+		}
+
+		public boolean isFastKernels()
+		{
+			return fastKernels;
+		}
+
+		/**
+		 * Sets the synthesis quality, which trades accuracy for speed.
+		 * At a reduced quality, the output sample rate is divided by
+		 * the quality value and only the matching number of low
+		 * subbands is transformed and synthesized. The quality is raised
+		 * for a stream whose output rate would otherwise fall below
+		 * 8 kHz.
+		 *
+		 * @param quality	one of <code>HIGH_QUALITY</code>,
+		 *					<code>MEDIUM_QUALITY</code>, or
+		 *					<code>LOW_QUALITY</code>
+		 * @throws IllegalArgumentException if the quality is not one of
+		 *					these values
+		 */
+		public void setQuality(int quality)
+		{
+			if (quality != HIGH_QUALITY && quality != MEDIUM_QUALITY && quality != LOW_QUALITY)
+				throw new IllegalArgumentException("Unknown quality value");
+			this.quality = quality;
+		}
+
+		public int getQuality()
+		{
+			return quality;
+		}
+
 		/**
 		 * Retrieves the equalizer settings that the decoder's equalizer
 		 * will be initialized from.
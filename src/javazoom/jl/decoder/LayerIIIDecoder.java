@@ -41,17 +41,16 @@ package javazoom.jl.decoder;
  */
 final class LayerIIIDecoder implements FrameDecoder
 {
-	final double d43 = (4.0/3.0);
-	
 	public int[]				scalefac_buffer;
 
 	// MDM: removed, as this wasn't being used.
 	//private float               CheckSumOut1d = 0.0f;
     private int                 CheckSumHuff = 0;
 	private int[] 				is_1d;
-    private float[][][]			ro;
-    private float[][][]			lr;
+    private float[][]			ro;
+    private float[][]			lr;
 	private float[]				out_1d;
+	private float[]				mix_1d;					// right channel of a split downmix
     private float[][]		    prevblck;
     private float[][]			k;
     private int[] 				nonzero;
@@ -60,6 +59,8 @@ final class LayerIIIDecoder implements FrameDecoder
     private SynthesisFilter 	filter1, filter2;
     private Obuffer 			buffer;
     private int 				which_channels;
+    private boolean				skip_zero_subbands;
+    private int					subband_limit;			// subbands synthesized
     private BitReserve 			br;
     private III_side_info_t 	si;
 
@@ -85,11 +86,28 @@ final class LayerIIIDecoder implements FrameDecoder
    	                        SynthesisFilter filtera, SynthesisFilter filterb,
                             Obuffer buffer0, int which_ch0)
 	{
+		this(stream0, header0, filtera, filterb, buffer0, which_ch0, false);
+	}
+
+	/**
+	 * Constructor.
+	 * If fast is true, the alias reduction and IMDCT are skipped for the
+	 * subbands above the highest one with a non-zero sample. Such a
+	 * subband's output is just the overlap saved from the previous
+	 * granule, so the decoded samples are the same.
+	 */
+	public LayerIIIDecoder(Bitstream stream0, Header header0,
+   	                        SynthesisFilter filtera, SynthesisFilter filterb,
+                            Obuffer buffer0, int which_ch0, boolean fast)
+	{
+		skip_zero_subbands = fast;
+		subband_limit = SBLIMIT / filtera.getQuality();
         huffcodetab.inithuff();
 		is_1d = new int[SBLIMIT*SSLIMIT+4];
-		ro = new float[2][SBLIMIT][SSLIMIT];
-		lr = new float[2][SBLIMIT][SSLIMIT];
+		ro = new float[2][SBLIMIT*SSLIMIT];
+		lr = new float[2][SBLIMIT*SSLIMIT];
 		out_1d = new float[SBLIMIT*SSLIMIT];
+		mix_1d = new float[SBLIMIT*SSLIMIT];
 		prevblck = new float[2][SBLIMIT*SSLIMIT];
 		k = new float[2][SBLIMIT*SSLIMIT];
 		nonzero = new int[2];
@@ -282,20 +300,22 @@ final class LayerIIIDecoder implements FrameDecoder
 
 	         stereo(gr);
 
-	         if ((which_channels == OutputChannels.DOWNMIX_CHANNELS) && (channels > 1))
-	         	do_downmix();
+	         boolean downmix = (which_channels == OutputChannels.DOWNMIX_CHANNELS) && (channels > 1);
+	         // channels with different block types can only be mixed
+	         // after the IMDCT, so the right channel is transformed first
+	         boolean split_mix = downmix && !same_block_type(gr);
+	         if (downmix)
+	         	do_downmix(split_mix);
+	         if (split_mix) {
+	         	transform(1, gr);
+	         	System.arraycopy(out_1d, 0, mix_1d, 0, SBLIMIT*SSLIMIT);
+	         }
 
 	         for (ch=first_channel; ch<=last_channel; ch++) {
 
-	         		reorder(lr[ch], ch, gr);
-						antialias(ch, gr);
-                 //for (int hb = 0;hb<576;hb++) CheckSumOut1d = CheckSumOut1d + out_1d[hb];
-				 //System.out.println("CheckSumOut1d = "+CheckSumOut1d);
-
-	               hybrid(ch, gr);
-
-	             //for (int hb = 0;hb<576;hb++) CheckSumOut1d = CheckSumOut1d + out_1d[hb];
-				 //System.out.println("CheckSumOut1d = "+CheckSumOut1d);
+	         		transform(ch, gr);
+	         		if (split_mix)
+	         			mix_transformed();
 
 						for (sb18=18;sb18<576;sb18+=36) // Frequency inversion
 	                   for (ss=1;ss<SSLIMIT;ss+=2)
@@ -740,17 +760,8 @@ final class LayerIIIDecoder implements FrameDecoder
 	/**
 	 *
 	 */
-    int[] x = {0};
-	int[] y = {0};
-	int[] v = {0};
-	int[] w = {0};
 	private void huffman_decode(int ch, int gr)
 	{
-		x[0] = 0;
-		y[0] = 0;
-		v[0] = 0;
-		w[0] = 0;
-
 	   	int part2_3_end = part2_start + si.ch[ch].gr[gr].part2_3_length;
 	   	int num_bits;
 		int region1Start;
@@ -783,20 +794,27 @@ final class LayerIIIDecoder implements FrameDecoder
 	   }
 
 	   index = 0;
-		// Read bigvalues area
-		for (int i=0; i<(si.ch[ch].gr[gr].big_values<<1); i+=2) {
-			if      (i<region1Start) h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[0]];
-			else if (i<region2Start) h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[1]];
-				  else                h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[2]];
-
-			huffcodetab.huffman_decoder(h, x, y, v, w, br);
-		  //if (index >= is_1d.length) System.out.println("i0="+i+"/"+(si.ch[ch].gr[gr].big_values<<1)+" Index="+index+" is_1d="+is_1d.length);
-	      
-	      is_1d[index++] = x[0];
-	      is_1d[index++] = y[0];
-	      
-	      CheckSumHuff = CheckSumHuff + x[0] + y[0];
-	      // System.out.println("x = "+x[0]+" y = "+y[0]);
+		// Read bigvalues area, one region (and table) at a time
+		int big_values_end = si.ch[ch].gr[gr].big_values<<1;
+		for (int region=0; region<3; region++) {
+			int region_end;
+			if (region == 0) {
+				h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[0]];
+				region_end = region1Start;
+			} else if (region == 1) {
+				h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[1]];
+				region_end = region2Start;
+			} else {
+				h = huffcodetab.ht[si.ch[ch].gr[gr].table_select[2]];
+				region_end = big_values_end;
+			}
+			if (region_end > big_values_end) region_end = big_values_end;
+
+			for (; index<region_end; index+=2) {
+				int xy = huffcodetab.huffman_decode_pair(h, br);
+				is_1d[index] = xy >> 16;
+				is_1d[index+1] = (short) xy;
+			}
 		}
 
 		// Read count1 area
@@ -805,15 +823,12 @@ final class LayerIIIDecoder implements FrameDecoder
 
 		while ((num_bits < part2_3_end) && (index < 576)) {
 
-			huffcodetab.huffman_decoder(h, x, y, v, w, br);
+			int q = huffcodetab.huffman_decode_quad(h, br);
 
-	      is_1d[index++] = v[0];
-	      is_1d[index++] = w[0];
-	      is_1d[index++] = x[0];
-	      is_1d[index++] = y[0];
-          CheckSumHuff = CheckSumHuff + v[0] + w[0] + x[0] + y[0];
-	      // System.out.println("v = "+v[0]+" w = "+w[0]);
-	      // System.out.println("x = "+x[0]+" y = "+y[0]);
+	      is_1d[index++] = (q & 8) == 0 ? 0 : ((q & 0x80) == 0 ? 1 : -1);
+	      is_1d[index++] = (q & 4) == 0 ? 0 : ((q & 0x40) == 0 ? 1 : -1);
+	      is_1d[index++] = (q & 2) == 0 ? 0 : ((q & 0x20) == 0 ? 1 : -1);
+	      is_1d[index++] = (q & 1) == 0 ? 0 : ((q & 0x10) == 0 ? 1 : -1);
 	      num_bits = br.hsstell();
 	   }
 
@@ -860,177 +875,128 @@ final class LayerIIIDecoder implements FrameDecoder
 	}
 
 	/**
-	 *
+	 * Dequantizes the Huffman decoded values of one granule of one channel.
+	 * Each value is raised to the 4/3 power by table lookup and scaled by the
+	 * global gain and then by the scalefactor multiplier of its band. The
+	 * multiplier only changes at a band boundary (or a window boundary within
+	 * a short block band), so it is looked up once per run of values rather
+	 * than once per value.
 	 */
-	private void dequantize_sample(float xr[][], int ch, int gr)
+	private void dequantize_sample(float xr[], int ch, int gr)
 	{
-		gr_info_s gr_info = (si.ch[ch].gr[gr]);
+		final gr_info_s gr_info = (si.ch[ch].gr[gr]);
+		final SBI sbi = sfBandIndex[sfreq];
+		final int[] is = is_1d;
+		final int nz = nonzero[ch];
+		final boolean short_blocks = (gr_info.window_switching_flag != 0) && (gr_info.block_type == 2);
+		final boolean mixed = short_blocks && (gr_info.mixed_block_flag != 0);
 		int  cb=0;
 		int  next_cb_boundary;
 		int cb_begin = 0;
 		int cb_width = 0;
-		int  index=0, t_index, j;
-	   	float g_gain;
-	    float[][] xr_1d = xr;
+		// the window of the current short block band, and where it ends
+		int t_index = 0;
+		int t_end = Integer.MAX_VALUE;
 
 		// choose correct scalefactor band per block type, initalize boundary
 
-		if ((gr_info.window_switching_flag !=0 ) && (gr_info.block_type == 2) ) {
-			if (gr_info.mixed_block_flag != 0)
-				next_cb_boundary=sfBandIndex[sfreq].l[1];  // LONG blocks: 0,1,3
-			else {
-	         cb_width = sfBandIndex[sfreq].s[1];
-			   next_cb_boundary = (cb_width << 2) - cb_width;
-		 	   cb_begin = 0;
-			}
+		if (short_blocks && !mixed) {
+			cb_width = sbi.s[1];
+			next_cb_boundary = (cb_width << 2) - cb_width;
+			t_end = cb_width;
 		} else {
-			next_cb_boundary=sfBandIndex[sfreq].l[1];  // LONG blocks: 0,1,3
-	   }
-
-	   // Compute overall (global) scaling.
-
-		g_gain = (float) Math.pow(2.0 , (0.25 * (gr_info.global_gain - 210.0)));
-
-	  	for (j=0; j<nonzero[ch]; j++)
-	  	{
-	  	    // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
-	    	if (is_1d[j] == 0) xr_1d[quotien][reste] = 0.0f;
-	        else
-	        {
-	         int abv = is_1d[j];
-	         // Pow Array fix (11/17/04)
-	         if (abv < t_43.length)
-	         {
-				if (is_1d[j] > 0) xr_1d[quotien][reste] = g_gain * t_43[abv];
-				else
-				{
-					if (-abv < t_43.length) xr_1d[quotien][reste] = -g_gain * t_43[-abv];
-					else xr_1d[quotien][reste] = -g_gain * (float)Math.pow(-abv, d43);	
-				} 
-	         }
-	         else
-	         {
-				if (is_1d[j] > 0) xr_1d[quotien][reste] = g_gain * (float)Math.pow(abv, d43);
-				else xr_1d[quotien][reste] = -g_gain * (float)Math.pow(-abv, d43);	         	
-	         }
-	        }
-	   }
-
-	   // apply formula per block type
-	   for (j=0; j<nonzero[ch]; j++)
-	   {
-            // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
-
-			if (index == next_cb_boundary)  { /* Adjust critical band boundary */
-	      	if ((gr_info.window_switching_flag != 0) && (gr_info.block_type == 2)) {
-	         	if (gr_info.mixed_block_flag != 0)  {
-
-	            	if (index == sfBandIndex[sfreq].l[8])  {
-	                  next_cb_boundary = sfBandIndex[sfreq].s[4];
-	                  next_cb_boundary = (next_cb_boundary << 2) -
-	                    			           next_cb_boundary;
-	                  cb = 3;
-	                  cb_width = sfBandIndex[sfreq].s[4] -
-	                    			  sfBandIndex[sfreq].s[3];
-
-	                  cb_begin = sfBandIndex[sfreq].s[3];
-	                  cb_begin = (cb_begin << 2) - cb_begin;
-
-	               } else if (index < sfBandIndex[sfreq].l[8]) {
-
-	               	next_cb_boundary = sfBandIndex[sfreq].l[(++cb)+1];
-
-	               } else {
-
-	               	next_cb_boundary = sfBandIndex[sfreq].s[(++cb)+1];
-	                  next_cb_boundary = (next_cb_boundary << 2) -
-	                    				        next_cb_boundary;
-
-	                  cb_begin = sfBandIndex[sfreq].s[cb];
-							cb_width = sfBandIndex[sfreq].s[cb+1] -
-	                             cb_begin;
-	                  cb_begin = (cb_begin << 2) - cb_begin;
-	               }
-
-	            } else  {
-
-	               next_cb_boundary = sfBandIndex[sfreq].s[(++cb)+1];
-	               next_cb_boundary = (next_cb_boundary << 2) -
-	                                  next_cb_boundary;
-
-	               cb_begin = sfBandIndex[sfreq].s[cb];
-						cb_width = sfBandIndex[sfreq].s[cb+1] -
-	                          cb_begin;
-	               cb_begin = (cb_begin << 2) - cb_begin;
-	            }
+			next_cb_boundary = sbi.l[1];  // LONG blocks: 0,1,3
+		}
 
-	         } else  { // long blocks
+		// Compute overall (global) scaling.
 
-						next_cb_boundary = sfBandIndex[sfreq].l[(++cb)+1];
+		final float g_gain = global_gain_pow[gr_info.global_gain];
+		float scale = 0.0f;
+		boolean rescale = true;
 
-	         }
-	      }
+		for (int j=0; j<nz; j++)
+		{
+			if (j == next_cb_boundary)  { /* Adjust critical band boundary */
+				if (short_blocks) {
+					if (mixed && j == sbi.l[8]) {
+						cb = 3;
+						next_cb_boundary = (sbi.s[4] << 2) - sbi.s[4];
+						cb_width = sbi.s[4] - sbi.s[3];
+						cb_begin = (sbi.s[3] << 2) - sbi.s[3];
+					} else if (mixed && j < sbi.l[8]) {
+						next_cb_boundary = sbi.l[(++cb)+1];
+					} else {
+						next_cb_boundary = sbi.s[(++cb)+1];
+						next_cb_boundary = (next_cb_boundary << 2) - next_cb_boundary;
+						cb_begin = sbi.s[cb];
+						cb_width = sbi.s[cb+1] - cb_begin;
+						cb_begin = (cb_begin << 2) - cb_begin;
+					}
+					if (cb_width != 0) {
+						t_index = (j - cb_begin) / cb_width;
+						t_end = cb_begin + (t_index + 1) * cb_width;
+					}
+				} else { // long blocks
+					next_cb_boundary = sbi.l[(++cb)+1];
+				}
+				rescale = true;
+			} else if (j == t_end) {
+				++t_index;
+				t_end += cb_width;
+				rescale = true;
+			}
 
 			// Do long/short dependent scaling operations
 
-			if ((gr_info.window_switching_flag !=0)&&
-				 (((gr_info.block_type == 2) && (gr_info.mixed_block_flag == 0)) ||
-				  ((gr_info.block_type == 2) && (gr_info.mixed_block_flag!=0) && (j >= 36)) ))
-	      {
-
-				t_index = (index - cb_begin) / cb_width;
-	/*            xr[sb][ss] *= pow(2.0, ((-2.0 * gr_info.subblock_gain[t_index])
-	                                    -(0.5 * (1.0 + gr_info.scalefac_scale)
-	                                      * scalefac[ch].s[t_index][cb]))); */
-				int idx = scalefac[ch].s[t_index][cb]
-	           				 << gr_info.scalefac_scale;
-	         idx += (gr_info.subblock_gain[t_index] << 2);
-
-				xr_1d[quotien][reste] *= two_to_negative_half_pow[idx];
-
-			} else {   // LONG block types 0,1,3 & 1st 2 subbands of switched blocks
-	/*				xr[sb][ss] *= pow(2.0, -0.5 * (1.0+gr_info.scalefac_scale)
-														 * (scalefac[ch].l[cb]
-														 + gr_info.preflag * pretab[cb])); */
-				int idx = scalefac[ch].l[cb];
-
-	   		if (gr_info.preflag != 0)
-			   	idx += pretab[cb];
-
-			   idx = idx << gr_info.scalefac_scale;
-	         xr_1d[quotien][reste] *= two_to_negative_half_pow[idx];
+			if (rescale || (mixed && j == 36)) {
+				int idx;
+				// the long part of a mixed block always ends at line 36, but
+				// for some sample rates the band table switches later; those
+				// lines keep the long block multiplier
+				if (short_blocks && (!mixed || j >= 36) && cb_width != 0) {
+				/*	xr[sb][ss] *= pow(2.0, ((-2.0 * gr_info.subblock_gain[t_index])
+					                    -(0.5 * (1.0 + gr_info.scalefac_scale)
+					                      * scalefac[ch].s[t_index][cb]))); */
+					idx = scalefac[ch].s[t_index][cb] << gr_info.scalefac_scale;
+					idx += (gr_info.subblock_gain[t_index] << 2);
+				} else {   // LONG block types 0,1,3 & 1st 2 subbands of switched blocks
+				/*	xr[sb][ss] *= pow(2.0, -0.5 * (1.0+gr_info.scalefac_scale)
+					                     * (scalefac[ch].l[cb]
+					                     + gr_info.preflag * pretab[cb])); */
+					idx = scalefac[ch].l[cb];
+					if (gr_info.preflag != 0)
+						idx += pretab[cb];
+					idx = idx << gr_info.scalefac_scale;
+				}
+				scale = two_to_negative_half_pow[idx];
+				rescale = false;
 			}
-	      index++;
-		}
 
-	   for (j=nonzero[ch]; j<576; j++)
-	   {
-            // Modif E.B 02/22/99
-            int reste = j % SSLIMIT;
-            int quotien = (int) ((j-reste)/SSLIMIT);
-            if(reste < 0) reste = 0;
-            if(quotien < 0) quotien = 0;
-	     	xr_1d[quotien][reste] = 0.0f;
-	   }
+			// the gain is applied before the multiplier so that the result
+			// is rounded exactly as it was when each step was a separate pass
+			final int abv = is[j];
+			final float v;
+			if (abv > 0) v = g_gain * t_43[abv];
+			else if (abv < 0) v = -g_gain * t_43[-abv];
+			else v = 0.0f;
+			xr[j] = v * scale;
+		}
 
-   	   return;
+		for (int j=nz; j<SBLIMIT*SSLIMIT; j++)
+			xr[j] = 0.0f;
 	}
 
     /**
 	 *
 	 */
-	private void reorder(float xr[][], int ch, int gr)
+	private void reorder(float xr[], int ch, int gr)
 	{
 	   gr_info_s gr_info = (si.ch[ch].gr[gr]);
 	   int freq, freq3;
 	   int index;
 	   int sfb, sfb_start, sfb_lines;
 	   int src_line, des_line;
-	   float[][] xr_1d = xr;
+	   float[] xr_1d = xr;
 
 	   if ((gr_info.window_switching_flag !=0) && (gr_info.block_type == 2)) {
 
@@ -1039,13 +1005,7 @@ final class LayerIIIDecoder implements FrameDecoder
 
 			if (gr_info.mixed_block_flag !=0 ) {
 				// NO REORDER FOR LOW 2 SUBBANDS
-	            for (index = 0; index < 36; index++)
-	            {
-                    // Modif E.B 02/22/99
-                    int reste = index % SSLIMIT;
-                    int quotien = (int) ((index-reste)/SSLIMIT);
-	                out_1d[index] = xr_1d[quotien][reste];
-	            }
+	            System.arraycopy(xr_1d, 0, out_1d, 0, 36);
 				// REORDERING FOR REST SWITCHED SHORT
 				/*for( sfb=3,sfb_start=sfBandIndex[sfreq].s[3],
 					 sfb_lines=sfBandIndex[sfreq].s[4] - sfb_start;
@@ -1065,46 +1025,26 @@ final class LayerIIIDecoder implements FrameDecoder
 
 								src_line = sfb_start3 + freq;
 								des_line = sfb_start3 + freq3;
-                                // Modif E.B 02/22/99
-                                int reste = src_line % SSLIMIT;
-                                int quotien = (int) ((src_line-reste)/SSLIMIT);
-
-								out_1d[des_line] = xr_1d[quotien][reste];
+								out_1d[des_line] = xr_1d[src_line];
 								src_line += sfb_lines;
 								des_line++;
 
-								reste = src_line % SSLIMIT;
-								quotien = (int) ((src_line-reste)/SSLIMIT);
-
-								out_1d[des_line] = xr_1d[quotien][reste];
+								out_1d[des_line] = xr_1d[src_line];
 								src_line += sfb_lines;
 								des_line++;
 
-								reste = src_line % SSLIMIT;
-								quotien = (int) ((src_line-reste)/SSLIMIT);
-
-								out_1d[des_line] = xr_1d[quotien][reste];
+								out_1d[des_line] = xr_1d[src_line];
 						   }
 	            	  }
 
 			} else {  // pure short
+	      	final int[] reorder_sfreq = reorder_table[sfreq];
 	      	for(index=0;index<576;index++)
-	      	{
-                int j = reorder_table[sfreq][index];
-	            int reste = j % SSLIMIT;
-				int quotien = (int) ((j-reste)/SSLIMIT);
-	            out_1d[index] = xr_1d[quotien][reste];
-	        }
+	            out_1d[index] = xr_1d[reorder_sfreq[index]];
 			}
 		}
 		else {   // long blocks
-	      for(index=0; index<576; index++)
-	      {
-            // Modif E.B 02/22/99
-            int reste = index % SSLIMIT;
-            int quotien = (int) ((index-reste)/SSLIMIT);
-	      	out_1d[index] = xr_1d[quotien][reste];
-	      }
+	      System.arraycopy(xr_1d, 0, out_1d, 0, 576);
 		}
 	}
 
@@ -1119,14 +1059,9 @@ final class LayerIIIDecoder implements FrameDecoder
 	{
 	  int sb, ss;
 
-		if  (channels == 1) { // mono , bypass xr[0][][] to lr[0][][]
+		if  (channels == 1) { // mono , bypass xr[0][] to lr[0][]
 
-			for(sb=0;sb<SBLIMIT;sb++)
-				for(ss=0;ss<SSLIMIT;ss+=3) {
-					lr[0][sb][ss]   = ro[0][sb][ss];
-	            lr[0][sb][ss+1] = ro[0][sb][ss+1];
-					lr[0][sb][ss+2] = ro[0][sb][ss+2];
-	         }
+			System.arraycopy(ro[0], 0, lr[0], 0, SBLIMIT*SSLIMIT);
 
 	   } else {
 
@@ -1166,10 +1101,7 @@ final class LayerIIIDecoder implements FrameDecoder
 	                  i = (i << 2) - i + (j+1) * lines - 1;
 
 							while (lines > 0) {
-	                  	if (ro[1][i/18][i%18] != 0.0f) {
-							// MDM: in java, array access is very slow.
-							// Is quicker to compute div and mod values.
-						//if (ro[1][ss_div[i]][ss_mod[i]] != 0.0f) {
+	                  	if (ro[1][i] != 0.0f) {
 	                     	sfbcnt = sfb;
 									sfb = -10;
 									lines = -10;
@@ -1227,7 +1159,7 @@ final class LayerIIIDecoder implements FrameDecoder
 						 ss = 17;
 						 sb = -1;
 						 while (i >= 0) {
-	                	if (ro[1][i][ss] != 0.0f) {
+	                	if (ro[1][i*SSLIMIT + ss] != 0.0f) {
 	                   	 sb = (i<<4) + (i<<1) + ss;
 								 i = -1;
 							} else {
@@ -1267,10 +1199,7 @@ final class LayerIIIDecoder implements FrameDecoder
 	                  i = (temp << 2) - temp + (j+1) * lines - 1;
 
 							while (lines > 0) {
-								if (ro[1][i/18][i%18] != 0.0f) {
-								// MDM: in java, array access is very slow.
-								// Is quicker to compute div and mod values.
-								//if (ro[1][ss_div[i]][ss_mod[i]] != 0.0f) {
+								if (ro[1][i] != 0.0f) {
 	                     	sfbcnt = sfb;
 									sfb = -10;
 									lines = -10;
@@ -1322,7 +1251,7 @@ final class LayerIIIDecoder implements FrameDecoder
 				ss = 17;
 				sb = 0;
 				while (i >= 0) {
-	         	if (ro[1][i][ss] != 0.0f) {
+	         	if (ro[1][i*SSLIMIT + ss] != 0.0f) {
 	            	sb = (i<<4) + (i<<1) + ss;
 						i = -1;
 					} else {
@@ -1367,33 +1296,32 @@ final class LayerIIIDecoder implements FrameDecoder
 			} // if (gr_info.window_switching_flag ...
 		} // if (i_stereo)
 
-	   	i = 0;
-			for(sb=0;sb<SBLIMIT;sb++)
-				for(ss=0;ss<SSLIMIT;ss++) {
-					if (is_pos[i] == 7) {
-						if (ms_stereo) {
-							lr[0][sb][ss] = (ro[0][sb][ss]+ro[1][sb][ss]) * 0.707106781f;
-							lr[1][sb][ss] = (ro[0][sb][ss]-ro[1][sb][ss]) * 0.707106781f;
-						} else {
-							lr[0][sb][ss] = ro[0][sb][ss];
-							lr[1][sb][ss] = ro[1][sb][ss];
-						}
-					}
-					else if (i_stereo) {
-
-	            	if (lsf) {
-	                  lr[0][sb][ss] = ro[0][sb][ss] * k[0][i];
-	                  lr[1][sb][ss] = ro[0][sb][ss] * k[1][i];
-	               } else {
-	               	lr[1][sb][ss] = ro[0][sb][ss] / (float) (1 + is_ratio[i]);
-		  				   lr[0][sb][ss] = lr[1][sb][ss] * is_ratio[i];
-	               }
-					}
-	/*				else {
-						System.out.println("Error in stereo processing\n");
-					} */
-	            i++;
+		final float[] ro0 = ro[0], ro1 = ro[1];
+		final float[] lr0 = lr[0], lr1 = lr[1];
+		for(i=0;i<SBLIMIT*SSLIMIT;i++) {
+			if (is_pos[i] == 7) {
+				if (ms_stereo) {
+					lr0[i] = (ro0[i]+ro1[i]) * 0.707106781f;
+					lr1[i] = (ro0[i]-ro1[i]) * 0.707106781f;
+				} else {
+					lr0[i] = ro0[i];
+					lr1[i] = ro1[i];
+				}
+			}
+			else if (i_stereo) {
+
+				if (lsf) {
+					lr0[i] = ro0[i] * k[0][i];
+					lr1[i] = ro0[i] * k[1][i];
+				} else {
+					lr1[i] = ro0[i] / (float) (1 + is_ratio[i]);
+					lr0[i] = lr1[i] * is_ratio[i];
 				}
+			}
+/*			else {
+				System.out.println("Error in stereo processing\n");
+			} */
+		}
 
     	} // channels == 2
 
@@ -1402,7 +1330,7 @@ final class LayerIIIDecoder implements FrameDecoder
     /**
 	 *
 	 */
-	private void antialias(int ch, int gr)
+	private void antialias(int ch, int gr, int sblimit)
 	{
 	   int sb18, ss, sb18lim;
 	   gr_info_s gr_info = (si.ch[ch].gr[gr]);
@@ -1420,6 +1348,9 @@ final class LayerIIIDecoder implements FrameDecoder
 			sb18lim = 558;
 	   }
 
+	   // butterflies between subbands that are both zero have no effect
+	   sb18lim = Math.min(sb18lim, sblimit * 18);
+
 	   for (sb18=0; sb18 < sb18lim; sb18+=18) {
 	      for (ss=0;ss<8;ss++) {
 	      	int src_idx1 = sb18 + 17 - ss;
@@ -1436,98 +1367,129 @@ final class LayerIIIDecoder implements FrameDecoder
 	 *
 	 */
 
-	// MDM: tsOutCopy and rawout do not need initializing, so the arrays
-	// can be reused.
-	float[] tsOutCopy = new float[18];
+	// MDM: rawout does not need initializing, so the array can be reused.
 	float[] rawout = new float[36];
 
-	private void hybrid(int ch, int gr)
+	private void hybrid(int ch, int gr, int sblimit)
 	{
 	   int bt;
 	   int sb18;
 	   gr_info_s gr_info = (si.ch[ch].gr[gr]);
-	   float[] tsOut;
+	   final float[] tsOut = out_1d;
+	   final float[] prvblk = prevblck[ch];
 
-	   float[][] prvblk;
-
-	   for(sb18=0;sb18<576;sb18+=18)
+	   final int sb18lim = sblimit * 18;
+	   for(sb18=0;sb18<sb18lim;sb18+=18)
 	   {
 			bt = ((gr_info.window_switching_flag !=0 ) && (gr_info.mixed_block_flag !=0) &&
 					 (sb18 < 36)) ? 0 : gr_info.block_type;
 
-		   tsOut = out_1d;
-	       // Modif E.B 02/22/99
-	       for (int cc = 0;cc<18;cc++)
-			   tsOutCopy[cc] = tsOut[cc+sb18];
+		   // the transform works on the subband in place; its input is
+		   // no longer needed once the overlap addition replaces it
+		   inv_mdct(tsOut, sb18, rawout, bt);
 
-		   inv_mdct(tsOutCopy, rawout, bt);
+			// overlap addition
+		   for (int cc = 0; cc < 18; cc++)
+		   {
+			   tsOut[sb18 + cc] = rawout[cc] + prvblk[sb18 + cc];
+			   prvblk[sb18 + cc] = rawout[cc + 18];
+		   }
+   	  }
 
+	   // the IMDCT of a zero subband is zero, leaving only the overlap
+	   for(;sb18<576;sb18++)
+	   {
+		   tsOut[sb18] = prvblk[sb18];
+		   prvblk[sb18] = 0.0f;
+	   }
+	}
 
-		   for (int cc = 0;cc<18;cc++)
-			   tsOut[cc+sb18] = tsOutCopy[cc];
-		   // Fin Modif
+	/**
+	 * Reorders, antialiases and transforms one channel of a granule into
+	 * out_1d, ready for frequency inversion and synthesis.
+	 */
+	private void transform(int ch, int gr)
+	{
+		reorder(lr[ch], ch, gr);
+		int sblimit = skip_zero_subbands ? nonzero_subbands() : SBLIMIT;
+		sblimit = Math.min(sblimit, subband_limit);
+		antialias(ch, gr, sblimit);
+		// alias reduction can leak into the subband above the
+		// last non-zero one; subbands above the synthesis
+		// filter's limit are not needed at all
+		hybrid(ch, gr, Math.min(sblimit + 1, subband_limit));
+	}
 
-			// overlap addition
-		   prvblk = prevblck;
-
-		   tsOut[0 + sb18]   = rawout[0]  + prvblk[ch][sb18 + 0];
-		   prvblk[ch][sb18 + 0]  = rawout[18];
-		   tsOut[1 + sb18]   = rawout[1]  + prvblk[ch][sb18 + 1];
-		   prvblk[ch][sb18 + 1]  = rawout[19];
-		   tsOut[2 + sb18]   = rawout[2]  + prvblk[ch][sb18 + 2];
-		   prvblk[ch][sb18 + 2]  = rawout[20];
-		   tsOut[3 + sb18]   = rawout[3]  + prvblk[ch][sb18 + 3];
-		   prvblk[ch][sb18 + 3]  = rawout[21];
-		   tsOut[4 + sb18]   = rawout[4]  + prvblk[ch][sb18 + 4];
-		   prvblk[ch][sb18 + 4]  = rawout[22];
-		   tsOut[5 + sb18]   = rawout[5]  + prvblk[ch][sb18 + 5];
-		   prvblk[ch][sb18 + 5]  = rawout[23];
-		   tsOut[6 + sb18]   = rawout[6]  + prvblk[ch][sb18 + 6];
-		   prvblk[ch][sb18 + 6]  = rawout[24];
-		   tsOut[7 + sb18]   = rawout[7]  + prvblk[ch][sb18 + 7];
-		   prvblk[ch][sb18 + 7]  = rawout[25];
-		   tsOut[8 + sb18]   = rawout[8]  + prvblk[ch][sb18 + 8];
-		   prvblk[ch][sb18 + 8]  = rawout[26];
-		   tsOut[9 + sb18]   = rawout[9]  + prvblk[ch][sb18 + 9];
-		   prvblk[ch][sb18 + 9]  = rawout[27];
-	   	   tsOut[10 + sb18]  = rawout[10] + prvblk[ch][sb18 + 10];
-	   	   prvblk[ch][sb18 + 10] = rawout[28];
-	 	   tsOut[11 + sb18]  = rawout[11] + prvblk[ch][sb18 + 11];
-	 	   prvblk[ch][sb18 + 11] = rawout[29];
-	 	   tsOut[12 + sb18]  = rawout[12] + prvblk[ch][sb18 + 12];
-	 	   prvblk[ch][sb18 + 12] = rawout[30];
-	 	   tsOut[13 + sb18]  = rawout[13] + prvblk[ch][sb18 + 13];
-	 	   prvblk[ch][sb18 + 13] = rawout[31];
-	 	   tsOut[14 + sb18]  = rawout[14] + prvblk[ch][sb18 + 14];
-	 	   prvblk[ch][sb18 + 14] = rawout[32];
-	 	   tsOut[15 + sb18]  = rawout[15] + prvblk[ch][sb18 + 15];
-	 	   prvblk[ch][sb18 + 15] = rawout[33];
-	 	   tsOut[16 + sb18]  = rawout[16] + prvblk[ch][sb18 + 16];
-	 	   prvblk[ch][sb18 + 16] = rawout[34];
-	 	   tsOut[17 + sb18]  = rawout[17] + prvblk[ch][sb18 + 17];
-	 	   prvblk[ch][sb18 + 17] = rawout[35];
-   	  }
+	/**
+	 * Returns the number of subbands in out_1d up to and including the
+	 * highest one that has a non-zero sample.
+	 */
+	private int nonzero_subbands()
+	{
+	   int i = 575;
+	   while (i >= 0 && out_1d[i] == 0.0f)
+		   i--;
+	   return (i + SSLIMIT) / SSLIMIT;
+	}
+
+	/**
+	 * Returns true if both channels of a granule use the same block type,
+	 * so that their dequantized samples can be mixed before the IMDCT.
+	 */
+	private boolean same_block_type(int gr)
+	{
+		gr_info_s g0 = si.ch[0].gr[gr], g1 = si.ch[1].gr[gr];
+		if (g0.window_switching_flag == 0 || g1.window_switching_flag == 0)
+			return g0.window_switching_flag == g1.window_switching_flag;
+		return g0.block_type == g1.block_type
+			&& g0.mixed_block_flag == g1.mixed_block_flag;
 	}
 
     /**
-	 *
+	 * Mixes the dequantized samples of the right channel into the left
+	 * channel, so that only the left channel needs to be passed through
+	 * the IMDCT and synthesis filter. The left channel's block type is
+	 * used for the mix, so this is only done when both channels use the
+	 * same block type. Otherwise (split is true) each channel is only
+	 * scaled, and the transformed channels are mixed by mix_transformed().
 	 */
-	private void do_downmix()
+	private void do_downmix(boolean split)
 	{
-		for (int sb=0; sb<SSLIMIT; sb++) {
-	   	for (int ss=0; ss<SSLIMIT; ss+=3) {
-	      	lr[0][sb][ss]   = (lr[0][sb][ss]   + lr[1][sb][ss])   * 0.5f;
-	      	lr[0][sb][ss+1] = (lr[0][sb][ss+1] + lr[1][sb][ss+1]) * 0.5f;
-	      	lr[0][sb][ss+2] = (lr[0][sb][ss+2] + lr[1][sb][ss+2]) * 0.5f;
-	      }
-   		}
+		final float[] lr0 = lr[0], lr1 = lr[1];
+		if (split) {
+			for (int i=0; i<SBLIMIT*SSLIMIT; i++) {
+				lr0[i] *= 0.5f;
+				lr1[i] *= 0.5f;
+			}
+		} else {
+			for (int i=0; i<SBLIMIT*SSLIMIT; i++)
+				lr0[i] = (lr0[i] + lr1[i]) * 0.5f;
+		}
 	}
 
 	/**
-	 * Fast INV_MDCT.
+	 * Adds the transformed right channel in mix_1d to the left channel in
+	 * out_1d. The IMDCT is linear, so the overlap carried into the next
+	 * granule is the sum of both channels' overlaps; it is kept in the
+	 * left channel's buffer, as it is for granules that are mixed before
+	 * the IMDCT.
+	 */
+	private void mix_transformed()
+	{
+		final float[] prev0 = prevblck[0], prev1 = prevblck[1];
+		for (int i=0; i<SBLIMIT*SSLIMIT; i++) {
+			out_1d[i] += mix_1d[i];
+			prev0[i] += prev1[i];
+			prev1[i] = 0.0f;
+		}
+	}
+
+	/**
+	 * Fast INV_MDCT of the 18 samples of one subband, which start at
+	 * in[off]. The input samples are used as scratch space.
 	 */
 
-	public void inv_mdct(float[] in, float[] out, int block_type)
+	public void inv_mdct(float[] in, int off, float[] out, int block_type)
 	{
 		 float[] win_bt;
 	     int   i;
@@ -1598,27 +1560,27 @@ final class LayerIIIDecoder implements FrameDecoder
 	      		// 12 point IMDCT
 	       		// Begin 12 point IDCT
 	   			// Input aliasing for 12 pt IDCT
-		   		in[15+i] += in[12+i]; in[12+i] += in[9+i]; in[9+i]  +=  in[6+i];
-	   			in[6+i]  += in[3+i];  in[3+i]  += in[0+i];
+		   		in[off+15+i] += in[off+12+i]; in[off+12+i] += in[off+9+i]; in[off+9+i]  +=  in[off+6+i];
+	   			in[off+6+i]  += in[off+3+i];  in[off+3+i]  += in[off+0+i];
 
 		   		// Input aliasing on odd indices (for 6 point IDCT)
-	   			in[15+i] += in[9+i];  in[9+i]  += in[3+i];
+	   			in[off+15+i] += in[off+9+i];  in[off+9+i]  += in[off+3+i];
 
 		   		// 3 point IDCT on even indices
 		  		float 	pp1, pp2, sum;
-		    	pp2 = in[12+i] * 0.500000000f;
-		   		pp1 = in[ 6+i] * 0.866025403f;
-		   		sum = in[0+i] + pp2;
-		   		tmpf_1 = in[0+i] - in[12+i];
+		    	pp2 = in[off+12+i] * 0.500000000f;
+		   		pp1 = in[off+ 6+i] * 0.866025403f;
+		   		sum = in[off+0+i] + pp2;
+		   		tmpf_1 = in[off+0+i] - in[off+12+i];
 		   		tmpf_0 = sum + pp1;
 		   		tmpf_2 = sum - pp1;
 
 	      		// End 3 point IDCT on even indices
 		   		// 3 point IDCT on odd indices (for 6 point IDCT)
-		    	pp2 = in[15+i] * 0.500000000f;
-	   			pp1 = in[ 9+i] * 0.866025403f;
-		   		sum = in[ 3+i] + pp2;
-		   		tmpf_4 = in[3+i] - in[15+i];
+		    	pp2 = in[off+15+i] * 0.500000000f;
+	   			pp1 = in[off+ 9+i] * 0.866025403f;
+		   		sum = in[off+ 3+i] + pp2;
+		   		tmpf_4 = in[off+3+i] - in[off+15+i];
 		   		tmpf_5 = sum + pp1;
 		   		tmpf_3 = sum - pp1;
 	   	    	// End 3 point IDCT on odd indices
@@ -1689,16 +1651,16 @@ final class LayerIIIDecoder implements FrameDecoder
 		 {
 	   		// 36 point IDCT
 	   		// input aliasing for 36 point IDCT
-	   		in[17]+=in[16]; in[16]+=in[15]; in[15]+=in[14]; in[14]+=in[13];
-	   		in[13]+=in[12]; in[12]+=in[11]; in[11]+=in[10]; in[10]+=in[9];
-	   		in[9] +=in[8];  in[8] +=in[7];  in[7] +=in[6];  in[6] +=in[5];
-	   		in[5] +=in[4];  in[4] +=in[3];  in[3] +=in[2];  in[2] +=in[1];
-	   		in[1] +=in[0];
+	   		in[off+17]+=in[off+16]; in[off+16]+=in[off+15]; in[off+15]+=in[off+14]; in[off+14]+=in[off+13];
+	   		in[off+13]+=in[off+12]; in[off+12]+=in[off+11]; in[off+11]+=in[off+10]; in[off+10]+=in[off+9];
+	   		in[off+9] +=in[off+8];  in[off+8] +=in[off+7];  in[off+7] +=in[off+6];  in[off+6] +=in[off+5];
+	   		in[off+5] +=in[off+4];  in[off+4] +=in[off+3];  in[off+3] +=in[off+2];  in[off+2] +=in[off+1];
+	   		in[off+1] +=in[off+0];
 
 	   		// 18 point IDCT for odd indices
 	   		// input aliasing for 18 point IDCT
-	   		in[17]+=in[15]; in[15]+=in[13]; in[13]+=in[11]; in[11]+=in[9];
-	   		in[9] +=in[7];  in[7] +=in[5];  in[5] +=in[3];  in[3] +=in[1];
+	   		in[off+17]+=in[off+15]; in[off+15]+=in[off+13]; in[off+13]+=in[off+11]; in[off+11]+=in[off+9];
+	   		in[off+9] +=in[off+7];  in[off+7] +=in[off+5];  in[off+5] +=in[off+3];  in[off+3] +=in[off+1];
 
 	   		float tmp0,tmp1,tmp2,tmp3,tmp4,tmp0_,tmp1_,tmp2_,tmp3_;
 	   		float tmp0o,tmp1o,tmp2o,tmp3o,tmp4o,tmp0_o,tmp1_o,tmp2_o,tmp3_o;
@@ -1717,41 +1679,41 @@ final class LayerIIIDecoder implements FrameDecoder
 	   		// 9 point IDCT on even indices
 
 			// 5 points on odd indices (not realy an IDCT)
-	   		float i00 = in[0]+in[0];
-	   		float iip12 = i00 + in[12];
+	   		float i00 = in[off+0]+in[off+0];
+	   		float iip12 = i00 + in[off+12];
 
-	   		tmp0 = iip12 + in[4]*1.8793852415718f  + in[8]*1.532088886238f   + in[16]*0.34729635533386f;
-	   		tmp1 = i00    + in[4]                   - in[8] - in[12] - in[12] - in[16];
-	   		tmp2 = iip12 - in[4]*0.34729635533386f - in[8]*1.8793852415718f  + in[16]*1.532088886238f;
-	   		tmp3 = iip12 - in[4]*1.532088886238f   + in[8]*0.34729635533386f - in[16]*1.8793852415718f;
-	   		tmp4 = in[0] - in[4]                   + in[8] - in[12]          + in[16];
+	   		tmp0 = iip12 + in[off+4]*1.8793852415718f  + in[off+8]*1.532088886238f   + in[off+16]*0.34729635533386f;
+	   		tmp1 = i00    + in[off+4]                   - in[off+8] - in[off+12] - in[off+12] - in[off+16];
+	   		tmp2 = iip12 - in[off+4]*0.34729635533386f - in[off+8]*1.8793852415718f  + in[off+16]*1.532088886238f;
+	   		tmp3 = iip12 - in[off+4]*1.532088886238f   + in[off+8]*0.34729635533386f - in[off+16]*1.8793852415718f;
+	   		tmp4 = in[off+0] - in[off+4]                   + in[off+8] - in[off+12]          + in[off+16];
 
 			// 4 points on even indices
-	   		float i66_ = in[6]*1.732050808f;		// Sqrt[3]
+	   		float i66_ = in[off+6]*1.732050808f;		// Sqrt[3]
 
-	   		tmp0_ = in[2]*1.9696155060244f  + i66_ + in[10]*1.2855752193731f  + in[14]*0.68404028665134f;
-	   		tmp1_ = (in[2]                        - in[10]                   - in[14])*1.732050808f;
-	   		tmp2_ = in[2]*1.2855752193731f  - i66_ - in[10]*0.68404028665134f + in[14]*1.9696155060244f;
-	   		tmp3_ = in[2]*0.68404028665134f - i66_ + in[10]*1.9696155060244f  - in[14]*1.2855752193731f;
+	   		tmp0_ = in[off+2]*1.9696155060244f  + i66_ + in[off+10]*1.2855752193731f  + in[off+14]*0.68404028665134f;
+	   		tmp1_ = (in[off+2]                        - in[off+10]                   - in[off+14])*1.732050808f;
+	   		tmp2_ = in[off+2]*1.2855752193731f  - i66_ - in[off+10]*0.68404028665134f + in[off+14]*1.9696155060244f;
+	   		tmp3_ = in[off+2]*0.68404028665134f - i66_ + in[off+10]*1.9696155060244f  - in[off+14]*1.2855752193731f;
 
 	   		// 9 point IDCT on odd indices
 			// 5 points on odd indices (not realy an IDCT)
-	   		float i0 = in[0+1]+in[0+1];
-	   		float i0p12 = i0 + in[12+1];
+	   		float i0 = in[off+0+1]+in[off+0+1];
+	   		float i0p12 = i0 + in[off+12+1];
 
-	   		tmp0o = i0p12   + in[4+1]*1.8793852415718f  + in[8+1]*1.532088886238f       + in[16+1]*0.34729635533386f;
-	   		tmp1o = i0      + in[4+1]                   - in[8+1] - in[12+1] - in[12+1] - in[16+1];
-	   		tmp2o = i0p12   - in[4+1]*0.34729635533386f - in[8+1]*1.8793852415718f      + in[16+1]*1.532088886238f;
-	   		tmp3o = i0p12   - in[4+1]*1.532088886238f   + in[8+1]*0.34729635533386f     - in[16+1]*1.8793852415718f;
-	   		tmp4o = (in[0+1] - in[4+1]                   + in[8+1] - in[12+1]            + in[16+1])*0.707106781f; // Twiddled
+	   		tmp0o = i0p12   + in[off+4+1]*1.8793852415718f  + in[off+8+1]*1.532088886238f       + in[off+16+1]*0.34729635533386f;
+	   		tmp1o = i0      + in[off+4+1]                   - in[off+8+1] - in[off+12+1] - in[off+12+1] - in[off+16+1];
+	   		tmp2o = i0p12   - in[off+4+1]*0.34729635533386f - in[off+8+1]*1.8793852415718f      + in[off+16+1]*1.532088886238f;
+	   		tmp3o = i0p12   - in[off+4+1]*1.532088886238f   + in[off+8+1]*0.34729635533386f     - in[off+16+1]*1.8793852415718f;
+	   		tmp4o = (in[off+0+1] - in[off+4+1]                   + in[off+8+1] - in[off+12+1]            + in[off+16+1])*0.707106781f; // Twiddled
 
 			// 4 points on even indices
-	   		float i6_ = in[6+1]*1.732050808f;		// Sqrt[3]
+	   		float i6_ = in[off+6+1]*1.732050808f;		// Sqrt[3]
 
-	   		tmp0_o = in[2+1]*1.9696155060244f  + i6_ + in[10+1]*1.2855752193731f  + in[14+1]*0.68404028665134f;
-	   		tmp1_o = (in[2+1]                        - in[10+1]                   - in[14+1])*1.732050808f;
-	   		tmp2_o = in[2+1]*1.2855752193731f  - i6_ - in[10+1]*0.68404028665134f + in[14+1]*1.9696155060244f;
-	   		tmp3_o = in[2+1]*0.68404028665134f - i6_ + in[10+1]*1.9696155060244f  - in[14+1]*1.2855752193731f;
+	   		tmp0_o = in[off+2+1]*1.9696155060244f  + i6_ + in[off+10+1]*1.2855752193731f  + in[off+14+1]*0.68404028665134f;
+	   		tmp1_o = (in[off+2+1]                        - in[off+10+1]                   - in[off+14+1])*1.732050808f;
+	   		tmp2_o = in[off+2+1]*1.2855752193731f  - i6_ - in[off+10+1]*0.68404028665134f + in[off+14+1]*1.9696155060244f;
+	   		tmp3_o = in[off+2+1]*0.68404028665134f - i6_ + in[off+10+1]*1.9696155060244f  - in[off+14+1]*1.2855752193731f;
 
 	   		// Twiddle factors on odd indices
 	   		// and
@@ -1959,14 +1921,33 @@ final class LayerIIIDecoder implements FrameDecoder
 	};
 
 
+	/**
+	 * 2<sup>(g-210)/4</sup> for every global gain value g.
+	 */
+	private static final float global_gain_pow[] = create_global_gain_pow();
+
+	static private float[] create_global_gain_pow()
+	{
+		float[] pow = new float[256];
+		for (int i=0; i<pow.length; i++)
+		{
+			pow[i] = (float) Math.pow(2.0 , (0.25 * (i - 210.0)));
+		}
+		return pow;
+	}
+
+	/**
+	 * i<sup>4/3</sup> for every value that the Huffman decoder can produce:
+	 * up to 15 from the code table plus 13 linbits, or 8206.
+	 */
 	public static final float t_43[] = create_t_43();
 
 	static private float[] create_t_43()
 	{
-		float[] t43 = new float[8192];
+		float[] t43 = new float[15 + (1 << 13)];
 		final double d43 = (4.0/3.0);
 
-		for (int i=0; i<8192; i++)
+		for (int i=0; i<t43.length; i++)
 		{
 			t43[i] = (float)Math.pow(i, d43);
 		}
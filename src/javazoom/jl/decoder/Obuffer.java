@@ -60,6 +60,17 @@ public abstract class Obuffer
 	    }
 	}
 
+  /**
+   * Accepts the first count of an array of new PCM samples.
+   */
+	public void appendSamples(int channel, float[] f, int count)
+	{
+	    for (int i=0; i<count;)
+	    {
+			append(channel, clip(f[i++]));
+	    }
+	}
+
   /**
    * Clip Sample to 16 Bits
    */
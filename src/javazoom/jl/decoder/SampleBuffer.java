@@ -99,6 +99,24 @@ public class SampleBuffer extends Obuffer
 		
 		bufferp[channel] = pos;
 	}
+
+	public void appendSamples(int channel, float[] f, int count)
+	{
+	    int pos = bufferp[channel];
+		
+		float fs;
+	    for (int i=0; i<count;)
+	    {
+		  	fs = f[i++];
+			fs = (fs>32767.0f ? 32767.0f 
+						   : (fs < -32767.0f ? -32767.0f : fs));
+			
+			buffer[pos] = (short)fs;
+			pos += channels;
+	    }
+		
+		bufferp[channel] = pos;
+	}
   
   
   /**
@@ -47,21 +47,17 @@ final class SynthesisFilter
   private int				 channel;
   private float 			 scalefactor;
   private float[]			 eq;
+  private boolean			 cyclic_v;			// doubled rows, see insert_cyclic_v()
+  private float[]			 new_v;				// new V values for insert_cyclic_v()
 	
 	/**
-	 * Quality value for controlling CPU usage/quality tradeoff. 
+	 * Quality value for controlling CPU usage/quality tradeoff: the
+	 * output rate is divided by this, and only the lowest 32/quality
+	 * subbands are synthesized. One of the Decoder quality constants.
 	 */
-	/*
 	private int				quality;
-	
-	private int				v_inc;
-	
-	
-	
-	public static final int	HIGH_QUALITY = 1;
-	public static final int MEDIUM_QUALITY = 2;
-	public static final int LOW_QUALITY = 4;
-	*/
+
+	private int				subbands;			// 32 / quality
 	
   /**
    * Contructor.
@@ -69,20 +65,46 @@ final class SynthesisFilter
    * (raw pcm samples are in [-1.0, 1.0], if no violations occur).
    */
   public SynthesisFilter(int channelnumber, float factor, float[] eq0)
-  {  	 
+  {
+	 this(channelnumber, factor, eq0, false);
+  }
+
+  /**
+   * Contructor.
+   * If cyclic is true, the V buffers store each row twice so that the
+   * window can be applied by a single loop that reads each row's taps
+   * contiguously, rather than by one of 16 unrolled methods chosen by
+   * the write position. The output is the same either way.
+   */
+  public SynthesisFilter(int channelnumber, float factor, float[] eq0, boolean cyclic)
+  {
+	 this(channelnumber, factor, eq0, cyclic, Decoder.HIGH_QUALITY);
+  }
+
+  /**
+   * Contructor.
+   * A quality other than Decoder.HIGH_QUALITY always uses the cyclic
+   * layout, since the unrolled methods compute every output sample.
+   */
+  public SynthesisFilter(int channelnumber, float factor, float[] eq0, boolean cyclic, int quality0)
+  {
 	  if (d==null)
 	  {
 			d = load_d();
 			d16 = splitArray(d, 16);
 	  }
 	  
-	  v1 = new float[512];
-	 v2 = new float[512];
+	 setQuality(quality0);
+	 cyclic = cyclic || quality != Decoder.HIGH_QUALITY;
+	 cyclic_v = cyclic;
+	 v1 = new float[cyclic ? 1024 : 512];
+	 v2 = new float[cyclic ? 1024 : 512];
+	 if (cyclic)
+		 new_v = new float[32];
 	 samples = new float[32];
      channel = channelnumber;
 	 scalefactor = factor;
 	 setEQ(eq);	 
-	 //setQuality(HIGH_QUALITY);
 	 
      reset();
   }
@@ -103,15 +125,14 @@ final class SynthesisFilter
 	  
   }
   
-	/*
 	private void setQuality(int quality0)
 	{
 	  	switch (quality0)
 	  	{		
-		case HIGH_QUALITY:
-		case MEDIUM_QUALITY:
-		case LOW_QUALITY:						  
-			v_inc = 16 * quality0;			
+		case Decoder.HIGH_QUALITY:
+		case Decoder.MEDIUM_QUALITY:
+		case Decoder.LOW_QUALITY:
+			subbands = 32 / quality0;
 			quality = quality0;
 			break;	
 		default :
@@ -123,7 +144,6 @@ final class SynthesisFilter
 	{
 		return quality;	
 	}
-	*/
   
   /**
    * Reset the synthesis filter.
@@ -136,7 +156,7 @@ final class SynthesisFilter
      // initialize v1[] and v2[]:
      //for (floatp = v1 + 512, floatp2 = v2 + 512; floatp > v1; )
 	 //   *--floatp = *--floatp2 = 0.0;
-	 for (int p=0;p<512;p++) 
+	 for (int p=0;p<v1.length;p++) 
 		 v1[p] = v2[p] = 0.0f;
 
      // initialize samples[]:
@@ -155,12 +175,13 @@ final class SynthesisFilter
    */
   public void input_sample(float sample, int subbandnumber)
   {	 	 		  
-	  samples[subbandnumber] = eq[subbandnumber]*sample;
+	  if (subbandnumber < subbands)
+		  samples[subbandnumber] = eq[subbandnumber]*sample;
   }
 
   public void input_samples(float[] s)
   {
-	  for (int i=31; i>=0; i--)
+	  for (int i=subbands-1; i>=0; i--)
 	  {		
 		 samples[i] = s[i]*eq[i];
 	  }
@@ -445,6 +466,45 @@ final class SynthesisFilter
 	new_v30/*47-17*/ = (tmp1 = -p8 - p12 - p14 - p15) - p0;
 	new_v28/*45-17*/ = tmp1 - tmp2;
 
+	if (cyclic_v)
+	{
+		final float[] nv = new_v;
+		nv[0] = new_v0;
+		nv[1] = new_v1;
+		nv[2] = new_v2;
+		nv[3] = new_v3;
+		nv[4] = new_v4;
+		nv[5] = new_v5;
+		nv[6] = new_v6;
+		nv[7] = new_v7;
+		nv[8] = new_v8;
+		nv[9] = new_v9;
+		nv[10] = new_v10;
+		nv[11] = new_v11;
+		nv[12] = new_v12;
+		nv[13] = new_v13;
+		nv[14] = new_v14;
+		nv[15] = new_v15;
+		nv[16] = new_v16;
+		nv[17] = new_v17;
+		nv[18] = new_v18;
+		nv[19] = new_v19;
+		nv[20] = new_v20;
+		nv[21] = new_v21;
+		nv[22] = new_v22;
+		nv[23] = new_v23;
+		nv[24] = new_v24;
+		nv[25] = new_v25;
+		nv[26] = new_v26;
+		nv[27] = new_v27;
+		nv[28] = new_v28;
+		nv[29] = new_v29;
+		nv[30] = new_v30;
+		nv[31] = new_v31;
+		insert_cyclic_v();
+		return;
+	}
+
 	// insert V[0-15] (== new_v[0-15]) into actual v:	
 	// float[] x2 = actual_v + actual_write_pos;
 	float dest[] = actual_v;
@@ -1540,6 +1600,73 @@ private void compute_pcm_samples(Obuffer buffer)
 */	 
   }
 
+  /**
+   * Inserts the values computed by compute_new_v() into the cyclic V
+   * buffers. These have the same layout as the standard ones, except that
+   * each row of 16 values is 32 wide and every value is stored at both
+   * pos and pos+16. Whatever the write position, the 16 taps that the
+   * window reads from a row are then next to each other.
+   */
+  private void insert_cyclic_v()
+  {
+	final float[] nv = new_v;
+	final float[] dest = actual_v;
+	final float[] other = (actual_v==v1) ? v2 : v1;
+	final int pos = actual_write_pos;
+
+	// insert V[0-15] (== new_v[0-15]), V[16] (== 0.0) and
+	// V[17-31] (== -new_v[15-1]) into actual v:
+	for (int i=0, p=pos; i<16; i++, p+=32)
+		dest[p] = dest[p+16] = nv[i];
+	dest[512 + pos] = dest[528 + pos] = 0.0f;
+	for (int i=15, p=544+pos; i>0; i--, p+=32)
+		dest[p] = dest[p+16] = -nv[i];
+
+	// insert V[32] (== -new_v[0]), V[33-48] (== new_v[16-31]) and
+	// V[49-63] (== new_v[30-16]) into other v:
+	other[pos] = other[16 + pos] = -nv[0];
+	for (int i=16, p=32+pos; i<32; i++, p+=32)
+		other[p] = other[p+16] = nv[i];
+	for (int i=30, p=544+pos; i>=16; i--, p+=32)
+		other[p] = other[p+16] = nv[i];
+  }
+
+  /**
+   * Applies the window to the cyclic V buffer. Tap k of row i is at
+   * (actual_write_pos - k) &amp; 15 in the standard layout, which is
+   * actual_write_pos + 16 - k in a doubled row, so one loop serves every
+   * write position. The taps are summed in the same order as
+   * compute_pcm_samples0() to compute_pcm_samples15().
+   * <p>
+   * At a reduced quality only every quality-th sample is computed. The
+   * subbands that are not synthesized act as the low-pass filter for
+   * this decimation, so there is little aliasing.
+   */
+  private void compute_pcm_samples_cyclic(Obuffer buffer)
+  {
+	final float[] vp = actual_v;
+	final float[] tmpOut = _tmpOut;
+	final int step = quality;
+
+	int n = 0;
+	for (int i=0, top=actual_write_pos+16; i<32; i+=step, top+=32*step)
+	{
+		final float[] dp = d16[i];
+		float pcm_sample = vp[top] * dp[0];
+		for (int k=1; k<16; k++)
+			pcm_sample += vp[top - k] * dp[k];
+		tmpOut[n++] = pcm_sample * scalefactor;
+	}
+
+	if (buffer!=null)
+	{
+		if (n == 32)
+			buffer.appendSamples(channel, tmpOut);
+		else
+			buffer.appendSamples(channel, tmpOut, n);
+	}
+  }
+
   /**
    * Calculate 32 PCM samples and put the into the Obuffer-object.
    */
@@ -1547,7 +1674,10 @@ private void compute_pcm_samples(Obuffer buffer)
   public void calculate_pcm_samples(Obuffer buffer)
   {
 	compute_new_v();	
-	compute_pcm_samples(buffer);
+	if (cyclic_v)
+		compute_pcm_samples_cyclic(buffer);
+	else
+		compute_pcm_samples(buffer);
     
 	actual_write_pos = (actual_write_pos + 1) & 0xf;
 	actual_v = (actual_v == v1) ? v2 : v1;
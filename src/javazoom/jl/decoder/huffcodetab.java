@@ -417,8 +417,21 @@ final class huffcodetab
 
   public static huffcodetab[]  ht = null;     /* Simulate extern struct                 */
 
-  private static int[] bitbuf = new int[32];
-  
+  /**
+   * Number of bits resolved by the first level of each lookup table.
+   * Codes that are longer than this continue in an overflow subtable.
+   */
+  private static final int	 LUT_BITS = 8;
+
+  /**
+   * Lookup table generated from the decoder tree. Each entry is either a
+   * leaf, <code>(length &lt;&lt; 8) | value</code>, where length is the
+   * number of bits consumed at that level, or a (negative) link to a
+   * subtable, <code>0x80000000 | (bits &lt;&lt; 24) | offset</code>.
+   */
+  private int[]				 lut;
+  private int				 lutbits;
+
   /**
    * Big Constructor : Computes all Huffman Tables.
    */
@@ -442,159 +455,178 @@ final class huffcodetab
   
   
   /**
-   * Do the huffman-decoding.
-   * note! for counta,countb -the 4 bit value is returned in y,
-   * discard x.
+   * Decodes one pair of big values using table <code>h</code>. The decoded
+   * (signed) values are packed into the result, with x in the upper 16 bits
+   * and y in the lower 16 bits.
+   */
+  public static int huffman_decode_pair(huffcodetab h, BitReserve br)
+  {
+	/* table 0 needs no bits */
+	if (h.lut == null) return 0;
+
+	int v = lookup(h, br);
+	int x = v >>> 4;
+	int y = v & 0xf;
+
+	// Process sign and escape encodings for dual tables.
+	if (h.linbits != 0 && x == h.xlen-1)
+		x += br.hgetbits(h.linbits);
+	if (x != 0 && br.hget1bit() != 0) x = -x;
+	if (h.linbits != 0 && y == h.ylen-1)
+		y += br.hgetbits(h.linbits);
+	if (y != 0 && br.hget1bit() != 0) y = -y;
+
+	return (x << 16) | (y & 0xffff);
+  }
+
+  /**
+   * Decodes one quadruple from count1 table <code>h</code> (table 32 or 33).
+   * Bits 3..0 of the result are set if v, w, x, y (respectively) are
+   * non-zero, and bits 7..4 are set if the matching value is negative.
+   */
+  public static int huffman_decode_quad(huffcodetab h, BitReserve br)
+  {
+	int q = lookup(h, br) & 0xf;
+
+	/* v, w, x and y are reversed in the bitstream. */
+	if ((q & 8) != 0 && br.hget1bit() != 0) q |= 0x80;
+	if ((q & 4) != 0 && br.hget1bit() != 0) q |= 0x40;
+	if ((q & 2) != 0 && br.hget1bit() != 0) q |= 0x20;
+	if ((q & 1) != 0 && br.hget1bit() != 0) q |= 0x10;
+	return q;
+  }
+
+  /**
+   * Reads one Huffman code from the reserve and returns its value.
+   */
+  private static int lookup(huffcodetab h, BitReserve br)
+  {
+	int[] lut = h.lut;
+	int bits = h.lutbits;
+	int e = lut[br.peekbits(bits)];
+	while (e < 0)
+	{
+		br.skipbits(bits);
+		bits = (e >>> 24) & 0x7f;
+		e = lut[(e & 0xffffff) + br.peekbits(bits)];
+	}
+	br.skipbits(e >>> 8);
+	return e & 0xff;
+  }
+
+  /**
+   * Follows one branch of the decoder tree.
+   */
+  private static int branch(int[][] val, int point, int bit)
+  {
+	while (val[point][bit] >= MXOFF) point += val[point][bit];
+	return point + val[point][bit];
+  }
+
+  /**
+   * Returns the depth of the deepest leaf below a node of the decoder tree.
    */
-  public static int huffman_decoder(huffcodetab h, int[] x, int[] y, int[] v, int[] w, BitReserve br)
+  private static int depth(int[][] val, int point)
   {
-	// array of all huffcodtable headers
-	// 0..31 Huffman code table 0..31
-	// 32,33 count1-tables
-
-	int dmask = 1 << ((4 * 8) - 1);
-	int hs    = 4 * 8;
-  	int level;
-  	int point = 0;
-  	int error = 1;
-  	level = dmask;
-
-  	if (h.val == null) return 2;
-
-     /* table 0 needs no bits */
-     if ( h.treelen == 0)
-	 { 
-	   x[0] = y[0] = 0;
-	   return 0;
-     }
-
-     /* Lookup in Huffman table. */
-
-	 /*int bitsAvailable = 0;	 
-	 int bitIndex = 0;
-	 
-	 int bits[] = bitbuf;*/
-   	 do 
-	 {
-	    if (h.val[point][0]==0)
-		{   /*end of tree*/
-		   x[0] = h.val[point][1] >>> 4;
-		   y[0] = h.val[point][1] & 0xf;
-		   error = 0;
-		   break;
- 	    }
-	    
-		// hget1bit() is called thousands of times, and so needs to be
-		// ultra fast. 
-		/*
-		if (bitIndex==bitsAvailable)
+	if (val[point][0] == 0) return 0;
+	return 1 + Math.max(depth(val, branch(val, point, 0)), depth(val, branch(val, point, 1)));
+  }
+
+  /**
+   * Fills in the lookup table entries for the subtree rooted at
+   * <code>point</code>, appending any overflow subtables to the end of the
+   * table. Returns the new table length.
+   */
+  private static int build(int[][] val, int point, int bits, int[] lut, int offset, int end)
+  {
+	for (int i = 0; i < (1 << bits); i++)
+	{
+		int p = point;
+		int len = 0;
+		while (len < bits && val[p][0] != 0)
 		{
-			bitsAvailable = br.readBits(bits, 32);			
-			bitIndex = 0;
+			p = branch(val, p, (i >>> (bits - 1 - len)) & 1);
+			len++;
 		}
-		*/
-		//if (bits[bitIndex++]!=0)
-		if (br.hget1bit()!=0)
+		if (val[p][0] == 0)
 		{
-		   while (h.val[point][1] >= MXOFF) point += h.val[point][1];
-		   point += h.val[point][1];
-	    }
-	    else
+			lut[offset + i] = (len << 8) | val[p][1];
+		}
+		else
 		{
-		   while (h.val[point][0] >= MXOFF) point += h.val[point][0];
-		   point += h.val[point][0];
-	    }
-	    level >>>= 1;
-		// MDM: ht[0] is always 0;
-	 } while ((level !=0 )  || (point < 0 /*ht[0].treelen*/) );
-		
-		// put back any bits not consumed
-	/*	
-	 int unread = (bitsAvailable-bitIndex);
-		if (unread>0)
-			br.rewindNbits(unread);
-	 */
-  	  /* Process sign encodings for quadruples tables. */
-      // System.out.println(h.tablename);
-  	  if (h.tablename0 == '3' && (h.tablename1 == '2' || h.tablename1 == '3'))
-	  {
-	  	v[0] = (y[0]>>3) & 1;
-	  	w[0] = (y[0]>>2) & 1;
-	  	x[0] = (y[0]>>1) & 1;
-	  	y[0] = y[0] & 1;
-
-	    /* v, w, x and y are reversed in the bitstream.
-		  switch them around to make test bistream work. */
-
-	  	if (v[0]!=0)
-  		  if (br.hget1bit() != 0) v[0] = -v[0];
-	  	if (w[0]!=0)
-		  if (br.hget1bit() != 0) w[0] = -w[0];
-	  	if (x[0]!=0)
-		  if (br.hget1bit() != 0) x[0] = -x[0];
-	  	if (y[0]!=0)
-		  if (br.hget1bit() != 0) y[0] = -y[0];
-       }
-	   else
-	   {
-		  // Process sign and escape encodings for dual tables.
-		  // x and y are reversed in the test bitstream.
-		  // Reverse x and y here to make test bitstream work.
-
-	      if (h.linbits != 0)
-		   if ((h.xlen-1) == x[0])
-			x[0] += br.hgetbits(h.linbits);
-	  	  if (x[0] != 0)
-			  if (br.hget1bit() != 0) x[0] = -x[0];
-	  	  if (h.linbits != 0)
-			 if ((h.ylen-1) == y[0])
-				y[0] += br.hgetbits(h.linbits);
-	  	  if (y[0] != 0)
-			  if (br.hget1bit() != 0) y[0] = -y[0];
-	   }
-  	   return error;
+			int subbits = Math.min(depth(val, p), LUT_BITS);
+			lut[offset + i] = 0x80000000 | (subbits << 24) | end;
+			end = build(val, p, subbits, lut, end, end + (1 << subbits));
+		}
+	}
+	return end;
+  }
+
+  private void createLookupTable()
+  {
+	if (treelen == 0) return;
+	lutbits = Math.min(depth(val, 0), LUT_BITS);
+	int[] t = new int[1 << 16];
+	int length = build(val, 0, lutbits, t, 0, 1 << lutbits);
+	lut = new int[length];
+	System.arraycopy(t, 0, lut, 0, length);
   }
 
-  public static void inithuff()
+  public static synchronized void inithuff()
   {
 	
 	if (ht!=null)
 		return;
 	
-	ht = new huffcodetab[HTN];
-    ht[0] = new huffcodetab("0  ",0,0,0,0,-1,null,null,ValTab0,0);
-    ht[1] = new huffcodetab("1  ",2,2,0,0,-1,null,null,ValTab1,7);
-    ht[2] = new huffcodetab("2  ",3,3,0,0,-1,null,null,ValTab2,17);
-    ht[3] = new huffcodetab("3  ",3,3,0,0,-1,null,null,ValTab3,17);
-    ht[4] = new huffcodetab("4  ",0,0,0,0,-1,null,null,ValTab4,0);    
-    ht[5] = new huffcodetab("5  ",4,4,0,0,-1,null,null,ValTab5,31);
-    ht[6] = new huffcodetab("6  ",4,4,0,0,-1,null,null,ValTab6,31);
-    ht[7] = new huffcodetab("7  ",6,6,0,0,-1,null,null,ValTab7,71);
-    ht[8] = new huffcodetab("8  ",6,6,0,0,-1,null,null,ValTab8,71);
-    ht[9] = new huffcodetab("9  ",6,6,0,0,-1,null,null,ValTab9,71);
-    ht[10] = new huffcodetab("10 ",8,8,0,0,-1,null,null,ValTab10,127);  
-    ht[11] = new huffcodetab("11 ",8,8,0,0,-1,null,null,ValTab11,127);
-    ht[12] = new huffcodetab("12 ",8,8,0,0,-1,null,null,ValTab12,127);
-    ht[13] = new huffcodetab("13 ",16,16,0,0,-1,null,null,ValTab13,511);
-    ht[14] = new huffcodetab("14 ",0,0,0,0,-1,null,null,ValTab14,0);
-    ht[15] = new huffcodetab("15 ",16,16,0,0,-1,null,null,ValTab15,511);
-    ht[16] = new huffcodetab("16 ",16,16,1,1,-1,null,null,ValTab16,511);
-    ht[17] = new huffcodetab("17 ",16,16,2,3,16,null,null,ValTab16,511);
-    ht[18] = new huffcodetab("18 ",16,16,3,7,16,null,null,ValTab16,511);
-    ht[19] = new huffcodetab("19 ",16,16,4,15,16,null,null,ValTab16,511);
-    ht[20] = new huffcodetab("20 ",16,16,6,63,16,null,null,ValTab16,511);
-    ht[21] = new huffcodetab("21 ",16,16,8,255,16,null,null,ValTab16,511);
-    ht[22] = new huffcodetab("22 ",16,16,10,1023,16,null,null,ValTab16,511);
-    ht[23] = new huffcodetab("23 ",16,16,13,8191,16,null,null,ValTab16,511);
-    ht[24] = new huffcodetab("24 ",16,16,4,15,-1,null,null,ValTab24,512);
-    ht[25] = new huffcodetab("25 ",16,16,5,31,24,null,null,ValTab24,512);
-    ht[26] = new huffcodetab("26 ",16,16,6,63,24,null,null,ValTab24,512);
-    ht[27] = new huffcodetab("27 ",16,16,7,127,24,null,null,ValTab24,512);
-	ht[28] = new huffcodetab("28 ",16,16,8,255,24,null,null,ValTab24,512);  
-    ht[29] = new huffcodetab("29 ",16,16,9,511,24,null,null,ValTab24,512);
-    ht[30] = new huffcodetab("30 ",16,16,11,2047,24,null,null,ValTab24,512);
-    ht[31] = new huffcodetab("31 ",16,16,13,8191,24,null,null,ValTab24,512);
-    ht[32] = new huffcodetab("32 ",1,16,0,0,-1,null,null,ValTab32,31);
-    ht[33] = new huffcodetab("33 ",1,16,0,0,-1,null,null,ValTab33,31);
+	huffcodetab[] t = new huffcodetab[HTN];
+    t[0] = new huffcodetab("0  ",0,0,0,0,-1,null,null,ValTab0,0);
+    t[1] = new huffcodetab("1  ",2,2,0,0,-1,null,null,ValTab1,7);
+    t[2] = new huffcodetab("2  ",3,3,0,0,-1,null,null,ValTab2,17);
+    t[3] = new huffcodetab("3  ",3,3,0,0,-1,null,null,ValTab3,17);
+    t[4] = new huffcodetab("4  ",0,0,0,0,-1,null,null,ValTab4,0);    
+    t[5] = new huffcodetab("5  ",4,4,0,0,-1,null,null,ValTab5,31);
+    t[6] = new huffcodetab("6  ",4,4,0,0,-1,null,null,ValTab6,31);
+    t[7] = new huffcodetab("7  ",6,6,0,0,-1,null,null,ValTab7,71);
+    t[8] = new huffcodetab("8  ",6,6,0,0,-1,null,null,ValTab8,71);
+    t[9] = new huffcodetab("9  ",6,6,0,0,-1,null,null,ValTab9,71);
+    t[10] = new huffcodetab("10 ",8,8,0,0,-1,null,null,ValTab10,127);  
+    t[11] = new huffcodetab("11 ",8,8,0,0,-1,null,null,ValTab11,127);
+    t[12] = new huffcodetab("12 ",8,8,0,0,-1,null,null,ValTab12,127);
+    t[13] = new huffcodetab("13 ",16,16,0,0,-1,null,null,ValTab13,511);
+    t[14] = new huffcodetab("14 ",0,0,0,0,-1,null,null,ValTab14,0);
+    t[15] = new huffcodetab("15 ",16,16,0,0,-1,null,null,ValTab15,511);
+    t[16] = new huffcodetab("16 ",16,16,1,1,-1,null,null,ValTab16,511);
+    t[17] = new huffcodetab("17 ",16,16,2,3,16,null,null,ValTab16,511);
+    t[18] = new huffcodetab("18 ",16,16,3,7,16,null,null,ValTab16,511);
+    t[19] = new huffcodetab("19 ",16,16,4,15,16,null,null,ValTab16,511);
+    t[20] = new huffcodetab("20 ",16,16,6,63,16,null,null,ValTab16,511);
+    t[21] = new huffcodetab("21 ",16,16,8,255,16,null,null,ValTab16,511);
+    t[22] = new huffcodetab("22 ",16,16,10,1023,16,null,null,ValTab16,511);
+    t[23] = new huffcodetab("23 ",16,16,13,8191,16,null,null,ValTab16,511);
+    t[24] = new huffcodetab("24 ",16,16,4,15,-1,null,null,ValTab24,512);
+    t[25] = new huffcodetab("25 ",16,16,5,31,24,null,null,ValTab24,512);
+    t[26] = new huffcodetab("26 ",16,16,6,63,24,null,null,ValTab24,512);
+    t[27] = new huffcodetab("27 ",16,16,7,127,24,null,null,ValTab24,512);
+    t[28] = new huffcodetab("28 ",16,16,8,255,24,null,null,ValTab24,512);
+    t[29] = new huffcodetab("29 ",16,16,9,511,24,null,null,ValTab24,512);
+    t[30] = new huffcodetab("30 ",16,16,11,2047,24,null,null,ValTab24,512);
+    t[31] = new huffcodetab("31 ",16,16,13,8191,24,null,null,ValTab24,512);
+    t[32] = new huffcodetab("32 ",1,16,0,0,-1,null,null,ValTab32,31);
+    t[33] = new huffcodetab("33 ",1,16,0,0,-1,null,null,ValTab33,31);
+
+	for (int i = 0; i < HTN; i++)
+	{
+		// tables 17-23 and 25-31 share a tree with the preceding table
+		if (i > 0 && t[i].val == t[i-1].val)
+		{
+			t[i].lut = t[i-1].lut;
+			t[i].lutbits = t[i-1].lutbits;
+		}
+		else
+		{
+			t[i].createLookupTable();
+		}
+	}
+	ht = t;
   }
 }
@@ -127,6 +127,28 @@ public final class MP3AudioHeader implements AudioHeader
          }
     }
 
+    /**
+     * Search for the first MP3Header in an open file channel
+     *
+     * Works like {@link #MP3AudioHeader(File,long)}, but reads from a channel that the caller
+     * has already opened. If the caller has already read the start of the file, it can pass those
+     * bytes as the prefix and they will be used instead of reading them from the channel again.
+     *
+     * @param fc the channel to read from; it is not closed
+     * @param prefix the bytes from the start of the file that are already available, or null
+     * @param fileSize the length of the file
+     * @param startByte
+     * @throws IOException
+     * @throws InvalidAudioFrameException
+     */
+    public MP3AudioHeader(final FileChannel fc,final ByteBuffer prefix,final long fileSize,long startByte)throws IOException,InvalidAudioFrameException
+    {
+         if(seek(fc, prefix, fileSize, startByte)==false)
+         {
+             throw new InvalidAudioFrameException("No audio header found");
+         }
+    }
+
     /**
      * Returns true if the first MP3 frame can be found for the MP3 file
      *
@@ -141,23 +163,43 @@ public final class MP3AudioHeader implements AudioHeader
     public boolean seek(final File seekFile, long startByte)
         throws IOException
     {
-        //This is substantially faster than updating the filechannels position
-        long filePointerCount;
-
         final FileInputStream     fis = new FileInputStream(seekFile);
         final FileChannel fc = fis.getChannel();
+        try
+        {
+            return seek(fc, null, seekFile.length(), startByte);
+        }
+        finally
+        {
+            fc.close();
+            fis.close();
+        }
+    }
+
+    /**
+     * Returns true if the first MP3 frame can be found in the channel
+     *
+     * @param fc channel to read from
+     * @param prefix bytes from the start of the file that have already been read, or null
+     * @param fileSize the length of the file
+     * @param startByte if there is an ID3v2tag we dont want to start reading from the start of the tag
+     * @return true if the first MP3 frame can be found
+     * @throws IOException on any I/O error
+     */
+    private boolean seek(final FileChannel fc, final ByteBuffer prefix, final long fileSize, long startByte)
+        throws IOException
+    {
+        //This is substantially faster than updating the filechannels position
+        long filePointerCount;
 
         //Read into Byte Buffer in Chunks
         ByteBuffer  bb = ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
 
-        //Move FileChannel to the starting position (skipping over tag if any)
-        fc.position(startByte);
-
         //Update filePointerCount
         filePointerCount=startByte;
 
-        //Read from here into the byte buffer , doesnt move location of filepointer
-        fc.read(bb,startByte);
+        //Read from here into the byte buffer
+        read(fc,prefix,bb,startByte);
         bb.flip();
 
         boolean syncFound  = false;
@@ -168,8 +210,7 @@ public final class MP3AudioHeader implements AudioHeader
                 if(bb.remaining()<=MIN_BUFFER_REMAINING_REQUIRED)
                 {
                     bb.clear();
-                    fc.position(filePointerCount);
-                    fc.read(bb,fc.position());
+                    read(fc,prefix,bb,filePointerCount);
                     bb.flip();
                     if(bb.limit()<=MIN_BUFFER_REMAINING_REQUIRED)
                     {
@@ -217,7 +258,7 @@ public final class MP3AudioHeader implements AudioHeader
                         // has been encoded with as Unicode LE because these have a BOM of 0xFF 0xFE
                         else
                         {
-                            syncFound=isNextFrameValid(seekFile,filePointerCount,bb,fc);
+                            syncFound=isNextFrameValid(filePointerCount,bb,fc,prefix);
                             if(syncFound==true)
                             {
                                 break;
@@ -247,25 +288,13 @@ public final class MP3AudioHeader implements AudioHeader
             syncFound = false;
             throw iox;
         }
-        finally
-        {
-            if (fc != null)
-            {
-                fc.close();
-            }
-
-            if (fis != null)
-            {
-                fis.close();
-            }
-        }
 
         //Return to start of audio header
         if(MP3AudioHeader.logger.isLoggable(Level.FINEST))
         {
             MP3AudioHeader.logger.finer("Return found matching mp3 header starting at" + filePointerCount);
         }
-        setFileSize(seekFile.length());
+        setFileSize(fileSize);
         setMp3StartByte(filePointerCount);
         setTimePerFrame();
         setNumberOfFrames();
@@ -279,12 +308,12 @@ public final class MP3AudioHeader implements AudioHeader
      *
      * @return  true if frame is valid
      */
-    private boolean isNextFrameValid(File seekFile,long filePointerCount,ByteBuffer  bb,FileChannel fc)
+    private boolean isNextFrameValid(long filePointerCount,ByteBuffer  bb,FileChannel fc,ByteBuffer prefix)
     throws IOException
     {
         if(MP3AudioHeader.logger.isLoggable(Level.FINEST))
         {
-             MP3AudioHeader.logger.finer("Checking next frame"+seekFile.getName()+ ":fpc:"
+             MP3AudioHeader.logger.finer("Checking next frame"+ ":fpc:"
                  +filePointerCount+"skipping to:"+ (filePointerCount + mp3FrameHeader.getFrameLength()));
         }
         boolean result=false;
@@ -305,8 +334,7 @@ public final class MP3AudioHeader implements AudioHeader
         {
             MP3AudioHeader.logger.finer("Buffer too small, need to reload, buffer size:"+bb.remaining());
             bb.clear();
-            fc.position(filePointerCount);
-            fc.read(bb,fc.position());
+            read(fc,prefix,bb,filePointerCount);
             bb.flip();
             //So now original buffer has been replaced, so set current position to start of buffer
             currentPosition = 0;
@@ -339,6 +367,43 @@ public final class MP3AudioHeader implements AudioHeader
         return result;
     }
 
+    /**
+     * Reads from the file at the given position into the buffer, taking bytes from the prefix
+     * (if any) where possible and only reading the rest from the channel.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    private static int read(FileChannel fc,ByteBuffer prefix,ByteBuffer dst,long position)
+    throws IOException
+    {
+        int count = 0;
+        if(prefix!=null && position<prefix.limit())
+        {
+            ByteBuffer src = prefix.duplicate();
+            src.position((int)position);
+            if(src.remaining()>dst.remaining())
+            {
+                src.limit(src.position()+dst.remaining());
+            }
+            count = src.remaining();
+            dst.put(src);
+            position += count;
+        }
+        if(dst.hasRemaining() && fc!=null)
+        {
+            int n = fc.read(dst,position);
+            if(n>0)
+            {
+                count += n;
+            }
+            else if(count==0)
+            {
+                return n;
+            }
+        }
+        return count;
+    }
+
     /**
      * Set the location of where the Audio file begins in the file
      *
@@ -43,6 +43,11 @@ public class MP3File extends AudioFile
 {
     protected static AbstractTagDisplayFormatter tagFormatter;
 
+    /**
+     * The size of an ID3v1 tag, which is found in the last bytes of the file.
+     */
+    private static final int ID3V1_TAG_LENGTH = 128;
+
     /**
      * the ID3v2 tag that this file contains.
      */
@@ -191,47 +196,60 @@ public class MP3File extends AudioFile
             }
 
             bb.rewind();
+            readV2Tag(bb, file.getName(), loadOptions);
+        }
+        else
+        {
+            logger.info("Not enough room for valid id3v2 tag:" + startByte);
+        }
+    }
 
-            if ((loadOptions & LOAD_IDV2TAG) != 0)
+    /**
+     * Read V2tag from a buffer that holds the start of the file up to the start of the audio
+     *
+     * @param bb
+     * @param filename used for logging
+     * @param loadOptions
+     * @throws IOException
+     * @throws TagException
+     */
+    private void readV2Tag(ByteBuffer bb, String filename, int loadOptions) throws IOException, TagException
+    {
+        if ((loadOptions & LOAD_IDV2TAG) != 0)
+        {
+            logger.info("Attempting to read id3v2tags");
+            try
             {
-                logger.info("Attempting to read id3v2tags");
-                try
-                {
-                    this.setID3v2Tag(new ID3v24Tag(bb, file.getName()));
-                }
-                catch (TagNotFoundException ex)
-                {
-                    logger.info("No id3v24 tag found");
-                }
+                this.setID3v2Tag(new ID3v24Tag(bb, filename));
+            }
+            catch (TagNotFoundException ex)
+            {
+                logger.info("No id3v24 tag found");
+            }
 
-                try
-                {
-                    if (id3v2tag == null)
-                    {
-                        this.setID3v2Tag(new ID3v23Tag(bb, file.getName()));
-                    }
-                }
-                catch (TagNotFoundException ex)
+            try
+            {
+                if (id3v2tag == null)
                 {
-                    logger.info("No id3v23 tag found");
+                    this.setID3v2Tag(new ID3v23Tag(bb, filename));
                 }
+            }
+            catch (TagNotFoundException ex)
+            {
+                logger.info("No id3v23 tag found");
+            }
 
-                try
-                {
-                    if (id3v2tag == null)
-                    {
-                        this.setID3v2Tag(new ID3v22Tag(bb, file.getName()));
-                    }
-                }
-                catch (TagNotFoundException ex)
+            try
+            {
+                if (id3v2tag == null)
                 {
-                    logger.info("No id3v22 tag found");
+                    this.setID3v2Tag(new ID3v22Tag(bb, filename));
                 }
             }
-        }
-        else
-        {
-            logger.info("Not enough room for valid id3v2 tag:" + startByte);
+            catch (TagNotFoundException ex)
+            {
+                logger.info("No id3v22 tag found");
+            }
         }
     }
 
@@ -368,6 +386,118 @@ public class MP3File extends AudioFile
         }
     }
 
+    /**
+     * Creates a new MP3File datatype and parses the tags from a file channel that the
+     * caller has already opened. The channel is only read from, and the resulting
+     * datatype is not associated with a file, so it cannot be used to save changes.
+     * If the caller has already read the start of the file (including any ID3v2 tag), it
+     * can pass those bytes as the prefix to avoid reading them again.
+     *
+     * @param fc          the channel to read from; it is not closed
+     * @param prefix      bytes from the start of the file that are already available, or null
+     * @param fileSize    the length of the file
+     * @param filename    the name of the file, used for logging
+     * @param loadOptions decide what tags to load
+     * @throws IOException  on any I/O error
+     * @throws TagException on any exception generated by this library.
+     */
+    public MP3File(FileChannel fc, ByteBuffer prefix, long fileSize, String filename, int loadOptions) throws IOException, TagException, InvalidAudioFrameException
+    {
+        //Read ID3v2 tag size (if tag exists) to allow audioheader parsing to skip over tag
+        ByteBuffer bb = ByteBuffer.allocate(AbstractID3v2Tag.TAG_HEADER_LENGTH);
+        readFully(fc, prefix, bb, 0);
+        bb.flip();
+        long startByte = AbstractID3v2Tag.getV2TagSizeIfExists(bb);
+
+        //If exception reading Mpeg then we should give up no point continuing
+        audioHeader = new MP3AudioHeader(fc, prefix, fileSize, startByte);
+
+        if(startByte!=((MP3AudioHeader)audioHeader).getMp3StartByte())
+        {
+            logger.warning(filename+"ID3Tag ends at:"+startByte
+                +":but mp3audio doesnt start until:"+((MP3AudioHeader)audioHeader).getMp3StartByte());
+            audioHeader = new MP3AudioHeader(fc, prefix, fileSize, 0);
+        }
+
+        //Read v1 tags (if any)
+        if ((loadOptions & LOAD_IDV1TAG) != 0 && fileSize >= ID3V1_TAG_LENGTH)
+        {
+            bb = ByteBuffer.allocate(ID3V1_TAG_LENGTH);
+            readFully(fc, prefix, bb, fileSize - ID3V1_TAG_LENGTH);
+            bb.flip();
+            if (bb.limit() == ID3V1_TAG_LENGTH)
+            {
+                try
+                {
+                    id3v1tag = new ID3v11Tag(bb.duplicate(), filename);
+                }
+                catch (TagNotFoundException ex)
+                {
+                    logger.info("No ids3v11 tag found");
+                }
+
+                try
+                {
+                    if (id3v1tag == null)
+                    {
+                        id3v1tag = new ID3v1Tag(bb.duplicate(), filename);
+                    }
+                }
+                catch (TagNotFoundException ex)
+                {
+                    logger.info("No id3v1 tag found");
+                }
+            }
+        }
+
+        //Read v2 tags (if any)
+        int audioStart = (int) ((MP3AudioHeader) audioHeader).getMp3StartByte();
+        if (audioStart >= AbstractID3v2Tag.TAG_HEADER_LENGTH)
+        {
+            bb = ByteBuffer.allocate(audioStart);
+            readFully(fc, prefix, bb, 0);
+            bb.rewind();
+            readV2Tag(bb, filename, loadOptions);
+        }
+
+        if(this.getID3v2Tag()!=null)
+        {
+            tag = this.getID3v2Tag();
+        }
+        else if(id3v1tag!=null)
+        {
+            tag=id3v1tag;
+        }
+    }
+
+    /**
+     * Fills a buffer with the bytes at the given file position, taking them from
+     * the prefix where possible.
+     */
+    private static void readFully(FileChannel fc, ByteBuffer prefix, ByteBuffer dst, long position) throws IOException
+    {
+        if (prefix != null && position < prefix.limit())
+        {
+            ByteBuffer src = prefix.duplicate();
+            src.position((int) position);
+            if (src.remaining() > dst.remaining())
+            {
+                src.limit(src.position() + dst.remaining());
+            }
+            position += src.remaining();
+            dst.put(src);
+        }
+        while (dst.hasRemaining())
+        {
+            int n = fc.read(dst, position);
+            if (n < 0)
+            {
+                break;
+            }
+            position += n;
+        }
+    }
+
     /**
      * Used by tags when writing to calculate the location of the music file
      *
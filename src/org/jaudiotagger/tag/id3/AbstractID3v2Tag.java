@@ -805,6 +805,22 @@ public abstract class AbstractID3v2Tag extends AbstractID3Tag implements Tag
                 fis.close();
             }
         }
+        return getV2TagSizeIfExists(bb);
+    }
+
+    /**
+     * Checks to see if a buffer that holds the start of a file begins with an ID3tag and if so
+     * return the size of the tag (including header), if no such tag exists return zero.
+     *
+     * @param bb buffer positioned at the start of the file; the position is advanced past the header
+     * @return the end of the tag in the file or zero if no tag exists.
+     */
+    public static long getV2TagSizeIfExists(ByteBuffer bb)
+    {
+        if (bb.remaining() < (TAG_HEADER_LENGTH))
+        {
+            return 0;
+        }
 
         //ID3 identifier
         byte[] tagIdentifier = new byte[FIELD_TAGID_LENGTH];
@@ -220,6 +220,21 @@ public class ID3v11Tag
         }
     }
 
+    /**
+     * Creates a new ID3v1_1 datatype from a buffer that holds the last
+     * 128 bytes of a file.
+     *
+     * @param byteBuffer
+     * @param loggingFilename
+     * @throws TagNotFoundException
+     */
+    public ID3v11Tag(ByteBuffer byteBuffer, String loggingFilename)
+            throws TagNotFoundException
+    {
+        setLoggingFilename(loggingFilename);
+        read(byteBuffer);
+    }
+
     /**
      * Creates a new ID3v1_1 datatype.
      *
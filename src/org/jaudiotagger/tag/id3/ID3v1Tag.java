@@ -172,6 +172,21 @@ public class ID3v1Tag extends AbstractID3v1Tag implements Tag
         }
     }
 
+    /**
+     * Creates a new ID3v1 datatype from a buffer that holds the last
+     * 128 bytes of a file.
+     *
+     * @param byteBuffer
+     * @param loggingFilename
+     * @throws TagNotFoundException
+     */
+    public ID3v1Tag(ByteBuffer byteBuffer, String loggingFilename)
+            throws TagNotFoundException
+    {
+        setLoggingFilename(loggingFilename);
+        read(byteBuffer);
+    }
+
     /**
      * Creates a new ID3v1 datatype.
      *